@@ -0,0 +1,52 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.health;
+
+import com.codahale.metrics.health.HealthCheck;
+
+/**
+ * Tells whether the collections have been loaded at startup, i.e. whether the server is ready to serve requests
+ * at their usual speed. Unlike the other health checks, it is not about the server being alive.
+ */
+public class CollectionsReadinessCheck extends HealthCheck {
+
+    private volatile boolean ready = false;
+    private volatile int collections = 0;
+    private volatile String error = null;
+
+    public void ready(int collections) {
+        this.collections = collections;
+        this.error = null;
+        this.ready = true;
+    }
+
+    public void failed(String error) {
+        this.error = error;
+    }
+
+    @Override
+    protected HealthCheck.Result check() {
+        if (ready) {
+            return Result.builder().healthy().withDetail("collections", collections).build();
+        } else if (error != null) {
+            return Result.unhealthy("Collections not loaded yet: " + error);
+        }
+        return Result.unhealthy("Collections are being loaded");
+    }
+}
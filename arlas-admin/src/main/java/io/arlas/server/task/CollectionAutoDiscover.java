@@ -24,14 +24,13 @@ import io.arlas.server.app.ArlasServerConfiguration;
 import io.arlas.server.app.CollectionAutoDiscoverConfiguration;
 import io.arlas.server.core.ElasticAdmin;
 import io.arlas.server.dao.CollectionReferenceDao;
-import io.arlas.server.dao.ElasticCollectionReferenceDaoImpl;
 import io.arlas.server.exceptions.ArlasConfigurationException;
 import io.arlas.server.model.CollectionReference;
 import io.arlas.server.model.response.CollectionReferenceDescription;
 import io.arlas.server.model.response.CollectionReferenceDescriptionProperty;
+import io.arlas.server.services.ExploreServices;
 import io.arlas.server.utils.MapExplorer;
 import io.dropwizard.servlets.tasks.Task;
-import org.elasticsearch.client.Client;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,11 +47,11 @@ public class CollectionAutoDiscover extends Task implements Runnable {
 
     Logger LOGGER = LoggerFactory.getLogger(CollectionAutoDiscover.class);
 
-    public CollectionAutoDiscover(Client client, ArlasServerConfiguration configuration) {
+    public CollectionAutoDiscover(ExploreServices exploreServices, ArlasServerConfiguration configuration) {
         super("collection-auto-discover");
-        this.admin = new ElasticAdmin(client);
+        this.admin = exploreServices.getElasticAdmin();
         this.configuration = configuration.collectionAutoDiscoverConfiguration;
-        this.collectionDao = new ElasticCollectionReferenceDaoImpl(client, configuration.arlasindex, configuration.arlascachesize, configuration.arlascachetimeout);
+        this.collectionDao = exploreServices.getDaoCollectionReference();
     }
 
     @Override
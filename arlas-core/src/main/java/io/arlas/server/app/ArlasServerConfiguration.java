@@ -80,6 +80,36 @@ public class ArlasServerConfiguration extends Configuration {
     @JsonProperty("arlas-rest-cache-timeout")
     public int arlasrestcachetimeout;
 
+    @JsonProperty("arlas-explore-response-threads")
+    public Integer arlasExploreResponseThreads;
+
+    @JsonProperty("arlas-explore-cache-size")
+    public Integer arlasExploreCacheSize;
+
+    @JsonProperty("arlas-explore-cache-timeout")
+    public Integer arlasExploreCacheTimeout;
+
+    @JsonProperty("arlas-range-extents-cache-size")
+    public Integer arlasRangeExtentsCacheSize;
+
+    @JsonProperty("arlas-search-prefetch-size")
+    public Integer arlasSearchPrefetchSize;
+
+    @JsonProperty("arlas-search-prefetch-threads")
+    public Integer arlasSearchPrefetchThreads;
+
+    @JsonProperty("arlas-search-coalescing-window")
+    public Integer arlasSearchCoalescingWindow;
+
+    @JsonProperty("arlas-batch-max-requests")
+    public Integer arlasBatchMaxRequests;
+
+    @JsonProperty("arlas-request-cache-enabled")
+    public Boolean arlasRequestCacheEnabled;
+
+    @JsonProperty("arlas-collections-watch-interval")
+    public Integer arlasCollectionsWatchInterval;
+
     @JsonProperty("arlas-cors-enabled")
     public Boolean arlascorsenabled;
 
@@ -104,6 +134,18 @@ public class ArlasServerConfiguration extends Configuration {
     @JsonProperty("arlas-service-raster-tiles-enabled")
     public Boolean arlasServiceRasterTileEnabled;
 
+    @JsonProperty("arlas-raster-tiles-fetch-threads")
+    public Integer arlasRasterTilesFetchThreads;
+
+    @JsonProperty("arlas-raster-tiles-prefetch")
+    public Integer arlasRasterTilesPrefetch;
+
+    @JsonProperty("arlas-raster-tiles-cache-size")
+    public Integer arlasRasterTilesCacheSize;
+
+    @JsonProperty("arlas-raster-tiles-cache-timeout")
+    public Integer arlasRasterTilesCacheTimeout;
+
     @JsonProperty("collection-auto-discover")
     public CollectionAutoDiscoverConfiguration collectionAutoDiscoverConfiguration;
 
@@ -157,6 +199,36 @@ public class ArlasServerConfiguration extends Configuration {
         if (arlascachetimeout < 0) {
             arlascachetimeout = 60;
         }
+        if (arlasExploreResponseThreads == null || arlasExploreResponseThreads < 1) {
+            arlasExploreResponseThreads = 8;
+        }
+        if (arlasExploreCacheSize == null || arlasExploreCacheSize < 0) {
+            arlasExploreCacheSize = 0;
+        }
+        if (arlasExploreCacheTimeout == null || arlasExploreCacheTimeout < 0) {
+            arlasExploreCacheTimeout = 60;
+        }
+        if (arlasRangeExtentsCacheSize == null || arlasRangeExtentsCacheSize < 0) {
+            arlasRangeExtentsCacheSize = 0;
+        }
+        if (arlasSearchPrefetchSize == null || arlasSearchPrefetchSize < 0) {
+            arlasSearchPrefetchSize = 0;
+        }
+        if (arlasSearchPrefetchThreads == null || arlasSearchPrefetchThreads < 1) {
+            arlasSearchPrefetchThreads = 2;
+        }
+        if (arlasSearchCoalescingWindow == null || arlasSearchCoalescingWindow < 0) {
+            arlasSearchCoalescingWindow = 0;
+        }
+        if (arlasBatchMaxRequests == null || arlasBatchMaxRequests < 1) {
+            arlasBatchMaxRequests = 100;
+        }
+        if (arlasRequestCacheEnabled == null) {
+            arlasRequestCacheEnabled = true;
+        }
+        if (arlasCollectionsWatchInterval == null || arlasCollectionsWatchInterval < 0) {
+            arlasCollectionsWatchInterval = 0;
+        }
         if (arlascorsenabled == null) {
             arlascorsenabled = false;
         }
@@ -201,6 +273,18 @@ public class ArlasServerConfiguration extends Configuration {
         if(arlasServiceRasterTileEnabled==null){
             arlasServiceRasterTileEnabled=false;
         }
+        if(arlasRasterTilesFetchThreads==null || arlasRasterTilesFetchThreads<1){
+            arlasRasterTilesFetchThreads=8;
+        }
+        if(arlasRasterTilesPrefetch==null || arlasRasterTilesPrefetch<0){
+            arlasRasterTilesPrefetch=4;
+        }
+        if(arlasRasterTilesCacheSize==null || arlasRasterTilesCacheSize<0){
+            arlasRasterTilesCacheSize=64;
+        }
+        if(arlasRasterTilesCacheTimeout==null || arlasRasterTilesCacheTimeout<0){
+            arlasRasterTilesCacheTimeout=3600;
+        }
         if(collectionAutoDiscoverConfiguration == null) {
             collectionAutoDiscoverConfiguration = new CollectionAutoDiscoverConfiguration();
             collectionAutoDiscoverConfiguration.schedule = 0;
@@ -46,6 +46,12 @@ public class Documentation {
             "\n \n" +
             "> __**Example 2**__: sort=`age,geodistance:89 179`. Resulted hits are sorted by age. For same age hits, they are sorted by closest distance to the point(89°,179°)" +
             "\n \n";
+    public static final String PAGE_PARAM_CURSOR = "Paginates with an opaque cursor instead of `from` or `after`: the cost of a page does not grow with its depth. " +
+            "\n \n" +
+            "> **What it does**: An empty cursor (`cursor=`) returns the first page and a `next` link holding the cursor of the following page, until the last page." +
+            "\n \n" +
+            "> **Note**: The hits are sorted on **sort** followed by the id of the collection. The cursor can only be used with the sort it was returned for." +
+            "\n \n";
     public static final String PAGE_PARAM_AFTER = "List of values of fields present in sort param that are used to search after. " +
             "\n \n" +
             "> **What it does**: Allows to get the following hits of a previous search." +
@@ -303,8 +309,22 @@ public class Documentation {
     public static final String FORM_PRETTY = "Pretty print";
     public static final String FORM_FLAT = "Flats the property map: only key/value on one level";
 
+    public static final String FORM_SIMPLIFY = "Simplifies the geometries with a tolerance of one pixel of the tile, without changing their topology";
+
+    public static final String FORM_PRECISION = "Number of decimals of the coordinates of the geometries";
+
+    public static final String FORM_EXPORT_FORMAT = "Format of the export: `ndjson` (the source of a hit per line), `geojsonseq` (a GeoJSON text sequence of features) or `csv` (a column per field of the collection)";
+
     public static final String RANGE_OPERATION = "Calculates the min and max values of a field in the collection, given the filters";
     public static final String RANGE_FIELD = "The field whose range is calculated";
 
     public static final String COUNT_DISTINCT_FIELD = "The field which values are distinctly counted";
+
+    public static final String EXPORT_OPERATION = "Streams all the elements found in the collection, given the filters, in no particular order. " +
+            "The hits are scrolled in parallel over the shards of the collection and written as they come, so that the export of a whole collection takes a constant memory.";
+
+    public static final String BATCH_OPERATION = "Runs several count, aggregate and range requests, possibly on different collections, in a single elasticsearch multi search. " +
+            "Each sub-request holds the `collection` it targets and exactly one of `count`, `aggregate` or `range`. " +
+            "The responses are returned in the order of the sub-requests, each one holding either the response of the sub-request or its `error`. " +
+            "The sub-requests do not use the cache of the explore responses.";
 }
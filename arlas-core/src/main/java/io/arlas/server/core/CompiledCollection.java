@@ -0,0 +1,88 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.core;
+
+import io.arlas.server.model.CollectionReference;
+import io.arlas.server.utils.StringUtil;
+import org.elasticsearch.index.query.QueryBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What every search on a collection is made of, built once per version of the collection reference instead of once
+ * per request: the query of the collection filter, the fields excluded from the hits and the paths the hits must contain.
+ * Immutable, so that it can be shared by concurrent requests: the filter is only added to the queries, never modified.
+ */
+public final class CompiledCollection {
+
+    private static final String[] NO_FIELDS = new String[0];
+
+    private final CollectionReference collectionReference;
+    private final QueryBuilder filter;
+    private final String[] excludes;
+    private final List<String> mandatoryIncludes;
+
+    /**
+     * @param filter the query of the filter of the collection, null if the collection is not filtered
+     */
+    public CompiledCollection(CollectionReference collectionReference, QueryBuilder filter) {
+        this.collectionReference = collectionReference;
+        this.filter = filter;
+        String excludeFields = collectionReference.params.excludeFields;
+        this.excludes = StringUtil.isNullOrEmpty(excludeFields) ? NO_FIELDS : excludeFields.split(",");
+        List<String> paths = new ArrayList<>();
+        for (String path : Arrays.asList(collectionReference.params.idPath,
+                collectionReference.params.geometryPath,
+                collectionReference.params.centroidPath,
+                collectionReference.params.timestampPath)) {
+            if (path != null) {
+                paths.add(path);
+            }
+        }
+        this.mandatoryIncludes = Collections.unmodifiableList(paths);
+    }
+
+    public CollectionReference getCollectionReference() {
+        return collectionReference;
+    }
+
+    /**
+     * @return the query of the filter of the collection, null if the collection is not filtered
+     */
+    public QueryBuilder getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return the fields of the collection excluded from the hits, never null. Not to be modified.
+     */
+    public String[] getExcludes() {
+        return excludes;
+    }
+
+    /**
+     * @return the paths (id, geometry, centroid, timestamp) always returned with the hits
+     */
+    public List<String> getMandatoryIncludes() {
+        return mandatoryIncludes;
+    }
+}
@@ -19,6 +19,11 @@
 
 package io.arlas.server.core;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.arlas.server.exceptions.ArlasException;
 import io.arlas.server.model.CollectionReference;
 import io.arlas.server.model.CollectionReferenceParameters;
@@ -29,27 +34,168 @@ import org.apache.logging.log4j.util.Strings;
 import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsRequest;
 import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.common.collect.ImmutableOpenMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 public class ElasticAdmin {
 
     private static Logger LOGGER = LoggerFactory.getLogger(ElasticAdmin.class);
+    private static final ObjectMapper PARAMS_WRITER = new ObjectMapper();
+    // Delay during which the mapping version of an index is reused instead of being asked again to the cluster
+    private static final long MAPPING_CHECK_MS = 1000;
 
     public Client client;
 
+    // null when the descriptions are not cached
+    private final Cache<String, CachedDescription> descriptions;
+    private final Cache<String, String> mappingVersions;
+
     public ElasticAdmin(Client client) {
         this.client = client;
+        this.descriptions = null;
+        this.mappingVersions = null;
     }
 
-    @SuppressWarnings({"unchecked", "rawtypes"})
+    /**
+     * Builds an admin whose collection descriptions are kept until the cache timeout expires, until the collection
+     * is updated or deleted, or until the mapping of its indices changes. The mapping version of the indices is asked to
+     * the cluster at most once per second: a new field is described up to a second later.
+     * A single instance is meant to be shared with the collection DAO, which invalidates it.
+     */
+    public ElasticAdmin(Client client, int cacheSize, int cacheTimeout) {
+        this.client = client;
+        this.descriptions = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTimeout, TimeUnit.SECONDS)
+                .build();
+        this.mappingVersions = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(MAPPING_CHECK_MS, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * @return a description of the collection that belongs to the caller: changing it does not change the cached one
+     */
     public CollectionReferenceDescription describeCollection(CollectionReference collectionReference) throws IOException {
+        if (descriptions == null) {
+            return loadCollectionDescription(collectionReference);
+        }
+        String mappingVersion = getMappingVersion(collectionReference.params.indexName);
+        CachedDescription cached = descriptions.getIfPresent(collectionReference.collectionName);
+        // a description built from other collection parameters is outdated, even if the collection has been updated by another node
+        if (cached == null || !cached.isDescriptionOf(collectionReference.params, mappingVersion)) {
+            cached = new CachedDescription(loadCollectionDescription(collectionReference), mappingVersion);
+            descriptions.put(collectionReference.collectionName, cached);
+        }
+        return copy(cached.description);
+    }
+
+    /**
+     * @return the uuid and mapping version of each index behind the name (index, alias or pattern), null if unknown
+     */
+    private String getMappingVersion(String index) {
+        try {
+            return mappingVersions.get(index, () -> requestMappingVersion(index));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            // the mapping request will report what is wrong with the index
+            LOGGER.debug("Unable to get the mapping version of " + index, e);
+            return null;
+        }
+    }
+
+    private String requestMappingVersion(String index) {
+        MetaData metaData = client.admin().cluster().prepareState().clear().setMetaData(true).setIndices(index).get()
+                .getState().getMetaData();
+        // a recreated index has a new uuid and starts its mapping versions again
+        TreeMap<String, String> versions = new TreeMap<>();
+        for (IndexMetaData indexMetaData : metaData) {
+            versions.put(indexMetaData.getIndex().getName(), indexMetaData.getIndexUUID() + ":" + indexMetaData.getMappingVersion());
+        }
+        return versions.toString();
+    }
+
+    private static CollectionReferenceDescription copy(CollectionReferenceDescription description) {
+        CollectionReferenceDescription copy = new CollectionReferenceDescription();
+        copy.collectionName = description.collectionName;
+        copy.params = description.params;
+        copy.properties = copy(description.properties);
+        return copy;
+    }
+
+    private static Map<String, CollectionReferenceDescriptionProperty> copy(Map<String, CollectionReferenceDescriptionProperty> properties) {
+        if (properties == null) {
+            return null;
+        }
+        Map<String, CollectionReferenceDescriptionProperty> copy = new HashMap<>();
+        properties.forEach((name, property) -> {
+            CollectionReferenceDescriptionProperty propertyCopy = new CollectionReferenceDescriptionProperty();
+            propertyCopy.type = property.type;
+            propertyCopy.format = property.format;
+            propertyCopy.taggable = property.taggable;
+            propertyCopy.properties = copy(property.properties);
+            copy.put(name, propertyCopy);
+        });
+        return copy;
+    }
+
+    public void invalidateCollectionDescription(String collection) {
+        if (descriptions != null) {
+            descriptions.invalidate(collection);
+            descriptions.cleanUp();
+        }
+    }
+
+    /**
+     * A description along with the serialized parameters and the mapping version it has been built from: the description
+     * returns the parameters, so any change of them (paths, filter, ...) makes it outdated, as well as any change of the
+     * mapping (new field, changed type, ...).
+     */
+    private static class CachedDescription {
+        private final CollectionReferenceDescription description;
+        private final String params;
+        private final String mappingVersion;
+
+        private CachedDescription(CollectionReferenceDescription description, String mappingVersion) {
+            this.description = description;
+            this.params = writeParams(description.params);
+            this.mappingVersion = mappingVersion;
+        }
+
+        private boolean isDescriptionOf(CollectionReferenceParameters params, String mappingVersion) {
+            // an unknown mapping version never matches: the description is loaded again
+            if (this.mappingVersion == null || !this.mappingVersion.equals(mappingVersion)) {
+                return false;
+            }
+            if (description.params == params) {
+                return true;
+            }
+            String written = writeParams(params);
+            return written != null && written.equals(this.params);
+        }
+
+        private static String writeParams(CollectionReferenceParameters params) {
+            try {
+                return PARAMS_WRITER.writeValueAsString(params);
+            } catch (JsonProcessingException e) {
+                LOGGER.debug("Can not serialize the collection parameters", e);
+                return null;
+            }
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private CollectionReferenceDescription loadCollectionDescription(CollectionReference collectionReference) throws IOException {
         ArrayList<Pattern> excludeFields = new ArrayList<>();
         if (collectionReference.params.excludeFields != null) {
             Arrays.asList(collectionReference.params.excludeFields.split(",")).forEach(field -> {
@@ -147,7 +293,7 @@ public class ElasticAdmin {
                 collection.params = new CollectionReferenceParameters();
                 collection.params.indexName = indexName;
                 collection.params.typeName = mappingName;
-                collections.add(describeCollection(collection));
+                collections.add(loadCollectionDescription(collection));
             }
         }
         return collections;
@@ -21,11 +21,8 @@ package io.arlas.server.core;
 
 
 import io.arlas.server.app.ArlasServerConfiguration;
-import io.arlas.server.utils.ElasticTool;
+import io.arlas.server.utils.FieldTypeRegistry;
 import org.elasticsearch.search.aggregations.metrics.tophits.TopHitsAggregationBuilder;
-import org.locationtech.jts.geom.*;
-import org.locationtech.jts.io.ParseException;
-import org.locationtech.jts.io.WKTReader;
 import io.arlas.server.exceptions.*;
 import io.arlas.server.model.CollectionReference;
 import io.arlas.server.model.enumerations.*;
@@ -34,9 +31,13 @@ import io.arlas.server.model.request.Expression;
 import io.arlas.server.model.request.Metric;
 import io.arlas.server.model.request.MultiValueFilter;
 import io.arlas.server.model.response.TimestampType;
+import io.arlas.server.utils.BoundingBox;
 import io.arlas.server.utils.CheckParams;
+import io.arlas.server.utils.GeoTileUtil;
 import io.arlas.server.utils.ParamsParser;
 import io.arlas.server.utils.StringUtil;
+import com.codahale.metrics.MetricRegistry;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
@@ -54,24 +55,19 @@ import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInter
 import org.elasticsearch.search.aggregations.bucket.histogram.HistogramAggregationBuilder;
 import org.elasticsearch.search.aggregations.bucket.terms.IncludeExclude;
 import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
-import org.elasticsearch.search.aggregations.metrics.max.MaxAggregationBuilder;
-import org.elasticsearch.search.aggregations.metrics.min.MinAggregationBuilder;
 import org.elasticsearch.search.aggregations.support.ValuesSourceAggregationBuilder;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
-import org.locationtech.jts.geom.*;
-import org.locationtech.jts.io.ParseException;
-import org.locationtech.jts.io.WKTReader;
-import org.locationtech.jts.operation.valid.IsValidOp;
-import org.locationtech.jts.operation.valid.TopologyValidationError;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 
 public class FluidSearch {
@@ -115,8 +111,7 @@ public class FluidSearch {
     public static final String RANGE_ALIASES_CHARACTER = "$";
     public static final String TIMESTAMP_ALIAS = "timestamp";
 
-    public static final String FIELD_MIN_VALUE = "field_min_value";
-    public static final String FIELD_MAX_VALUE = "field_max_value";
+    public static final String FIELD_STATS = "field_stats";
 
     public static final String RANDOM_GEOMETRY = "random_geometry";
     public static final String FIRST_GEOMETRY = "first_geometry";
@@ -124,16 +119,28 @@ public class FluidSearch {
 
     private static Logger LOGGER = LoggerFactory.getLogger(FluidSearch.class);
 
+    private static SearchCoalescer searchCoalescer = null;
+    private static MetricRegistry metrics = null;
+    // a range bound relative to now makes the request uncacheable by the shard request cache
+    private static final Pattern NOW_BOUND = Pattern.compile("\"(from|to)\"\\s*:\\s*\"now");
+
     private Client client;
+    private FieldTypeRegistry fieldTypeRegistry;
     private SearchRequestBuilder searchRequestBuilder;
     private BoolQueryBuilder boolQueryBuilder;
     private CollectionReference collectionReference;
+    private CompiledCollection compiledCollection;
 
     private List<String> include = new ArrayList<>();
     private List<String> exclude = new ArrayList<>();
 
-    public FluidSearch(Client client) {
+    private boolean analytics = false;
+    private boolean requestCache = false;
+    private String preference = null;
+
+    public FluidSearch(Client client, FieldTypeRegistry fieldTypeRegistry) {
         this.client = client;
+        this.fieldTypeRegistry = fieldTypeRegistry;
         boolQueryBuilder = QueryBuilders.boolQuery();
     }
 
@@ -143,18 +150,115 @@ public class FluidSearch {
         return boolQueryBuilder;
     }
 
+    /**
+     * Shares the identical concurrent searches between the fluid searches. Null disables the coalescing.
+     */
+    public static void setSearchCoalescer(SearchCoalescer coalescer) {
+        searchCoalescer = coalescer;
+    }
+
+    /**
+     * Registry of the meters counting the analytics searches eligible (or not) to the shard request cache. Null disables the meters.
+     */
+    public static void setMetricRegistry(MetricRegistry metricRegistry) {
+        metrics = metricRegistry;
+    }
+
+    /**
+     * Only the totals and the aggregations of the response are used: no hit is fetched, so that the response can be
+     * answered from the shard request cache of elasticsearch.
+     * @param requestCache whether the shard request cache is asked for
+     * @param preference routes the searches of a same preference to the same shard copies, and so to the same request caches (can be null)
+     */
+    public FluidSearch analytics(boolean requestCache, String preference) {
+        this.analytics = true;
+        this.requestCache = requestCache;
+        this.preference = preference;
+        return this;
+    }
+
+    /**
+     * @return true if the search is answered from (and kept in) the shard request cache of elasticsearch
+     */
+    public boolean isRequestCacheEligible() {
+        return analytics && requestCache && !NOW_BOUND.matcher(boolQueryBuilder.toString()).find();
+    }
+
     public SearchResponse exec() throws ArlasException {
+        prepareRequest();
+        //Get Elasticsearch response
+        LOGGER.debug("QUERY : " + searchRequestBuilder.toString());
+        SearchResponse result = null;
+        if (searchCoalescer == null) {
+            result = searchRequestBuilder.get();
+        } else {
+            try {
+                result = searchCoalescer.execute(searchRequestBuilder).toCompletableFuture().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InternalServerErrorException("Interrupted while waiting for the elasticsearch response", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new InternalServerErrorException(e.getCause().getMessage(), e.getCause());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link #exec()} but does not block the calling thread: the returned stage is completed by the
+     * Elasticsearch transport thread once the response (or the failure) is received.
+     */
+    public CompletionStage<SearchResponse> execAsync() throws ArlasException {
+        prepareRequest();
+        LOGGER.debug("QUERY : " + searchRequestBuilder.toString());
+        if (searchCoalescer != null) {
+            return searchCoalescer.execute(searchRequestBuilder);
+        }
+        CompletableFuture<SearchResponse> result = new CompletableFuture<>();
+        searchRequestBuilder.execute(new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(SearchResponse searchResponse) {
+                result.complete(searchResponse);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return the request as it would be sent by {@link #exec()}, for sending it with other requests (e.g. in a multi search)
+     */
+    public SearchRequestBuilder getPreparedRequest() {
+        prepareRequest();
+        return searchRequestBuilder;
+    }
+
+    private void prepareRequest() {
         searchRequestBuilder.setQuery(boolQueryBuilder);
 
-        if (collectionReference.params.excludeFields != null && !collectionReference.params.excludeFields.isEmpty()) {
-            if (exclude.isEmpty()) {
-                exclude(collectionReference.params.excludeFields);
-            } else {
-                Set<String> excludeSet = new HashSet<>();
-                excludeSet.addAll(exclude);
-                excludeSet.addAll(Arrays.asList(collectionReference.params.excludeFields.split(",")));
-                exclude = new ArrayList<>(excludeSet);
+        if (analytics) {
+            searchRequestBuilder = searchRequestBuilder.setSize(0).setFetchSource(false).setRequestCache(requestCache);
+            if (preference != null) {
+                searchRequestBuilder = searchRequestBuilder.setPreference(preference);
             }
+            if (metrics != null && requestCache) {
+                metrics.meter(MetricRegistry.name(FluidSearch.class, "request-cache", isRequestCacheEligible() ? "eligible" : "ineligible")).mark();
+            }
+            return;
+        }
+
+        String[] collectionExcludes = compiledCollection.getExcludes();
+        if (collectionExcludes.length > 0 && !exclude.isEmpty()) {
+            Set<String> excludeSet = new HashSet<>(exclude);
+            excludeSet.addAll(Arrays.asList(collectionExcludes));
+            exclude = new ArrayList<>(excludeSet);
         }
         List<String> includeFieldList = new ArrayList<>();
         if (!include.isEmpty()) {
@@ -177,17 +281,11 @@ public class FluidSearch {
         if (includeFields.length == 0) {
             includeFields = new String[]{"*"};
         }
-        String[] excludeFields = exclude.toArray(new String[exclude.size()]);
+        String[] excludeFields = exclude.isEmpty() ? collectionExcludes : exclude.toArray(new String[exclude.size()]);
         if (excludeFields.length == 0) {
             excludeFields = null;
         }
         searchRequestBuilder = searchRequestBuilder.setFetchSource(includeFields, excludeFields);
-
-        //Get Elasticsearch response
-        LOGGER.debug("QUERY : " + searchRequestBuilder.toString());
-        SearchResponse result = null;
-        result = searchRequestBuilder.get();
-        return result;
     }
 
     public String getCountDistinctKey(String field) {
@@ -351,7 +449,7 @@ public class FluidSearch {
     public FluidSearch filterPWithin(MultiValueFilter<String> pwithin) throws IOException, ArlasException {
         BoolQueryBuilder orBoolQueryBuilder = QueryBuilders.boolQuery();
         for (String pwithinFilter : pwithin) {
-            double[] tlbr = CheckParams.toDoubles(pwithinFilter);
+            double[] tlbr = GeometryCache.getBbox(pwithinFilter);
             orBoolQueryBuilder = orBoolQueryBuilder
                     .should(filterPWithin(tlbr[0], tlbr[1], tlbr[2], tlbr[3]));
         }
@@ -368,10 +466,20 @@ public class FluidSearch {
                 .geoBoundingBoxQuery(collectionReference.params.centroidPath).setCorners(topLeft, bottomRight);
     }
 
+    /**
+     * Restricts the search to the documents whose geo point field is in the cell of the geohash, bounds included.
+     */
+    public FluidSearch filterGeohashCell(String field, String geohash) throws ArlasException {
+        BoundingBox cell = GeoTileUtil.getBoundingBox(geohash);
+        boolQueryBuilder = boolQueryBuilder.filter(QueryBuilders.geoBoundingBoxQuery(field)
+                .setCorners(new GeoPoint(cell.getNorth(), cell.getWest()), new GeoPoint(cell.getSouth(), cell.getEast())));
+        return this;
+    }
+
     public FluidSearch filterNotPWithin(MultiValueFilter<String> notpwithin) throws IOException, ArlasException {
         BoolQueryBuilder orBoolQueryBuilder = QueryBuilders.boolQuery();
         for (String notpwithinFilter : notpwithin) {
-            double[] tlbr = CheckParams.toDoubles(notpwithinFilter);
+            double[] tlbr = GeometryCache.getBbox(notpwithinFilter);
             orBoolQueryBuilder = orBoolQueryBuilder
                     .should(filterNotPWithin(tlbr[0], tlbr[1], tlbr[2], tlbr[3]));
         }
@@ -391,7 +499,7 @@ public class FluidSearch {
     public FluidSearch filterGWithin(MultiValueFilter<String> gwithin) throws ArlasException, IOException {
         BoolQueryBuilder orBoolQueryBuilder = QueryBuilders.boolQuery();
         for (String geometry : gwithin) {
-            ShapeBuilder shapeBuilder = getShapeBuilder(geometry);
+            ShapeBuilder shapeBuilder = GeometryCache.getShapeBuilder(geometry);
             orBoolQueryBuilder = orBoolQueryBuilder
                     .should(QueryBuilders.geoWithinQuery(collectionReference.params.geometryPath, shapeBuilder));
         }
@@ -403,7 +511,7 @@ public class FluidSearch {
     public FluidSearch filterNotGWithin(MultiValueFilter<String> notgwithin) throws ArlasException, IOException {
         BoolQueryBuilder orBoolQueryBuilder = QueryBuilders.boolQuery();
         for (String geometry : notgwithin) {
-            ShapeBuilder shapeBuilder = getShapeBuilder(geometry);
+            ShapeBuilder shapeBuilder = GeometryCache.getShapeBuilder(geometry);
             orBoolQueryBuilder = orBoolQueryBuilder
                     .should(QueryBuilders.geoWithinQuery(collectionReference.params.geometryPath, shapeBuilder));
         }
@@ -415,7 +523,7 @@ public class FluidSearch {
     public FluidSearch filterGIntersect(MultiValueFilter<String> gintersect) throws ArlasException, IOException {
         BoolQueryBuilder orBoolQueryBuilder = QueryBuilders.boolQuery();
         for (String geometry : gintersect) {
-            ShapeBuilder shapeBuilder = getShapeBuilder(geometry);
+            ShapeBuilder shapeBuilder = GeometryCache.getShapeBuilder(geometry);
             orBoolQueryBuilder = orBoolQueryBuilder
                     .should(QueryBuilders.geoIntersectionQuery(collectionReference.params.geometryPath, shapeBuilder));
         }
@@ -427,7 +535,7 @@ public class FluidSearch {
     public FluidSearch filterNotGIntersect(MultiValueFilter<String> notgintersect) throws ArlasException, IOException {
         BoolQueryBuilder orBoolQueryBuilder = QueryBuilders.boolQuery();
         for (String geometry : notgintersect) {
-            ShapeBuilder shapeBuilder = getShapeBuilder(geometry);
+            ShapeBuilder shapeBuilder = GeometryCache.getShapeBuilder(geometry);
             orBoolQueryBuilder = orBoolQueryBuilder
                     .should(QueryBuilders.geoIntersectionQuery(collectionReference.params.geometryPath, shapeBuilder));
         }
@@ -467,6 +575,14 @@ public class FluidSearch {
         return this;
     }
 
+    /**
+     * @param sortValues the sort values of the last hit of the previous page, as returned by elasticsearch
+     */
+    public FluidSearch searchAfter(Object[] sortValues) {
+        searchRequestBuilder = searchRequestBuilder.searchAfter(sortValues);
+        return this;
+    }
+
 
     public FluidSearch sort(String sort) throws ArlasException {
         List<String> fieldList = Arrays.asList(sort.split(","));
@@ -536,16 +652,16 @@ public class FluidSearch {
 
     public FluidSearch aggregate(List<Aggregation> aggregations, Boolean isGeoAggregate) throws ArlasException {
         AggregationBuilder aggregationBuilder = null;
-        aggregationBuilder = aggregateRecursive(aggregations, aggregationBuilder, isGeoAggregate, 0);
+        // the aggregations of the request are read again to format the response: the recursion consumes a copy
+        aggregationBuilder = aggregateRecursive(new ArrayList<>(aggregations), aggregationBuilder, isGeoAggregate, 0);
         searchRequestBuilder = searchRequestBuilder.setSize(0).addAggregation(aggregationBuilder);
         return this;
     }
 
     public FluidSearch getFieldRange(String field) {
         boolQueryBuilder = boolQueryBuilder.filter(QueryBuilders.existsQuery(field));
-        MinAggregationBuilder minAggregationBuilder = AggregationBuilders.min(FIELD_MIN_VALUE).field(field);
-        MaxAggregationBuilder maxAggregationBuilder = AggregationBuilders.max(FIELD_MAX_VALUE).field(field);
-        searchRequestBuilder = searchRequestBuilder.setSize(0).addAggregation(minAggregationBuilder).addAggregation(maxAggregationBuilder);
+        // min and max are computed in a single pass over the values of the field
+        searchRequestBuilder = searchRequestBuilder.setSize(0).addAggregation(AggregationBuilders.stats(FIELD_STATS).field(field));
         return this;
     }
 
@@ -849,107 +965,27 @@ public class FluidSearch {
         }
     }
 
-    private Geometry readWKT(String geometry) throws ArlasException {
-        GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), 4326);
-        Envelope affectedBounds = new Envelope(-360, 360, -180, 180);
-        WKTReader wkt = new WKTReader(geometryFactory);
-        Geometry polygon = null;
-        try {
-            polygon = wkt.read(geometry);
-            List<Coordinate> filteredCoord = Arrays.stream(polygon.getCoordinates()).filter(coordinate -> affectedBounds.contains(coordinate)).collect(Collectors.toList());
-            if(filteredCoord.size() != polygon.getCoordinates().length){
-                throw new InvalidParameterException(INVALID_WKT_RANGE);
-            }
-            IsValidOp vaildOp = new IsValidOp(polygon);
-            TopologyValidationError err = vaildOp.getValidationError();
-            if (err != null)
-            {
-                throw new InvalidParameterException(INVALID_WKT);
-            }
-        } catch (ParseException ex) {
-            throw new InvalidParameterException(INVALID_WKT);
-        }
-        return polygon;
-    }
-
-    private PolygonBuilder createPolygonBuilder(Polygon polygon) {
-        // TODO: add interior holes
-        CoordinatesBuilder coordinatesBuilder = new CoordinatesBuilder();
-        List<Coordinate> coordinates = Arrays.asList(polygon.getCoordinates());
-        coordinatesBuilder.coordinates(coordinates);
-        return new PolygonBuilder(coordinatesBuilder, ShapeBuilder.Orientation.LEFT);
-    }
-
-    private PolygonBuilder createPolygonBuilder(double[] bbox) {
-        CoordinatesBuilder coordinatesBuilder = new CoordinatesBuilder();
-        coordinatesBuilder.coordinate(bbox[2], bbox[1]);
-        coordinatesBuilder.coordinate(bbox[2], bbox[3]);
-        coordinatesBuilder.coordinate(bbox[0], bbox[3]);
-        coordinatesBuilder.coordinate(bbox[0], bbox[1]);
-        coordinatesBuilder.coordinate(bbox[2], bbox[1]);
-        // NB : In ES api LEFT is clockwise and RIGHT anticlockwise
-        return new PolygonBuilder(coordinatesBuilder, ShapeBuilder.Orientation.RIGHT);
-    }
-
-    private MultiPolygonBuilder createMultiPolygonBuilder(MultiPolygon multiPolygon) {
-        MultiPolygonBuilder multiPolygonBuilder = new MultiPolygonBuilder(ShapeBuilder.Orientation.LEFT);
-        for (int i = 0; i < multiPolygon.getNumGeometries(); i++) {
-            multiPolygonBuilder.polygon(createPolygonBuilder((Polygon) multiPolygon.getGeometryN(i)));
-        }
-        return multiPolygonBuilder;
-    }
-
-    private LineStringBuilder createLineStringBuilder(LineString lineString) {
-        CoordinatesBuilder coordinatesBuilder = new CoordinatesBuilder();
-        coordinatesBuilder.coordinates(lineString.getCoordinates());
-        return new LineStringBuilder(coordinatesBuilder);
+    public boolean isDateField(String field) throws ArlasException {
+        return fieldTypeRegistry.isDateField(collectionReference, field);
     }
 
-    private PointBuilder createPointBuilder(Point point) {
-        PointBuilder pointBuilder = new PointBuilder();
-        pointBuilder.coordinate(point.getCoordinate());
-        return pointBuilder;
+    public void setCollectionReference(CollectionReference collectionReference) {
+        setCollection(new CompiledCollection(collectionReference, null));
     }
 
-    private ShapeBuilder getShapeBuilder(String geometry) throws ArlasException {
-        // test if geometry is west, south, east, north commat separated
-        if (isBboxMatch(geometry)) {
-            CheckParams.checkBbox(geometry);
-            return createPolygonBuilder((double[]) CheckParams.toDoubles(geometry));
-        } else {
-            // TODO: multilinestring
-            Geometry wktGeometry = readWKT(geometry);
-            if (wktGeometry != null) {
-                String geometryType = wktGeometry.getGeometryType().toUpperCase();
-                switch (geometryType) {
-                    case "POLYGON":
-                        return createPolygonBuilder((Polygon) wktGeometry);
-                    case "MULTIPOLYGON":
-                        return createMultiPolygonBuilder((MultiPolygon) wktGeometry);
-                    case "LINESTRING":
-                        return createLineStringBuilder((LineString) wktGeometry);
-                    case "POINT":
-                        return createPointBuilder((Point) wktGeometry);
-                    default:
-                        throw new InvalidParameterException("The given geometry is not handled.");
-                }
-            }
-            throw new InvalidParameterException("The given geometry is invalid.");
+    /**
+     * Searches the collection, filtered by the collection filter compiled beforehand.
+     */
+    public void setCompiledCollection(CompiledCollection compiledCollection) {
+        setCollection(compiledCollection);
+        if (compiledCollection.getFilter() != null) {
+            boolQueryBuilder = boolQueryBuilder.filter(compiledCollection.getFilter());
         }
     }
 
-    private boolean isBboxMatch(String geometry) {
-        String floatPattern = "[-+]?[0-9]*\\.?[0-9]+";
-        String bboxPattern = floatPattern + "," + floatPattern + "," + floatPattern + "," + floatPattern;
-        return Pattern.compile("^" + bboxPattern + "$").matcher(geometry).matches();
-    }
-
-    public boolean isDateField(String field) throws ArlasException {
-        return ElasticTool.isDateField(field, client, collectionReference.params.indexName, collectionReference.params.typeName);
-    }
-
-    public void setCollectionReference(CollectionReference collectionReference) {
-        this.collectionReference = collectionReference;
+    private void setCollection(CompiledCollection compiledCollection) {
+        this.compiledCollection = compiledCollection;
+        this.collectionReference = compiledCollection.getCollectionReference();
         searchRequestBuilder = client.prepareSearch(collectionReference.params.indexName).setTypes(collectionReference.params.typeName);
     }
 
@@ -958,9 +994,6 @@ public class FluidSearch {
     }
 
     public List<String> getCollectionPaths() {
-        return Arrays.asList(collectionReference.params.idPath,
-                collectionReference.params.geometryPath,
-                collectionReference.params.centroidPath,
-                collectionReference.params.timestampPath);
+        return compiledCollection.getMandatoryIncludes();
     }
 }
@@ -0,0 +1,210 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.arlas.server.exceptions.ArlasException;
+import io.arlas.server.exceptions.InvalidParameterException;
+import io.arlas.server.utils.CheckParams;
+import org.elasticsearch.common.geo.builders.*;
+import org.locationtech.jts.geom.*;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+import org.locationtech.jts.operation.valid.IsValidOp;
+import org.locationtech.jts.operation.valid.TopologyValidationError;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the geometries of the filters (pwithin, gwithin, gintersect and their negations), keyed by their text:
+ * map users send the same areas of interest with every tile and every widget, that are parsed, validated and converted
+ * once. Invalid geometries are kept too, with the reason why they are rejected.
+ * The cache is weighed by the length of the geometries and shared by all the searches. The cached objects are never
+ * modified once built, they must not be modified by the callers either.
+ */
+public class GeometryCache {
+
+    private static final long MAX_WEIGHT = 16 * 1024 * 1024;
+    private static final String FLOAT_PATTERN = "[-+]?[0-9]*\\.?[0-9]+";
+    private static final Pattern BBOX_PATTERN = Pattern.compile("^" + FLOAT_PATTERN + "," + FLOAT_PATTERN + "," + FLOAT_PATTERN + "," + FLOAT_PATTERN + "$");
+    private static final GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), 4326);
+    private static final Envelope affectedBounds = new Envelope(-360, 360, -180, 180);
+
+    private static final Cache<String, ParsedGeometry> geometries = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_WEIGHT)
+            .weigher((String geometry, ParsedGeometry parsedGeometry) -> geometry.length())
+            .build();
+    private static final Cache<String, double[]> bboxes = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_WEIGHT)
+            .weigher((String bbox, double[] corners) -> bbox.length())
+            .build();
+
+    private static class ParsedGeometry {
+        private final Geometry geometry;
+        private final ShapeBuilder shapeBuilder;
+        private final String error;
+
+        private ParsedGeometry(Geometry geometry, ShapeBuilder shapeBuilder, String error) {
+            this.geometry = geometry;
+            this.shapeBuilder = shapeBuilder;
+            this.error = error;
+        }
+    }
+
+    /**
+     * @param geometry a bbox (west, south, east, north comma separated) or a WKT geometry
+     * @return the shape of the geometry, to be used in geo shape queries
+     */
+    public static ShapeBuilder getShapeBuilder(String geometry) throws ArlasException {
+        return getParsedGeometry(geometry).shapeBuilder;
+    }
+
+    /**
+     * @param geometry a bbox (west, south, east, north comma separated) or a WKT geometry
+     * @return the JTS geometry, null for a bbox
+     */
+    public static Geometry getGeometry(String geometry) throws ArlasException {
+        return getParsedGeometry(geometry).geometry;
+    }
+
+    /**
+     * @param bbox west, south, east, north comma separated
+     * @return the corners of the bbox: west, south, east, north
+     */
+    public static double[] getBbox(String bbox) throws InvalidParameterException {
+        double[] corners = bboxes.getIfPresent(bbox);
+        if (corners == null) {
+            corners = CheckParams.toDoubles(bbox);
+            bboxes.put(bbox, corners);
+        }
+        return corners;
+    }
+
+    public static void invalidateAll() {
+        geometries.invalidateAll();
+        bboxes.invalidateAll();
+    }
+
+    private static ParsedGeometry getParsedGeometry(String geometry) throws ArlasException {
+        ParsedGeometry parsedGeometry = geometries.getIfPresent(geometry);
+        if (parsedGeometry == null) {
+            try {
+                parsedGeometry = parse(geometry);
+            } catch (InvalidParameterException e) {
+                parsedGeometry = new ParsedGeometry(null, null, e.getMessage());
+            }
+            geometries.put(geometry, parsedGeometry);
+        }
+        if (parsedGeometry.error != null) {
+            throw new InvalidParameterException(parsedGeometry.error);
+        }
+        return parsedGeometry;
+    }
+
+    private static ParsedGeometry parse(String geometry) throws ArlasException {
+        // test if geometry is west, south, east, north commat separated
+        if (BBOX_PATTERN.matcher(geometry).matches()) {
+            CheckParams.checkBbox(geometry);
+            return new ParsedGeometry(null, createPolygonBuilder(getBbox(geometry)), null);
+        } else {
+            // TODO: multilinestring
+            Geometry wktGeometry = readWKT(geometry);
+            if (wktGeometry != null) {
+                String geometryType = wktGeometry.getGeometryType().toUpperCase();
+                switch (geometryType) {
+                    case "POLYGON":
+                        return new ParsedGeometry(wktGeometry, createPolygonBuilder((Polygon) wktGeometry), null);
+                    case "MULTIPOLYGON":
+                        return new ParsedGeometry(wktGeometry, createMultiPolygonBuilder((MultiPolygon) wktGeometry), null);
+                    case "LINESTRING":
+                        return new ParsedGeometry(wktGeometry, createLineStringBuilder((LineString) wktGeometry), null);
+                    case "POINT":
+                        return new ParsedGeometry(wktGeometry, createPointBuilder((Point) wktGeometry), null);
+                    default:
+                        throw new InvalidParameterException("The given geometry is not handled.");
+                }
+            }
+            throw new InvalidParameterException("The given geometry is invalid.");
+        }
+    }
+
+    private static Geometry readWKT(String geometry) throws ArlasException {
+        WKTReader wkt = new WKTReader(geometryFactory);
+        Geometry polygon = null;
+        try {
+            polygon = wkt.read(geometry);
+            List<Coordinate> filteredCoord = Arrays.stream(polygon.getCoordinates()).filter(coordinate -> affectedBounds.contains(coordinate)).collect(Collectors.toList());
+            if(filteredCoord.size() != polygon.getCoordinates().length){
+                throw new InvalidParameterException(FluidSearch.INVALID_WKT_RANGE);
+            }
+            IsValidOp vaildOp = new IsValidOp(polygon);
+            TopologyValidationError err = vaildOp.getValidationError();
+            if (err != null)
+            {
+                throw new InvalidParameterException(FluidSearch.INVALID_WKT);
+            }
+        } catch (ParseException ex) {
+            throw new InvalidParameterException(FluidSearch.INVALID_WKT);
+        }
+        return polygon;
+    }
+
+    private static PolygonBuilder createPolygonBuilder(Polygon polygon) {
+        // TODO: add interior holes
+        CoordinatesBuilder coordinatesBuilder = new CoordinatesBuilder();
+        List<Coordinate> coordinates = Arrays.asList(polygon.getCoordinates());
+        coordinatesBuilder.coordinates(coordinates);
+        return new PolygonBuilder(coordinatesBuilder, ShapeBuilder.Orientation.LEFT);
+    }
+
+    private static PolygonBuilder createPolygonBuilder(double[] bbox) {
+        CoordinatesBuilder coordinatesBuilder = new CoordinatesBuilder();
+        coordinatesBuilder.coordinate(bbox[2], bbox[1]);
+        coordinatesBuilder.coordinate(bbox[2], bbox[3]);
+        coordinatesBuilder.coordinate(bbox[0], bbox[3]);
+        coordinatesBuilder.coordinate(bbox[0], bbox[1]);
+        coordinatesBuilder.coordinate(bbox[2], bbox[1]);
+        // NB : In ES api LEFT is clockwise and RIGHT anticlockwise
+        return new PolygonBuilder(coordinatesBuilder, ShapeBuilder.Orientation.RIGHT);
+    }
+
+    private static MultiPolygonBuilder createMultiPolygonBuilder(MultiPolygon multiPolygon) {
+        MultiPolygonBuilder multiPolygonBuilder = new MultiPolygonBuilder(ShapeBuilder.Orientation.LEFT);
+        for (int i = 0; i < multiPolygon.getNumGeometries(); i++) {
+            multiPolygonBuilder.polygon(createPolygonBuilder((Polygon) multiPolygon.getGeometryN(i)));
+        }
+        return multiPolygonBuilder;
+    }
+
+    private static LineStringBuilder createLineStringBuilder(LineString lineString) {
+        CoordinatesBuilder coordinatesBuilder = new CoordinatesBuilder();
+        coordinatesBuilder.coordinates(lineString.getCoordinates());
+        return new LineStringBuilder(coordinatesBuilder);
+    }
+
+    private static PointBuilder createPointBuilder(Point point) {
+        PointBuilder pointBuilder = new PointBuilder();
+        pointBuilder.coordinate(point.getCoordinate());
+        return pointBuilder;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.core;
+
+import com.codahale.metrics.MetricRegistry;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.NamedWriteableAwareStreamInput;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.search.SearchModule;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Shares one elasticsearch call between the concurrent searches whose final request is identical: the first one is sent
+ * to the cluster, the following ones wait for its response instead of sending their own.
+ * A search joins a call sent at most <code>window</code> milliseconds before it arrived, and a call is forgotten as soon
+ * as it completes. The response of a joined call may therefore miss the writes made between the call and the arrival of
+ * the search, that is up to <code>window</code> milliseconds of writes: the coalescing trades this bounded staleness for
+ * fewer calls, and is disabled by default.
+ * The searches are identical if their serialized requests are. The first search gets the response of the call, the
+ * others a copy of it read back from its serialized form, so that no search sees what another one does with its response.
+ * For each endpoint, the meters <code>executed</code> and <code>collapsed</code> count the calls sent to the cluster and
+ * the searches that joined one of them.
+ */
+public class SearchCoalescer {
+    private static Logger LOGGER = LoggerFactory.getLogger(SearchCoalescer.class);
+    private static final String OTHER_ENDPOINT = "other";
+    private static final ThreadLocal<String> endpoint = new ThreadLocal<>();
+    private static final NamedWriteableRegistry namedWriteables =
+            new NamedWriteableRegistry(new SearchModule(Settings.EMPTY, false, Collections.emptyList()).getNamedWriteables());
+
+    private final long windowNanos;
+    private final MetricRegistry metrics;
+    private final Executor copyExecutor;
+    private final ConcurrentHashMap<BytesReference, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param copyExecutor where the joining searches read their copy of the response, out of the elasticsearch network threads
+     */
+    public SearchCoalescer(long windowMillis, MetricRegistry metrics, Executor copyExecutor) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.metrics = metrics;
+        this.copyExecutor = copyExecutor;
+    }
+
+    public CompletionStage<SearchResponse> execute(SearchRequestBuilder searchRequestBuilder) {
+        return execute(searchRequestBuilder.request(), searchRequestBuilder::execute);
+    }
+
+    /**
+     * @param send sends the request to the cluster, notifying the given listener
+     */
+    CompletionStage<SearchResponse> execute(SearchRequest request, Consumer<ActionListener<SearchResponse>> send) {
+        String name = endpoint.get() == null ? OTHER_ENDPOINT : endpoint.get();
+        BytesReference key;
+        try {
+            key = key(request);
+        } catch (IOException e) {
+            LOGGER.debug("Search not coalesced", e);
+            metrics.meter(MetricRegistry.name(SearchCoalescer.class, name, "executed")).mark();
+            return send(send, null, null);
+        }
+        while (true) {
+            InFlight current = inFlight.get(key);
+            if (current != null && System.nanoTime() - current.start <= windowNanos) {
+                metrics.meter(MetricRegistry.name(SearchCoalescer.class, name, "collapsed")).mark();
+                return current.result.thenApplyAsync(current::copy, copyExecutor);
+            }
+            InFlight call = new InFlight();
+            boolean registered = current == null ? inFlight.putIfAbsent(key, call) == null : inFlight.replace(key, current, call);
+            if (registered) {
+                metrics.meter(MetricRegistry.name(SearchCoalescer.class, name, "executed")).mark();
+                return send(send, key, call);
+            }
+        }
+    }
+
+    private CompletableFuture<SearchResponse> send(Consumer<ActionListener<SearchResponse>> send, BytesReference key, InFlight call) {
+        CompletableFuture<SearchResponse> result = call == null ? new CompletableFuture<>() : call.result;
+        send.accept(new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(SearchResponse searchResponse) {
+                // forgotten before being completed: no search can join a call whose response is already out
+                if (call != null) {
+                    inFlight.remove(key, call);
+                }
+                result.complete(searchResponse);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (call != null) {
+                    inFlight.remove(key, call);
+                }
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private static BytesReference key(SearchRequest request) throws IOException {
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            request.writeTo(out);
+            return out.bytes();
+        }
+    }
+
+    private static class InFlight {
+        private final long start = System.nanoTime();
+        private final CompletableFuture<SearchResponse> result = new CompletableFuture<>();
+        private BytesReference serialized;
+
+        private SearchResponse copy(SearchResponse response) {
+            try (StreamInput in = new NamedWriteableAwareStreamInput(serialize(response).streamInput(), namedWriteables)) {
+                SearchResponse copy = new SearchResponse();
+                copy.readFrom(in);
+                return copy;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private synchronized BytesReference serialize(SearchResponse response) throws IOException {
+            if (serialized == null) {
+                try (BytesStreamOutput out = new BytesStreamOutput()) {
+                    response.writeTo(out);
+                    serialized = out.bytes();
+                }
+            }
+            return serialized;
+        }
+    }
+
+    /**
+     * Names the searches of a request after the resource method handling it, e.g. CountRESTService.count.
+     * Searches are sent by the thread running the resource method, before the request is suspended: the name is set
+     * when the resource method starts and removed when it finishes, which jersey notifies in a finally block.
+     */
+    public static class EndpointListener implements ApplicationEventListener {
+        @Override
+        public void onEvent(ApplicationEvent event) {
+        }
+
+        @Override
+        public RequestEventListener onRequest(RequestEvent requestEvent) {
+            return event -> {
+                if (event.getType() == RequestEvent.Type.RESOURCE_METHOD_START) {
+                    if (event.getUriInfo().getMatchedResourceMethod() != null && event.getUriInfo().getMatchedResourceMethod().getInvocable() != null) {
+                        Method method = event.getUriInfo().getMatchedResourceMethod().getInvocable().getHandlingMethod();
+                        endpoint.set(method.getDeclaringClass().getSimpleName() + "." + method.getName());
+                    }
+                } else if (event.getType() == RequestEvent.Type.RESOURCE_METHOD_FINISHED) {
+                    endpoint.remove();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.core;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.ClearScrollResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads all the hits of a search with one scroll per slice, the slices being scrolled in parallel by the cluster.
+ * The next page of a slice is only asked for once the reader took the previous one: at most one page per slice is held
+ * in memory, and a slow reader slows the scrolls down instead of piling pages up.
+ * Closing the scroll before its end (e.g. when the client of an export went away) stops asking for pages and clears
+ * the scroll contexts still open on the cluster.
+ */
+public class SlicedScroll implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SlicedScroll.class);
+
+    private final Client client;
+    private final TimeValue keepAlive;
+    private final SearchRequest searchRequest;
+    private final int slices;
+    private final BlockingQueue<Page> pages = new LinkedBlockingQueue<>();
+    // last scroll id of each slice not scrolled to its end yet
+    private final ConcurrentHashMap<Integer, String> scrollIds = new ConcurrentHashMap<>();
+    private int remainingSlices;
+    private boolean started = false;
+    private volatile boolean closed = false;
+
+    /**
+     * @param searchRequest the search of the hits, sorted by _doc and sized to the number of hits of a page
+     * @param slices number of slices scrolled in parallel, 1 for a single scroll
+     */
+    public SlicedScroll(Client client, SearchRequest searchRequest, int slices, TimeValue keepAlive) {
+        this.client = client;
+        this.keepAlive = keepAlive;
+        this.searchRequest = searchRequest;
+        this.slices = slices;
+        this.remainingSlices = slices;
+    }
+
+    /**
+     * The scrolls are opened by the first call to {@link #next()}, so that nothing is left open on the cluster if the hits are never read.
+     */
+    private void start() {
+        started = true;
+        for (int slice = 0; slice < slices; slice++) {
+            // each slice gets its own request: a request must not be changed while it is being sent
+            SearchRequest sliceRequest = new SearchRequest(searchRequest.indices(),
+                    slices > 1 ? searchRequest.source().copyWithNewSlice(new SliceBuilder(slice, slices)) : searchRequest.source())
+                    .types(searchRequest.types())
+                    .indicesOptions(searchRequest.indicesOptions())
+                    .scroll(keepAlive);
+            LOGGER.debug("QUERY : " + sliceRequest.source());
+            client.search(sliceRequest, new PageListener(slice));
+        }
+    }
+
+    /**
+     * Waits for the next page of any slice.
+     * @return the hits of the page, null once all the slices are scrolled to their end
+     */
+    public SearchHit[] next() throws IOException {
+        if (!started) {
+            start();
+        }
+        while (remainingSlices > 0) {
+            Page page;
+            try {
+                page = pages.poll(keepAlive.millis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a page of the scroll");
+            }
+            if (page == null) {
+                throw new IOException("No page of the scroll received within " + keepAlive);
+            }
+            if (page.failure != null) {
+                throw new IOException("Unable to scroll the hits", page.failure);
+            }
+            SearchHit[] hits = page.response.getHits().getHits();
+            if (hits.length == 0) {
+                remainingSlices--;
+                clear(page.slice);
+                continue;
+            }
+            client.prepareSearchScroll(page.response.getScrollId()).setScroll(keepAlive).execute(new PageListener(page.slice));
+            return hits;
+        }
+        return null;
+    }
+
+    public int getSlices() {
+        return slices;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        new ArrayList<>(scrollIds.keySet()).forEach(this::clear);
+    }
+
+    private void clear(int slice) {
+        String scrollId = scrollIds.remove(slice);
+        if (scrollId != null) {
+            client.prepareClearScroll().addScrollId(scrollId).execute(new ActionListener<ClearScrollResponse>() {
+                @Override
+                public void onResponse(ClearScrollResponse clearScrollResponse) {
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    // the context is freed by elasticsearch anyway once the keep alive is over
+                    LOGGER.debug("Unable to clear a scroll", e);
+                }
+            });
+        }
+    }
+
+    private class PageListener implements ActionListener<SearchResponse> {
+        private final int slice;
+
+        private PageListener(int slice) {
+            this.slice = slice;
+        }
+
+        @Override
+        public void onResponse(SearchResponse searchResponse) {
+            if (searchResponse.getScrollId() != null) {
+                scrollIds.put(slice, searchResponse.getScrollId());
+            }
+            if (closed) {
+                // nobody reads the page anymore
+                clear(slice);
+            } else {
+                pages.add(new Page(slice, searchResponse, null));
+            }
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            pages.add(new Page(slice, null, e));
+        }
+    }
+
+    private static class Page {
+        private final int slice;
+        private final SearchResponse response;
+        private final Exception failure;
+
+        private Page(int slice, SearchResponse response, Exception failure) {
+            this.slice = slice;
+            this.response = response;
+            this.failure = failure;
+        }
+    }
+}
@@ -26,6 +26,9 @@ import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import io.arlas.server.core.ElasticAdmin;
 import io.arlas.server.exceptions.ArlasException;
 import io.arlas.server.exceptions.InternalServerErrorException;
 import io.arlas.server.exceptions.InvalidParameterException;
@@ -36,7 +39,10 @@ import io.arlas.server.model.enumerations.AccessConstraintEnum;
 import io.arlas.server.model.enumerations.InspireAccessClassificationEnum;
 import io.arlas.server.utils.CheckParams;
 import io.arlas.server.utils.ElasticTool;
+import io.arlas.server.utils.FieldTypeRegistry;
+import io.arlas.server.utils.IndexGenerations;
 import io.arlas.server.utils.StringUtil;
+import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.action.admin.indices.mapping.get.GetFieldMappingsResponse;
 import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsResponse;
 import org.elasticsearch.action.delete.DeleteResponse;
@@ -52,18 +58,33 @@ import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.sort.FieldSortBuilder;
 import org.elasticsearch.search.sort.SortOrder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
-public class ElasticCollectionReferenceDaoImpl implements CollectionReferenceDao {
+public class ElasticCollectionReferenceDaoImpl implements CollectionReferenceDao, Managed {
 
+    private static Logger LOGGER = LoggerFactory.getLogger(ElasticCollectionReferenceDaoImpl.class);
 
     Client client = null;
     String arlasIndex = null;
-    private static LoadingCache<String, CollectionReference> collections = null;
+    private final LoadingCache<String, CollectionReference> collections;
+    // version in the arlas index of each cached collection, and generation of the arlas index when they were read (see synchronize())
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+    private volatile String arlasIndexGeneration = null;
+    // reloads the expired collections while the previous version keeps being served
+    private final ExecutorService reloader = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("collection-reloader-%d").setDaemon(true).build());
+    private FieldTypeRegistry fieldTypeRegistry;
+    private ElasticAdmin elasticAdmin;
+    private IndexGenerations indexGenerations;
     private static ObjectMapper mapper;
     private static ObjectReader reader;
     private static final String ARLAS_MAPPING_FILE_NAME = "arlas.mapping.json";
@@ -77,18 +98,54 @@ public class ElasticCollectionReferenceDaoImpl implements CollectionReferenceDao
     }
 
     public ElasticCollectionReferenceDaoImpl(Client client, String arlasIndex, int arlasCacheSize, int arlasCacheTimeout) {
+        this(client, arlasIndex, arlasCacheSize, arlasCacheTimeout, false);
+    }
+
+    /**
+     * @param watched true if {@link #synchronize()} is called periodically: the collections are then kept until they change
+     *                in the arlas index instead of being reloaded every <code>arlasCacheTimeout</code>
+     */
+    public ElasticCollectionReferenceDaoImpl(Client client, String arlasIndex, int arlasCacheSize, int arlasCacheTimeout, boolean watched) {
+        this(client, arlasIndex, arlasCacheSize, arlasCacheTimeout, watched,
+                new FieldTypeRegistry(client, arlasCacheSize, arlasCacheTimeout), new ElasticAdmin(client), new IndexGenerations(client));
+    }
+
+    /**
+     * @param fieldTypeRegistry the registry the services read the field types from, invalidated when a collection changes
+     * @param elasticAdmin      the admin the services read the collection descriptions from, invalidated when a collection changes
+     * @param indexGenerations  tells whether the arlas index moved since the last synchronization
+     */
+    public ElasticCollectionReferenceDaoImpl(Client client, String arlasIndex, int arlasCacheSize, int arlasCacheTimeout, boolean watched,
+                                             FieldTypeRegistry fieldTypeRegistry, ElasticAdmin elasticAdmin, IndexGenerations indexGenerations) {
         super();
         this.client = client;
         this.arlasIndex = arlasIndex;
-        collections = CacheBuilder.newBuilder()
-                .maximumSize(arlasCacheSize)
-                .expireAfterWrite(arlasCacheTimeout, TimeUnit.SECONDS)
-                .build(
+        CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder().maximumSize(arlasCacheSize);
+        if (!watched) {
+            // refresh-ahead: once the timeout is over, the next get triggers a background reload and gets the current
+            // version meanwhile. A collection that can not be reloaded anymore (deleted by another node) expires later.
+            cacheBuilder.refreshAfterWrite(arlasCacheTimeout, TimeUnit.SECONDS)
+                    .expireAfterWrite(2L * arlasCacheTimeout, TimeUnit.SECONDS);
+        }
+        collections = cacheBuilder
+                .build(CacheLoader.asyncReloading(
                         new CacheLoader<String, CollectionReference>() {
                             public CollectionReference load(String ref) throws ArlasException {
                                 return ElasticTool.getCollectionReferenceFromES(client, arlasIndex, ARLAS_INDEX_MAPPING_NAME, reader, ref);
                             }
-                        });
+                        }, reloader));
+        this.fieldTypeRegistry = fieldTypeRegistry;
+        this.elasticAdmin = elasticAdmin;
+        this.indexGenerations = indexGenerations;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+        reloader.shutdown();
     }
 
     @Override
@@ -101,6 +158,107 @@ public class ElasticCollectionReferenceDaoImpl implements CollectionReferenceDao
         }
     }
 
+    /**
+     * Brings the cached collections in line with the arlas index, so that a collection put or deleted through another
+     * ARLAS node is seen by this one. The generation of the arlas index (see {@link IndexGenerations}) is checked first:
+     * as long as it does not move, nothing else is requested. Otherwise, the versions of the collections are listed and
+     * only the new or changed collections are read again, the deleted ones are dropped.
+     * Meant to be called periodically in the background: the first call loads all the collections so that requests
+     * do not wait for a collection to be read anymore.
+     */
+    public void synchronize() {
+        try {
+            String generation = indexGenerations.get(arlasIndex);
+            if (generation.equals(arlasIndexGeneration)) {
+                return;
+            }
+            Map<String, Long> current = getCollectionVersions();
+            for (String ref : new ArrayList<>(versions.keySet())) {
+                if (!current.containsKey(ref)) {
+                    LOGGER.debug("Collection " + ref + " deleted");
+                    versions.remove(ref);
+                    invalidate(ref);
+                }
+            }
+            for (Map.Entry<String, Long> version : current.entrySet()) {
+                String ref = version.getKey();
+                if (!version.getValue().equals(versions.get(ref))) {
+                    try {
+                        CollectionReference collectionReference = ElasticTool.getCollectionReferenceFromES(client, arlasIndex, ARLAS_INDEX_MAPPING_NAME, reader, ref);
+                        LOGGER.debug("Collection " + ref + " (re)loaded");
+                        // replaced rather than invalidated, so that requests keep being served meanwhile
+                        collections.put(ref, collectionReference);
+                        if (versions.put(ref, version.getValue()) != null) {
+                            fieldTypeRegistry.invalidate(ref);
+                            elasticAdmin.invalidateCollectionDescription(ref);
+                        }
+                    } catch (ArlasException e) {
+                        // deleted in the meantime: dropped by the next synchronization
+                        LOGGER.debug("Can not load collection " + ref, e);
+                    }
+                }
+            }
+            arlasIndexGeneration = generation;
+        } catch (ExecutionException e) {
+            if (ExceptionsHelper.unwrapCause(e.getCause()) instanceof IndexNotFoundException) {
+                LOGGER.debug("No arlas index to synchronize the collections with");
+            } else {
+                LOGGER.warn("Unable to synchronize the collections with the arlas index", e.getCause());
+            }
+        } catch (IndexNotFoundException e) {
+            LOGGER.debug("No arlas index to synchronize the collections with");
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to synchronize the collections with the arlas index", e);
+        }
+    }
+
+    /**
+     * Loads all the collections of the arlas index in the cache, along with what is derived from their mappings
+     * (field types, descriptions) and their compiled paths, so that the first requests do not pay for it.
+     * A collection that can not be prepared (missing index for instance) is skipped.
+     * @return the collections loaded
+     */
+    public List<CollectionReference> warmUp() throws ArlasException {
+        List<CollectionReference> collectionReferences = getAllCollectionReferences();
+        for (CollectionReference collectionReference : collectionReferences) {
+            collections.put(collectionReference.collectionName, collectionReference);
+            try {
+                fieldTypeRegistry.getFieldTypes(collectionReference);
+                elasticAdmin.describeCollection(collectionReference);
+                CollectionReferenceParameters params = collectionReference.params;
+                for (String path : Arrays.asList(params.idPath, params.geometryPath, params.centroidPath, params.timestampPath)) {
+                    collectionReference.getFieldPath(path);
+                }
+            } catch (ArlasException | IOException | RuntimeException e) {
+                LOGGER.warn("Unable to prepare collection " + collectionReference.collectionName + ": " + e.getMessage());
+            }
+        }
+        return collectionReferences;
+    }
+
+    private Map<String, Long> getCollectionVersions() {
+        Map<String, Long> current = new HashMap<>();
+        SearchResponse scrollResp = client.prepareSearch(arlasIndex).setFetchSource(false).setVersion(true)
+                .addSort(FieldSortBuilder.DOC_FIELD_NAME, SortOrder.ASC).setScroll(new TimeValue(60000))
+                .setQuery(QueryBuilders.matchAllQuery()).setSize(100).get();
+        do {
+            for (SearchHit hit : scrollResp.getHits().getHits()) {
+                current.put(hit.getId(), hit.getVersion());
+            }
+            scrollResp = client.prepareSearchScroll(scrollResp.getScrollId()).setScroll(new TimeValue(60000))
+                    .execute().actionGet();
+        }
+        while (scrollResp.getHits().getHits().length != 0);
+        return current;
+    }
+
+    private void invalidate(String ref) {
+        collections.invalidate(ref);
+        collections.cleanUp();
+        fieldTypeRegistry.invalidate(ref);
+        elasticAdmin.invalidateCollectionDescription(ref);
+    }
+
     @Override
     public CollectionReference getCollectionReference(String ref) throws ArlasException {
         try {
@@ -148,8 +306,7 @@ public class ElasticCollectionReferenceDaoImpl implements CollectionReferenceDao
             throw new InternalServerErrorException("Unable to delete collection : " + response.status().toString());
         } else {
             //explicit clean-up cache
-            collections.invalidate(ref);
-            collections.cleanUp();
+            invalidate(ref);
         }
     }
 
@@ -191,8 +348,7 @@ public class ElasticCollectionReferenceDaoImpl implements CollectionReferenceDao
             throw new InternalServerErrorException("Unable to index collection : " + response.status().toString());
         } else {
             //explicit clean-up cache
-            collections.invalidate(collectionReference.collectionName);
-            collections.cleanUp();
+            invalidate(collectionReference.collectionName);
 
             return collectionReference;
         }
@@ -19,7 +19,13 @@
 
 package io.arlas.server.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.arlas.server.utils.FieldPath;
+import io.arlas.server.utils.StringUtil;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class CollectionReference {
 
@@ -52,6 +58,11 @@ public class CollectionReference {
     @JsonProperty(value = "params", required = true)
     public CollectionReferenceParameters params;
 
+    private static final int MAX_FIELD_PATHS = 1000;
+
+    @JsonIgnore
+    private final Map<String, FieldPath> fieldPaths = new ConcurrentHashMap<>();
+
     public CollectionReference() {
     }
 
@@ -63,4 +74,18 @@ public class CollectionReference {
         this.collectionName = collectionName;
         this.params = params;
     }
+
+    /**
+     * @return the path compiled once for this collection reference
+     */
+    @JsonIgnore
+    public FieldPath getFieldPath(String path) {
+        if (StringUtil.isNullOrEmpty(path)) {
+            return FieldPath.ROOT;
+        }
+        if (fieldPaths.size() >= MAX_FIELD_PATHS && !fieldPaths.containsKey(path)) {
+            return FieldPath.compile(path); // paths coming from requests (sort) must not fill the memory
+        }
+        return fieldPaths.computeIfAbsent(path, FieldPath::compile);
+    }
 }
@@ -22,4 +22,6 @@ package io.arlas.server.model.request;
 public class MixedRequest {
     public Request basicRequest;
     public Request headerRequest;
+    // value of the Session-Id header, routes the analytics searches of a same session to the same shard copies
+    public String sessionId;
 }
@@ -55,11 +55,11 @@ public class Hit {
 
         md = new MD();
         if (collectionReference.params.idPath != null) {
-            md.id = "" + MapExplorer.getObjectFromPath(collectionReference.params.idPath, source);
+            md.id = "" + collectionReference.getFieldPath(collectionReference.params.idPath).resolve(source);
         }
         if (collectionReference.params.centroidPath != null) {
             try {
-                Object m = MapExplorer.getObjectFromPath(collectionReference.params.centroidPath, source);
+                Object m = collectionReference.getFieldPath(collectionReference.params.centroidPath).resolve(source);
                 md.centroid = m != null ? GeoTypeMapper.getGeoJsonObject(m) : null;
             } catch (ArlasException e) {
                 e.printStackTrace();
@@ -67,14 +67,14 @@ public class Hit {
         }
         if (collectionReference.params.geometryPath != null) {
             try {
-                Object m = MapExplorer.getObjectFromPath(collectionReference.params.geometryPath, source);
+                Object m = collectionReference.getFieldPath(collectionReference.params.geometryPath).resolve(source);
                 md.geometry = m != null ? GeoTypeMapper.getGeoJsonObject(m) : null;
             } catch (ArlasException e) {
                 e.printStackTrace();
             }
         }
         if (collectionReference.params.timestampPath != null) {
-            Object t = MapExplorer.getObjectFromPath(collectionReference.params.timestampPath, source);
+            Object t = collectionReference.getFieldPath(collectionReference.params.timestampPath).resolve(source);
             if (t != null) {
                 String f = collectionReference.params.customParams.get(CollectionReference.TIMESTAMP_FORMAT);
                 md.timestamp = TimestampTypeMapper.getTimestamp(t, f);
@@ -85,7 +85,7 @@ public class Hit {
                 if (e.contains(".")) {
                     String pathToRemove = e.substring(0,e.lastIndexOf("."));
                     String keyToRemove = e.substring(e.lastIndexOf(".")+1);
-                    Optional.ofNullable((Map) MapExplorer.getObjectFromPath(pathToRemove, source)).map(objectWithAttributeToRemove -> objectWithAttributeToRemove.remove(keyToRemove));
+                    Optional.ofNullable((Map) collectionReference.getFieldPath(pathToRemove).resolve(source)).map(objectWithAttributeToRemove -> objectWithAttributeToRemove.remove(keyToRemove));
                 } else {
                     source.remove(e);
                 }
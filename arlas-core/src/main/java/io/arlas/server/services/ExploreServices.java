@@ -19,26 +19,38 @@
 
 package io.arlas.server.services;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.arlas.server.app.ArlasServerConfiguration;
+import io.arlas.server.core.CompiledCollection;
+import io.arlas.server.core.ElasticAdmin;
 import io.arlas.server.core.FluidSearch;
+import io.arlas.server.core.SlicedScroll;
 import io.arlas.server.dao.CollectionReferenceDao;
 import io.arlas.server.dao.ElasticCollectionReferenceDaoImpl;
 import io.arlas.server.exceptions.ArlasException;
 import io.arlas.server.exceptions.BadRequestException;
+import io.arlas.server.exceptions.InternalServerErrorException;
 import io.arlas.server.exceptions.InvalidParameterException;
 import io.arlas.server.model.CollectionReference;
+import io.arlas.server.model.enumerations.AggregationTypeEnum;
 import io.arlas.server.model.enumerations.CollectionFunction;
 import io.arlas.server.model.enumerations.OperatorEnum;
 import io.arlas.server.model.request.*;
 import io.arlas.server.model.response.AggregationMetric;
 import io.arlas.server.model.response.AggregationResponse;
 import io.arlas.server.model.response.CountDistinctResponse;
+import io.arlas.server.model.response.Hits;
+import io.arlas.server.model.response.RangeResponse;
 import io.arlas.server.utils.GeoTypeMapper;
-import io.arlas.server.utils.MapExplorer;
 import io.arlas.server.utils.ResponseCacheManager;
 import io.arlas.server.utils.CheckParams;
 import io.arlas.server.utils.*;
 import org.apache.lucene.geo.Rectangle;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchPhaseExecutionException;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
@@ -46,6 +58,7 @@ import org.elasticsearch.client.Client;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.geo.GeoHashUtils;
 import org.elasticsearch.common.geo.GeoPoint;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.aggregations.InternalAggregation;
 import org.elasticsearch.search.aggregations.bucket.MultiBucketsAggregation;
@@ -53,24 +66,80 @@ import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.aggregations.metrics.cardinality.InternalCardinality;
 import org.elasticsearch.search.aggregations.metrics.geobounds.GeoBounds;
 import org.elasticsearch.search.aggregations.metrics.geocentroid.GeoCentroid;
+import org.elasticsearch.search.aggregations.metrics.stats.Stats;
 import org.elasticsearch.search.aggregations.metrics.tophits.TopHits;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.SearchHit;
 import org.geojson.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class ExploreServices {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExploreServices.class);
+    private static final int EXPORT_PAGE_SIZE = 1000;
+    private static final int EXPORT_MAX_SLICES = 8;
+    private static final TimeValue EXPORT_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
     private Client client;
     private CollectionReferenceDao daoCollectionReference;
     private ResponseCacheManager responseCacheManager = null;
+    private FieldTypeRegistry fieldTypeRegistry;
+    private ElasticAdmin elasticAdmin;
+    private IndexGenerations indexGenerations;
+    private ExploreResponseCache exploreResponseCache = null;
+    private RangeExtentsCache rangeExtentsCache = null;
+    private SearchPrefetchCache searchPrefetchCache = null;
+    private Executor prefetchExecutor = null;
+    // builds the responses out of the elasticsearch network threads; responses are built where the result completes if unset
+    private Executor responseExecutor = Runnable::run;
+    private boolean requestCache;
+    // a collection reference is replaced by a new instance when it changes: the compiled collection goes with the instance
+    private final Cache<CollectionReference, CompiledCollection> compiledCollections;
 
     public ExploreServices(Client client, ArlasServerConfiguration configuration) {
         this.client = client;
-        this.daoCollectionReference = new ElasticCollectionReferenceDaoImpl(client, configuration.arlasindex, configuration.arlascachesize, configuration.arlascachetimeout);
+        this.fieldTypeRegistry = new FieldTypeRegistry(client, configuration.arlascachesize, configuration.arlascachetimeout);
+        this.elasticAdmin = new ElasticAdmin(client, configuration.arlascachesize, configuration.arlascachetimeout);
+        this.indexGenerations = new IndexGenerations(client);
+        // the collection DAO invalidates the field types and descriptions read by the services when a collection changes
+        this.daoCollectionReference = new ElasticCollectionReferenceDaoImpl(client, configuration.arlasindex, configuration.arlascachesize, configuration.arlascachetimeout,
+                configuration.arlasCollectionsWatchInterval > 0, fieldTypeRegistry, elasticAdmin, indexGenerations);
         this.responseCacheManager = new ResponseCacheManager(configuration.arlasrestcachetimeout);
+        this.requestCache = configuration.arlasRequestCacheEnabled;
+        this.compiledCollections = CacheBuilder.newBuilder().weakKeys().build();
+    }
+
+    /**
+     * Services sharing the collection DAO, the registries, the caches and the executors of the given services: a collection
+     * put, deleted or synchronized through one of them is seen by both.
+     */
+    protected ExploreServices(ExploreServices shared) {
+        this.client = shared.client;
+        this.daoCollectionReference = shared.daoCollectionReference;
+        this.responseCacheManager = shared.responseCacheManager;
+        this.fieldTypeRegistry = shared.fieldTypeRegistry;
+        this.elasticAdmin = shared.elasticAdmin;
+        this.indexGenerations = shared.indexGenerations;
+        this.exploreResponseCache = shared.exploreResponseCache;
+        this.rangeExtentsCache = shared.rangeExtentsCache;
+        this.searchPrefetchCache = shared.searchPrefetchCache;
+        this.prefetchExecutor = shared.prefetchExecutor;
+        this.responseExecutor = shared.responseExecutor;
+        this.requestCache = shared.requestCache;
+        this.compiledCollections = shared.compiledCollections;
     }
 
     public Client getClient() {
@@ -89,71 +158,428 @@ public class ExploreServices {
         return responseCacheManager;
     }
 
+    public FieldTypeRegistry getFieldTypeRegistry() {
+        return fieldTypeRegistry;
+    }
+
+    public ElasticAdmin getElasticAdmin() {
+        return elasticAdmin;
+    }
+
+    /**
+     * @return the generations of the indices, shared by the caches of the services so that an index is checked once
+     */
+    public IndexGenerations getIndexGenerations() {
+        return indexGenerations;
+    }
+
+    /**
+     * @return the cache of the explore responses, null if the responses are not cached
+     */
+    public ExploreResponseCache getExploreResponseCache() {
+        return exploreResponseCache;
+    }
+
+    public void setExploreResponseCache(ExploreResponseCache exploreResponseCache) {
+        this.exploreResponseCache = exploreResponseCache;
+    }
+
+    /**
+     * @return the cache of the unfiltered ranges of the fields, null if the ranges are not cached
+     */
+    public RangeExtentsCache getRangeExtentsCache() {
+        return rangeExtentsCache;
+    }
+
+    public void setRangeExtentsCache(RangeExtentsCache rangeExtentsCache) {
+        this.rangeExtentsCache = rangeExtentsCache;
+    }
+
+    /**
+     * @return the cache of the next pages of the cursor searches, null if the next pages are not prefetched
+     */
+    public SearchPrefetchCache getSearchPrefetchCache() {
+        return searchPrefetchCache;
+    }
+
+    /**
+     * @param prefetchExecutor the executor preparing the searches of the next pages, which may have to read the index
+     * generations or the mappings: it must not be shared with the elasticsearch threads nor with the common pool
+     */
+    public void setSearchPrefetchCache(SearchPrefetchCache searchPrefetchCache, Executor prefetchExecutor) {
+        this.searchPrefetchCache = searchPrefetchCache;
+        this.prefetchExecutor = prefetchExecutor;
+    }
+
+    /**
+     * @return the executor on which the explore responses are built once the elasticsearch results are available
+     */
+    public Executor getResponseExecutor() {
+        return responseExecutor;
+    }
+
+    public void setResponseExecutor(Executor responseExecutor) {
+        this.responseExecutor = responseExecutor;
+    }
+
     public SearchRequestBuilder init(CollectionReference collection) {
         return client.prepareSearch(collection.params.indexName);
     }
 
     public SearchHits count(MixedRequest request, CollectionReference collectionReference) throws ArlasException, IOException {
-        FluidSearch fluidSearch = new FluidSearch(client);
-        fluidSearch.setCollectionReference(collectionReference);
-        applyFilter(collectionReference.params.filter, fluidSearch);
+        return prepareCount(request, collectionReference).exec().getHits();
+    }
+
+    public CompletionStage<SearchHits> countAsync(MixedRequest request, CollectionReference collectionReference) throws ArlasException, IOException {
+        return prepareCount(request, collectionReference).execAsync().thenApply(SearchResponse::getHits);
+    }
+
+    public FluidSearch prepareCount(MixedRequest request, CollectionReference collectionReference) throws ArlasException, IOException {
+        return prepareFilter(request, collectionReference).analytics(requestCache, getPreference(request.sessionId));
+    }
+
+    /**
+     * Analytics searches of a same session are routed to the same shard copies, so that the session hits the request caches it filled.
+     * @return the preference of the session, null if there is no session
+     */
+    protected String getPreference(String sessionId) {
+        // a preference starting with "_" has a special meaning for elasticsearch
+        return StringUtil.isNullOrEmpty(sessionId) ? null : "session-" + sessionId;
+    }
+
+    protected FluidSearch prepareFilter(MixedRequest request, CollectionReference collectionReference) throws ArlasException, IOException {
+        FluidSearch fluidSearch = new FluidSearch(client, fieldTypeRegistry);
+        fluidSearch.setCompiledCollection(getCompiledCollection(collectionReference));
         applyFilter(request.basicRequest.filter, fluidSearch);
         applyFilter(request.headerRequest.filter, fluidSearch);
-        return fluidSearch.exec().getHits();
+        return fluidSearch;
     }
 
     public CountDistinctResponse countDistinct(MixedRequest request, CollectionReference collectionReference) throws ArlasException, IOException {
-        FluidSearch fluidSearch = new FluidSearch(client);
-        fluidSearch.setCollectionReference(collectionReference);
-        applyFilter(collectionReference.params.filter, fluidSearch);
-        applyFilter(request.basicRequest.filter, fluidSearch);
-        applyFilter(request.headerRequest.filter, fluidSearch);
+        FluidSearch fluidSearch = prepareCountDistinct(request, collectionReference);
+        return toCountDistinctResponse(fluidSearch.exec(), ((CountDistinct) request.basicRequest).field, fluidSearch);
+    }
+
+    public CompletionStage<CountDistinctResponse> countDistinctAsync(MixedRequest request, CollectionReference collectionReference) throws ArlasException, IOException {
+        FluidSearch fluidSearch = prepareCountDistinct(request, collectionReference);
+        return fluidSearch.execAsync()
+                .thenApply(searchResponse -> toCountDistinctResponse(searchResponse, ((CountDistinct) request.basicRequest).field, fluidSearch));
+    }
+
+    protected FluidSearch prepareCountDistinct(MixedRequest request, CollectionReference collectionReference) throws ArlasException, IOException {
+        FluidSearch fluidSearch = prepareCount(request, collectionReference);
         fluidSearch.countDistinct(((CountDistinct) request.basicRequest).field);
-        SearchResponse searchResponse = fluidSearch.exec();
+        return fluidSearch;
+    }
+
+    protected CountDistinctResponse toCountDistinctResponse(SearchResponse searchResponse, String field, FluidSearch fluidSearch) {
         CountDistinctResponse countDistinctResponse = new CountDistinctResponse();
-        countDistinctResponse.field = ((CountDistinct) request.basicRequest).field;
+        countDistinctResponse.field = field;
         countDistinctResponse.value = ((InternalCardinality)searchResponse.getAggregations().get(fluidSearch.getCountDistinctKey(countDistinctResponse.field))).getValue();
         countDistinctResponse.totalnb = searchResponse.getHits().getTotalHits();
         return countDistinctResponse;
     }
 
     public SearchHits search(MixedRequest request, CollectionReference collectionReference) throws ArlasException, IOException {
-        FluidSearch fluidSearch = new FluidSearch(client);
-        fluidSearch.setCollectionReference(collectionReference);
-        applyFilter(collectionReference.params.filter, fluidSearch);
-        applyFilter(request.basicRequest.filter, fluidSearch);
-        applyFilter(request.headerRequest.filter, fluidSearch);
+        return prepareSearch(request, collectionReference).exec().getHits();
+    }
+
+    public CompletionStage<SearchHits> searchAsync(MixedRequest request, CollectionReference collectionReference) throws ArlasException, IOException {
+        FluidSearch fluidSearch = prepareSearch(request, collectionReference);
+        Page page = ((Search) request.basicRequest).page;
+        if (searchPrefetchCache == null || page == null || page.cursor == null) {
+            return fluidSearch.execAsync().thenApply(SearchResponse::getHits);
+        }
+        // the key waits for the generation of the index without holding the request thread
+        CompletionStage<SearchHits> searchHits = searchPrefetchCache.key(collectionReference, request).thenCompose(key -> {
+            CompletionStage<SearchHits> prefetched = key == null ? null : searchPrefetchCache.take(key);
+            return prefetched != null ? prefetched : execSearchAsync(fluidSearch);
+        });
+        return searchHits.thenApply(hits -> {
+            // out of the elasticsearch thread answering the search: preparing the next search may need the mapping of the index
+            try {
+                prefetchExecutor.execute(() -> prefetchNextPage(request, collectionReference, hits));
+            } catch (RejectedExecutionException e) {
+                // the prefetches are late, or the server is stopping: the next page will be searched when it is asked for
+                LOGGER.debug("Next page of a search not prefetched", e);
+            }
+            return hits;
+        });
+    }
+
+    private static CompletionStage<SearchHits> execSearchAsync(FluidSearch fluidSearch) {
+        try {
+            return fluidSearch.execAsync().thenApply(SearchResponse::getHits);
+        } catch (ArlasException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * @param searchHits the hits of a search paginated with a cursor
+     * @return the cursor of the page following the hits, null if the hits are the last page
+     */
+    public String getNextCursor(MixedRequest request, CollectionReference collectionReference, SearchHits searchHits) throws IOException {
+        Page page = ((Search) request.basicRequest).page;
+        SearchHit[] hits = searchHits.getHits();
+        if (page == null || page.cursor == null || hits.length == 0 || (page.size != null && hits.length < page.size)) {
+            return null;
+        }
+        return SearchCursor.encode(SearchCursor.getSort(page.sort, collectionReference.params.idPath), hits[hits.length - 1].getSortValues());
+    }
+
+    /**
+     * Searches the page following the hits in the background, so that it is served from memory when it is asked for.
+     */
+    private void prefetchNextPage(MixedRequest request, CollectionReference collectionReference, SearchHits searchHits) {
+        try {
+            String cursor = getNextCursor(request, collectionReference, searchHits);
+            if (cursor == null) {
+                return;
+            }
+            Search search = (Search) request.basicRequest;
+            Search nextSearch = new Search();
+            nextSearch.filter = search.filter;
+            nextSearch.form = search.form;
+            nextSearch.projection = search.projection;
+            nextSearch.page = new Page();
+            nextSearch.page.size = search.page.size;
+            nextSearch.page.from = search.page.from;
+            nextSearch.page.sort = search.page.sort;
+            nextSearch.page.cursor = cursor;
+            MixedRequest nextRequest = new MixedRequest();
+            nextRequest.basicRequest = nextSearch;
+            nextRequest.headerRequest = request.headerRequest;
+            nextRequest.sessionId = request.sessionId;
+            FluidSearch fluidSearch = prepareSearch(nextRequest, collectionReference);
+            searchPrefetchCache.key(collectionReference, nextRequest).thenAccept(key -> {
+                if (key != null && !searchPrefetchCache.contains(key)) {
+                    searchPrefetchCache.put(key, execSearchAsync(fluidSearch));
+                }
+            }).exceptionally(e -> {
+                LOGGER.debug("Unable to prefetch the next page of a search", e);
+                return null;
+            });
+        } catch (ArlasException | IOException | RuntimeException e) {
+            // the next page will be searched when it is asked for
+            LOGGER.debug("Unable to prefetch the next page of a search", e);
+        }
+    }
+
+    protected FluidSearch prepareSearch(MixedRequest request, CollectionReference collectionReference) throws ArlasException, IOException {
+        FluidSearch fluidSearch = prepareFilter(request, collectionReference);
         paginate(((Search) request.basicRequest).page, collectionReference, fluidSearch);
         applyProjection(((Search) request.basicRequest).projection, fluidSearch);
-        return fluidSearch.exec().getHits();
+        return fluidSearch;
+    }
+
+    /**
+     * Prepares the scroll of all the hits matching the filters of the request, in no particular order. There is one slice per
+     * shard of the collection's index (up to 8), so that the shards are read in parallel.
+     */
+    public SlicedScroll export(MixedRequest request, CollectionReference collectionReference) throws ArlasException, IOException {
+        FluidSearch fluidSearch = prepareFilter(request, collectionReference);
+        applyProjection(((Search) request.basicRequest).projection, fluidSearch);
+        SearchRequestBuilder searchRequestBuilder = fluidSearch.getPreparedRequest()
+                .setSize(EXPORT_PAGE_SIZE)
+                // _doc is the cheapest order to scroll
+                .addSort(SortBuilders.fieldSort(FieldSortBuilder.DOC_FIELD_NAME));
+        int shards = client.admin().cluster().prepareSearchShards(collectionReference.params.indexName).get().getGroups().length;
+        return new SlicedScroll(client, searchRequestBuilder.request(), Math.max(1, Math.min(shards, EXPORT_MAX_SLICES)), EXPORT_KEEP_ALIVE);
     }
 
     public SearchResponse aggregate(MixedRequest request, CollectionReference collectionReference, Boolean isGeoAggregation) throws ArlasException, IOException {
+        return prepareAggregate(request, collectionReference, isGeoAggregation).exec();
+    }
+
+    public CompletionStage<SearchResponse> aggregateAsync(MixedRequest request, CollectionReference collectionReference, Boolean isGeoAggregation) throws ArlasException, IOException {
+        return prepareAggregate(request, collectionReference, isGeoAggregation).execAsync();
+    }
+
+    public FluidSearch prepareAggregate(MixedRequest request, CollectionReference collectionReference, Boolean isGeoAggregation) throws ArlasException, IOException {
         CheckParams.checkAggregationRequest(request.basicRequest);
-        FluidSearch fluidSearch = new FluidSearch(client);
-        fluidSearch.setCollectionReference(collectionReference);
-        applyFilter(collectionReference.params.filter, fluidSearch);
-        applyFilter(request.basicRequest.filter, fluidSearch);
-        applyFilter(request.headerRequest.filter, fluidSearch);
+        FluidSearch fluidSearch = prepareCount(request, collectionReference);
         applyAggregation(((AggregationsRequest) request.basicRequest).aggregations, fluidSearch, isGeoAggregation);
-        return fluidSearch.exec();
+        return fluidSearch;
     }
 
-    public SearchResponse getFieldRange(MixedRequest request, CollectionReference collectionReference) throws ArlasException, IOException {
-        CheckParams.checkRangeRequestField(request.basicRequest);
-        FluidSearch fluidSearch = new FluidSearch(client);
-        fluidSearch.setCollectionReference(collectionReference);
-        applyFilter(collectionReference.params.filter, fluidSearch);
-        applyFilter(request.basicRequest.filter, fluidSearch);
-        applyFilter(request.headerRequest.filter, fluidSearch);
-        applyRangeRequest(((RangeRequest) request.basicRequest).field, fluidSearch);
+    public CompletionStage<SearchResponse> geohashTileAggregateAsync(MixedRequest request, CollectionReference collectionReference, String geohash) throws ArlasException, IOException {
+        return prepareGeohashTileAggregate(request, collectionReference, geohash).execAsync();
+    }
+
+    /**
+     * Geo-aggregation of the documents of a geohash cell. When the main aggregation is a geohash aggregation, only
+     * the buckets of the cell are kept: the documents whose aggregated field is out of the cell are not aggregated at all.
+     * (The documents whose centroid is out of the cell are already filtered out by the pwithin of the cell.)
+     */
+    public FluidSearch prepareGeohashTileAggregate(MixedRequest request, CollectionReference collectionReference, String geohash) throws ArlasException, IOException {
+        FluidSearch fluidSearch = prepareAggregate(request, collectionReference, true);
+        Aggregation mainAggregation = ((AggregationsRequest) request.basicRequest).aggregations.get(0);
+        if (mainAggregation.type == AggregationTypeEnum.geohash && mainAggregation.field != null
+                && !mainAggregation.field.equals(collectionReference.params.centroidPath)) {
+            fluidSearch.filterGeohashCell(mainAggregation.field, geohash);
+        }
+        return fluidSearch;
+    }
+
+    public RangeResponse getFieldRange(MixedRequest request, CollectionReference collectionReference) throws ArlasException, IOException {
+        FluidSearch fluidSearch = prepareFieldRange(request, collectionReference);
+        RangeExtentsCache.Key key = getRangeExtentKey(request, collectionReference);
+        RangeResponse extent = key == null ? null : rangeExtentsCache.get(key);
+        if (extent != null) {
+            return extent;
+        }
         SearchResponse response;
         try {
             response = fluidSearch.exec();
         } catch (SearchPhaseExecutionException e) {
             throw new InvalidParameterException("The field's type must be numeric");
         }
-        return fluidSearch.exec();
+        return toRangeResponse(response, key);
+    }
+
+    /**
+     * The range of a field is computed by a single hit-less search. The unfiltered ranges are served by the range
+     * extents cache, if any, as long as the index of the collection does not change.
+     */
+    public CompletionStage<RangeResponse> getFieldRangeAsync(MixedRequest request, CollectionReference collectionReference) throws ArlasException, IOException {
+        FluidSearch fluidSearch = prepareFieldRange(request, collectionReference);
+        if (rangeExtentsCache == null) {
+            return execFieldRangeAsync(fluidSearch, null);
+        }
+        // the key waits for the generation of the index without holding the request thread
+        return rangeExtentsCache.keyAsync(collectionReference, ((RangeRequest) request.basicRequest).field, request).thenCompose(key -> {
+            RangeResponse extent = key == null ? null : rangeExtentsCache.get(key);
+            return extent != null ? CompletableFuture.completedFuture(extent) : execFieldRangeAsync(fluidSearch, key);
+        });
+    }
+
+    private CompletionStage<RangeResponse> execFieldRangeAsync(FluidSearch fluidSearch, RangeExtentsCache.Key key) {
+        CompletionStage<SearchResponse> search;
+        try {
+            search = fluidSearch.execAsync();
+        } catch (ArlasException e) {
+            CompletableFuture<RangeResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return search
+                .exceptionally(e -> {
+                    if (e instanceof CompletionException && e.getCause() != null) {
+                        e = e.getCause();
+                    }
+                    if (e instanceof SearchPhaseExecutionException) {
+                        throw new CompletionException(new InvalidParameterException("The field's type must be numeric"));
+                    }
+                    throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                })
+                .thenApply(response -> {
+                    try {
+                        return toRangeResponse(response, key);
+                    } catch (ArlasException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    /**
+     * @return the total number of matching documents and the number of returned ones, read from a search prepared by prepareCount
+     */
+    public Hits toHits(CollectionReference collectionReference, SearchHits searchHits) {
+        Hits hits = new Hits(collectionReference.collectionName);
+        hits.totalnb = searchHits.getTotalHits();
+        hits.nbhits = searchHits.getHits().length;
+        return hits;
+    }
+
+    /**
+     * @return the aggregation read from a search prepared by prepareAggregate, with its elements flattened if asked
+     */
+    public AggregationResponse toAggregationResponse(SearchResponse response, CollectionReference collectionReference, boolean flat) {
+        AggregationResponse aggregationResponse = new AggregationResponse();
+        MultiBucketsAggregation aggregation = (MultiBucketsAggregation) response.getAggregations().asList().get(0);
+        aggregationResponse.totalnb = response.getHits().getTotalHits();
+        aggregationResponse = formatAggregationResult(aggregation, aggregationResponse, collectionReference.collectionName);
+        return flat ? flatten(aggregationResponse) : aggregationResponse;
+    }
+
+    private AggregationResponse flatten(AggregationResponse aggregationResponse) {
+        List<AggregationResponse> elements = aggregationResponse.elements;
+        if (elements != null && elements.size() > 0) {
+            for (AggregationResponse element : elements) {
+                element.flattenedElements = new HashMap<>();
+                flat(element, new MapExplorer.ReduceArrayOnKey(ArlasServerConfiguration.FLATTEN_CHAR), s -> (!"elements".equals(s))).forEach((key, value) -> {
+                    element.flattenedElements.put(key, value);
+                });
+                element.elements = null;
+                element.metrics = null;
+                if (element.hits != null) {
+                    List<Object> flattenedHits = element.hits.stream().map(hit -> MapExplorer.flat(hit, new MapExplorer.ReduceArrayOnKey(ArlasServerConfiguration.FLATTEN_CHAR), new HashSet<>())).collect(Collectors.toList());
+                    element.hits = flattenedHits;
+                }
+            }
+        }
+        return aggregationResponse;
+    }
+
+    /**
+     * @return the min and max of the field and the number of documents having a value, read from a search prepared by prepareFieldRange
+     */
+    public RangeResponse toRangeResponse(SearchResponse response) throws ArlasException {
+        RangeResponse rangeResponse = new RangeResponse();
+        rangeResponse.totalnb = response.getHits().getTotalHits();
+        if (rangeResponse.totalnb > 0) {
+            Stats stats = response.getAggregations().get(FluidSearch.FIELD_STATS);
+            rangeResponse.min = stats.getMin();
+            rangeResponse.max = stats.getMax();
+            CheckParams.checkRangeFieldExists(rangeResponse);
+        } else {
+            rangeResponse.min = rangeResponse.max = null;
+        }
+        return rangeResponse;
+    }
+
+    private RangeResponse toRangeResponse(SearchResponse response, RangeExtentsCache.Key key) throws ArlasException {
+        RangeResponse rangeResponse = toRangeResponse(response);
+        if (key != null) {
+            rangeExtentsCache.put(key, rangeResponse);
+        }
+        return rangeResponse;
+    }
+
+    private RangeExtentsCache.Key getRangeExtentKey(MixedRequest request, CollectionReference collectionReference) {
+        // blocking: only for the synchronous range
+        return rangeExtentsCache == null ? null : rangeExtentsCache.key(collectionReference, ((RangeRequest) request.basicRequest).field, request);
+    }
+
+    public FluidSearch prepareFieldRange(MixedRequest request, CollectionReference collectionReference) throws ArlasException, IOException {
+        CheckParams.checkRangeRequestField(request.basicRequest);
+        CheckParams.checkRangeFieldType(((RangeRequest) request.basicRequest).field, collectionReference, fieldTypeRegistry);
+        FluidSearch fluidSearch = prepareCount(request, collectionReference);
+        applyRangeRequest(((RangeRequest) request.basicRequest).field, fluidSearch);
+        return fluidSearch;
+    }
+
+    /**
+     * Sends the prepared searches to elasticsearch in a single multi search request.
+     * The items of the response are in the order of the searches, each one holding either a response or a failure.
+     */
+    public CompletionStage<MultiSearchResponse> multiSearchAsync(List<FluidSearch> fluidSearches) {
+        MultiSearchRequestBuilder multiSearch = client.prepareMultiSearch();
+        fluidSearches.forEach(fluidSearch -> multiSearch.add(fluidSearch.getPreparedRequest()));
+        CompletableFuture<MultiSearchResponse> result = new CompletableFuture<>();
+        multiSearch.execute(new ActionListener<MultiSearchResponse>() {
+            @Override
+            public void onResponse(MultiSearchResponse multiSearchResponse) {
+                result.complete(multiSearchResponse);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
     }
 
     protected void applyAggregation(List<Aggregation> aggregations, FluidSearch fluidSearch, Boolean isGeoAggregation) throws ArlasException {
@@ -166,6 +592,32 @@ public class ExploreServices {
         fluidSearch = fluidSearch.getFieldRange(field);
     }
 
+    /**
+     * @return the filter query, excludes and mandatory paths of the collection, built once for this collection reference
+     */
+    public CompiledCollection getCompiledCollection(CollectionReference collectionReference) throws ArlasException {
+        try {
+            return compiledCollections.get(collectionReference, () -> compileCollection(collectionReference));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof ArlasException) {
+                throw (ArlasException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new InternalServerErrorException("Can not compile collection " + collectionReference.collectionName, e.getCause());
+        }
+    }
+
+    private CompiledCollection compileCollection(CollectionReference collectionReference) throws ArlasException, IOException {
+        if (collectionReference.params.filter == null) {
+            return new CompiledCollection(collectionReference, null);
+        }
+        FluidSearch fluidSearch = new FluidSearch(client, fieldTypeRegistry);
+        fluidSearch.setCollectionReference(collectionReference);
+        applyFilter(collectionReference.params.filter, fluidSearch);
+        return new CompiledCollection(collectionReference, fluidSearch.getBoolQueryBuilder());
+    }
+
     public void applyFilter(Filter filter, FluidSearch fluidSearch) throws ArlasException, IOException {
         if (filter != null) {
             CheckParams.checkFilter(filter);
@@ -226,7 +678,7 @@ public class ExploreServices {
                         .filter(expression -> expression.op == OperatorEnum.gt || expression.op == OperatorEnum.lt || expression.op == OperatorEnum.gte || expression.op == OperatorEnum.lte || expression.op == OperatorEnum.range)
                         .anyMatch(expression -> {
                             try {
-                                return ElasticTool.isDateField(ParamsParser.getFieldFromFieldAliases(expression.field, collectionReference), client, collectionReference.params.indexName, collectionReference.params.typeName);
+                                return fieldTypeRegistry.isDateField(collectionReference, ParamsParser.getFieldFromFieldAliases(expression.field, collectionReference));
                             } catch (ArlasException e) {
                                 throw new RuntimeException(e);
                             }
@@ -236,8 +688,24 @@ public class ExploreServices {
 
     protected void paginate(Page page, CollectionReference collectionReference, FluidSearch fluidSearch) throws ArlasException {
         setPageSizeAndFrom(page, fluidSearch);
-        sortPage(page, fluidSearch);
-        searchAfterPage(page, collectionReference.params.idPath, fluidSearch);
+        if (page != null && page.cursor != null) {
+            cursorPage(page, collectionReference.params.idPath, fluidSearch);
+        } else {
+            sortPage(page, fluidSearch);
+            searchAfterPage(page, collectionReference.params.idPath, fluidSearch);
+        }
+    }
+
+    /**
+     * Sorts the hits on the sort of the page followed by the id of the collection, and goes on after the hit of the cursor if it is not empty.
+     */
+    protected void cursorPage(Page page, String idCollectionField, FluidSearch fluidSearch) throws ArlasException {
+        CheckParams.checkPageCursor(page);
+        String sort = SearchCursor.getSort(page.sort, idCollectionField);
+        fluidSearch = fluidSearch.sort(sort);
+        if (!page.cursor.isEmpty()) {
+            fluidSearch = fluidSearch.searchAfter(SearchCursor.decode(page.cursor, sort));
+        }
     }
 
     protected void setPageSizeAndFrom(Page page, FluidSearch fluidSearch) throws ArlasException {
@@ -324,9 +792,9 @@ public class ExploreServices {
                         try {
                             CollectionReference collectionReference = getDaoCollectionReference().getCollectionReference(collection);
                             Object geometry = collectionReference.params.geometryPath != null ?
-                                    MapExplorer.getObjectFromPath(collectionReference.params.geometryPath, source) : null;
+                                    collectionReference.getFieldPath(collectionReference.params.geometryPath).resolve(source) : null;
                             if (geometry == null) {
-                                geometry = MapExplorer.getObjectFromPath(collectionReference.params.centroidPath, source);
+                                geometry = collectionReference.getFieldPath(collectionReference.params.centroidPath).resolve(source);
                             }
                             geometryGeoJson = geometry != null ?
                                     GeoTypeMapper.getGeoJsonObject(geometry) : null;
@@ -19,7 +19,6 @@
 
 package io.arlas.server.services;
 
-import io.arlas.server.app.ArlasServerConfiguration;
 import io.arlas.server.core.FilteredUpdater;
 import io.arlas.server.exceptions.ArlasException;
 import io.arlas.server.model.CollectionReference;
@@ -28,7 +27,6 @@ import io.arlas.server.model.request.MixedRequest;
 import io.arlas.server.model.request.Search;
 import io.arlas.server.model.request.Tag;
 import io.arlas.server.model.response.UpdateResponse;
-import org.elasticsearch.client.Client;
 
 import java.io.IOException;
 
@@ -38,8 +36,11 @@ public class UpdateServices extends ExploreServices{
         ADD,REMOVE, REMOVEALL;
     }
 
-    public UpdateServices(Client client, ArlasServerConfiguration configuration) {
-        super(client, configuration);
+    /**
+     * @param exploration the services whose collection DAO, registries and caches are shared, set up beforehand
+     */
+    public UpdateServices(ExploreServices exploration) {
+        super(exploration);
     }
 
     public UpdateResponse tag(CollectionReference collectionReference, MixedRequest request, Tag tag, int max_updates) throws IOException, ArlasException {
@@ -29,6 +29,7 @@ import io.arlas.server.model.Inspire;
 import io.arlas.server.model.Keyword;
 import io.arlas.server.model.enumerations.*;
 import io.arlas.server.model.request.*;
+import io.arlas.server.model.response.ElasticType;
 import io.arlas.server.model.response.RangeResponse;
 import org.joda.time.format.DateTimeFormat;
 
@@ -38,6 +39,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 public class CheckParams {
@@ -57,6 +59,9 @@ public class CheckParams {
     private static final String INVALID_AGGREGATION = "Invalid aggregation parameters. Type and field must be specified";
     private static final String INVALID_AGGREGATION_TYPE = "Invalid aggregation TYPE. Must be datehistogram, geohash, histogram or terms ";
     private static final String INVALID_RANGE_FIELD = "The field name/path should not be null.";
+    private static final String INVALID_RANGE_FIELD_TYPE = "The field's type must be numeric";
+    private static final List<ElasticType> RANGE_FIELD_TYPES = Arrays.asList(ElasticType.LONG, ElasticType.INTEGER, ElasticType.SHORT,
+            ElasticType.BYTE, ElasticType.DOUBLE, ElasticType.FLOAT, ElasticType.DATE, ElasticType.BOOLEAN, ElasticType.UNKNOWN);
     private static final String INVALID_ORDER_VALUE = "Invalid 'order-' value : ";
     private static final String REDUNDANT_COLLECT_FIELD_COLLECT_FCT = "Bad request : the same 'collect-fct' is applied to the same 'collect-field' twice or more.";
     private static final String INVALID_ON_VALUE = "Invalid 'on-' value : ";
@@ -130,6 +135,17 @@ public class CheckParams {
         }
     }
 
+    /**
+     * Rejects a range request on a field that is known to be neither numeric nor a date, without querying elasticsearch.
+     * Fields that are not found in the mapping (patterns for instance) are left to elasticsearch.
+     */
+    public static void checkRangeFieldType(String field, CollectionReference collectionReference, FieldTypeRegistry fieldTypeRegistry) throws ArlasException {
+        Set<ElasticType> types = fieldTypeRegistry.getTypes(collectionReference, field);
+        if (!types.isEmpty() && types.stream().noneMatch(RANGE_FIELD_TYPES::contains)) {
+            throw new InvalidParameterException(INVALID_RANGE_FIELD_TYPE);
+        }
+    }
+
     public static void checkFilter(Filter filter) throws ArlasException {
         if (filter.pwithin != null && !filter.pwithin.isEmpty()) {
             for (MultiValueFilter<String> multiPwithin : filter.pwithin) {
@@ -304,6 +320,17 @@ public class CheckParams {
         }
     }
 
+    public static void checkPageCursor(Page page) throws ArlasException {
+        if (page != null && page.cursor != null) {
+            if (page.from != null && page.from != 0) {
+                throw new BadRequestException("'cursor' parameter cannot be used if 'from' parameter is higher than 0.");
+            }
+            if (page.after != null) {
+                throw new BadRequestException("'cursor' and 'after' parameters cannot be used together.");
+            }
+        }
+    }
+
     public static void checkRangeValidity(String range) throws ArlasException {
         if ((range.isEmpty() || !(range.startsWith("[") || range.startsWith("]")) ||
                 !(range.endsWith("[") || range.endsWith("]")) ||
@@ -0,0 +1,213 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.utils;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import io.arlas.server.model.CollectionReference;
+import io.arlas.server.model.request.MixedRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the serialized responses of the explore services (_count, _aggregate, _geoaggregate, _range) so that identical
+ * requests issued at the same time by several dashboards are answered once per node.
+ * An entry is keyed by a digest of the canonical form of the request (collection, endpoint, filters, partition filter,
+ * aggregations and output options) and of the generation of the collection's index (see {@link IndexGenerations}).
+ * The generation changes when the index is written or refreshed, so entries of an index that moved stop being served
+ * and are evicted by weight. As the generation is checked at most once per second, a response may still be served up to
+ * a second after a write.
+ * The time to live of an entry is the configured one, unless the collection overrides it with the
+ * <code>explore_cache_timeout</code> custom param (0 disables the cache for the collection).
+ */
+public class ExploreResponseCache {
+    private static Logger LOGGER = LoggerFactory.getLogger(ExploreResponseCache.class);
+
+    public static final String COLLECTION_TIMEOUT_PARAM = "explore_cache_timeout";
+    // Approximate memory held by an entry besides its bytes (digest, entry, guava node)
+    private static final int ENTRY_OVERHEAD = 200;
+
+    private final ObjectMapper mapper;
+    private final ObjectMapper canonicalMapper;
+    private final int cacheTimeout;
+    private final Cache<String, Entry> responses;
+    private final IndexGenerations generations;
+    private final MetricRegistry metrics;
+    private final Meter hits;
+    private final Meter misses;
+
+    /**
+     * @param generations the generations of the indices the responses are computed from
+     * @param mapper      the mapper of the REST responses, so that cached bytes are the ones jersey would have written
+     */
+    public ExploreResponseCache(IndexGenerations generations, ObjectMapper mapper, long maxBytes, int cacheTimeout, MetricRegistry metrics) {
+        this.mapper = mapper;
+        this.canonicalMapper = new ObjectMapper()
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+                .configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+                .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+        this.cacheTimeout = cacheTimeout;
+        this.responses = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String digest, Entry entry) -> entry.bytes.length + ENTRY_OVERHEAD)
+                .expireAfterWrite(cacheTimeout, TimeUnit.SECONDS)
+                .build();
+        this.generations = generations;
+        this.metrics = metrics;
+        hits = metrics.meter(MetricRegistry.name(ExploreResponseCache.class, "hits"));
+        misses = metrics.meter(MetricRegistry.name(ExploreResponseCache.class, "misses"));
+        metrics.register(MetricRegistry.name(ExploreResponseCache.class, "hit-rate"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+            }
+        });
+    }
+
+    /**
+     * Builds the key of a response.
+     * @param endpoint the explore endpoint answering the request, e.g. _count
+     * @param options any other parameter changing the response for a same request (flat, geohash, ...)
+     * @return the key, completed with null if the response of this request must not be cached. The generation of the index
+     * may have to be asked to the cluster: the key then completes on an elasticsearch network thread.
+     */
+    public CompletionStage<Key> key(String endpoint, CollectionReference collectionReference, MixedRequest request, boolean pretty, Object... options) {
+        long timeout = getTimeout(collectionReference);
+        if (timeout <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return generations.getAsync(collectionReference.params.indexName).handle((generation, failure) -> {
+            if (failure != null) {
+                // the query itself will report what is wrong with the index
+                LOGGER.debug("Explore response not cacheable", failure);
+                return null;
+            }
+            return buildKey(endpoint, collectionReference, request, pretty, options, generation, timeout);
+        });
+    }
+
+    private Key buildKey(String endpoint, CollectionReference collectionReference, MixedRequest request, boolean pretty, Object[] options, String generation, long timeout) {
+        try {
+            String canonical = canonicalMapper.writeValueAsString(Arrays.asList(
+                    collectionReference.collectionName,
+                    endpoint,
+                    collectionReference.params,
+                    request.basicRequest == null ? null : request.basicRequest.getClass().getSimpleName(),
+                    request.basicRequest,
+                    request.headerRequest,
+                    Arrays.asList(options),
+                    pretty,
+                    generation));
+            String digest = Hashing.sha256().hashString(canonical, StandardCharsets.UTF_8).toString();
+            return new Key(endpoint, digest, pretty, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout));
+        } catch (JsonProcessingException | RuntimeException e) {
+            // the query itself will report what is wrong with the request or the index
+            LOGGER.debug("Explore response not cacheable", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the cached response of the key, null if there is none
+     */
+    public byte[] get(Key key) {
+        Entry entry = responses.getIfPresent(key.digest);
+        if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+            responses.invalidate(key.digest);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.mark();
+            metrics.meter(MetricRegistry.name(ExploreResponseCache.class, key.endpoint, "misses")).mark();
+            return null;
+        }
+        hits.mark();
+        metrics.meter(MetricRegistry.name(ExploreResponseCache.class, key.endpoint, "hits")).mark();
+        return entry.bytes;
+    }
+
+    /**
+     * Serializes the response and keeps it for the key.
+     * @return the serialized response
+     */
+    public byte[] put(Key key, Object response) throws JsonProcessingException {
+        byte[] bytes = key.pretty ? mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(response) : mapper.writeValueAsBytes(response);
+        responses.put(key.digest, new Entry(bytes, key.expiresAt));
+        return bytes;
+    }
+
+    public void invalidateAll() {
+        responses.invalidateAll();
+        responses.cleanUp();
+        generations.invalidateAll();
+    }
+
+    private long getTimeout(CollectionReference collectionReference) {
+        if (collectionReference.params.customParams != null) {
+            String timeout = collectionReference.params.customParams.get(COLLECTION_TIMEOUT_PARAM);
+            if (timeout != null) {
+                try {
+                    return Math.min(Long.parseLong(timeout.trim()), cacheTimeout);
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Invalid " + COLLECTION_TIMEOUT_PARAM + " for collection " + collectionReference.collectionName + ": " + timeout);
+                }
+            }
+        }
+        return cacheTimeout;
+    }
+
+    public static class Key {
+        private final String endpoint;
+        private final String digest;
+        private final boolean pretty;
+        private final long expiresAt;
+
+        private Key(String endpoint, String digest, boolean pretty, long expiresAt) {
+            this.endpoint = endpoint;
+            this.digest = digest;
+            this.pretty = pretty;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Entry {
+        private final byte[] bytes;
+        private final long expiresAt;
+
+        private Entry(byte[] bytes, long expiresAt) {
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
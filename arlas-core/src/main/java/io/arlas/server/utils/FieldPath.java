@@ -0,0 +1,78 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.utils;
+
+import io.arlas.server.model.response.CollectionReferenceDescriptionProperty;
+
+import java.util.Map;
+
+/**
+ * Dotted path of a field, split once so that it can be resolved against many sources.
+ * Resolves like {@link MapExplorer#getObjectFromPath(String, Object)}.
+ */
+public final class FieldPath {
+
+    public static final FieldPath ROOT = new FieldPath("");
+
+    private final String path;
+    private final String[] levels;
+
+    private FieldPath(String path) {
+        this.path = path;
+        this.levels = StringUtil.isNullOrEmpty(path) ? new String[0] : path.split("\\.");
+    }
+
+    public static FieldPath compile(String path) {
+        return StringUtil.isNullOrEmpty(path) ? ROOT : new FieldPath(path);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the object found at this path in the source, null if there is none.
+     */
+    public Object resolve(Object source) {
+        Object current = source;
+        for (int i = 0; i < levels.length && current != null; i++) {
+            current = get(current, levels[i]);
+        }
+        return current;
+    }
+
+    /**
+     * @return the object found under the key of the source, null if there is none: a single level of a path.
+     */
+    @SuppressWarnings("rawtypes")
+    public static Object get(Object source, String key) {
+        if (source instanceof Map) {
+            return ((Map) source).get(key);
+        } else if (source instanceof CollectionReferenceDescriptionProperty && ((CollectionReferenceDescriptionProperty) source).properties != null) {
+            return ((CollectionReferenceDescriptionProperty) source).properties.get(key);
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
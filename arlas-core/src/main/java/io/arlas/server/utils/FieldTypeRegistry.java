@@ -0,0 +1,176 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.arlas.server.exceptions.ArlasException;
+import io.arlas.server.exceptions.InternalServerErrorException;
+import io.arlas.server.exceptions.NotFoundException;
+import io.arlas.server.model.CollectionReference;
+import io.arlas.server.model.response.CollectionReferenceDescriptionProperty;
+import io.arlas.server.model.response.ElasticType;
+import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.index.IndexNotFoundException;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps, for each collection, the elasticsearch types of all the mapped fields (including sub-fields), so that
+ * questions such as "is this field a date ?" are answered locally instead of with a mapping request to the cluster.
+ * The types of a collection are fetched with a single GetMappings request on the collection's index and kept until the
+ * cache timeout expires or until the collection is updated or deleted.
+ * A single registry is meant to be shared by the services and the collection DAO (see {@link io.arlas.server.services.ExploreServices}),
+ * so that an invalidation is seen by every service.
+ */
+public class FieldTypeRegistry {
+
+    private static final String ES_PROPERTIES = "properties";
+    private static final String ES_FIELDS = "fields";
+    private static final String ES_TYPE = "type";
+
+    private final Cache<String, Map<String, Set<ElasticType>>> fieldTypes;
+
+    private Client client;
+
+    public FieldTypeRegistry(Client client, int cacheSize, int cacheTimeout) {
+        this.client = client;
+        fieldTypes = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTimeout, TimeUnit.SECONDS)
+                .build();
+    }
+
+    public boolean isDateField(CollectionReference collectionReference, String field) throws ArlasException {
+        return isOfType(collectionReference, field, ElasticType.DATE);
+    }
+
+    public boolean isGeoPointField(CollectionReference collectionReference, String field) throws ArlasException {
+        return isOfType(collectionReference, field, ElasticType.GEO_POINT);
+    }
+
+    public boolean isGeoShapeField(CollectionReference collectionReference, String field) throws ArlasException {
+        return isOfType(collectionReference, field, ElasticType.GEO_SHAPE);
+    }
+
+    public boolean isKeywordField(CollectionReference collectionReference, String field) throws ArlasException {
+        return isOfType(collectionReference, field, ElasticType.KEYWORD);
+    }
+
+    /**
+     * @return true if the field is mapped with the given type in at least one of the indices of the collection
+     */
+    public boolean isOfType(CollectionReference collectionReference, String field, ElasticType type) throws ArlasException {
+        return getTypes(collectionReference, field).contains(type);
+    }
+
+    /**
+     * @return the types of the field in the indices of the collection, an empty set if the field is not mapped
+     */
+    public Set<ElasticType> getTypes(CollectionReference collectionReference, String field) throws ArlasException {
+        return getFieldTypes(collectionReference).getOrDefault(field, Collections.emptySet());
+    }
+
+    public Map<String, Set<ElasticType>> getFieldTypes(CollectionReference collectionReference) throws ArlasException {
+        try {
+            return fieldTypes.get(collectionReference.collectionName, () -> loadFieldTypes(collectionReference));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof ArlasException) {
+                throw (ArlasException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new InternalServerErrorException("Can not fetch the mapping of collection " + collectionReference.collectionName, e.getCause());
+        }
+    }
+
+    public void invalidate(String collection) {
+        fieldTypes.invalidate(collection);
+        fieldTypes.cleanUp();
+    }
+
+    public void invalidateAll() {
+        fieldTypes.invalidateAll();
+        fieldTypes.cleanUp();
+    }
+
+    /**
+     * Flattens the properties of a collection description into a map of field path -> type.
+     */
+    public static Map<String, Set<ElasticType>> getFieldTypes(Map<String, CollectionReferenceDescriptionProperty> properties) {
+        Map<String, Set<ElasticType>> types = new HashMap<>();
+        collectFromDescription("", properties, types);
+        return types;
+    }
+
+    private Map<String, Set<ElasticType>> loadFieldTypes(CollectionReference collectionReference) throws ArlasException {
+        String indexName = collectionReference.params.indexName;
+        String typeName = collectionReference.params.typeName;
+        GetMappingsResponse response;
+        try {
+            response = client.admin().indices().prepareGetMappings(indexName).setTypes(typeName).get();
+        } catch (IndexNotFoundException e) {
+            throw new NotFoundException("Index " + indexName + " does not exist.");
+        }
+        Map<String, Set<ElasticType>> types = new HashMap<>();
+        Iterator<String> indices = response.getMappings().keysIt();
+        while (indices.hasNext()) {
+            MappingMetaData mapping = response.getMappings().get(indices.next()).get(typeName);
+            if (mapping != null) {
+                collectFromMapping("", mapping.sourceAsMap().get(ES_PROPERTIES), types);
+            }
+        }
+        types.replaceAll((path, pathTypes) -> Collections.unmodifiableSet(pathTypes));
+        return Collections.unmodifiableMap(types);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void collectFromMapping(String prefix, Object properties, Map<String, Set<ElasticType>> types) {
+        if (properties instanceof Map) {
+            ((Map<String, Object>) properties).forEach((name, value) -> {
+                if (value instanceof Map) {
+                    Map<String, Object> property = (Map<String, Object>) value;
+                    String path = prefix + name;
+                    ElasticType type = property.containsKey(ES_TYPE) ? ElasticType.getType(property.get(ES_TYPE)) : ElasticType.OBJECT;
+                    types.computeIfAbsent(path, p -> EnumSet.noneOf(ElasticType.class)).add(type);
+                    collectFromMapping(path + ".", property.get(ES_PROPERTIES), types);
+                    collectFromMapping(path + ".", property.get(ES_FIELDS), types);
+                }
+            });
+        }
+    }
+
+    private static void collectFromDescription(String prefix, Map<String, CollectionReferenceDescriptionProperty> properties, Map<String, Set<ElasticType>> types) {
+        if (properties != null) {
+            properties.forEach((name, property) -> {
+                String path = prefix + name;
+                if (property.type != null) {
+                    types.computeIfAbsent(path, p -> EnumSet.noneOf(ElasticType.class)).add(property.type);
+                }
+                collectFromDescription(path + ".", property.properties, types);
+            });
+        }
+    }
+}
@@ -22,6 +22,7 @@ package io.arlas.server.utils;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Polygon;
 import io.arlas.server.core.FluidSearch;
+import io.arlas.server.core.GeometryCache;
 import io.arlas.server.exceptions.ArlasException;
 import io.arlas.server.exceptions.InvalidParameterException;
 import io.arlas.server.exceptions.NotImplementedException;
@@ -55,11 +56,15 @@ public class GeoTileUtil {
     public static BoundingBox bboxIntersects(BoundingBox bbox, String bboxCorners) throws ArlasException {
         BoundingBox ret = null;
         if (bbox != null && bboxCorners != null) {
-            // west, south, east, north
-            double topBboxCorner = Double.parseDouble(bboxCorners.split(",")[3].trim());
-            double leftBboxCorner = Double.parseDouble(bboxCorners.split(",")[0].trim());
-            double bottomBboxCorner = Double.parseDouble(bboxCorners.split(",")[1].trim());
-            double rightBboxCorner = Double.parseDouble(bboxCorners.split(",")[2].trim());
+            // west, south, east, north, parsed once for all the tiles
+            double[] corners = GeometryCache.getBbox(bboxCorners);
+            if (corners.length != 4) {
+                throw new InvalidParameterException(FluidSearch.INVALID_BBOX);
+            }
+            double topBboxCorner = corners[3];
+            double leftBboxCorner = corners[0];
+            double bottomBboxCorner = corners[1];
+            double rightBboxCorner = corners[2];
             if (leftBboxCorner < rightBboxCorner) {
                 // If the bbox is in Paris region
                 ret = new BoundingBox(Math.min(bbox.getNorth(), topBboxCorner),
@@ -101,6 +106,13 @@ public class GeoTileUtil {
         return new BoundingBox(north, south, west, east);
     }
 
+    /**
+     * @return the size in degrees of a pixel of a 256 pixels wide tile of the zoom level z
+     */
+    public static double getResolution(int z) {
+        return 360 / (256 * Math.pow(2.0, z));
+    }
+
     static double getLon(int x, int z) {
         return x / Math.pow(2.0, z) * 360.0 - 180;
     }
@@ -19,24 +19,25 @@
 
 package io.arlas.server.utils;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectReader;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
 import io.arlas.server.exceptions.ArlasException;
 import io.arlas.server.exceptions.NotImplementedException;
 import org.elasticsearch.common.geo.GeoPoint;
-import org.geojson.GeoJsonObject;
-import org.geojson.Point;
+import org.geojson.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class GeoTypeMapper {
 
-    private static ObjectMapper mapper = new ObjectMapper();
-    private static ObjectReader reader = mapper.readerFor(GeoJsonObject.class);
+    private static GeometryFactory geometryFactory = new GeometryFactory();
 
     private static Logger LOGGER = LoggerFactory.getLogger(GeoTypeMapper.class);
 
@@ -65,8 +66,8 @@ public class GeoTypeMapper {
             if (((HashMap) elasticsearchGeoField).containsKey("type")) {
                 //Standard GeoJSON object
                 try {
-                    geoObject = reader.readValue(mapper.writer().writeValueAsString(elasticsearchGeoField));
-                } catch (IOException e) {
+                    geoObject = getGeoJsonShape((Map) elasticsearchGeoField);
+                } catch (ClassCastException | IndexOutOfBoundsException | NullPointerException e) {
                     LOGGER.error("unable to parse geo_shape from " + elasticsearchGeoField.getClass() + " :" + elasticsearchGeoField, e);
                     throw new NotImplementedException("Not supported geo_point or geo_shape format found.");
                 }
@@ -88,4 +89,261 @@ public class GeoTypeMapper {
         }
         return geoObject;
     }
+
+    /**
+     * Same as {@link #getGeoJsonObject(Object)} but builds a JTS geometry, without going through GeoJSON.
+     */
+    @SuppressWarnings("rawtypes")
+    public static Geometry getJtsGeometry(Object elasticsearchGeoField) throws ArlasException {
+        if (elasticsearchGeoField instanceof HashMap && ((HashMap) elasticsearchGeoField).containsKey("type")) {
+            try {
+                return getJtsShape((Map) elasticsearchGeoField);
+            } catch (ClassCastException | IndexOutOfBoundsException | NullPointerException | IllegalArgumentException e) {
+                LOGGER.error("unable to parse geo_shape from " + elasticsearchGeoField.getClass() + " :" + elasticsearchGeoField, e);
+                throw new NotImplementedException("Not supported geo_point or geo_shape format found.");
+            }
+        }
+        LngLatAlt point = ((Point) getGeoJsonObject(elasticsearchGeoField)).getCoordinates();
+        return geometryFactory.createPoint(new Coordinate(point.getLongitude(), point.getLatitude()));
+    }
+
+    /**
+     * @return the JTS geometry of a GeoJSON geometry, null if it is not a geometry
+     * @throws IllegalArgumentException if a ring of a polygon is not closed or too short
+     */
+    public static Geometry toJtsGeometry(GeoJsonObject geometry) {
+        if (geometry instanceof Point) {
+            return geometryFactory.createPoint(toJtsCoordinate(((Point) geometry).getCoordinates()));
+        } else if (geometry instanceof MultiPoint) {
+            return geometryFactory.createMultiPoint(toJtsCoordinates(((MultiPoint) geometry).getCoordinates()));
+        } else if (geometry instanceof LineString) {
+            return geometryFactory.createLineString(toJtsCoordinates(((LineString) geometry).getCoordinates()));
+        } else if (geometry instanceof MultiLineString) {
+            return geometryFactory.createMultiLineString(((MultiLineString) geometry).getCoordinates().stream()
+                    .map(line -> geometryFactory.createLineString(toJtsCoordinates(line))).toArray(com.vividsolutions.jts.geom.LineString[]::new));
+        } else if (geometry instanceof Polygon) {
+            return toJtsPolygonOfRings(((Polygon) geometry).getCoordinates());
+        } else if (geometry instanceof MultiPolygon) {
+            return geometryFactory.createMultiPolygon(((MultiPolygon) geometry).getCoordinates().stream()
+                    .map(GeoTypeMapper::toJtsPolygonOfRings).toArray(com.vividsolutions.jts.geom.Polygon[]::new));
+        } else if (geometry instanceof GeometryCollection) {
+            return geometryFactory.createGeometryCollection(((GeometryCollection) geometry).getGeometries().stream()
+                    .map(GeoTypeMapper::toJtsGeometry).filter(g -> g != null).toArray(Geometry[]::new));
+        }
+        return null;
+    }
+
+    /**
+     * @return the GeoJSON geometry of a JTS geometry
+     */
+    public static GeoJsonObject toGeoJsonObject(Geometry geometry) {
+        if (geometry instanceof com.vividsolutions.jts.geom.Point) {
+            return new Point(toLngLatAlt(geometry.getCoordinate()));
+        } else if (geometry instanceof com.vividsolutions.jts.geom.MultiPoint) {
+            MultiPoint multiPoint = new MultiPoint();
+            multiPoint.setCoordinates(toLngLatAlts(geometry.getCoordinates()));
+            return multiPoint;
+        } else if (geometry instanceof com.vividsolutions.jts.geom.LineString) {
+            LineString lineString = new LineString();
+            lineString.setCoordinates(toLngLatAlts(geometry.getCoordinates()));
+            return lineString;
+        } else if (geometry instanceof com.vividsolutions.jts.geom.MultiLineString) {
+            MultiLineString multiLineString = new MultiLineString();
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                multiLineString.add(toLngLatAlts(geometry.getGeometryN(i).getCoordinates()));
+            }
+            return multiLineString;
+        } else if (geometry instanceof com.vividsolutions.jts.geom.Polygon) {
+            Polygon polygon = new Polygon();
+            polygon.setCoordinates(toRings((com.vividsolutions.jts.geom.Polygon) geometry));
+            return polygon;
+        } else if (geometry instanceof com.vividsolutions.jts.geom.MultiPolygon) {
+            MultiPolygon multiPolygon = new MultiPolygon();
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                multiPolygon.add(toRings((com.vividsolutions.jts.geom.Polygon) geometry.getGeometryN(i)));
+            }
+            return multiPolygon;
+        } else {
+            GeometryCollection collection = new GeometryCollection();
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                collection.add(toGeoJsonObject(geometry.getGeometryN(i)));
+            }
+            return collection;
+        }
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static GeoJsonObject getGeoJsonShape(Map shape) throws NotImplementedException {
+        List coordinates = (List) shape.get("coordinates");
+        switch (shapeType(shape)) {
+            case "point":
+                return new Point(toLngLatAlt((List) coordinates));
+            case "multipoint":
+                MultiPoint multiPoint = new MultiPoint();
+                multiPoint.setCoordinates(toLngLatAlts(coordinates));
+                return multiPoint;
+            case "linestring":
+                LineString lineString = new LineString();
+                lineString.setCoordinates(toLngLatAlts(coordinates));
+                return lineString;
+            case "multilinestring":
+                MultiLineString multiLineString = new MultiLineString();
+                multiLineString.setCoordinates(toRings(coordinates));
+                return multiLineString;
+            case "polygon":
+                Polygon polygon = new Polygon();
+                polygon.setCoordinates(toRings(coordinates));
+                return polygon;
+            case "multipolygon":
+                MultiPolygon multiPolygon = new MultiPolygon();
+                List<List<List<LngLatAlt>>> polygons = new ArrayList<>(coordinates.size());
+                for (Object rings : coordinates) {
+                    polygons.add(toRings((List) rings));
+                }
+                multiPolygon.setCoordinates(polygons);
+                return multiPolygon;
+            case "geometrycollection":
+                GeometryCollection collection = new GeometryCollection();
+                for (Object geometry : (List) shape.get("geometries")) {
+                    collection.add(getGeoJsonShape((Map) geometry));
+                }
+                return collection;
+            default:
+                LOGGER.error("unknown geo_shape type " + shape.get("type"));
+                throw new NotImplementedException("Not supported geo_point or geo_shape format found.");
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Geometry getJtsShape(Map shape) throws NotImplementedException {
+        List coordinates = (List) shape.get("coordinates");
+        switch (shapeType(shape)) {
+            case "point":
+                return geometryFactory.createPoint(toCoordinate((List) coordinates));
+            case "multipoint":
+                return geometryFactory.createMultiPoint(toCoordinates(coordinates));
+            case "linestring":
+                return geometryFactory.createLineString(toCoordinates(coordinates));
+            case "multilinestring":
+                com.vividsolutions.jts.geom.LineString[] lineStrings = new com.vividsolutions.jts.geom.LineString[coordinates.size()];
+                for (int i = 0; i < lineStrings.length; i++) {
+                    lineStrings[i] = geometryFactory.createLineString(toCoordinates((List) coordinates.get(i)));
+                }
+                return geometryFactory.createMultiLineString(lineStrings);
+            case "polygon":
+                return toJtsPolygon(coordinates);
+            case "multipolygon":
+                com.vividsolutions.jts.geom.Polygon[] polygons = new com.vividsolutions.jts.geom.Polygon[coordinates.size()];
+                for (int i = 0; i < polygons.length; i++) {
+                    polygons[i] = toJtsPolygon((List) coordinates.get(i));
+                }
+                return geometryFactory.createMultiPolygon(polygons);
+            case "geometrycollection":
+                List geometries = (List) shape.get("geometries");
+                Geometry[] collection = new Geometry[geometries.size()];
+                for (int i = 0; i < collection.length; i++) {
+                    collection[i] = getJtsShape((Map) geometries.get(i));
+                }
+                return geometryFactory.createGeometryCollection(collection);
+            default:
+                LOGGER.error("unknown geo_shape type " + shape.get("type"));
+                throw new NotImplementedException("Not supported geo_point or geo_shape format found.");
+        }
+    }
+
+    /**
+     * Elasticsearch accepts the GeoJSON types whatever their case.
+     */
+    @SuppressWarnings("rawtypes")
+    private static String shapeType(Map shape) {
+        return shape.get("type").toString().toLowerCase();
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static LngLatAlt toLngLatAlt(List position) {
+        double longitude = ((Number) position.get(0)).doubleValue();
+        double latitude = ((Number) position.get(1)).doubleValue();
+        return position.size() > 2 ? new LngLatAlt(longitude, latitude, ((Number) position.get(2)).doubleValue()) : new LngLatAlt(longitude, latitude);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static List<LngLatAlt> toLngLatAlts(List positions) {
+        List<LngLatAlt> lngLatAlts = new ArrayList<>(positions.size());
+        for (Object position : positions) {
+            lngLatAlts.add(toLngLatAlt((List) position));
+        }
+        return lngLatAlts;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static List<List<LngLatAlt>> toRings(List rings) {
+        List<List<LngLatAlt>> lngLatAlts = new ArrayList<>(rings.size());
+        for (Object ring : rings) {
+            lngLatAlts.add(toLngLatAlts((List) ring));
+        }
+        return lngLatAlts;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Coordinate toCoordinate(List position) {
+        double longitude = ((Number) position.get(0)).doubleValue();
+        double latitude = ((Number) position.get(1)).doubleValue();
+        return position.size() > 2 ? new Coordinate(longitude, latitude, ((Number) position.get(2)).doubleValue()) : new Coordinate(longitude, latitude);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Coordinate[] toCoordinates(List positions) {
+        Coordinate[] coordinates = new Coordinate[positions.size()];
+        for (int i = 0; i < coordinates.length; i++) {
+            coordinates[i] = toCoordinate((List) positions.get(i));
+        }
+        return coordinates;
+    }
+
+    private static Coordinate toJtsCoordinate(LngLatAlt position) {
+        return Double.isNaN(position.getAltitude()) ? new Coordinate(position.getLongitude(), position.getLatitude())
+                : new Coordinate(position.getLongitude(), position.getLatitude(), position.getAltitude());
+    }
+
+    private static Coordinate[] toJtsCoordinates(List<LngLatAlt> positions) {
+        return positions.stream().map(GeoTypeMapper::toJtsCoordinate).toArray(Coordinate[]::new);
+    }
+
+    private static com.vividsolutions.jts.geom.Polygon toJtsPolygonOfRings(List<List<LngLatAlt>> rings) {
+        LinearRing shell = geometryFactory.createLinearRing(toJtsCoordinates(rings.get(0)));
+        LinearRing[] holes = rings.subList(1, rings.size()).stream()
+                .map(ring -> geometryFactory.createLinearRing(toJtsCoordinates(ring))).toArray(LinearRing[]::new);
+        return geometryFactory.createPolygon(shell, holes);
+    }
+
+    private static LngLatAlt toLngLatAlt(Coordinate coordinate) {
+        return Double.isNaN(coordinate.z) ? new LngLatAlt(coordinate.x, coordinate.y) : new LngLatAlt(coordinate.x, coordinate.y, coordinate.z);
+    }
+
+    private static List<LngLatAlt> toLngLatAlts(Coordinate[] coordinates) {
+        List<LngLatAlt> lngLatAlts = new ArrayList<>(coordinates.length);
+        for (Coordinate coordinate : coordinates) {
+            lngLatAlts.add(toLngLatAlt(coordinate));
+        }
+        return lngLatAlts;
+    }
+
+    private static List<List<LngLatAlt>> toRings(com.vividsolutions.jts.geom.Polygon polygon) {
+        List<List<LngLatAlt>> rings = new ArrayList<>(polygon.getNumInteriorRing() + 1);
+        rings.add(toLngLatAlts(polygon.getExteriorRing().getCoordinates()));
+        for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+            rings.add(toLngLatAlts(polygon.getInteriorRingN(i).getCoordinates()));
+        }
+        return rings;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static com.vividsolutions.jts.geom.Polygon toJtsPolygon(List rings) {
+        LinearRing shell = geometryFactory.createLinearRing(toCoordinates((List) rings.get(0)));
+        LinearRing[] holes = new LinearRing[rings.size() - 1];
+        for (int i = 0; i < holes.length; i++) {
+            holes[i] = geometryFactory.createLinearRing(toCoordinates((List) rings.get(i + 1)));
+        }
+        return geometryFactory.createPolygon(shell, holes);
+    }
 }
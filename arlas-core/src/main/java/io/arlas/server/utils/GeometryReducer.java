@@ -0,0 +1,158 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.utils;
+
+import com.codahale.metrics.MetricRegistry;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+import org.geojson.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Lightens the geometries written in a response: they are simplified with a tolerance, without changing their topology,
+ * and their coordinates are rounded to a number of decimals.
+ * The vertices read and written are counted for the whole response and reported once it is written.
+ */
+public class GeometryReducer {
+    private static Logger LOGGER = LoggerFactory.getLogger(GeometryReducer.class);
+    private static MetricRegistry metrics = null;
+
+    private final double tolerance;
+    private final Integer precision;
+    private final double scale;
+    private long inputVertices = 0;
+    private long outputVertices = 0;
+
+    /**
+     * @param tolerance the distance tolerance of the simplification, in degrees (0 does not simplify)
+     * @param precision the number of decimals of the coordinates (null keeps them as they are)
+     */
+    public GeometryReducer(double tolerance, Integer precision) {
+        this.tolerance = tolerance;
+        this.precision = precision;
+        this.scale = precision == null ? 0 : Math.pow(10, precision);
+    }
+
+    public static void setMetricRegistry(MetricRegistry metricRegistry) {
+        metrics = metricRegistry;
+    }
+
+    /**
+     * @return whether the geometries are changed at all
+     */
+    public boolean isEnabled() {
+        return tolerance > 0 || precision != null;
+    }
+
+    /**
+     * @return the reduced geometry: a new one when it is simplified, the given one with its coordinates rounded otherwise
+     */
+    public GeoJsonObject reduce(GeoJsonObject geometry) {
+        if (geometry == null) {
+            return null;
+        }
+        inputVertices += countVertices(geometry);
+        GeoJsonObject reduced = geometry;
+        if (tolerance > 0 && !(geometry instanceof Point) && !(geometry instanceof MultiPoint)) {
+            try {
+                Geometry jtsGeometry = GeoTypeMapper.toJtsGeometry(geometry);
+                if (jtsGeometry != null) {
+                    reduced = GeoTypeMapper.toGeoJsonObject(TopologyPreservingSimplifier.simplify(jtsGeometry, tolerance));
+                }
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                // invalid geometries are written as they are
+                LOGGER.debug("Unable to simplify a geometry", e);
+            }
+        }
+        if (precision != null) {
+            visit(reduced, this::round);
+        }
+        outputVertices += countVertices(reduced);
+        return reduced;
+    }
+
+    /**
+     * Reports the vertices read and written since the creation of the reducer.
+     */
+    public void report() {
+        if (metrics != null && isEnabled()) {
+            metrics.meter(MetricRegistry.name(GeometryReducer.class, "input-vertices")).mark(inputVertices);
+            metrics.meter(MetricRegistry.name(GeometryReducer.class, "output-vertices")).mark(outputVertices);
+        }
+    }
+
+    public long getInputVertices() {
+        return inputVertices;
+    }
+
+    public long getOutputVertices() {
+        return outputVertices;
+    }
+
+    /**
+     * Rounds the positions of a line or a ring and removes the consecutive positions merged by the rounding,
+     * as long as the line or ring keeps its minimum number of positions.
+     */
+    private void round(List<LngLatAlt> positions, int minSize) {
+        LngLatAlt previous = null;
+        for (int i = 0; i < positions.size(); i++) {
+            LngLatAlt position = positions.get(i);
+            position.setLongitude(Math.round(position.getLongitude() * scale) / scale);
+            position.setLatitude(Math.round(position.getLatitude() * scale) / scale);
+            if (previous != null && positions.size() > minSize && i < positions.size() - 1
+                    && previous.getLongitude() == position.getLongitude() && previous.getLatitude() == position.getLatitude()) {
+                positions.remove(i--);
+            } else {
+                previous = position;
+            }
+        }
+    }
+
+    private static long countVertices(GeoJsonObject geometry) {
+        long[] count = {0};
+        visit(geometry, (positions, minSize) -> count[0] += positions.size());
+        return count[0];
+    }
+
+    /**
+     * Visits the lists of positions of a geometry with their minimum size (1 for points, 2 for lines, 4 for rings).
+     */
+    private static void visit(GeoJsonObject geometry, BiConsumer<List<LngLatAlt>, Integer> visitor) {
+        if (geometry instanceof Point) {
+            visitor.accept(Collections.singletonList(((Point) geometry).getCoordinates()), 1);
+        } else if (geometry instanceof MultiPoint) {
+            visitor.accept(((MultiPoint) geometry).getCoordinates(), 1);
+        } else if (geometry instanceof LineString) {
+            visitor.accept(((LineString) geometry).getCoordinates(), 2);
+        } else if (geometry instanceof MultiLineString) {
+            ((MultiLineString) geometry).getCoordinates().forEach(line -> visitor.accept(line, 2));
+        } else if (geometry instanceof Polygon) {
+            ((Polygon) geometry).getCoordinates().forEach(ring -> visitor.accept(ring, 4));
+        } else if (geometry instanceof MultiPolygon) {
+            ((MultiPolygon) geometry).getCoordinates().forEach(polygon -> polygon.forEach(ring -> visitor.accept(ring, 4)));
+        } else if (geometry instanceof GeometryCollection) {
+            ((GeometryCollection) geometry).getGeometries().forEach(member -> visit(member, visitor));
+        }
+    }
+}
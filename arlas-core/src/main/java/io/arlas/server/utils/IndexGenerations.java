@@ -0,0 +1,111 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.stats.IndicesStatsResponse;
+import org.elasticsearch.action.admin.indices.stats.ShardStats;
+import org.elasticsearch.client.Client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The generation of an index is the number of refreshes of its shards and the sum of the max sequence numbers of its
+ * primaries: the former moves when new documents become visible, the latter when documents are written.
+ * Anything computed from the documents of an index stays valid as long as the generation of the index does not change.
+ * The generation is asked to the cluster at most once per second and per index: a write is seen up to a second later.
+ */
+public class IndexGenerations {
+    // Delay during which the generation of an index is reused instead of being asked again to the cluster
+    private static final long GENERATION_CHECK_MS = 1000;
+
+    private final Client client;
+    // callers arriving while the stats are requested share the pending request
+    private final Cache<String, CompletableFuture<String>> generations;
+
+    public IndexGenerations(Client client) {
+        this.client = client;
+        this.generations = CacheBuilder.newBuilder()
+                .expireAfterWrite(GENERATION_CHECK_MS, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * @return the generation of the index, without blocking: it completes on an elasticsearch network thread when the
+     * stats of the index have to be requested
+     */
+    public CompletableFuture<String> getAsync(String index) {
+        CompletableFuture<String> generation;
+        try {
+            generation = generations.get(index, () -> requestGeneration(index));
+        } catch (ExecutionException e) {
+            generation = new CompletableFuture<>();
+            generation.completeExceptionally(e.getCause());
+        }
+        if (generation.isCompletedExceptionally()) {
+            // failures are not kept: the next call asks again
+            generations.asMap().remove(index, generation);
+        }
+        return generation;
+    }
+
+    /**
+     * Blocking version of {@link #getAsync(String)}, not to be called on a request or network thread.
+     */
+    public String get(String index) throws ExecutionException {
+        try {
+            return getAsync(index).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e);
+        }
+    }
+
+    public void invalidateAll() {
+        generations.invalidateAll();
+        generations.cleanUp();
+    }
+
+    protected CompletableFuture<String> requestGeneration(String index) {
+        CompletableFuture<String> generation = new CompletableFuture<>();
+        client.admin().indices().prepareStats(index).clear().setRefresh(true).execute(new ActionListener<IndicesStatsResponse>() {
+            @Override
+            public void onResponse(IndicesStatsResponse stats) {
+                long sumOfMaxSeqNos = 0;
+                for (ShardStats shard : stats.getShards()) {
+                    if (shard.getShardRouting().primary() && shard.getSeqNoStats() != null) {
+                        sumOfMaxSeqNos += shard.getSeqNoStats().getMaxSeqNo();
+                    }
+                }
+                generation.complete(stats.getTotal().getRefresh().getTotal() + ":" + sumOfMaxSeqNos);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                generation.completeExceptionally(e);
+                generations.asMap().remove(index, generation);
+            }
+        });
+        return generation;
+    }
+}
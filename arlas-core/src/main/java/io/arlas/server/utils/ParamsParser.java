@@ -20,6 +20,8 @@
 package io.arlas.server.utils;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import io.arlas.server.core.FluidSearch;
 import io.arlas.server.exceptions.ArlasException;
 import io.arlas.server.exceptions.BadRequestException;
@@ -62,17 +64,42 @@ public class ParamsParser {
     public static final String TIMESTAMP_ALIAS = "timestamp";
     public static final String BAD_FIELD_ALIAS = "This alias does not represent a collection configured field. ";
 
+    // Dashboards send the same parameters over and over: the models parsed from the raw parameters are kept, weighed by
+    // the length of the parameters. The cached models are never handed out, callers get copies they are free to modify.
+    private static final long PARSED_PARAMS_CACHE_WEIGHT = 4 * 1024 * 1024;
+    private static final Cache<String, Aggregation> parsedAggregations = CacheBuilder.newBuilder()
+            .maximumWeight(PARSED_PARAMS_CACHE_WEIGHT)
+            .weigher((String agg, Aggregation aggregation) -> agg.length())
+            .build();
+    private static final Cache<List<Object>, Filter> parsedFilters = CacheBuilder.newBuilder()
+            .maximumWeight(PARSED_PARAMS_CACHE_WEIGHT)
+            .weigher((List<Object> params, Filter filter) -> params.toString().length())
+            .build();
+    private static final Cache<String, Filter> deserializedFilters = CacheBuilder.newBuilder()
+            .maximumWeight(PARSED_PARAMS_CACHE_WEIGHT)
+            .weigher((String serializedFilter, Filter filter) -> serializedFilter.length())
+            .build();
+
+    /**
+     * Forgets the parsed parameters, the next calls parse them again.
+     */
+    public static void clearParsedParams() {
+        parsedAggregations.invalidateAll();
+        parsedFilters.invalidateAll();
+        deserializedFilters.invalidateAll();
+    }
 
     public static List<Aggregation> getAggregations(List<String> agg) throws ArlasException {
         List<Aggregation> aggregations = new ArrayList<>();
         if (agg != null && agg.size() > 0) {
             for (String aggregation : agg) {
-                Aggregation aggregationModel;
-                if (CheckParams.isAggregationParamValid(aggregation)) {
+                Aggregation aggregationModel = parsedAggregations.getIfPresent(aggregation);
+                if (aggregationModel == null && CheckParams.isAggregationParamValid(aggregation)) {
                     List<String> aggParameters = Arrays.asList(aggregation.split(":"));
                     aggregationModel = getAggregationModel(aggParameters);
-                    aggregations.add(aggregationModel);
+                    parsedAggregations.put(aggregation, aggregationModel);
                 }
+                aggregations.add(copy(aggregationModel));
             }
         }
         return aggregations;
@@ -241,17 +268,32 @@ public class ParamsParser {
 
     public static Filter getFilter(String serializedFilter) throws InvalidParameterException {
         if (serializedFilter != null) {
-            try {
-                return objectMapper.readValue(serializedFilter, Filter.class);
-            } catch (IOException e) {
-                throw new InvalidParameterException(FluidSearch.INVALID_FILTER + ": '" + serializedFilter + "'");
+            Filter filter = deserializedFilters.getIfPresent(serializedFilter);
+            if (filter == null) {
+                try {
+                    filter = objectMapper.readValue(serializedFilter, Filter.class);
+                } catch (IOException e) {
+                    throw new InvalidParameterException(FluidSearch.INVALID_FILTER + ": '" + serializedFilter + "'");
+                }
+                deserializedFilters.put(serializedFilter, filter);
             }
+            return copy(filter);
         } else {
             return null;
         }
     }
 
     public static Filter getFilter(List<String> filters, List<String> q, List<String> pwithin, List<String> gwithin, List<String> gintersect, List<String> notpwithin, List<String> notgwithin, List<String> notgintersect, String dateFormat) throws ArlasException {
+        List<Object> params = Arrays.asList(filters, q, pwithin, gwithin, gintersect, notpwithin, notgwithin, notgintersect, dateFormat);
+        Filter filter = parsedFilters.getIfPresent(params);
+        if (filter == null) {
+            filter = parseFilter(filters, q, pwithin, gwithin, gintersect, notpwithin, notgwithin, notgintersect, dateFormat);
+            parsedFilters.put(params, filter);
+        }
+        return copy(filter);
+    }
+
+    private static Filter parseFilter(List<String> filters, List<String> q, List<String> pwithin, List<String> gwithin, List<String> gintersect, List<String> notpwithin, List<String> notgwithin, List<String> notgintersect, String dateFormat) throws ArlasException {
         Filter filter = new Filter();
         filter.f = new ArrayList<>();
 
@@ -286,6 +328,48 @@ public class ParamsParser {
         return filter;
     }
 
+    /**
+     * @return a filter whose lists can be modified without modifying the lists of the given filter.
+     * The expressions and multi-value filters, that are never modified once parsed, are shared.
+     */
+    private static Filter copy(Filter filter) {
+        Filter copy = new Filter();
+        copy.f = copy(filter.f);
+        copy.q = copy(filter.q);
+        copy.pwithin = copy(filter.pwithin);
+        copy.gwithin = copy(filter.gwithin);
+        copy.gintersect = copy(filter.gintersect);
+        copy.notpwithin = copy(filter.notpwithin);
+        copy.notgwithin = copy(filter.notgwithin);
+        copy.notgintersect = copy(filter.notgintersect);
+        copy.dateformat = filter.dateformat;
+        return copy;
+    }
+
+    private static <T> List<T> copy(List<T> list) {
+        return list == null ? null : new ArrayList<>(list);
+    }
+
+    /**
+     * @return an aggregation whose field and interval can be modified (they are, while checking and building the request)
+     * without modifying the given aggregation. The other members, never modified once parsed, are shared.
+     */
+    private static Aggregation copy(Aggregation aggregation) {
+        Aggregation copy = new Aggregation();
+        copy.type = aggregation.type;
+        copy.field = aggregation.field;
+        copy.interval = aggregation.interval == null ? null : new Interval(aggregation.interval.value, aggregation.interval.unit);
+        copy.format = aggregation.format;
+        copy.metrics = copy(aggregation.metrics);
+        copy.order = aggregation.order;
+        copy.on = aggregation.on;
+        copy.size = aggregation.size;
+        copy.include = aggregation.include;
+        copy.fetchGeometry = aggregation.fetchGeometry;
+        copy.fetchHits = aggregation.fetchHits;
+        return copy;
+    }
+
     public static String parseDate(String dateValue, String dateFormat) throws ArlasException {
         String dateToParse = dateValue;
         String parsedDate = dateToParse;
@@ -340,11 +424,16 @@ public class ParamsParser {
     }
 
     public static Page getPage(IntParam size, IntParam from, String sort, String after) throws ArlasException {
+        return getPage(size, from, sort, after, null);
+    }
+
+    public static Page getPage(IntParam size, IntParam from, String sort, String after, String cursor) throws ArlasException {
         Page page = new Page();
         page.size = size.get();
         page.from = from.get();
         page.sort = sort;
         page.after = after;
+        page.cursor = cursor;
         return page;
     }
 
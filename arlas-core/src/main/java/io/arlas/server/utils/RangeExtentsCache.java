@@ -0,0 +1,187 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.arlas.server.model.CollectionReference;
+import io.arlas.server.model.request.Filter;
+import io.arlas.server.model.request.MixedRequest;
+import io.arlas.server.model.response.RangeResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the unfiltered range (min, max and number of documents) of the fields of the collections, so that the timelines
+ * of the dashboards are sized without searching the cluster each time.
+ * An extent is kept for a collection, its parameters, a field and the generation of the collection's index: it is
+ * computed again as soon as the index is written or refreshed, or the collection is changed.
+ */
+public class RangeExtentsCache {
+    private static Logger LOGGER = LoggerFactory.getLogger(RangeExtentsCache.class);
+
+    private final IndexGenerations generations;
+    private final ObjectMapper canonicalMapper;
+    private final Cache<Key, RangeResponse> extents;
+
+    /**
+     * @param generations the generations of the indices the extents are computed from
+     */
+    public RangeExtentsCache(IndexGenerations generations, long maxExtents) {
+        this.generations = generations;
+        this.canonicalMapper = new ObjectMapper()
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+                .configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+                .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+        this.extents = CacheBuilder.newBuilder()
+                .maximumSize(maxExtents)
+                .build();
+    }
+
+    /**
+     * @return true if the range of the request is an extent, that is if the request is not filtered
+     */
+    public static boolean isExtent(MixedRequest request) {
+        return isEmpty(request.basicRequest == null ? null : request.basicRequest.filter)
+                && isEmpty(request.headerRequest == null ? null : request.headerRequest.filter);
+    }
+
+    /**
+     * Blocking version of {@link #keyAsync(CollectionReference, String, MixedRequest)}, not to be called on a request or network thread.
+     * @return the key of the range of the field, or null if the request is filtered: only the extents are cached
+     */
+    public Key key(CollectionReference collectionReference, String field, MixedRequest request) {
+        if (!isExtent(request)) {
+            return null;
+        }
+        try {
+            return buildKey(collectionReference, field, generations.get(collectionReference.params.indexName));
+        } catch (ExecutionException e) {
+            // the query itself will report what is wrong with the index
+            LOGGER.debug("Range extent not cacheable", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the key of the range of the field, or null if the request is filtered, without blocking: it completes on an
+     * elasticsearch network thread when the generation of the index has to be checked
+     */
+    public CompletionStage<Key> keyAsync(CollectionReference collectionReference, String field, MixedRequest request) {
+        if (!isExtent(request)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return generations.getAsync(collectionReference.params.indexName).handle((generation, failure) -> {
+            if (failure != null) {
+                // the query itself will report what is wrong with the index
+                LOGGER.debug("Range extent not cacheable", failure);
+                return null;
+            }
+            return buildKey(collectionReference, field, generation);
+        });
+    }
+
+    private Key buildKey(CollectionReference collectionReference, String field, String generation) {
+        try {
+            return new Key(collectionReference.collectionName, canonicalMapper.writeValueAsString(collectionReference.params), field, generation);
+        } catch (JsonProcessingException | RuntimeException e) {
+            LOGGER.debug("Range extent not cacheable", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return a copy of the cached extent of the key, null if there is none
+     */
+    public RangeResponse get(Key key) {
+        RangeResponse extent = extents.getIfPresent(key);
+        return extent == null ? null : copy(extent);
+    }
+
+    public void put(Key key, RangeResponse extent) {
+        extents.put(key, copy(extent));
+    }
+
+    public void invalidateAll() {
+        extents.invalidateAll();
+        extents.cleanUp();
+        generations.invalidateAll();
+    }
+
+    private static boolean isEmpty(Filter filter) {
+        return filter == null || Stream.of(filter.f, filter.q, filter.pwithin, filter.gwithin, filter.gintersect,
+                filter.notpwithin, filter.notgwithin, filter.notgintersect).allMatch(RangeExtentsCache::isEmpty);
+    }
+
+    private static boolean isEmpty(List<?> filters) {
+        return filters == null || filters.isEmpty();
+    }
+
+    private static RangeResponse copy(RangeResponse extent) {
+        RangeResponse copy = new RangeResponse();
+        copy.min = extent.min;
+        copy.max = extent.max;
+        copy.totalnb = extent.totalnb;
+        return copy;
+    }
+
+    public static class Key {
+        private final String collection;
+        // the parameters of the collection (index, filter, ...) as written in the arlas index, so that a changed collection misses
+        private final String params;
+        private final String field;
+        private final String generation;
+
+        private Key(String collection, String params, String field, String generation) {
+            this.collection = collection;
+            this.params = params;
+            this.field = field;
+            this.generation = generation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return collection.equals(key.collection) && params.equals(key.params) && field.equals(key.field) && generation.equals(key.generation);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(collection, params, field, generation);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.utils;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.arlas.server.exceptions.InvalidParameterException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Opaque token of a cursor pagination: the sort of the search and the sort values of the last hit of a page, after which
+ * the search of the next page goes on. The values are the ones elasticsearch sorted the hits on, so that hits missing a
+ * sorted field or sorted by geodistance are paginated as elasticsearch sorts them.
+ */
+public class SearchCursor {
+    public static final String INVALID_CURSOR = "Invalid cursor: it must come from the next link of a previous search with the same sort.";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * The sort of a cursor pagination always ends with the id of the collection, so that no hit is skipped nor repeated
+     * between hits sharing the same sorted values.
+     */
+    public static String getSort(String sort, String idPath) {
+        if (sort == null || sort.trim().isEmpty()) {
+            return idPath;
+        }
+        if (idPath == null) {
+            return sort;
+        }
+        String[] fields = sort.split(",");
+        String last = fields[fields.length - 1];
+        if (last.startsWith("-")) {
+            last = last.substring(1);
+        }
+        return last.equals(idPath) ? sort : sort + "," + idPath;
+    }
+
+    /**
+     * @param sortValues the sort values of the last hit of the page
+     */
+    public static String encode(String sort, Object[] sortValues) throws IOException {
+        List<Object> values = new ArrayList<>(sortValues.length);
+        for (Object value : sortValues) {
+            values.add(value == null || value instanceof Number || value instanceof Boolean ? value : value.toString());
+        }
+        byte[] json = mapper.writeValueAsBytes(Arrays.asList(sort, values));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json);
+    }
+
+    /**
+     * @return the sort values to search after
+     * @throws InvalidParameterException if the cursor was not built for this sort
+     */
+    public static Object[] decode(String cursor, String sort) throws InvalidParameterException {
+        try {
+            byte[] json = Base64.getUrlDecoder().decode(cursor.getBytes(StandardCharsets.UTF_8));
+            List<Object> decoded = mapper.readValue(json, new TypeReference<List<Object>>() {});
+            if (decoded.size() != 2 || !sort.equals(decoded.get(0)) || !(decoded.get(1) instanceof List)) {
+                throw new InvalidParameterException(INVALID_CURSOR);
+            }
+            return ((List<?>) decoded.get(1)).toArray();
+        } catch (IllegalArgumentException | IOException e) {
+            throw new InvalidParameterException(INVALID_CURSOR);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.utils;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import io.arlas.server.model.CollectionReference;
+import io.arlas.server.model.request.MixedRequest;
+import org.elasticsearch.search.SearchHits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the next page of the searches paginated with a cursor, searched in the background as soon as a page is served,
+ * so that the next page is answered from memory when it is asked for.
+ * A page is keyed by a digest of the canonical form of its request (collection, filters, partition filter, projection,
+ * page and cursor) and of the generation of the collection's index: a page searched before the index moved is not served
+ * once the move is seen, the generation being checked at most once per second (see {@link IndexGenerations}).
+ * A page is served at most once and is dropped if nobody asks for it within a minute.
+ * The meters <code>hits</code> and <code>misses</code> count the cursor searches served from memory or not.
+ */
+public class SearchPrefetchCache {
+    private static Logger LOGGER = LoggerFactory.getLogger(SearchPrefetchCache.class);
+
+    private static final long PAGE_TIMEOUT_S = 60;
+
+    private final ObjectMapper canonicalMapper;
+    private final Cache<String, CompletionStage<SearchHits>> pages;
+    private final IndexGenerations generations;
+    private final Meter hits;
+    private final Meter misses;
+
+    /**
+     * @param generations the generations of the indices the pages are searched in
+     */
+    public SearchPrefetchCache(IndexGenerations generations, long maxPages, MetricRegistry metrics) {
+        this.canonicalMapper = new ObjectMapper()
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+                .configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+                .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+        this.pages = CacheBuilder.newBuilder()
+                .maximumSize(maxPages)
+                .expireAfterWrite(PAGE_TIMEOUT_S, TimeUnit.SECONDS)
+                .build();
+        this.generations = generations;
+        hits = metrics.meter(MetricRegistry.name(SearchPrefetchCache.class, "hits"));
+        misses = metrics.meter(MetricRegistry.name(SearchPrefetchCache.class, "misses"));
+    }
+
+    /**
+     * @param request the search of the page, its page being checked (size and from set)
+     * @return the key of the page, or null if it can't be prefetched, without blocking: it completes on an elasticsearch
+     * network thread when the generation of the index has to be checked
+     */
+    public CompletionStage<String> key(CollectionReference collectionReference, MixedRequest request) {
+        return generations.getAsync(collectionReference.params.indexName).handle((generation, failure) -> {
+            if (failure != null) {
+                // the search itself will report what is wrong with the index
+                LOGGER.debug("Search page not prefetchable", failure);
+                return null;
+            }
+            return buildKey(collectionReference, request, generation);
+        });
+    }
+
+    private String buildKey(CollectionReference collectionReference, MixedRequest request, String generation) {
+        try {
+            String canonical = canonicalMapper.writeValueAsString(Arrays.asList(
+                    collectionReference.collectionName,
+                    collectionReference.params,
+                    request.basicRequest,
+                    request.headerRequest,
+                    generation));
+            return Hashing.sha256().hashString(canonical, StandardCharsets.UTF_8).toString();
+        } catch (JsonProcessingException | RuntimeException e) {
+            // the search itself will report what is wrong with the request
+            LOGGER.debug("Search page not prefetchable", e);
+            return null;
+        }
+    }
+
+    /**
+     * Removes the prefetched page of the key.
+     * @return the page, null if none is prefetched or if its search failed
+     */
+    public CompletionStage<SearchHits> take(String key) {
+        CompletionStage<SearchHits> page = pages.getIfPresent(key);
+        // two requests with the same cursor: only the first one is served the prefetched page
+        if (page != null && !pages.asMap().remove(key, page)) {
+            page = null;
+        }
+        if (page == null || page.toCompletableFuture().isCompletedExceptionally()) {
+            misses.mark();
+            return null;
+        }
+        hits.mark();
+        return page;
+    }
+
+    /**
+     * @return whether a page is already prefetched, or being prefetched, for the key
+     */
+    public boolean contains(String key) {
+        return pages.getIfPresent(key) != null;
+    }
+
+    public void put(String key, CompletionStage<SearchHits> page) {
+        pages.asMap().putIfAbsent(key, page);
+    }
+
+    public void invalidateAll() {
+        pages.invalidateAll();
+        pages.cleanUp();
+        generations.invalidateAll();
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import com.vividsolutions.jts.geom.*;
+import org.geojson.GeoJsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Encodes features in a Mapbox Vector Tile (version 2.1) of a single layer.
+ * Geometries are projected in web mercator, clipped to the tile (plus a buffer) and quantized to the tile extent.
+ * Properties are written as given in the key/value tables of the layer: they must be flat, as the properties of the flat
+ * GeoJSON outputs.
+ * The tile covers the given bounding box: a z/x/y tile, or a geohash cell.
+ */
+public class VectorTileEncoder {
+    private static Logger LOGGER = LoggerFactory.getLogger(VectorTileEncoder.class);
+
+    public static final String MEDIA_TYPE = "application/vnd.mapbox-vector-tile";
+    public static final int EXTENT = 4096;
+    // Lines and polygons are kept a bit beyond the edges so that the strokes of adjacent tiles join
+    private static final int BUFFER = 64;
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    private static final int MOVE_TO = 1;
+    private static final int LINE_TO = 2;
+    private static final int CLOSE_PATH = 7;
+    private static final int POINT = 1;
+    private static final int LINESTRING = 2;
+    private static final int POLYGON = 3;
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final double west;
+    private final double north;
+    private final double width;
+    private final double height;
+    private final Envelope clipEnvelope = new Envelope(-BUFFER, EXTENT + BUFFER, -BUFFER, EXTENT + BUFFER);
+    private final Map<String, Integer> keys = new LinkedHashMap<>();
+    private final Map<Object, Integer> values = new LinkedHashMap<>();
+    private final List<byte[]> features = new ArrayList<>();
+
+    public VectorTileEncoder(BoundingBox bbox) {
+        this.west = mercatorX(bbox.getWest());
+        this.north = mercatorY(bbox.getNorth());
+        this.width = mercatorX(bbox.getEast()) - west;
+        this.height = mercatorY(bbox.getSouth()) - north;
+    }
+
+    /**
+     * Adds a feature, unless its geometry is empty once clipped to the tile.
+     * @param geometry   the geometry, in longitude/latitude
+     * @param properties the flat properties of the feature, a value that is not a string, a number or a boolean is written as json
+     */
+    public void addFeature(Geometry geometry, Map<String, Object> properties) {
+        if (geometry == null) {
+            return;
+        }
+        Geometry projected = (Geometry) geometry.clone();
+        projected.apply((CoordinateFilter) coordinate -> {
+            coordinate.x = (mercatorX(coordinate.x) - west) / width * EXTENT;
+            coordinate.y = (mercatorY(coordinate.y) - north) / height * EXTENT;
+        });
+        projected.geometryChanged();
+        Geometry clipped = clip(projected);
+        if (clipped == null || clipped.isEmpty()) {
+            return;
+        }
+        List<Point> points = new ArrayList<>();
+        List<LineString> lines = new ArrayList<>();
+        List<Polygon> polygons = new ArrayList<>();
+        collect(clipped, points, lines, polygons);
+        List<Integer> tags = null;
+        for (int type = POINT; type <= POLYGON; type++) {
+            List<Integer> commands = type == POINT ? encodePoints(points) : type == LINESTRING ? encodeLines(lines) : encodePolygons(polygons);
+            if (!commands.isEmpty()) {
+                if (tags == null) {
+                    tags = getTags(properties);
+                }
+                features.add(encodeFeature(type, tags, commands));
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #addFeature(Geometry, Map)} for a GeoJSON geometry.
+     */
+    public void addFeature(GeoJsonObject geometry, Map<String, Object> properties) {
+        Geometry jtsGeometry;
+        try {
+            jtsGeometry = GeoTypeMapper.toJtsGeometry(geometry);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            LOGGER.debug("Invalid geometry left out of the tile", e);
+            return;
+        }
+        addFeature(jtsGeometry, properties);
+    }
+
+    /**
+     * @return the tile holding a layer of the added features, empty if there is none
+     */
+    public byte[] encode(String layerName) throws IOException {
+        if (features.isEmpty()) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream layer = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(layer);
+        out.writeUInt32(15, 2);
+        out.writeString(1, layerName);
+        for (byte[] feature : features) {
+            out.writeByteArray(2, feature);
+        }
+        for (String key : keys.keySet()) {
+            out.writeString(3, key);
+        }
+        for (Object value : values.keySet()) {
+            out.writeByteArray(4, encodeValue(value));
+        }
+        out.writeUInt32(5, EXTENT);
+        out.flush();
+
+        ByteArrayOutputStream tile = new ByteArrayOutputStream();
+        out = CodedOutputStream.newInstance(tile);
+        out.writeByteArray(3, layer.toByteArray());
+        out.flush();
+        return tile.toByteArray();
+    }
+
+    private Geometry clip(Geometry geometry) {
+        Envelope envelope = geometry.getEnvelopeInternal();
+        if (clipEnvelope.contains(envelope)) {
+            return geometry;
+        }
+        if (!clipEnvelope.intersects(envelope)) {
+            return null;
+        }
+        if (geometry.getDimension() == 0) {
+            // points out of the tile are dropped, no need for an overlay
+            return geometry;
+        }
+        Geometry clip = GEOMETRY_FACTORY.toGeometry(clipEnvelope);
+        try {
+            return clip.intersection(geometry);
+        } catch (TopologyException e) {
+            try {
+                return clip.intersection(geometry.buffer(0));
+            } catch (TopologyException e2) {
+                LOGGER.debug("Unable to clip a geometry to the tile", e2);
+                return null;
+            }
+        }
+    }
+
+    private static void collect(Geometry geometry, List<Point> points, List<LineString> lines, List<Polygon> polygons) {
+        if (geometry instanceof Point) {
+            points.add((Point) geometry);
+        } else if (geometry instanceof LineString) {
+            lines.add((LineString) geometry);
+        } else if (geometry instanceof Polygon) {
+            polygons.add((Polygon) geometry);
+        } else if (geometry instanceof GeometryCollection) {
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                collect(geometry.getGeometryN(i), points, lines, polygons);
+            }
+        }
+    }
+
+    private List<Integer> encodePoints(List<Point> points) {
+        List<int[]> kept = new ArrayList<>();
+        for (Point point : points) {
+            int x = (int) Math.round(point.getX());
+            int y = (int) Math.round(point.getY());
+            if (x >= 0 && x <= EXTENT && y >= 0 && y <= EXTENT) {
+                kept.add(new int[]{x, y});
+            }
+        }
+        Cursor cursor = new Cursor();
+        if (!kept.isEmpty()) {
+            cursor.command(MOVE_TO, kept.size());
+            kept.forEach(cursor::moveTo);
+        }
+        return cursor.commands;
+    }
+
+    private List<Integer> encodeLines(List<LineString> lines) {
+        Cursor cursor = new Cursor();
+        for (LineString line : lines) {
+            List<int[]> vertices = quantize(line.getCoordinates());
+            if (vertices.size() >= 2) {
+                cursor.command(MOVE_TO, 1);
+                cursor.moveTo(vertices.get(0));
+                cursor.command(LINE_TO, vertices.size() - 1);
+                vertices.subList(1, vertices.size()).forEach(cursor::moveTo);
+            }
+        }
+        return cursor.commands;
+    }
+
+    private List<Integer> encodePolygons(List<Polygon> polygons) {
+        Cursor cursor = new Cursor();
+        for (Polygon polygon : polygons) {
+            List<int[]> exterior = quantizeRing(polygon.getExteriorRing(), true);
+            if (exterior == null) {
+                continue;
+            }
+            encodeRing(cursor, exterior);
+            for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                List<int[]> interior = quantizeRing(polygon.getInteriorRingN(i), false);
+                if (interior != null) {
+                    encodeRing(cursor, interior);
+                }
+            }
+        }
+        return cursor.commands;
+    }
+
+    private static void encodeRing(Cursor cursor, List<int[]> ring) {
+        cursor.command(MOVE_TO, 1);
+        cursor.moveTo(ring.get(0));
+        cursor.command(LINE_TO, ring.size() - 1);
+        ring.subList(1, ring.size()).forEach(cursor::moveTo);
+        cursor.command(CLOSE_PATH, 1);
+    }
+
+    /**
+     * @return the vertices of the ring without the closing one, in the winding order of the spec (exterior rings have a
+     * positive area in tile coordinates, interior rings a negative one), or null if the ring is too small for the extent
+     */
+    private static List<int[]> quantizeRing(LineString ring, boolean exterior) {
+        List<int[]> vertices = quantize(ring.getCoordinates());
+        if (vertices.size() > 1 && Arrays.equals(vertices.get(0), vertices.get(vertices.size() - 1))) {
+            vertices.remove(vertices.size() - 1);
+        }
+        if (vertices.size() < 3) {
+            return null;
+        }
+        long area = 0;
+        for (int i = 0; i < vertices.size(); i++) {
+            int[] a = vertices.get(i);
+            int[] b = vertices.get((i + 1) % vertices.size());
+            area += (long) a[0] * b[1] - (long) b[0] * a[1];
+        }
+        if (area == 0) {
+            return null;
+        }
+        if ((area > 0) != exterior) {
+            Collections.reverse(vertices);
+        }
+        return vertices;
+    }
+
+    private static List<int[]> quantize(Coordinate[] coordinates) {
+        List<int[]> vertices = new ArrayList<>(coordinates.length);
+        for (Coordinate coordinate : coordinates) {
+            int[] vertex = new int[]{(int) Math.round(coordinate.x), (int) Math.round(coordinate.y)};
+            if (vertices.isEmpty() || !Arrays.equals(vertex, vertices.get(vertices.size() - 1))) {
+                vertices.add(vertex);
+            }
+        }
+        return vertices;
+    }
+
+    private List<Integer> getTags(Map<String, Object> properties) {
+        List<Integer> tags = new ArrayList<>();
+        if (properties == null) {
+            return tags;
+        }
+        for (Map.Entry<String, Object> property : properties.entrySet()) {
+            Object value = property.getValue();
+            if (value == null) {
+                // a vector tile has no null value
+                continue;
+            }
+            if (!(value instanceof String || value instanceof Number || value instanceof Boolean)) {
+                try {
+                    value = MAPPER.writeValueAsString(value);
+                } catch (JsonProcessingException e) {
+                    LOGGER.debug("Property " + property.getKey() + " left out of the tile", e);
+                    continue;
+                }
+            }
+            tags.add(keys.computeIfAbsent(property.getKey(), k -> keys.size()));
+            tags.add(values.computeIfAbsent(value, v -> values.size()));
+        }
+        return tags;
+    }
+
+    private static byte[] encodeFeature(int type, List<Integer> tags, List<Integer> commands) {
+        try {
+            ByteArrayOutputStream feature = new ByteArrayOutputStream();
+            CodedOutputStream out = CodedOutputStream.newInstance(feature);
+            writePacked(out, 2, tags);
+            out.writeEnum(3, type);
+            writePacked(out, 4, commands);
+            out.flush();
+            return feature.toByteArray();
+        } catch (IOException e) {
+            // never happens when writing in memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writePacked(CodedOutputStream out, int field, List<Integer> integers) throws IOException {
+        if (integers.isEmpty()) {
+            return;
+        }
+        int size = 0;
+        for (int integer : integers) {
+            size += CodedOutputStream.computeUInt32SizeNoTag(integer);
+        }
+        out.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(size);
+        for (int integer : integers) {
+            out.writeUInt32NoTag(integer);
+        }
+    }
+
+    private static byte[] encodeValue(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        if (value instanceof Boolean) {
+            out.writeBool(7, (Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            long number = ((Number) value).longValue();
+            if (number < 0) {
+                out.writeSInt64(6, number);
+            } else {
+                out.writeUInt64(5, number);
+            }
+        } else if (value instanceof Float) {
+            out.writeFloat(2, (Float) value);
+        } else if (value instanceof Number) {
+            out.writeDouble(3, ((Number) value).doubleValue());
+        } else {
+            out.writeString(1, value.toString());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static double mercatorX(double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    private static double mercatorY(double latitude) {
+        double radians = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+        return (1 - Math.log(Math.tan(radians) + 1 / Math.cos(radians)) / Math.PI) / 2;
+    }
+
+    /**
+     * Geometry commands of a feature: the parameters of the commands are relative to the previous position of the cursor.
+     */
+    private static class Cursor {
+        private final List<Integer> commands = new ArrayList<>();
+        private int x = 0;
+        private int y = 0;
+
+        private void command(int id, int count) {
+            commands.add((id & 0x7) | (count << 3));
+        }
+
+        private void moveTo(int[] vertex) {
+            commands.add(zigZag(vertex[0] - x));
+            commands.add(zigZag(vertex[1] - y));
+            x = vertex[0];
+            y = vertex[1];
+        }
+
+        private static int zigZag(int n) {
+            return (n << 1) ^ (n >> 31);
+        }
+    }
+}
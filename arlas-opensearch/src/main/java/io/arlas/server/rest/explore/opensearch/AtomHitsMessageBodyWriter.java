@@ -19,7 +19,6 @@
 
 package io.arlas.server.rest.explore.opensearch;
 
-import io.arlas.server.core.ElasticAdmin;
 import io.arlas.server.exceptions.ArlasException;
 import io.arlas.server.model.CollectionReference;
 import io.arlas.server.model.Feed;
@@ -30,7 +29,7 @@ import io.arlas.server.ns.GML;
 import io.arlas.server.ns.OPENSEARCH;
 import io.arlas.server.ogc.common.utils.GeoFormat;
 import io.arlas.server.services.ExploreServices;
-import io.arlas.server.utils.MapExplorer;
+import io.arlas.server.utils.FieldPath;
 import io.arlas.server.utils.StringUtil;
 
 import javax.ws.rs.Produces;
@@ -101,7 +100,7 @@ public class AtomHitsMessageBodyWriter implements MessageBodyWriter<Hits> {
             } catch (ArlasException e) {
                 throw new WebApplicationException("Can not access collection metadata", e);
             }
-            CollectionReferenceDescription fields = new ElasticAdmin(exploration.getClient()).describeCollection(cr);
+            CollectionReferenceDescription fields = exploration.getElasticAdmin().describeCollection(cr);
 
             if (cr.params.atomFeed != null) {
                 Feed feed = cr.params.atomFeed;
@@ -146,7 +145,9 @@ public class AtomHitsMessageBodyWriter implements MessageBodyWriter<Hits> {
                         }
 
                     } else {
-                        writeFields(writer, fields.properties, ATOM.XML_NS, new Stack<>(), hit.data);
+                        if (hit.data != null) {
+                            writeFields(writer, fields.properties, ATOM.XML_NS, hit.data);
+                        }
                     }
                     writer.writeEndElement();
                     writer.writeStartElement(GEORSS.XML_NS, "where");
@@ -167,22 +168,23 @@ public class AtomHitsMessageBodyWriter implements MessageBodyWriter<Hits> {
         }
     }
 
-    private void writeFields(XMLStreamWriter writer, Map<String, CollectionReferenceDescriptionProperty> properties, String xmlNamespace, Stack<String> namespace, Object data) throws XMLStreamException {
-        if (properties == null || data == null) {
+    /**
+     * The data is resolved along with the properties, one level at a time, rather than from the root for each field.
+     */
+    private void writeFields(XMLStreamWriter writer, Map<String, CollectionReferenceDescriptionProperty> properties, String xmlNamespace, Object data) throws XMLStreamException {
+        if (properties == null) {
             return;
         }
         for (String key : properties.keySet()) {
             CollectionReferenceDescriptionProperty property = properties.get(key);
-            namespace.push(key);
+            Object value = FieldPath.get(data, key);
             if (property.type == ElasticType.OBJECT) {
                 writer.writeStartElement(xmlNamespace, key);
-                writeFields(writer, property.properties, xmlNamespace, namespace, data);
+                writeFields(writer, property.properties, xmlNamespace, value);
                 writer.writeEndElement();
             } else {
-                String fieldPath = String.join(".", new ArrayList<>(namespace));
-                writeElement(writer, xmlNamespace, key, toString(MapExplorer.getObjectFromPath(fieldPath, data)));
+                writeElement(writer, xmlNamespace, key, toString(value));
             }
-            namespace.pop();
         }
     }
 
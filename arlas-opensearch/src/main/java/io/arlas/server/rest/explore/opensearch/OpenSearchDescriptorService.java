@@ -61,7 +61,7 @@ public class OpenSearchDescriptorService extends ExploreRESTServices {
 
     public OpenSearchDescriptorService(ExploreServices exploreServices, OpensearchConfiguration opensearchConfiguration) {
         super(exploreServices);
-        this.admin = new ElasticAdmin(exploreServices.getClient());
+        this.admin = exploreServices.getElasticAdmin();
         this.opensearchConfiguration = opensearchConfiguration;
     }
 
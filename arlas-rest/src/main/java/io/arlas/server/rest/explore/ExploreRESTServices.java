@@ -20,14 +20,28 @@
 package io.arlas.server.rest.explore;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.arlas.server.exceptions.ArlasException;
+import io.arlas.server.model.CollectionReference;
+import io.arlas.server.model.request.MixedRequest;
 import io.arlas.server.services.ExploreServices;
+import io.arlas.server.utils.ExploreResponseCache;
+import io.arlas.server.utils.VectorTileEncoder;
 import io.swagger.annotations.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.Path;
+import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Variant;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
 
 @Path("/explore")
 @Api(value = "/explore")
@@ -52,11 +66,110 @@ public abstract class ExploreRESTServices {
 
     public static final String UTF8JSON = MediaType.APPLICATION_JSON + ";charset=utf-8";
 
+    private static final MediaType VECTOR_TILE = MediaType.valueOf(VectorTileEncoder.MEDIA_TYPE);
+    private static final List<Variant> TILE_VARIANTS = Variant.mediaTypes(MediaType.valueOf(UTF8JSON),
+            MediaType.valueOf(VectorTileEncoder.MEDIA_TYPE + ";qs=0.5")).build();
+
     public ExploreRESTServices(ExploreServices exploreServices) {
         this.exploreServices = exploreServices;
     }
 
+    /**
+     * Content negotiation of the tiles: json is listed first and vector tiles have a lower server quality, as in the
+     * <code>@Produces</code> of the tiles, so that the clients accepting any type get json.
+     * @return true if the content negotiation of the request selects a vector tile
+     */
+    protected boolean isVectorTileSelected(Request negotiation) {
+        Variant variant = negotiation.selectVariant(TILE_VARIANTS);
+        return variant != null && VECTOR_TILE.isCompatible(variant.getMediaType());
+    }
+
     public Response cache(Response.ResponseBuilder response, Integer maxagecache) {
         return exploreServices.getResponseCacheManager().cache(response, maxagecache);
     }
+
+    /**
+     * Resumes the suspended request once the elasticsearch result is available, without holding a jersey thread in the meantime.
+     * The response is built on the response executor of the explore services, never on the elasticsearch network thread
+     * that completed the result: the mapper must not read any request scoped object (UriInfo, headers...).
+     * Failures are resumed as is so that they go through the registered exception mappers.
+     */
+    protected <T> void resume(AsyncResponse asyncResponse, CompletionStage<T> result, ResultMapper<T> toResponse) {
+        result.whenCompleteAsync((value, throwable) -> {
+            if (throwable != null) {
+                asyncResponse.resume(throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+            } else {
+                try {
+                    asyncResponse.resume(toResponse.apply(value));
+                } catch (ArlasException | IOException | RuntimeException e) {
+                    asyncResponse.resume(e);
+                }
+            }
+        }, exploreServices.getResponseExecutor());
+    }
+
+    /**
+     * @return the key of the response in the explore response cache, completed with null if the response is not to be
+     * cached, or null if there is no cache
+     */
+    protected CompletionStage<ExploreResponseCache.Key> responseKey(String endpoint, CollectionReference collectionReference, MixedRequest request, Boolean pretty, Object... options) {
+        ExploreResponseCache responseCache = exploreServices.getExploreResponseCache();
+        return responseCache == null ? null : responseCache.key(endpoint, collectionReference, request, Boolean.TRUE.equals(pretty), options);
+    }
+
+    /**
+     * Resumes the suspended request with the cached response of <code>key</code> if there is one. Otherwise runs the query
+     * and caches its serialized entity before resuming the request with it.
+     * A key still waiting for the generation of the index is completed on an elasticsearch network thread: the rest then
+     * goes on in the response executor.
+     */
+    protected <T> void resumeCached(AsyncResponse asyncResponse, CompletionStage<ExploreResponseCache.Key> key, QuerySupplier<T> query, EntityMapper<T> toEntity,
+                                     Function<Response.ResponseBuilder, Response> toResponse) throws ArlasException, IOException {
+        if (key == null) {
+            resume(asyncResponse, query.get(), result -> toResponse.apply(Response.ok(toEntity.apply(result))));
+            return;
+        }
+        CompletableFuture<ExploreResponseCache.Key> pendingKey = key.toCompletableFuture();
+        if (pendingKey.isDone() && !pendingKey.isCompletedExceptionally()) {
+            resumeWithKey(asyncResponse, pendingKey.join(), query, toEntity, toResponse);
+            return;
+        }
+        pendingKey.whenCompleteAsync((cacheKey, failure) -> {
+            try {
+                resumeWithKey(asyncResponse, failure == null ? cacheKey : null, query, toEntity, toResponse);
+            } catch (ArlasException | IOException | RuntimeException e) {
+                asyncResponse.resume(e);
+            }
+        }, exploreServices.getResponseExecutor());
+    }
+
+    private <T> void resumeWithKey(AsyncResponse asyncResponse, ExploreResponseCache.Key key, QuerySupplier<T> query, EntityMapper<T> toEntity,
+                                  Function<Response.ResponseBuilder, Response> toResponse) throws ArlasException, IOException {
+        if (key == null) {
+            resume(asyncResponse, query.get(), result -> toResponse.apply(Response.ok(toEntity.apply(result))));
+            return;
+        }
+        ExploreResponseCache responseCache = exploreServices.getExploreResponseCache();
+        byte[] cached = responseCache.get(key);
+        if (cached != null) {
+            asyncResponse.resume(toResponse.apply(Response.ok(cached, UTF8JSON)));
+        } else {
+            resume(asyncResponse, query.get(), result -> toResponse.apply(Response.ok(responseCache.put(key, toEntity.apply(result)), UTF8JSON)));
+        }
+    }
+
+    @FunctionalInterface
+    protected interface ResultMapper<T> {
+        Response apply(T result) throws ArlasException, IOException;
+    }
+
+    @FunctionalInterface
+    protected interface EntityMapper<T> {
+        Object apply(T result) throws ArlasException, IOException;
+    }
+
+    @FunctionalInterface
+    protected interface QuerySupplier<T> {
+        CompletionStage<T> get() throws ArlasException, IOException;
+    }
 }
@@ -21,7 +21,6 @@ package io.arlas.server.rest.explore.aggregate;
 
 import com.codahale.metrics.annotation.Timed;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.arlas.server.app.ArlasServerConfiguration;
 import io.arlas.server.exceptions.ArlasException;
 import io.arlas.server.model.CollectionReference;
 import io.arlas.server.model.enumerations.AggregationTypeEnum;
@@ -32,7 +31,6 @@ import io.arlas.server.model.response.Error;
 import io.arlas.server.app.Documentation;
 import io.arlas.server.rest.explore.ExploreRESTServices;
 import io.arlas.server.services.ExploreServices;
-import io.arlas.server.utils.MapExplorer;
 import io.arlas.server.utils.ParamsParser;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
@@ -40,18 +38,16 @@ import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import org.apache.commons.lang.BooleanUtils;
 import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.search.aggregations.bucket.MultiBucketsAggregation;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 public class AggregateRESTService extends ExploreRESTServices {
 
@@ -69,7 +65,7 @@ public class AggregateRESTService extends ExploreRESTServices {
     )
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation", response = AggregationResponse.class, responseContainer = "ArlasAggregation"),
             @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class), @ApiResponse(code = 400, message = "Bad request.", response = Error.class)})
-    public Response aggregate(
+    public void aggregate(
             // --------------------------------------------------------
             // ----------------------- PATH -----------------------
             // --------------------------------------------------------
@@ -142,6 +138,9 @@ public class AggregateRESTService extends ExploreRESTServices {
             @ApiParam(hidden = true)
             @HeaderParam(value = "Partition-Filter") String partitionFilter,
 
+            @ApiParam(hidden = true)
+            @HeaderParam(value = "Session-Id") String sessionId,
+
             // --------------------------------------------------------
             // ----------------------- FORM -----------------------
             // --------------------------------------------------------
@@ -160,7 +159,9 @@ public class AggregateRESTService extends ExploreRESTServices {
             // ----------------------- EXTRA -----------------------
             // --------------------------------------------------------
             @ApiParam(value = "max-age-cache", required = false)
-            @QueryParam(value = "max-age-cache") Integer maxagecache
+            @QueryParam(value = "max-age-cache") Integer maxagecache,
+
+            @Suspended final AsyncResponse asyncResponse
     ) throws InterruptedException, ExecutionException, IOException, ArlasException {
         Long startArlasTime = System.nanoTime();
         CollectionReference collectionReference = exploreServices.getDaoCollectionReference()
@@ -176,10 +177,16 @@ public class AggregateRESTService extends ExploreRESTServices {
         MixedRequest request = new MixedRequest();
         request.basicRequest = aggregationsRequest;
         request.headerRequest = aggregationsRequestHeader;
+        request.sessionId = sessionId;
 
-        AggregationResponse aggregationResponse = getArlasAggregation(request, collectionReference, BooleanUtils.isTrue(flat));
-        aggregationResponse.totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startArlasTime);
-        return cache(Response.ok(aggregationResponse), maxagecache);
+        Long startQuery = System.nanoTime();
+        resumeCached(asyncResponse, responseKey("_aggregate", collectionReference, request, pretty, BooleanUtils.isTrue(flat)),
+                () -> this.getExploreServices().aggregateAsync(request, collectionReference, false), response -> {
+                    AggregationResponse aggregationResponse = getArlasAggregation(response, collectionReference, BooleanUtils.isTrue(flat), startQuery);
+                    aggregationResponse.totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startArlasTime);
+                    return aggregationResponse;
+                },
+                aggregation -> cache(aggregation, maxagecache));
     }
 
     @Timed
@@ -191,7 +198,7 @@ public class AggregateRESTService extends ExploreRESTServices {
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation", response = AggregationResponse.class, responseContainer = "ArlasAggregation"),
             @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class),
             @ApiResponse(code = 400, message = "Bad request.", response = Error.class)})
-    public Response aggregatePost(
+    public void aggregatePost(
             // --------------------------------------------------------
             // ----------------------- PATH -----------------------
             // --------------------------------------------------------
@@ -213,6 +220,9 @@ public class AggregateRESTService extends ExploreRESTServices {
             @ApiParam(hidden = true)
             @HeaderParam(value = "Partition-Filter") String partitionFilter,
 
+            @ApiParam(hidden = true)
+            @HeaderParam(value = "Session-Id") String sessionId,
+
             // --------------------------------------------------------
             // ----------------------- FORM -----------------------
             // --------------------------------------------------------
@@ -227,7 +237,9 @@ public class AggregateRESTService extends ExploreRESTServices {
             // ----------------------- EXTRA -----------------------
             // --------------------------------------------------------
             @ApiParam(value = "max-age-cache", required = false)
-            @QueryParam(value = "max-age-cache") Integer maxagecache
+            @QueryParam(value = "max-age-cache") Integer maxagecache,
+
+            @Suspended final AsyncResponse asyncResponse
     ) throws InterruptedException, ExecutionException, IOException, NotFoundException, ArlasException {
         Long startArlasTime = System.nanoTime();
         CollectionReference collectionReference = exploreServices.getDaoCollectionReference()
@@ -241,41 +253,21 @@ public class AggregateRESTService extends ExploreRESTServices {
         MixedRequest request = new MixedRequest();
         request.basicRequest = aggregationsRequest;
         request.headerRequest = aggregationsRequestHeader;
+        request.sessionId = sessionId;
 
-        AggregationResponse aggregationResponse = getArlasAggregation(request, collectionReference, (aggregationsRequest.form != null && BooleanUtils.isTrue(aggregationsRequest.form.flat)));
-        aggregationResponse.totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startArlasTime);
-
-        return cache(Response.ok(aggregationResponse), maxagecache);
-    }
-
-    public AggregationResponse getArlasAggregation(MixedRequest request, CollectionReference collectionReference, boolean flat) throws ArlasException, IOException {
-        AggregationResponse aggregationResponse = new AggregationResponse();
         Long startQuery = System.nanoTime();
-        SearchResponse response = this.getExploreServices().aggregate(request, collectionReference, false);
-        MultiBucketsAggregation aggregation;
-        aggregation = (MultiBucketsAggregation) response.getAggregations().asList().get(0);
-        aggregationResponse.totalnb = response.getHits().getTotalHits();
-        aggregationResponse.queryTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startQuery);
-        aggregationResponse = this.getExploreServices().formatAggregationResult(aggregation, aggregationResponse, collectionReference.collectionName);
-        return  flat ? flatten(aggregationResponse) : aggregationResponse;
+        resumeCached(asyncResponse, responseKey("_aggregate", collectionReference, request, pretty),
+                () -> this.getExploreServices().aggregateAsync(request, collectionReference, false), response -> {
+                    AggregationResponse aggregationResponse = getArlasAggregation(response, collectionReference, (aggregationsRequest.form != null && BooleanUtils.isTrue(aggregationsRequest.form.flat)), startQuery);
+                    aggregationResponse.totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startArlasTime);
+                    return aggregationResponse;
+                },
+                aggregation -> cache(aggregation, maxagecache));
     }
 
-    private AggregationResponse flatten(AggregationResponse aggregationResponse) {
-        List<AggregationResponse> elements = aggregationResponse.elements;
-        if (elements != null && elements.size() > 0) {
-            for (AggregationResponse element : elements) {
-                element.flattenedElements = new HashMap<>();
-                this.getExploreServices().flat(element, new MapExplorer.ReduceArrayOnKey(ArlasServerConfiguration.FLATTEN_CHAR), s ->(!"elements".equals(s))).forEach((key, value) -> {
-                    element.flattenedElements.put(key,value);
-                });
-                element.elements = null;
-                element.metrics = null;
-                if (element.hits != null) {
-                    List<Object> flattenedHits = element.hits.stream().map(hit -> MapExplorer.flat(hit,new MapExplorer.ReduceArrayOnKey(ArlasServerConfiguration.FLATTEN_CHAR), new HashSet<>())).collect(Collectors.toList());
-                    element.hits = flattenedHits;
-                }
-            }
-        }
+    private AggregationResponse getArlasAggregation(SearchResponse response, CollectionReference collectionReference, boolean flat, Long startQuery) {
+        AggregationResponse aggregationResponse = this.getExploreServices().toAggregationResponse(response, collectionReference, flat);
+        aggregationResponse.queryTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startQuery);
         return aggregationResponse;
     }
 
@@ -38,6 +38,7 @@ import io.arlas.server.utils.BoundingBox;
 import io.arlas.server.utils.GeoTileUtil;
 import io.arlas.server.utils.MapExplorer;
 import io.arlas.server.utils.ParamsParser;
+import io.arlas.server.utils.VectorTileEncoder;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.ApiResponse;
@@ -49,6 +50,10 @@ import org.geojson.FeatureCollection;
 import org.geojson.GeoJsonObject;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
 
@@ -74,7 +79,7 @@ public class GeoAggregateRESTService extends ExploreRESTServices {
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation", response = FeatureCollection.class, responseContainer = "FeatureCollection"),
             @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class), @ApiResponse(code = 400, message = "Bad request.", response = Error.class),
             @ApiResponse(code = 501, message = "Not implemented functionality.", response = Error.class)})
-    public Response geoaggregate(
+    public void geoaggregate(
             // --------------------------------------------------------
             // ----------------------- PATH -----------------------
             // --------------------------------------------------------
@@ -147,6 +152,9 @@ public class GeoAggregateRESTService extends ExploreRESTServices {
             @ApiParam(hidden = true)
             @HeaderParam(value = "Partition-Filter") String partitionFilter,
 
+            @ApiParam(hidden = true)
+            @HeaderParam(value = "Session-Id") String sessionId,
+
             // --------------------------------------------------------
             // ----------------------- FORM -----------------------
             // --------------------------------------------------------
@@ -166,7 +174,9 @@ public class GeoAggregateRESTService extends ExploreRESTServices {
             // ----------------------- EXTRA -----------------------
             // --------------------------------------------------------
             @ApiParam(value = "max-age-cache", required = false)
-            @QueryParam(value = "max-age-cache") Integer maxagecache
+            @QueryParam(value = "max-age-cache") Integer maxagecache,
+
+            @Suspended final AsyncResponse asyncResponse
     ) throws InterruptedException, ExecutionException, IOException, NotFoundException, ArlasException, JsonProcessingException {
         Long startArlasTime = System.nanoTime();
         CollectionReference collectionReference = exploreServices.getDaoCollectionReference()
@@ -182,21 +192,25 @@ public class GeoAggregateRESTService extends ExploreRESTServices {
         MixedRequest request = new MixedRequest();
         request.basicRequest = aggregationsRequest;
         request.headerRequest = aggregationsRequestHeader;
-        FeatureCollection fc = getFeatureCollection(request, collectionReference, Boolean.TRUE.equals(flat), Optional.empty());
-        return cache(Response.ok(fc), maxagecache);
+        request.sessionId = sessionId;
+        resumeCached(asyncResponse, responseKey("_geoaggregate", collectionReference, request, pretty, Boolean.TRUE.equals(flat)),
+                () -> this.getExploreServices().aggregateAsync(request, collectionReference, true),
+                response -> getFeatureCollection(response, request, collectionReference, Boolean.TRUE.equals(flat), Optional.empty()),
+                featureCollection -> cache(featureCollection, maxagecache));
     }
 
 
     @Timed
     @Path("{collection}/_geoaggregate/{geohash}")
     @GET
-    @Produces(UTF8JSON)
+    // the lower server quality keeps json for the clients accepting any type: vector tiles must be asked for
+    @Produces({UTF8JSON, VectorTileEncoder.MEDIA_TYPE + ";qs=0.5"})
     @Consumes(UTF8JSON)
-    @ApiOperation(value = "GeoAggregate on a geohash", produces = UTF8JSON, notes = Documentation.GEOHASH_GEOAGGREGATION_OPERATION, consumes = UTF8JSON, response = FeatureCollection.class)
+    @ApiOperation(value = "GeoAggregate on a geohash", produces = UTF8JSON + "," + VectorTileEncoder.MEDIA_TYPE, notes = Documentation.GEOHASH_GEOAGGREGATION_OPERATION, consumes = UTF8JSON, response = FeatureCollection.class)
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation", response = FeatureCollection.class, responseContainer = "FeatureCollection"),
             @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class), @ApiResponse(code = 400, message = "Bad request.", response = Error.class),
             @ApiResponse(code = 501, message = "Not implemented functionality.", response = Error.class)})
-    public Response geohashgeoaggregate(
+    public void geohashgeoaggregate(
             // --------------------------------------------------------
             // ----------------------- PATH ---------------------------
             // --------------------------------------------------------
@@ -275,6 +289,11 @@ public class GeoAggregateRESTService extends ExploreRESTServices {
             @ApiParam(hidden = true)
             @HeaderParam(value = "Partition-Filter") String partitionFilter,
 
+            @ApiParam(hidden = true)
+            @HeaderParam(value = "Session-Id") String sessionId,
+
+            @Context Request negotiation,
+
             // --------------------------------------------------------
             // ----------------------- FORM ---------------------------
             // --------------------------------------------------------
@@ -294,7 +313,9 @@ public class GeoAggregateRESTService extends ExploreRESTServices {
             // ----------------------- EXTRA --------------------------
             // --------------------------------------------------------
             @ApiParam(value = "max-age-cache", required = false)
-            @QueryParam(value = "max-age-cache") Integer maxagecache
+            @QueryParam(value = "max-age-cache") Integer maxagecache,
+
+            @Suspended final AsyncResponse asyncResponse
     ) throws InterruptedException, ExecutionException, IOException, NotFoundException, ArlasException, JsonProcessingException {
         if (geohash.startsWith("#")) {
             geohash = geohash.substring(1, geohash.length());
@@ -328,10 +349,22 @@ public class GeoAggregateRESTService extends ExploreRESTServices {
             MixedRequest request = new MixedRequest();
             request.basicRequest = aggregationsRequest;
             request.headerRequest = aggregationsRequestHeader;
-            FeatureCollection fc = getFeatureCollection(request, collectionReference, Boolean.TRUE.equals(flat), Optional.of(geohash));
-            return cache(Response.ok(fc), maxagecache);
+            request.sessionId = sessionId;
+            String cell = geohash;
+            if (isVectorTileSelected(negotiation)) {
+                resume(asyncResponse, this.getExploreServices().geohashTileAggregateAsync(request, collectionReference, cell),
+                        response -> cache(Response.ok(getVectorTile(getFeatureCollection(response, request, collectionReference, true, Optional.of(cell)),
+                                collectionReference.collectionName, bbox), VectorTileEncoder.MEDIA_TYPE), maxagecache));
+                return;
+            }
+            resumeCached(asyncResponse, responseKey("_geoaggregate", collectionReference, request, pretty, Boolean.TRUE.equals(flat), geohash),
+                    () -> this.getExploreServices().geohashTileAggregateAsync(request, collectionReference, cell),
+                    response -> getFeatureCollection(response, request, collectionReference, Boolean.TRUE.equals(flat), Optional.of(cell)),
+                    featureCollection -> cache(featureCollection, maxagecache));
+        } else if (isVectorTileSelected(negotiation)) {
+            asyncResponse.resume(Response.ok(new byte[0], VectorTileEncoder.MEDIA_TYPE).build());
         } else {
-            return Response.ok(new FeatureCollection()).build();
+            asyncResponse.resume(Response.ok(new FeatureCollection()).build());
         }
 
     }
@@ -345,7 +378,7 @@ public class GeoAggregateRESTService extends ExploreRESTServices {
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation", response = FeatureCollection.class, responseContainer = "FeatureCollection"),
             @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class), @ApiResponse(code = 400, message = "Bad request.", response = Error.class),
             @ApiResponse(code = 501, message = "Not implemented functionality.", response = Error.class)})
-    public Response geoaggregatePost(
+    public void geoaggregatePost(
             // --------------------------------------------------------
             // ----------------------- PATH -----------------------
             // --------------------------------------------------------
@@ -367,6 +400,9 @@ public class GeoAggregateRESTService extends ExploreRESTServices {
             @ApiParam(hidden = true)
             @HeaderParam(value = "Partition-Filter") String partitionFilter,
 
+            @ApiParam(hidden = true)
+            @HeaderParam(value = "Session-Id") String sessionId,
+
             // --------------------------------------------------------
             // ----------------------- FORM -----------------------
             // --------------------------------------------------------
@@ -380,7 +416,9 @@ public class GeoAggregateRESTService extends ExploreRESTServices {
             // ----------------------- EXTRA -----------------------
             // --------------------------------------------------------
             @ApiParam(value = "max-age-cache", required = false)
-            @QueryParam(value = "max-age-cache") Integer maxagecache
+            @QueryParam(value = "max-age-cache") Integer maxagecache,
+
+            @Suspended final AsyncResponse asyncResponse
     ) throws InterruptedException, ExecutionException, IOException, NotFoundException, ArlasException {
         CollectionReference collectionReference = exploreServices.getDaoCollectionReference()
                 .getCollectionReference(collection);
@@ -393,19 +431,32 @@ public class GeoAggregateRESTService extends ExploreRESTServices {
         MixedRequest request = new MixedRequest();
         request.basicRequest = aggregationRequest;
         request.headerRequest = aggregationsRequestHeader;
+        request.sessionId = sessionId;
 
-        FeatureCollection fc = getFeatureCollection(request, collectionReference, (aggregationRequest.form != null && aggregationRequest.form.flat), Optional.empty());
+        resumeCached(asyncResponse, responseKey("_geoaggregate", collectionReference, request, pretty),
+                () -> this.getExploreServices().aggregateAsync(request, collectionReference, true),
+                response -> getFeatureCollection(response, request, collectionReference, (aggregationRequest.form != null && aggregationRequest.form.flat), Optional.empty()),
+                featureCollection -> cache(featureCollection, maxagecache));
+    }
 
-        return cache(Response.ok(fc), maxagecache);
+    /**
+     * The features of the aggregation as a vector tile of the geohash cell, with a single layer named after the collection.
+     * The features must have the flat properties of the flat GeoJSON.
+     */
+    private byte[] getVectorTile(FeatureCollection featureCollection, String layerName, BoundingBox bbox) throws IOException {
+        VectorTileEncoder encoder = new VectorTileEncoder(bbox);
+        for (Feature feature : featureCollection.getFeatures()) {
+            encoder.addFeature(feature.getGeometry(), feature.getProperties());
+        }
+        return encoder.encode(layerName);
     }
 
-    private FeatureCollection getFeatureCollection(MixedRequest request, CollectionReference collectionReference, boolean flat, Optional<String> geohash) throws ArlasException, IOException {
+    private FeatureCollection getFeatureCollection(SearchResponse response, MixedRequest request, CollectionReference collectionReference, boolean flat, Optional<String> geohash) throws IOException {
         Optional<Interval> interval = Optional.ofNullable(((AggregationsRequest) request.basicRequest).aggregations.get(0).interval);
         Optional<Number> precision = interval.map(i -> i.value);
         FeatureCollection fc;
         AggregationResponse aggregationResponse = new AggregationResponse();
         AggregationTypeEnum maintAggregationType = ((AggregationsRequest) request.basicRequest).aggregations.get(0).type;
-        SearchResponse response = this.getExploreServices().aggregate(request, collectionReference, true);
         MultiBucketsAggregation aggregation;
         aggregation = (MultiBucketsAggregation) response.getAggregations().asList().get(0);
         aggregationResponse = this.getExploreServices().formatAggregationResult(aggregation, aggregationResponse, collectionReference.collectionName);
@@ -442,7 +493,7 @@ public class GeoAggregateRESTService extends ExploreRESTServices {
                     });
 
                     if (element.hits != null) {
-                        properties.put("hits", element.hits.stream().map(hit -> MapExplorer.flat(hit,new MapExplorer.ReduceArrayOnKey(ArlasServerConfiguration.FLATTEN_CHAR), new HashSet<>())));
+                        properties.put("hits", element.hits.stream().map(hit -> MapExplorer.flat(hit,new MapExplorer.ReduceArrayOnKey(ArlasServerConfiguration.FLATTEN_CHAR), new HashSet<>())).collect(Collectors.toList()));
                     }
                 }else{
                     properties.put("elements", element.elements);
@@ -0,0 +1,215 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.rest.explore.batch;
+
+import com.codahale.metrics.annotation.Timed;
+import io.arlas.server.app.Documentation;
+import io.arlas.server.core.FluidSearch;
+import io.arlas.server.exceptions.*;
+import io.arlas.server.model.CollectionReference;
+import io.arlas.server.model.request.*;
+import io.arlas.server.model.response.BatchResponse;
+import io.arlas.server.model.response.BatchResponseItem;
+import io.arlas.server.model.response.Error;
+import io.arlas.server.rest.explore.ExploreRESTServices;
+import io.arlas.server.services.ExploreServices;
+import io.arlas.server.utils.ParamsParser;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import org.apache.commons.lang3.BooleanUtils;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.action.search.SearchResponse;
+
+import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class BatchRESTService extends ExploreRESTServices {
+
+    private final int maxRequests;
+
+    public BatchRESTService(ExploreServices exploreServices, int maxRequests) {
+        super(exploreServices);
+        this.maxRequests = maxRequests;
+    }
+
+    @Timed
+    @Path("_batch")
+    @POST
+    @Produces(UTF8JSON)
+    @Consumes(UTF8JSON)
+    @ApiOperation(value = "Batch", produces = UTF8JSON, notes = Documentation.BATCH_OPERATION, consumes = UTF8JSON, response = BatchResponse.class)
+    @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation", response = BatchResponse.class, responseContainer = "ArlasBatch"),
+            @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class),
+            @ApiResponse(code = 400, message = "Bad request.", response = Error.class)})
+    public void batch(
+            // --------------------------------------------------------
+            // ----------------------- BATCH -----------------------
+            // --------------------------------------------------------
+            BatchRequest batchRequest,
+
+            // --------------------------------------------------------
+            // -----------------------  FILTER  -----------------------
+            // --------------------------------------------------------
+
+            @ApiParam(hidden = true)
+            @HeaderParam(value = "Partition-Filter") String partitionFilter,
+
+            @ApiParam(hidden = true)
+            @HeaderParam(value = "Session-Id") String sessionId,
+
+            // --------------------------------------------------------
+            // ----------------------- FORM -----------------------
+            // --------------------------------------------------------
+            @ApiParam(name = "pretty", value = Documentation.FORM_PRETTY,
+                    allowMultiple = false,
+                    defaultValue = "false",
+                    required = false)
+            @QueryParam(value = "pretty") Boolean pretty,
+
+            @Suspended final AsyncResponse asyncResponse
+    ) throws ArlasException, IOException {
+        Long startArlasTime = System.nanoTime();
+        if (batchRequest == null || batchRequest.requests == null || batchRequest.requests.isEmpty()) {
+            throw new BadRequestException("The batch must contain at least one request");
+        }
+        if (batchRequest.requests.size() > maxRequests) {
+            throw new BadRequestException("The batch must not contain more than " + maxRequests + " requests");
+        }
+        Filter partitionFilterRequest = ParamsParser.getFilter(partitionFilter);
+
+        BatchResponse batchResponse = new BatchResponse();
+        batchResponse.responses = new ArrayList<>();
+        List<PreparedItem> prepared = new ArrayList<>();
+        for (BatchRequestItem item : batchRequest.requests) {
+            BatchResponseItem responseItem = new BatchResponseItem();
+            batchResponse.responses.add(responseItem);
+            try {
+                prepared.add(prepare(item, partitionFilterRequest, sessionId, responseItem));
+            } catch (ArlasException | IOException | RuntimeException e) {
+                responseItem.error = toError(e);
+            }
+        }
+        if (prepared.isEmpty()) {
+            batchResponse.totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startArlasTime);
+            asyncResponse.resume(Response.ok(batchResponse).build());
+            return;
+        }
+
+        Long startQuery = System.nanoTime();
+        List<FluidSearch> fluidSearches = prepared.stream().map(p -> p.fluidSearch).collect(Collectors.toList());
+        resume(asyncResponse, exploreServices.multiSearchAsync(fluidSearches), multiSearchResponse -> {
+            MultiSearchResponse.Item[] items = multiSearchResponse.getResponses();
+            for (int i = 0; i < items.length; i++) {
+                PreparedItem p = prepared.get(i);
+                try {
+                    if (items[i].isFailure()) {
+                        throw items[i].getFailure();
+                    }
+                    format(p, items[i].getResponse(), startQuery);
+                } catch (SearchPhaseExecutionException e) {
+                    p.responseItem.error = toError(p.item.range != null ? new InvalidParameterException("The field's type must be numeric") : e);
+                } catch (Exception e) {
+                    p.responseItem.error = toError(e);
+                }
+            }
+            batchResponse.totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startArlasTime);
+            return Response.ok(batchResponse).build();
+        });
+    }
+
+    private PreparedItem prepare(BatchRequestItem item, Filter partitionFilter, String sessionId, BatchResponseItem responseItem) throws ArlasException, IOException {
+        int types = (item.count != null ? 1 : 0) + (item.aggregate != null ? 1 : 0) + (item.range != null ? 1 : 0);
+        if (types != 1) {
+            throw new InvalidParameterException("A batch request must contain exactly one of count, aggregate or range");
+        }
+        CollectionReference collectionReference = exploreServices.getDaoCollectionReference().getCollectionReference(item.collection);
+        if (collectionReference == null) {
+            throw new NotFoundException(item.collection);
+        }
+        MixedRequest request = new MixedRequest();
+        request.headerRequest = new Request();
+        request.headerRequest.filter = partitionFilter;
+        request.sessionId = sessionId;
+        FluidSearch fluidSearch;
+        if (item.count != null) {
+            request.basicRequest = item.count;
+            fluidSearch = exploreServices.prepareCount(request, collectionReference);
+        } else if (item.aggregate != null) {
+            request.basicRequest = item.aggregate;
+            fluidSearch = exploreServices.prepareAggregate(request, collectionReference, false);
+        } else {
+            request.basicRequest = item.range;
+            fluidSearch = exploreServices.prepareFieldRange(request, collectionReference);
+        }
+        return new PreparedItem(item, collectionReference, fluidSearch, responseItem);
+    }
+
+    private void format(PreparedItem p, SearchResponse response, Long startQuery) throws ArlasException {
+        if (p.item.count != null) {
+            p.responseItem.count = exploreServices.toHits(p.collectionReference, response.getHits());
+        } else if (p.item.aggregate != null) {
+            boolean flat = p.item.aggregate.form != null && BooleanUtils.isTrue(p.item.aggregate.form.flat);
+            p.responseItem.aggregate = exploreServices.toAggregationResponse(response, p.collectionReference, flat);
+            p.responseItem.aggregate.queryTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startQuery);
+        } else {
+            p.responseItem.range = exploreServices.toRangeResponse(response);
+            p.responseItem.range.queryTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startQuery);
+        }
+    }
+
+    private Error toError(Exception e) {
+        LOGGER.debug("Batch request failed", e);
+        Response response;
+        if (e instanceof ArlasException) {
+            response = ((ArlasException) e).getResponse();
+        } else if (e instanceof ElasticsearchException) {
+            response = new ElasticsearchExceptionMapper().toResponse((ElasticsearchException) e);
+        } else if (e instanceof IllegalArgumentException) {
+            response = ArlasException.getResponse(e, Response.Status.BAD_REQUEST, e.getMessage());
+        } else {
+            response = ArlasException.getResponse(e, Response.Status.INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+        return (Error) response.getEntity();
+    }
+
+    private static class PreparedItem {
+        private final BatchRequestItem item;
+        private final CollectionReference collectionReference;
+        private final FluidSearch fluidSearch;
+        private final BatchResponseItem responseItem;
+
+        private PreparedItem(BatchRequestItem item, CollectionReference collectionReference, FluidSearch fluidSearch, BatchResponseItem responseItem) {
+            this.item = item;
+            this.collectionReference = collectionReference;
+            this.fluidSearch = fluidSearch;
+            this.responseItem = responseItem;
+        }
+    }
+}
@@ -20,7 +20,6 @@
 package io.arlas.server.rest.explore.count;
 
 import com.codahale.metrics.annotation.Timed;
-import io.arlas.server.core.FluidSearch;
 import io.arlas.server.exceptions.ArlasException;
 import io.arlas.server.model.CollectionReference;
 import io.arlas.server.model.request.Count;
@@ -35,9 +34,10 @@ import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
-import org.elasticsearch.search.SearchHits;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.util.List;
@@ -57,7 +57,7 @@ public class CountRESTService extends ExploreRESTServices {
     @ApiOperation(value = "Count", produces = UTF8JSON, notes = "Count the number of elements found in the collection(s), given the filters", consumes = UTF8JSON, response = Hits.class)
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation", response = Hits.class, responseContainer = "ArlasHits"),
             @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class), @ApiResponse(code = 400, message = "Bad request.", response = Error.class)})
-    public Response count(
+    public void count(
             // --------------------------------------------------------
             // ----------------------- PATH -----------------------
             // --------------------------------------------------------
@@ -120,6 +120,9 @@ public class CountRESTService extends ExploreRESTServices {
             @ApiParam(hidden = true)
             @HeaderParam(value = "Partition-Filter") String partitionfilter,
 
+            @ApiParam(hidden = true)
+            @HeaderParam(value = "Session-Id") String sessionId,
+
             // --------------------------------------------------------
             // -----------------------  FORM    -----------------------
             // --------------------------------------------------------
@@ -133,16 +136,15 @@ public class CountRESTService extends ExploreRESTServices {
             // -----------------------  EXTRA   -----------------------
             // --------------------------------------------------------
             @ApiParam(value = "max-age-cache", required = false)
-            @QueryParam(value = "max-age-cache") Integer maxagecache
+            @QueryParam(value = "max-age-cache") Integer maxagecache,
+
+            @Suspended final AsyncResponse asyncResponse
     ) throws InterruptedException, ExecutionException, IOException, NotFoundException, ArlasException {
         CollectionReference collectionReference = exploreServices.getDaoCollectionReference().getCollectionReference(collection);
         if (collectionReference == null) {
             throw new NotFoundException(collection);
         }
 
-        FluidSearch fluidSearch = new FluidSearch(exploreServices.getClient());
-        fluidSearch.setCollectionReference(collectionReference);
-
         Count count = new Count();
         count.filter = ParamsParser.getFilter(f, q, pwithin, gwithin, gintersect, notpwithin, notgwithin, notgintersect, dateformat);
         MixedRequest request = new MixedRequest();
@@ -150,9 +152,12 @@ public class CountRESTService extends ExploreRESTServices {
         Count countHeader = new Count();
         countHeader.filter = ParamsParser.getFilter(partitionfilter);
         request.headerRequest = countHeader;
+        request.sessionId = sessionId;
 
-        Hits hits = getArlasHits(collectionReference, request);
-        return cache(Response.ok(hits), maxagecache);
+        resumeCached(asyncResponse, responseKey("_count", collectionReference, request, pretty),
+                () -> exploreServices.countAsync(request, collectionReference),
+                searchHits -> exploreServices.toHits(collectionReference, searchHits),
+                response -> cache(response, maxagecache));
     }
 
 
@@ -164,7 +169,7 @@ public class CountRESTService extends ExploreRESTServices {
     @ApiOperation(value = "Count", produces = UTF8JSON, notes = "Count the number of elements found in the collection(s), given the filters", consumes = UTF8JSON, response = Hits.class)
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation", response = Hits.class, responseContainer = "ArlasHits"),
             @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class), @ApiResponse(code = 400, message = "Bad request.", response = Error.class)})
-    public Response countPost(
+    public void countPost(
             // --------------------------------------------------------
             // ----------------------- PATH -----------------------
             // --------------------------------------------------------
@@ -182,6 +187,9 @@ public class CountRESTService extends ExploreRESTServices {
             @ApiParam(hidden = true)
             @HeaderParam(value = "Partition-Filter") String partitionfilter,
 
+            @ApiParam(hidden = true)
+            @HeaderParam(value = "Session-Id") String sessionId,
+
             // --------------------------------------------------------
             // -----------------------  FORM    -----------------------
             // --------------------------------------------------------
@@ -194,7 +202,9 @@ public class CountRESTService extends ExploreRESTServices {
             // --------------------------------------------------------
             // -----------------------  SEARCH  -----------------------
             // --------------------------------------------------------
-            Count count
+            Count count,
+
+            @Suspended final AsyncResponse asyncResponse
     ) throws InterruptedException, ExecutionException, IOException, NotFoundException, ArlasException {
         CollectionReference collectionReference = exploreServices.getDaoCollectionReference().getCollectionReference(collection);
         if (collectionReference == null) {
@@ -206,16 +216,11 @@ public class CountRESTService extends ExploreRESTServices {
         Count countHeader = new Count();
         countHeader.filter = ParamsParser.getFilter(partitionfilter);
         request.headerRequest = countHeader;
+        request.sessionId = sessionId;
 
-        Hits hits = getArlasHits(collectionReference, request);
-        return Response.ok(hits).build();
-    }
-
-    protected Hits getArlasHits(CollectionReference collectionReference, MixedRequest request) throws ArlasException, IOException {
-        SearchHits searchHits = this.getExploreServices().count(request, collectionReference);
-        Hits hits = new Hits(collectionReference.collectionName);
-        hits.totalnb = searchHits.getTotalHits();
-        hits.nbhits = searchHits.getHits().length;
-        return hits;
+        resumeCached(asyncResponse, responseKey("_count", collectionReference, request, pretty),
+                () -> exploreServices.countAsync(request, collectionReference),
+                searchHits -> exploreServices.toHits(collectionReference, searchHits),
+                Response.ResponseBuilder::build);
     }
 }
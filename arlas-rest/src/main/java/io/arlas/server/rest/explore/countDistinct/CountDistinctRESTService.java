@@ -37,9 +37,12 @@ import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
@@ -56,7 +59,7 @@ public class CountDistinctRESTService extends ExploreRESTServices {
     @ApiOperation(value = "Count distinct", produces = UTF8JSON, notes = "Counts the approximate distinct values of a given field, given the filters", consumes = UTF8JSON, response = CountDistinctResponse.class)
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation", response = CountDistinctResponse.class),
             @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class), @ApiResponse(code = 400, message = "Bad request.", response = Error.class)})
-    public Response countDistinct(
+    public void countDistinct(
             // --------------------------------------------------------
             // ----------------------- PATH -----------------------
             // --------------------------------------------------------
@@ -127,6 +130,9 @@ public class CountDistinctRESTService extends ExploreRESTServices {
             @ApiParam(hidden = true)
             @HeaderParam(value = "Partition-Filter") String partitionfilter,
 
+            @ApiParam(hidden = true)
+            @HeaderParam(value = "Session-Id") String sessionId,
+
             // --------------------------------------------------------
             // -----------------------  FORM    -----------------------
             // --------------------------------------------------------
@@ -140,7 +146,9 @@ public class CountDistinctRESTService extends ExploreRESTServices {
             // -----------------------  EXTRA   -----------------------
             // --------------------------------------------------------
             @ApiParam(value = "max-age-cache", required = false)
-            @QueryParam(value = "max-age-cache") Integer maxagecache
+            @QueryParam(value = "max-age-cache") Integer maxagecache,
+
+            @Suspended final AsyncResponse asyncResponse
     ) throws InterruptedException, ExecutionException, IOException, NotFoundException, ArlasException {
         Long startArlasTime = System.nanoTime();
         CollectionReference collectionReference = exploreServices.getDaoCollectionReference().getCollectionReference(collection);
@@ -150,9 +158,10 @@ public class CountDistinctRESTService extends ExploreRESTServices {
         CountDistinct countDistinct = new CountDistinct();
         countDistinct.filter = ParamsParser.getFilter(f, q, pwithin, gwithin, gintersect, notpwithin, notgwithin, notgintersect, dateformat);
         countDistinct.field = field;
-        CountDistinctResponse countDistinctResponse = getCountDistinctResponse(countDistinct, partitionfilter, collectionReference);
-        countDistinctResponse.totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startArlasTime);
-        return cache(Response.ok(countDistinctResponse), maxagecache);
+        resume(asyncResponse, getCountDistinctResponse(countDistinct, partitionfilter, sessionId, collectionReference), countDistinctResponse -> {
+            countDistinctResponse.totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startArlasTime);
+            return cache(Response.ok(countDistinctResponse), maxagecache);
+        });
     }
 
 
@@ -164,7 +173,7 @@ public class CountDistinctRESTService extends ExploreRESTServices {
     @ApiOperation(value = "Count distinct", produces = UTF8JSON, notes = "Counts the approximate distinct values of a given field, given the filters", consumes = UTF8JSON, response = CountDistinctResponse.class)
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation", response = CountDistinctResponse.class),
             @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class), @ApiResponse(code = 400, message = "Bad request.", response = Error.class)})
-    public Response countPost(
+    public void countPost(
             // --------------------------------------------------------
             // ----------------------- PATH -----------------------
             // --------------------------------------------------------
@@ -182,6 +191,9 @@ public class CountDistinctRESTService extends ExploreRESTServices {
             @ApiParam(hidden = true)
             @HeaderParam(value = "Partition-Filter") String partitionfilter,
 
+            @ApiParam(hidden = true)
+            @HeaderParam(value = "Session-Id") String sessionId,
+
             // --------------------------------------------------------
             // -----------------------  FORM    -----------------------
             // --------------------------------------------------------
@@ -194,26 +206,29 @@ public class CountDistinctRESTService extends ExploreRESTServices {
             // --------------------------------------------------------
             // -----------------------  COUNT DISTINCT  -----------------------
             // --------------------------------------------------------
-            CountDistinct countDistinct
+            CountDistinct countDistinct,
+
+            @Suspended final AsyncResponse asyncResponse
     ) throws InterruptedException, ExecutionException, IOException, NotFoundException, ArlasException {
         Long startArlasTime = System.nanoTime();
         CollectionReference collectionReference = exploreServices.getDaoCollectionReference().getCollectionReference(collection);
         if (collectionReference == null) {
             throw new NotFoundException(collection);
         }
-        CountDistinctResponse countDistinctResponse = getCountDistinctResponse(countDistinct, partitionfilter, collectionReference);
-        countDistinctResponse.totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startArlasTime);
-        return Response.ok(countDistinctResponse).build();
+        resume(asyncResponse, getCountDistinctResponse(countDistinct, partitionfilter, sessionId, collectionReference), countDistinctResponse -> {
+            countDistinctResponse.totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startArlasTime);
+            return Response.ok(countDistinctResponse).build();
+        });
     }
 
-    private CountDistinctResponse getCountDistinctResponse(CountDistinct countDistinct, String partitionfilter, CollectionReference collectionReference) throws ArlasException, IOException {
+    private CompletionStage<CountDistinctResponse> getCountDistinctResponse(CountDistinct countDistinct, String partitionfilter, String sessionId, CollectionReference collectionReference) throws ArlasException, IOException {
         CheckParams.checkCountDistinctRequest(countDistinct);
         MixedRequest request = new MixedRequest();
         request.basicRequest = countDistinct;
         CountDistinct countDistinctHeader = new CountDistinct();
         countDistinctHeader.filter = ParamsParser.getFilter(partitionfilter);
         request.headerRequest = countDistinctHeader;
-        CountDistinctResponse countDistinctResponse = this.getExploreServices().countDistinct(request, collectionReference);
-        return countDistinctResponse;
+        request.sessionId = sessionId;
+        return this.getExploreServices().countDistinctAsync(request, collectionReference);
     }
 }
@@ -20,7 +20,6 @@
 package io.arlas.server.rest.explore.describe;
 
 import com.codahale.metrics.annotation.Timed;
-import io.arlas.server.core.ElasticAdmin;
 import io.arlas.server.exceptions.ArlasException;
 import io.arlas.server.model.CollectionReference;
 import io.arlas.server.model.response.CollectionReferenceDescription;
@@ -82,8 +81,7 @@ public class DescribeCollectionRESTService extends ExploreRESTServices {
             throw new NotFoundException(collection);
         }
 
-        ElasticAdmin elasticAdmin = new ElasticAdmin(this.getExploreServices().getClient());
-        CollectionReferenceDescription collectionReferenceDescription = elasticAdmin.describeCollection(collectionReference);
+        CollectionReferenceDescription collectionReferenceDescription = exploreServices.getElasticAdmin().describeCollection(collectionReference);
         return cache(Response.ok(collectionReferenceDescription), maxagecache);
     }
 }
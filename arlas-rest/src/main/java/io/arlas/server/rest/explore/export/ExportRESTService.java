@@ -0,0 +1,255 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.rest.explore.export;
+
+import com.codahale.metrics.annotation.Timed;
+import io.arlas.server.app.Documentation;
+import io.arlas.server.core.SlicedScroll;
+import io.arlas.server.exceptions.ArlasException;
+import io.arlas.server.exceptions.InvalidParameterException;
+import io.arlas.server.model.CollectionReference;
+import io.arlas.server.model.enumerations.ExportFormatEnum;
+import io.arlas.server.model.request.MixedRequest;
+import io.arlas.server.model.request.Projection;
+import io.arlas.server.model.request.Search;
+import io.arlas.server.model.response.CollectionReferenceDescriptionProperty;
+import io.arlas.server.model.response.Error;
+import io.arlas.server.rest.explore.ExploreRESTServices;
+import io.arlas.server.rest.explore.search.GeoJsonStreamingOutput;
+import io.arlas.server.services.ExploreServices;
+import io.arlas.server.utils.FieldPath;
+import io.arlas.server.utils.ParamsParser;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.regex.Regex;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+public class ExportRESTService extends ExploreRESTServices {
+    public static final String NDJSON = "application/x-ndjson";
+    public static final String GEOJSON_SEQ = "application/geo+json-seq";
+    public static final String CSV = "text/csv";
+
+    private static final String FEATURE_TYPE_KEY = "feature_type";
+    private static final String FEATURE_TYPE_VALUE = "hit";
+
+    public ExportRESTService(ExploreServices exploreServices) {
+        super(exploreServices);
+    }
+
+    @Timed
+    @Path("{collection}/_export")
+    @GET
+    @Produces({NDJSON, GEOJSON_SEQ, CSV})
+    @Consumes(UTF8JSON)
+    @ApiOperation(value = "Export", produces = NDJSON + "," + GEOJSON_SEQ + "," + CSV, notes = Documentation.EXPORT_OPERATION, consumes = UTF8JSON)
+    @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation"),
+            @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class), @ApiResponse(code = 400, message = "Bad request.", response = Error.class)})
+    public Response export(
+            // --------------------------------------------------------
+            // ----------------------- PATH -----------------------
+            // --------------------------------------------------------
+            @ApiParam(
+                    name = "collection",
+                    value = "collection",
+                    allowMultiple = false,
+                    required = true)
+            @PathParam(value = "collection") String collection,
+            // --------------------------------------------------------
+            // -----------------------  FILTER  -----------------------
+            // --------------------------------------------------------
+            @ApiParam(name = "f",
+                    value = Documentation.FILTER_PARAM_F,
+                    allowMultiple = true,
+                    required = false)
+            @QueryParam(value = "f") List<String> f,
+
+            @ApiParam(name = "q", value = Documentation.FILTER_PARAM_Q,
+                    allowMultiple = true,
+                    required = false)
+            @QueryParam(value = "q") List<String> q,
+
+            @ApiParam(name = "pwithin", value = Documentation.FILTER_PARAM_PWITHIN,
+                    allowMultiple = true,
+                    required = false)
+            @QueryParam(value = "pwithin") List<String> pwithin,
+
+            @ApiParam(name = "gwithin", value = Documentation.FILTER_PARAM_GWITHIN,
+                    allowMultiple = true,
+                    required = false)
+            @QueryParam(value = "gwithin") List<String> gwithin,
+
+            @ApiParam(name = "gintersect", value = Documentation.FILTER_PARAM_GINTERSECT,
+                    allowMultiple = true,
+                    required = false)
+            @QueryParam(value = "gintersect") List<String> gintersect,
+
+            @ApiParam(name = "notpwithin", value = Documentation.FILTER_PARAM_NOTPWITHIN,
+                    allowMultiple = true,
+                    required = false)
+            @QueryParam(value = "notpwithin") List<String> notpwithin,
+
+            @ApiParam(name = "notgwithin", value = Documentation.FILTER_PARAM_NOTGWITHIN,
+                    allowMultiple = true,
+                    required = false)
+            @QueryParam(value = "notgwithin") List<String> notgwithin,
+
+            @ApiParam(name = "notgintersect", value = Documentation.FILTER_PARAM_NOTGINTERSECT,
+                    allowMultiple = true,
+                    required = false)
+            @QueryParam(value = "notgintersect") List<String> notgintersect,
+
+            @ApiParam(name = "dateformat", value = Documentation.FILTER_DATE_FORMAT,
+                    allowMultiple = false,
+                    required = false)
+            @QueryParam(value = "dateformat") String dateformat,
+
+            @ApiParam(hidden = true)
+            @HeaderParam(value = "Partition-Filter") String partitionFilter,
+
+            // --------------------------------------------------------
+            // -----------------------  FORM    -----------------------
+            // --------------------------------------------------------
+            @ApiParam(name = "format", value = Documentation.FORM_EXPORT_FORMAT,
+                    allowMultiple = false,
+                    defaultValue = "ndjson",
+                    allowableValues = "ndjson,geojsonseq,csv",
+                    required = false)
+            @QueryParam(value = "format") String format,
+
+            @ApiParam(name = "flat", value = Documentation.FORM_FLAT,
+                    allowMultiple = false,
+                    defaultValue = "false",
+                    required = false)
+            @QueryParam(value = "flat") Boolean flat,
+
+            // --------------------------------------------------------
+            // -----------------------  PROJECTION   -----------------------
+            // --------------------------------------------------------
+
+            @ApiParam(name = "include", value = Documentation.PROJECTION_PARAM_INCLUDE,
+                    allowMultiple = true,
+                    defaultValue = "*",
+                    required = false)
+            @QueryParam(value = "include") String include,
+
+            @ApiParam(name = "exclude", value = Documentation.PROJECTION_PARAM_EXCLUDE,
+                    allowMultiple = true,
+                    defaultValue = "",
+                    required = false)
+            @QueryParam(value = "exclude") String exclude
+    ) throws IOException, NotFoundException, ArlasException {
+        CollectionReference collectionReference = exploreServices.getDaoCollectionReference()
+                .getCollectionReference(collection);
+        if (collectionReference == null) {
+            throw new NotFoundException(collection);
+        }
+        ExportFormatEnum exportFormat = getFormat(format);
+
+        Search search = new Search();
+        search.filter = ParamsParser.getFilter(f, q, pwithin, gwithin, gintersect, notpwithin, notgwithin, notgintersect, dateformat);
+        search.projection = ParamsParser.getProjection(include, exclude);
+        Search searchHeader = new Search();
+        searchHeader.filter = ParamsParser.getFilter(partitionFilter);
+        MixedRequest request = new MixedRequest();
+        request.basicRequest = search;
+        request.headerRequest = searchHeader;
+
+        SlicedScroll scroll = exploreServices.export(request, collectionReference);
+        boolean isFlat = flat != null && flat;
+        switch (exportFormat) {
+            case geojsonseq:
+                return Response.ok(new ExportStreamingOutput(scroll, exportFormat, isFlat,
+                        new GeoJsonStreamingOutput(collectionReference, isFlat, FEATURE_TYPE_KEY, FEATURE_TYPE_VALUE), null))
+                        .type(GEOJSON_SEQ).build();
+            case csv:
+                return Response.ok(new ExportStreamingOutput(scroll, exportFormat, true, null, getColumns(collectionReference, search.projection)))
+                        .type(CSV)
+                        .header("Content-Disposition", "attachment; filename=\"" + collection + ".csv\"")
+                        .build();
+            default:
+                return Response.ok(new ExportStreamingOutput(scroll, exportFormat, isFlat, null, null)).type(NDJSON).build();
+        }
+    }
+
+    private ExportFormatEnum getFormat(String format) throws InvalidParameterException {
+        if (Strings.isNullOrEmpty(format)) {
+            return ExportFormatEnum.ndjson;
+        }
+        try {
+            return ExportFormatEnum.valueOf(format);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidParameterException("Invalid format '" + format + "': ndjson, geojsonseq or csv expected");
+        }
+    }
+
+    /**
+     * The columns of a csv export are the leaf fields of the collection kept by the projection and not excluded by the
+     * collection, in alphabetical order.
+     */
+    private List<FieldPath> getColumns(CollectionReference collectionReference, Projection projection) throws IOException {
+        TreeSet<String> columns = new TreeSet<>();
+        addLeafPaths(exploreServices.getElasticAdmin().describeCollection(collectionReference).properties, "", columns);
+        String[] includes = projection == null || Strings.isNullOrEmpty(projection.includes) ? new String[0] : projection.includes.split(",");
+        String[] excludes = projection == null || Strings.isNullOrEmpty(projection.excludes) ? new String[0] : projection.excludes.split(",");
+        String[] collectionExcludes = Strings.isNullOrEmpty(collectionReference.params.excludeFields) ? new String[0] : collectionReference.params.excludeFields.split(",");
+        List<FieldPath> projected = new ArrayList<>();
+        for (String column : columns) {
+            if ((includes.length == 0 || matches(includes, column)) && !matches(excludes, column) && !matches(collectionExcludes, column)) {
+                projected.add(collectionReference.getFieldPath(column));
+            }
+        }
+        return projected;
+    }
+
+    private void addLeafPaths(Map<String, CollectionReferenceDescriptionProperty> properties, String prefix, TreeSet<String> paths) {
+        if (properties == null) {
+            return;
+        }
+        properties.forEach((name, property) -> {
+            if (property.properties == null || property.properties.isEmpty()) {
+                paths.add(prefix + name);
+            } else {
+                addLeafPaths(property.properties, prefix + name + ".", paths);
+            }
+        });
+    }
+
+    /**
+     * Same matching as the source filtering of elasticsearch: a pattern matching an object matches all its fields.
+     */
+    private boolean matches(String[] patterns, String path) {
+        for (String pattern : patterns) {
+            String trimmed = pattern.trim();
+            if (Regex.simpleMatch(trimmed, path) || Regex.simpleMatch(trimmed + ".*", path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.rest.explore.export;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.arlas.server.app.ArlasServerConfiguration;
+import io.arlas.server.core.SlicedScroll;
+import io.arlas.server.model.enumerations.ExportFormatEnum;
+import io.arlas.server.rest.explore.search.GeoJsonStreamingOutput;
+import io.arlas.server.utils.FieldPath;
+import io.arlas.server.utils.MapExplorer;
+import org.elasticsearch.search.SearchHit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the hits of a sliced scroll as they come, page by page: the memory needed does not depend on the number of
+ * exported hits. A page is flushed to the client before the next one is taken, so that a client that went away stops the
+ * export at the next page and the scroll is closed.
+ */
+public class ExportStreamingOutput implements StreamingOutput {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExportStreamingOutput.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    // RFC 8142: each GeoJSON text of the sequence is preceded by a record separator
+    private static final char RECORD_SEPARATOR = '\u001e';
+
+    private final SlicedScroll scroll;
+    private final ExportFormatEnum format;
+    private final boolean flat;
+    private final GeoJsonStreamingOutput featureWriter;
+    private final List<FieldPath> columns;
+
+    /**
+     * @param featureWriter writes the features of the geojsonseq format
+     * @param columns the paths written as columns by the csv format, compiled once for the whole export
+     */
+    public ExportStreamingOutput(SlicedScroll scroll, ExportFormatEnum format, boolean flat, GeoJsonStreamingOutput featureWriter, List<FieldPath> columns) {
+        this.scroll = scroll;
+        this.format = format;
+        this.flat = flat;
+        this.featureWriter = featureWriter;
+        this.columns = columns;
+    }
+
+    @Override
+    public void write(OutputStream outputStream) throws IOException {
+        long exported = 0;
+        try (SlicedScroll pages = scroll) {
+            if (format == ExportFormatEnum.csv) {
+                exported = writeCsv(pages, new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)));
+            } else {
+                exported = writeJson(pages, mapper.getFactory().createGenerator(outputStream));
+            }
+        } finally {
+            LOGGER.debug("Exported " + exported + " hits in " + scroll.getSlices() + " slice(s)");
+        }
+    }
+
+    private long writeJson(SlicedScroll pages, JsonGenerator generator) throws IOException {
+        long exported = 0;
+        // the texts are separated by line feeds, not by the default space of jackson
+        generator.setRootValueSeparator(null);
+        SearchHit[] hits;
+        while ((hits = pages.next()) != null) {
+            for (SearchHit hit : hits) {
+                if (format == ExportFormatEnum.geojsonseq) {
+                    generator.writeRaw(RECORD_SEPARATOR);
+                    featureWriter.writeFeature(generator, hit);
+                } else if (flat) {
+                    generator.writeObject(MapExplorer.flat(hit.getSourceAsMap(), new MapExplorer.ReduceArrayOnKey(ArlasServerConfiguration.FLATTEN_CHAR), new HashSet<>()));
+                } else if (hit.getSourceRef() == null) {
+                    generator.writeStartObject();
+                    generator.writeEndObject();
+                } else {
+                    try (JsonParser parser = mapper.getFactory().createParser(hit.getSourceAsString())) {
+                        parser.nextToken();
+                        generator.copyCurrentStructure(parser);
+                    }
+                }
+                generator.writeRaw('\n');
+            }
+            exported += hits.length;
+            generator.flush();
+        }
+        generator.close();
+        return exported;
+    }
+
+    private long writeCsv(SlicedScroll pages, Writer writer) throws IOException {
+        long exported = 0;
+        for (int i = 0; i < columns.size(); i++) {
+            writer.write(i == 0 ? "" : ",");
+            writer.write(escapeCsv(columns.get(i).getPath()));
+        }
+        writer.write("\r\n");
+        SearchHit[] hits;
+        while ((hits = pages.next()) != null) {
+            for (SearchHit hit : hits) {
+                Map<String, Object> source = hit.getSourceAsMap();
+                for (int i = 0; i < columns.size(); i++) {
+                    writer.write(i == 0 ? "" : ",");
+                    writer.write(escapeCsv(toCsvValue(columns.get(i).resolve(source))));
+                }
+                writer.write("\r\n");
+            }
+            exported += hits.length;
+            writer.flush();
+        }
+        writer.close();
+        return exported;
+    }
+
+    /**
+     * Arrays and objects (e.g. geometries) are written as json in their cell.
+     */
+    private static String toCsvValue(Object value) throws IOException {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Map || value instanceof Collection) {
+            return mapper.writeValueAsString(value);
+        }
+        return value.toString();
+    }
+
+    /**
+     * RFC 4180: a value holding a comma, a double quote or a line break is enclosed in double quotes, its double quotes being doubled.
+     */
+    static String escapeCsv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -20,7 +20,6 @@
 package io.arlas.server.rest.explore.range;
 
 import com.codahale.metrics.annotation.Timed;
-import io.arlas.server.core.FluidSearch;
 import io.arlas.server.exceptions.ArlasException;
 import io.arlas.server.model.CollectionReference;
 import io.arlas.server.model.request.MixedRequest;
@@ -30,21 +29,21 @@ import io.arlas.server.model.response.RangeResponse;
 import io.arlas.server.app.Documentation;
 import io.arlas.server.rest.explore.ExploreRESTServices;
 import io.arlas.server.services.ExploreServices;
-import io.arlas.server.utils.CheckParams;
+import io.arlas.server.utils.ExploreResponseCache;
 import io.arlas.server.utils.ParamsParser;
+import io.arlas.server.utils.RangeExtentsCache;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
-import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.search.aggregations.Aggregation;
-import org.elasticsearch.search.aggregations.metrics.max.Max;
-import org.elasticsearch.search.aggregations.metrics.min.Min;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
@@ -61,7 +60,7 @@ public class RangeRESTService extends ExploreRESTServices {
     )
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation", response = RangeResponse.class, responseContainer = "ArlasRange"),
             @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class), @ApiResponse(code = 400, message = "Bad request.", response = Error.class)})
-    public Response range(
+    public void range(
             // --------------------------------------------------------
             // ----------------------- PATH -----------------------
             // --------------------------------------------------------
@@ -133,6 +132,9 @@ public class RangeRESTService extends ExploreRESTServices {
             @ApiParam(hidden = true)
             @HeaderParam(value = "Partition-Filter") String partitionFilter,
 
+            @ApiParam(hidden = true)
+            @HeaderParam(value = "Session-Id") String sessionId,
+
             // --------------------------------------------------------
             // ----------------------- FORM -----------------------
             // --------------------------------------------------------
@@ -146,7 +148,9 @@ public class RangeRESTService extends ExploreRESTServices {
             // ----------------------- EXTRA -----------------------
             // --------------------------------------------------------
             @ApiParam(value = "max-age-cache", required = false)
-            @QueryParam(value = "max-age-cache") Integer maxagecache
+            @QueryParam(value = "max-age-cache") Integer maxagecache,
+
+            @Suspended final AsyncResponse asyncResponse
     ) throws InterruptedException, ExecutionException, IOException, ArlasException {
         Long startArlasTime = System.nanoTime();
         CollectionReference collectionReference = exploreServices.getDaoCollectionReference()
@@ -162,10 +166,16 @@ public class RangeRESTService extends ExploreRESTServices {
         MixedRequest request = new MixedRequest();
         request.basicRequest = rangeRequest;
         request.headerRequest = rangeRequestHeader;
+        request.sessionId = sessionId;
 
-        RangeResponse rangeResponse = getFieldRange(request, collectionReference);
-        rangeResponse.totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startArlasTime);
-        return cache(Response.ok(rangeResponse), maxagecache);
+        Long startQuery = System.nanoTime();
+        resumeCached(asyncResponse, rangeResponseKey(collectionReference, request, pretty),
+                () -> this.getExploreServices().getFieldRangeAsync(request, collectionReference), rangeResponse -> {
+                    rangeResponse.queryTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startQuery);
+                    rangeResponse.totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startArlasTime);
+                    return rangeResponse;
+                },
+                range -> cache(range, maxagecache));
     }
 
     @Timed
@@ -177,7 +187,7 @@ public class RangeRESTService extends ExploreRESTServices {
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation", response = RangeResponse.class, responseContainer = "ArlasRange"),
             @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class),
             @ApiResponse(code = 400, message = "Bad request.", response = Error.class)})
-    public Response rangePost(
+    public void rangePost(
             // --------------------------------------------------------
             // ----------------------- PATH -----------------------
             // --------------------------------------------------------
@@ -199,6 +209,9 @@ public class RangeRESTService extends ExploreRESTServices {
             @ApiParam(hidden = true)
             @HeaderParam(value = "Partition-Filter") String partitionFilter,
 
+            @ApiParam(hidden = true)
+            @HeaderParam(value = "Session-Id") String sessionId,
+
             // --------------------------------------------------------
             // ----------------------- FORM -----------------------
             // --------------------------------------------------------
@@ -212,7 +225,9 @@ public class RangeRESTService extends ExploreRESTServices {
             // ----------------------- EXTRA -----------------------
             // --------------------------------------------------------
             @ApiParam(value = "max-age-cache", required = false)
-            @QueryParam(value = "max-age-cache") Integer maxagecache
+            @QueryParam(value = "max-age-cache") Integer maxagecache,
+
+            @Suspended final AsyncResponse asyncResponse
     ) throws InterruptedException, ExecutionException, IOException, NotFoundException, ArlasException {
         Long startArlasTime = System.nanoTime();
         CollectionReference collectionReference = exploreServices.getDaoCollectionReference()
@@ -225,34 +240,25 @@ public class RangeRESTService extends ExploreRESTServices {
         MixedRequest request = new MixedRequest();
         request.basicRequest = rangeRequest;
         request.headerRequest = rangeRequestHeader;
+        request.sessionId = sessionId;
 
-        RangeResponse rangeResponse = getFieldRange(request, collectionReference);
-        rangeResponse.totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startArlasTime);
-        return cache(Response.ok(rangeResponse), maxagecache);
-    }
-
-    public RangeResponse getFieldRange(MixedRequest request, CollectionReference collectionReference) throws ArlasException, IOException{
-        RangeResponse rangeResponse = new RangeResponse();
         Long startQuery = System.nanoTime();
-        SearchResponse response = this.getExploreServices().getFieldRange(request, collectionReference);
-        Aggregation firstAggregation = response.getAggregations().asList().get(0);
-        Aggregation secondAggregation = response.getAggregations().asList().get(1);
+        resumeCached(asyncResponse, rangeResponseKey(collectionReference, request, pretty),
+                () -> this.getExploreServices().getFieldRangeAsync(request, collectionReference), rangeResponse -> {
+                    rangeResponse.queryTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startQuery);
+                    rangeResponse.totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startArlasTime);
+                    return rangeResponse;
+                },
+                range -> cache(range, maxagecache));
+    }
 
-        rangeResponse.totalnb = response.getHits().getTotalHits();
-        if (rangeResponse.totalnb > 0) {
-            if (firstAggregation.getName().equals(FluidSearch.FIELD_MIN_VALUE)) {
-                rangeResponse.min = ((Min)firstAggregation).getValue();
-                rangeResponse.max = ((Max)secondAggregation).getValue();
-            } else {
-                rangeResponse.min = ((Min)secondAggregation).getValue();
-                rangeResponse.max = ((Max)firstAggregation).getValue();
-            }
-            CheckParams.checkRangeFieldExists(rangeResponse);
-        } else {
-            rangeResponse.min = rangeResponse.max = null;
+    /**
+     * The extents are kept by the range extents cache, if any: they are not kept a second time as explore responses.
+     */
+    private CompletionStage<ExploreResponseCache.Key> rangeResponseKey(CollectionReference collectionReference, MixedRequest request, Boolean pretty) {
+        if (exploreServices.getRangeExtentsCache() != null && RangeExtentsCache.isExtent(request)) {
+            return null;
         }
-        
-        rangeResponse.queryTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startQuery);
-        return rangeResponse;
+        return responseKey("_range", collectionReference, request, pretty);
     }
 }
@@ -0,0 +1,312 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.rest.explore.search;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.arlas.server.app.ArlasServerConfiguration;
+import io.arlas.server.exceptions.ArlasException;
+import io.arlas.server.model.CollectionReference;
+import io.arlas.server.model.response.MD;
+import io.arlas.server.utils.GeoTypeMapper;
+import io.arlas.server.utils.GeometryReducer;
+import io.arlas.server.utils.TimestampTypeMapper;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.geojson.GeoJsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the hits as a GeoJSON FeatureCollection, copying the source of each hit to the output as it is parsed.
+ * The output is the one of the FeatureCollection built by {@link GeoSearchRESTService}, without building any intermediate
+ * object but the md of the hit being written.
+ */
+public class GeoJsonStreamingOutput implements StreamingOutput {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GeoJsonStreamingOutput.class);
+    private static final ObjectMapper mapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    private final SearchHits searchHits;
+    private final CollectionReference collectionReference;
+    private final boolean flat;
+    private final boolean pretty;
+    private final String featureTypeKey;
+    private final String featureTypeValue;
+    private final GeometryReducer geometryReducer;
+
+    public GeoJsonStreamingOutput(SearchHits searchHits, CollectionReference collectionReference, boolean flat, boolean pretty,
+                                  String featureTypeKey, String featureTypeValue) {
+        this(searchHits, collectionReference, flat, pretty, featureTypeKey, featureTypeValue, null);
+    }
+
+    /**
+     * Output of features written one by one with {@link #writeFeature}, e.g. in a GeoJSON text sequence.
+     */
+    public GeoJsonStreamingOutput(CollectionReference collectionReference, boolean flat, String featureTypeKey, String featureTypeValue) {
+        this(null, collectionReference, flat, false, featureTypeKey, featureTypeValue, null);
+    }
+
+    /**
+     * @param geometryReducer simplifies and rounds the geometries as they are written, null to write them as they are
+     */
+    public GeoJsonStreamingOutput(SearchHits searchHits, CollectionReference collectionReference, boolean flat, boolean pretty,
+                                  String featureTypeKey, String featureTypeValue, GeometryReducer geometryReducer) {
+        this.searchHits = searchHits;
+        this.collectionReference = collectionReference;
+        this.flat = flat;
+        this.pretty = pretty;
+        this.featureTypeKey = featureTypeKey;
+        this.featureTypeValue = featureTypeValue;
+        this.geometryReducer = geometryReducer != null && geometryReducer.isEnabled() ? geometryReducer : null;
+    }
+
+    @Override
+    public void write(OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(outputStream)) {
+            if (pretty) {
+                generator.useDefaultPrettyPrinter();
+            }
+            generator.writeStartObject();
+            generator.writeStringField("type", "FeatureCollection");
+            if (searchHits.getHits().length > 0) {
+                generator.writeArrayFieldStart("features");
+                for (SearchHit hit : searchHits.getHits()) {
+                    writeFeature(generator, hit);
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+        }
+        if (geometryReducer != null) {
+            geometryReducer.report();
+        }
+    }
+
+    /**
+     * Writes the hit as a GeoJSON Feature.
+     */
+    public void writeFeature(JsonGenerator generator, SearchHit hit) throws IOException {
+        HitPaths hitPaths = new HitPaths();
+        generator.writeStartObject();
+        generator.writeStringField("type", "Feature");
+        generator.writeObjectFieldStart("properties");
+        BytesReference source = hit.getSourceRef();
+        if (source != null) {
+            try (JsonParser parser = createParser(hit, source)) {
+                if (parser.nextToken() == JsonToken.START_OBJECT) {
+                    copyObject(parser, generator, "", new ArrayList<>(), hitPaths);
+                }
+            }
+        }
+        /* Only id, timestamp and centroid are set in the MD. The geometry is already returned in the geojson. */
+        MD md = hitPaths.getMD();
+        generator.writeFieldName(MD.class.getSimpleName().toLowerCase());
+        generator.writeObject(md);
+        generator.writeStringField(featureTypeKey, featureTypeValue);
+        generator.writeEndObject();
+        GeoJsonObject geometry = hitPaths.getGeometry();
+        if (geometry == null) {
+            geometry = md.centroid;
+        }
+        if (geometry != null && geometryReducer != null) {
+            geometry = geometryReducer.reduce(geometry);
+        }
+        if (geometry != null) {
+            generator.writeFieldName("geometry");
+            generator.writeObject(geometry);
+        }
+        generator.writeEndObject();
+    }
+
+    private JsonParser createParser(SearchHit hit, BytesReference source) throws IOException {
+        if (XContentHelper.xContentType(source) == XContentType.JSON) {
+            BytesRef bytes = source.toBytesRef();
+            return mapper.getFactory().createParser(bytes.bytes, bytes.offset, bytes.length);
+        }
+        return mapper.getFactory().createParser(hit.getSourceAsString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Copies the fields of the object the parser is on, picking the collection's paths on the way.
+     * The parser ends on the END_OBJECT of the copied object.
+     */
+    private void copyObject(JsonParser parser, JsonGenerator generator, String path, List<String> keyParts, HitPaths hitPaths) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            String fieldPath = path.isEmpty() ? name : path + "." + name;
+            JsonToken value = parser.nextToken();
+            keyParts.add(name);
+            if (hitPaths.isPicked(fieldPath)) {
+                JsonNode node = parser.readValueAsTree();
+                if (hitPaths.pick(fieldPath, node)) {
+                    writeValue(node.traverse(mapper), generator, keyParts);
+                }
+            } else if (value == JsonToken.START_OBJECT && hitPaths.isParentOfPicked(fieldPath)) {
+                if (!flat) {
+                    generator.writeObjectFieldStart(name);
+                }
+                copyObject(parser, generator, fieldPath, keyParts, hitPaths);
+                if (!flat) {
+                    generator.writeEndObject();
+                }
+            } else {
+                writeValue(parser, generator, keyParts);
+            }
+            keyParts.remove(keyParts.size() - 1);
+        }
+    }
+
+    /**
+     * Writes the value the parser is on under the last key part: as is, or flattened.
+     */
+    private void writeValue(JsonParser parser, JsonGenerator generator, List<String> keyParts) throws IOException {
+        if (parser.currentToken() == null) {
+            parser.nextToken();
+        }
+        if (!flat) {
+            generator.writeFieldName(keyParts.get(keyParts.size() - 1));
+            generator.copyCurrentStructure(parser);
+        } else {
+            writeFlat(parser, generator, keyParts);
+        }
+    }
+
+    /**
+     * Same keys and values as {@link io.arlas.server.utils.MapExplorer#flat}: nested keys and array indices are joined and null values are dropped.
+     */
+    private void writeFlat(JsonParser parser, JsonGenerator generator, List<String> keyParts) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                keyParts.add(parser.getCurrentName());
+                parser.nextToken();
+                writeFlat(parser, generator, keyParts);
+                keyParts.remove(keyParts.size() - 1);
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            int i = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                keyParts.add("" + i++);
+                writeFlat(parser, generator, keyParts);
+                keyParts.remove(keyParts.size() - 1);
+            }
+        } else if (token != JsonToken.VALUE_NULL) {
+            generator.writeFieldName(String.join(ArlasServerConfiguration.FLATTEN_CHAR, keyParts));
+            generator.copyCurrentEvent(parser);
+        }
+    }
+
+    /**
+     * Values of the collection's id, centroid, geometry and timestamp paths found in the source of a hit.
+     */
+    private class HitPaths {
+        private JsonNode id;
+        private JsonNode centroid;
+        private JsonNode geometry;
+        private JsonNode timestamp;
+
+        private boolean isPicked(String path) {
+            return path.equals(collectionReference.params.idPath) || path.equals(collectionReference.params.centroidPath)
+                    || path.equals(collectionReference.params.geometryPath) || path.equals(collectionReference.params.timestampPath);
+        }
+
+        private boolean isParentOfPicked(String path) {
+            String prefix = path + ".";
+            return startsWith(collectionReference.params.idPath, prefix) || startsWith(collectionReference.params.centroidPath, prefix)
+                    || startsWith(collectionReference.params.geometryPath, prefix) || startsWith(collectionReference.params.timestampPath, prefix);
+        }
+
+        /**
+         * @return whether the value must be written in the properties: the geometry is not.
+         */
+        private boolean pick(String path, JsonNode value) {
+            if (path.equals(collectionReference.params.idPath)) {
+                id = value;
+            }
+            if (path.equals(collectionReference.params.centroidPath)) {
+                centroid = value;
+            }
+            if (path.equals(collectionReference.params.timestampPath)) {
+                timestamp = value;
+            }
+            if (path.equals(collectionReference.params.geometryPath)) {
+                geometry = value;
+                return false;
+            }
+            return true;
+        }
+
+        private MD getMD() throws IOException {
+            MD md = new MD();
+            if (collectionReference.params.idPath != null) {
+                md.id = "" + toObject(id);
+            }
+            md.centroid = toGeoJson(centroid);
+            if (timestamp != null && !timestamp.isNull()) {
+                String format = collectionReference.params.customParams.get(CollectionReference.TIMESTAMP_FORMAT);
+                try {
+                    md.timestamp = TimestampTypeMapper.getTimestamp(toObject(timestamp), format);
+                } catch (ArlasException e) {
+                    throw new IOException(e);
+                }
+            }
+            return md;
+        }
+
+        private GeoJsonObject getGeometry() throws IOException {
+            return toGeoJson(geometry);
+        }
+
+        private GeoJsonObject toGeoJson(JsonNode node) throws IOException {
+            if (node == null || node.isNull()) {
+                return null;
+            }
+            try {
+                return GeoTypeMapper.getGeoJsonObject(toObject(node));
+            } catch (ArlasException e) {
+                LOGGER.error("Unable to read the geometry of a hit", e);
+                return null;
+            }
+        }
+
+        private Object toObject(JsonNode node) throws IOException {
+            return node == null ? null : mapper.treeToValue(node, Object.class);
+        }
+
+        private boolean startsWith(String path, String prefix) {
+            return path != null && path.startsWith(prefix);
+        }
+    }
+}
@@ -22,13 +22,13 @@ package io.arlas.server.rest.explore.search;
 
 import com.codahale.metrics.annotation.Timed;
 import io.arlas.server.exceptions.ArlasException;
+import io.arlas.server.exceptions.InvalidParameterException;
 import io.arlas.server.model.CollectionReference;
 import io.arlas.server.model.request.MixedRequest;
 import io.arlas.server.model.request.Search;
 import io.arlas.server.model.response.Error;
+import io.arlas.server.app.ArlasServerConfiguration;
 import io.arlas.server.app.Documentation;
-import io.arlas.server.model.response.Hit;
-import io.arlas.server.model.response.MD;
 import io.arlas.server.rest.explore.ExploreRESTServices;
 import io.arlas.server.services.ExploreServices;
 import io.arlas.server.utils.*;
@@ -39,17 +39,23 @@ import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
-import org.geojson.Feature;
 import org.geojson.FeatureCollection;
-import org.geojson.GeoJsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 
 public class GeoSearchRESTService extends ExploreRESTServices {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GeoSearchRESTService.class);
 
     public GeoSearchRESTService(ExploreServices exploreServices) {
         super(exploreServices);
@@ -67,7 +73,7 @@ public class GeoSearchRESTService extends ExploreRESTServices {
     @ApiOperation(value = "GeoSearch", produces = UTF8JSON, notes = Documentation.GEOSEARCH_OPERATION, consumes = UTF8JSON, response = FeatureCollection.class)
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation", response = FeatureCollection.class, responseContainer = "FeatureCollection"),
             @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class), @ApiResponse(code = 400, message = "Bad request.", response = Error.class)})
-    public Response geosearch(
+    public void geosearch(
             // --------------------------------------------------------
             // ----------------------- PATH -----------------------
             // --------------------------------------------------------
@@ -196,7 +202,9 @@ public class GeoSearchRESTService extends ExploreRESTServices {
             // -----------------------  EXTRA   -----------------------
             // --------------------------------------------------------
             @ApiParam(value = "max-age-cache", required = false)
-            @QueryParam(value = "max-age-cache") Integer maxagecache
+            @QueryParam(value = "max-age-cache") Integer maxagecache,
+
+            @Suspended final AsyncResponse asyncResponse
     ) throws InterruptedException, ExecutionException, IOException, NotFoundException, ArlasException {
         CollectionReference collectionReference = exploreServices.getDaoCollectionReference()
                 .getCollectionReference(collection);
@@ -204,30 +212,23 @@ public class GeoSearchRESTService extends ExploreRESTServices {
             throw new NotFoundException(collection);
         }
 
-        Search search = new Search();
-        search.filter = ParamsParser.getFilter(f, q, pwithin, gwithin, gintersect, notpwithin, notgwithin, notgintersect, dateformat);
-        search.page = ParamsParser.getPage(size, from, sort,after);
-        search.projection = ParamsParser.getProjection(include, exclude);
-        Search searchHeader = new Search();
-        searchHeader.filter = ParamsParser.getFilter(partitionFilter);
-        MixedRequest request = new MixedRequest();
-        request.basicRequest = search;
-        request.headerRequest = searchHeader;
-
-        FeatureCollection fc = getFeatures(collectionReference, request, (flat!=null && flat));
-        return cache(Response.ok(fc), maxagecache);
+        MixedRequest request = getSearchRequest(f, q, pwithin, gwithin, gintersect, notpwithin, notgwithin, notgintersect, dateformat,
+                partitionFilter, include, exclude, size, from, sort, after);
+        resume(asyncResponse, exploreServices.searchAsync(request, collectionReference),
+                searchHits -> cache(Response.ok(getFeatures(searchHits, collectionReference, (flat!=null && flat), (pretty!=null && pretty))), maxagecache));
     }
 
 
     @Timed
     @Path("{collection}/_geosearch/{z}/{x}/{y}")
     @GET
-    @Produces(UTF8JSON)
+    // the lower server quality keeps json for the clients accepting any type: vector tiles must be asked for
+    @Produces({UTF8JSON, VectorTileEncoder.MEDIA_TYPE + ";qs=0.5"})
     @Consumes(UTF8JSON)
-    @ApiOperation(value = "Tiled GeoSearch", produces = UTF8JSON, notes = Documentation.TILED_GEOSEARCH_OPERATION, consumes = UTF8JSON, response = FeatureCollection.class)
+    @ApiOperation(value = "Tiled GeoSearch", produces = UTF8JSON + "," + VectorTileEncoder.MEDIA_TYPE, notes = Documentation.TILED_GEOSEARCH_OPERATION, consumes = UTF8JSON, response = FeatureCollection.class)
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation", response = FeatureCollection.class, responseContainer = "FeatureCollection"),
             @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class), @ApiResponse(code = 400, message = "Bad request.", response = Error.class)})
-    public Response tiledgeosearch(
+    public void tiledgeosearch(
             // --------------------------------------------------------
             // ----------------------- PATH -----------------------
             // --------------------------------------------------------
@@ -307,6 +308,8 @@ public class GeoSearchRESTService extends ExploreRESTServices {
             @ApiParam(hidden = true)
             @HeaderParam(value = "Partition-Filter") String partitionFilter,
 
+            @Context Request negotiation,
+
             // --------------------------------------------------------
             // -----------------------  FORM    -----------------------
             // --------------------------------------------------------
@@ -322,6 +325,17 @@ public class GeoSearchRESTService extends ExploreRESTServices {
                     required = false)
             @QueryParam(value = "flat") Boolean flat,
 
+            @ApiParam(name = "simplify", value = Documentation.FORM_SIMPLIFY,
+                    allowMultiple = false,
+                    defaultValue = "false",
+                    required = false)
+            @QueryParam(value = "simplify") Boolean simplify,
+
+            @ApiParam(name = "precision", value = Documentation.FORM_PRECISION,
+                    allowMultiple = false,
+                    required = false)
+            @QueryParam(value = "precision") Integer precision,
+
             // --------------------------------------------------------
             // -----------------------  PROJECTION   -----------------------
             // --------------------------------------------------------
@@ -374,7 +388,9 @@ public class GeoSearchRESTService extends ExploreRESTServices {
             // -----------------------  EXTRA   -----------------------
             // --------------------------------------------------------
             @ApiParam(value = "max-age-cache", required = false)
-            @QueryParam(value = "max-age-cache") Integer maxagecache
+            @QueryParam(value = "max-age-cache") Integer maxagecache,
+
+            @Suspended final AsyncResponse asyncResponse
     ) throws InterruptedException, ExecutionException, IOException, NotFoundException, ArlasException {
         BoundingBox bbox = GeoTileUtil.getBoundingBox(new Tile(x, y, z));
         // west, south, east, north
@@ -383,34 +399,34 @@ public class GeoSearchRESTService extends ExploreRESTServices {
 
         //check if every pwithin param has a value that intersects bbox
         List<String> simplifiedPwithin = ParamsParser.simplifyPwithinAgainstBbox(pwithin, bbox);
+        if (precision != null && precision < 0) {
+            throw new InvalidParameterException("The precision must be a positive number of decimals");
+        }
 
         if (bbox != null && bbox.getNorth() > bbox.getSouth()
                 // if sizes are not equals, it means one multi-value pwithin does not intersects bbox => no results
                 && pwithin.size() == simplifiedPwithin.size()) {
             simplifiedPwithin.add(pwithinBbox);
-            return this.geosearch(
-                    collection,
-                    f,
-                    q,
-                    simplifiedPwithin,
-                    gwithin,
-                    gintersect,
-                    notpwithin,
-                    notgwithin,
-                    notgintersect,
-                    dateformat,
-                    partitionFilter,
-                    pretty,
-                    flat,
-                    include,
-                    exclude,
-                    size,
-                    from,
-                    sort,
-                    after,
-                    maxagecache);
+            CollectionReference collectionReference = exploreServices.getDaoCollectionReference()
+                    .getCollectionReference(collection);
+            if (collectionReference == null) {
+                throw new NotFoundException(collection);
+            }
+            MixedRequest request = getSearchRequest(f, q, simplifiedPwithin, gwithin, gintersect, notpwithin, notgwithin, notgintersect, dateformat,
+                    partitionFilter, include, exclude, size, from, sort, after);
+            if (isVectorTileSelected(negotiation)) {
+                resume(asyncResponse, exploreServices.searchAsync(request, collectionReference),
+                        searchHits -> cache(Response.ok(getVectorTile(searchHits, collectionReference, bbox), VectorTileEncoder.MEDIA_TYPE), maxagecache));
+            } else {
+                // a vertex closer than a pixel of the tile to the simplified line is not drawn anyway
+                GeometryReducer geometryReducer = new GeometryReducer(Boolean.TRUE.equals(simplify) ? GeoTileUtil.getResolution(z) : 0, precision);
+                resume(asyncResponse, exploreServices.searchAsync(request, collectionReference),
+                        searchHits -> cache(Response.ok(getFeatures(searchHits, collectionReference, Boolean.TRUE.equals(flat), Boolean.TRUE.equals(pretty), geometryReducer)), maxagecache));
+            }
+        } else if (isVectorTileSelected(negotiation)) {
+            asyncResponse.resume(Response.ok(new byte[0], VectorTileEncoder.MEDIA_TYPE).build());
         } else {
-            return Response.ok(new FeatureCollection()).build();
+            asyncResponse.resume(Response.ok(new FeatureCollection()).build());
         }
     }
 
@@ -423,7 +439,7 @@ public class GeoSearchRESTService extends ExploreRESTServices {
     @ApiOperation(value = "GeoSearch", produces = UTF8JSON, notes = Documentation.GEOSEARCH_OPERATION, consumes = UTF8JSON, response = FeatureCollection.class)
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation", response = FeatureCollection.class, responseContainer = "FeatureCollection"),
             @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class), @ApiResponse(code = 400, message = "Bad request.", response = Error.class)})
-    public Response geosearchPost(
+    public void geosearchPost(
             // --------------------------------------------------------
             // ----------------------- PATH -----------------------
             // --------------------------------------------------------
@@ -458,7 +474,9 @@ public class GeoSearchRESTService extends ExploreRESTServices {
             // -----------------------  EXTRA   -----------------------
             // --------------------------------------------------------
             @ApiParam(value = "max-age-cache", required = false)
-            @QueryParam(value = "max-age-cache") Integer maxagecache
+            @QueryParam(value = "max-age-cache") Integer maxagecache,
+
+            @Suspended final AsyncResponse asyncResponse
     ) throws InterruptedException, ExecutionException, IOException, NotFoundException, ArlasException {
         CollectionReference collectionReference = exploreServices.getDaoCollectionReference()
                 .getCollectionReference(collection);
@@ -471,43 +489,69 @@ public class GeoSearchRESTService extends ExploreRESTServices {
         MixedRequest request = new MixedRequest();
         request.basicRequest = search;
         request.headerRequest = searchHeader;
-        FeatureCollection fc = getFeatures(collectionReference, request, (search.form!=null && search.form.flat));
-        return cache(Response.ok(fc), maxagecache);
+        resume(asyncResponse, exploreServices.searchAsync(request, collectionReference),
+                searchHits -> cache(Response.ok(getFeatures(searchHits, collectionReference, (search.form!=null && search.form.flat), (pretty!=null && pretty))), maxagecache));
     }
 
-    protected FeatureCollection getFeatures(CollectionReference collectionReference, MixedRequest request, boolean flat) throws ArlasException, IOException {
-        SearchHits searchHits = this.getExploreServices().search(request, collectionReference);
-        FeatureCollection fc = new FeatureCollection();
-        SearchHit[] results = searchHits.getHits();
-        for (SearchHit hit : results) {
-            Feature feature = new Feature();
-            Map<String, Object> source = hit.getSourceAsMap();
-
-            Hit arlasHit = new Hit(collectionReference, source, flat, true);
-
-            /** Setting geometry of geojson */
-            //Apply geometry or centroid to geo json feature
-            if (arlasHit.md.geometry != null) {
-                feature.setGeometry(arlasHit.md.geometry);
-            } else if (arlasHit.md.centroid != null) {
-                feature.setGeometry(arlasHit.md.centroid);
-            }
+    private MixedRequest getSearchRequest(List<String> f, List<String> q, List<String> pwithin, List<String> gwithin, List<String> gintersect,
+                                          List<String> notpwithin, List<String> notgwithin, List<String> notgintersect, String dateformat,
+                                          String partitionFilter, String include, String exclude, IntParam size, IntParam from, String sort, String after) throws ArlasException {
+        Search search = new Search();
+        search.filter = ParamsParser.getFilter(f, q, pwithin, gwithin, gintersect, notpwithin, notgwithin, notgintersect, dateformat);
+        search.page = ParamsParser.getPage(size, from, sort, after);
+        search.projection = ParamsParser.getProjection(include, exclude);
+        Search searchHeader = new Search();
+        searchHeader.filter = ParamsParser.getFilter(partitionFilter);
+        MixedRequest request = new MixedRequest();
+        request.basicRequest = search;
+        request.headerRequest = searchHeader;
+        return request;
+    }
 
-            /** setting the properties of the geojson */
-            feature.setProperties(arlasHit.getDataAsMap());
+    /**
+     * The hits are written as they are read from the elasticsearch response: the memory needed does not grow with the number of hits.
+     */
+    protected StreamingOutput getFeatures(SearchHits searchHits, CollectionReference collectionReference, boolean flat, boolean pretty) {
+        return getFeatures(searchHits, collectionReference, flat, pretty, null);
+    }
 
-            /** Setting the Metadata (md) in properties of geojson.
-             * Only id, timestamp and centroid are set in the MD. The geometry is already returned in the geojson.*/
-            MD md = new MD();
-            md.id = arlasHit.md.id;
-            md.timestamp = arlasHit.md.timestamp;
-            md.centroid = arlasHit.md.centroid;
-            feature.setProperty(MD.class.getSimpleName().toLowerCase(), md);
+    /**
+     * @param geometryReducer simplifies and rounds the geometries as they are written, null to write them as they are
+     */
+    protected StreamingOutput getFeatures(SearchHits searchHits, CollectionReference collectionReference, boolean flat, boolean pretty, GeometryReducer geometryReducer) {
+        return new GeoJsonStreamingOutput(searchHits, collectionReference, flat, pretty, FEATURE_TYPE_KEY, FEATURE_TYPE_VALUE, geometryReducer);
+    }
 
-            /** Setting the feature type of the geojson */
-            feature.setProperty(FEATURE_TYPE_KEY, FEATURE_TYPE_VALUE);
-            fc.add(feature);
+    /**
+     * The hits as a vector tile with a single layer named after the collection. A hit is drawn with its geometry, or its
+     * centroid when it has no geometry. Its properties are the flattened fields of its source.
+     */
+    protected byte[] getVectorTile(SearchHits searchHits, CollectionReference collectionReference, BoundingBox bbox) throws IOException {
+        VectorTileEncoder encoder = new VectorTileEncoder(bbox);
+        String geometryPath = collectionReference.params.geometryPath;
+        Set<String> excludedPaths = geometryPath == null ? Collections.emptySet() : Collections.singleton(geometryPath);
+        FieldPath geometryFieldPath = geometryPath == null ? null : collectionReference.getFieldPath(geometryPath);
+        FieldPath centroidFieldPath = collectionReference.params.centroidPath == null ? null : collectionReference.getFieldPath(collectionReference.params.centroidPath);
+        for (SearchHit hit : searchHits.getHits()) {
+            Map<String, Object> source = hit.getSourceAsMap();
+            if (source == null) {
+                continue;
+            }
+            Object geometry = geometryFieldPath == null ? null : geometryFieldPath.resolve(source);
+            if (geometry == null && centroidFieldPath != null) {
+                geometry = centroidFieldPath.resolve(source);
+            }
+            if (geometry == null) {
+                continue;
+            }
+            Map<String, Object> properties = MapExplorer.flat(source, new MapExplorer.ReduceArrayOnKey(ArlasServerConfiguration.FLATTEN_CHAR), excludedPaths);
+            properties.put(FEATURE_TYPE_KEY, FEATURE_TYPE_VALUE);
+            try {
+                encoder.addFeature(GeoTypeMapper.getJtsGeometry(geometry), properties);
+            } catch (ArlasException e) {
+                LOGGER.error("Unable to read the geometry of a hit", e);
+            }
         }
-        return fc;
+        return encoder.encode(collectionReference.collectionName);
     }
 }
@@ -24,6 +24,7 @@ import io.arlas.server.exceptions.ArlasException;
 import io.arlas.server.model.CollectionReference;
 import io.arlas.server.model.Link;
 import io.arlas.server.model.request.MixedRequest;
+import io.arlas.server.model.request.Page;
 import io.arlas.server.model.request.Search;
 import io.arlas.server.model.response.Error;
 import io.arlas.server.model.response.Hit;
@@ -33,7 +34,6 @@ import io.arlas.server.app.Documentation;
 import io.arlas.server.rest.explore.ExploreRESTServices;
 import io.arlas.server.services.ExploreServices;
 import io.arlas.server.utils.CheckParams;
-import io.arlas.server.utils.MapExplorer;
 import io.arlas.server.utils.ParamsParser;
 import io.dropwizard.jersey.params.IntParam;
 import io.swagger.annotations.ApiOperation;
@@ -45,10 +45,14 @@ import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 import java.io.IOException;
+import java.net.URI;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
@@ -67,7 +71,7 @@ public class SearchRESTService extends ExploreRESTServices {
     @ApiOperation(value = "Search", produces = UTF8JSON + "," + ATOM.APPLICATION_ATOM_XML, notes = Documentation.SEARCH_OPERATION, consumes = UTF8JSON, response = Hits.class)
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation", response = Hits.class, responseContainer = "ArlasHits"),
             @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class), @ApiResponse(code = 400, message = "Bad request.", response = Error.class)})
-    public Response search(
+    public void search(
             @Context UriInfo uriInfo,
             // --------------------------------------------------------
             // ----------------------- PATH -----------------------
@@ -196,11 +200,19 @@ public class SearchRESTService extends ExploreRESTServices {
                     required = false)
             @QueryParam(value = "after") String after,
 
+            @ApiParam(name = "cursor",
+                    value = Documentation.PAGE_PARAM_CURSOR,
+                    allowMultiple = false,
+                    required = false)
+            @QueryParam(value = "cursor") String cursor,
+
             // --------------------------------------------------------
             // -----------------------  EXTRA   -----------------------
             // --------------------------------------------------------
             @ApiParam(value = "max-age-cache", required = false)
-            @QueryParam(value = "max-age-cache") Integer maxagecache
+            @QueryParam(value = "max-age-cache") Integer maxagecache,
+
+            @Suspended final AsyncResponse asyncResponse
     ) throws InterruptedException, ExecutionException, IOException, NotFoundException, ArlasException {
         CollectionReference collectionReference = exploreServices.getDaoCollectionReference()
                 .getCollectionReference(collection);
@@ -222,15 +234,17 @@ public class SearchRESTService extends ExploreRESTServices {
         }
         Search search = new Search();
         search.filter = ParamsParser.getFilter(f, q, pwithin, gwithin, gintersect, notpwithin, notgwithin, notgintersect, dateformat);
-        search.page = ParamsParser.getPage(size, from, sort,after);
+        search.page = ParamsParser.getPage(size, from, sort, after, cursor);
         search.projection = ParamsParser.getProjection(include, exclude);
         Search searchHeader = new Search();
         searchHeader.filter = ParamsParser.getFilter(partitionFilter);
         MixedRequest request = new MixedRequest();
         request.basicRequest = search;
         request.headerRequest = searchHeader;
-        Hits hits = getArlasHits(request, collectionReference,BooleanUtils.isTrue(flat),uriInfo,"GET");
-        return cache(Response.ok(hits), maxagecache);
+        // read on the request thread: the response is built once the search completes, out of the request scope
+        URI requestUri = uriInfo.getRequestUri();
+        resume(asyncResponse, exploreServices.searchAsync(request, collectionReference),
+                searchHits -> cache(Response.ok(getArlasHits(searchHits, request, collectionReference, BooleanUtils.isTrue(flat), requestUri, "GET")), maxagecache));
     }
 
 
@@ -242,7 +256,7 @@ public class SearchRESTService extends ExploreRESTServices {
     @ApiOperation(value = "Search", produces = UTF8JSON, notes = Documentation.SEARCH_OPERATION, consumes = UTF8JSON, response = Hits.class)
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Successful operation", response = Hits.class, responseContainer = "ArlasHits"),
             @ApiResponse(code = 500, message = "Arlas Server Error.", response = Error.class), @ApiResponse(code = 400, message = "Bad request.", response = Error.class)})
-    public Response searchPost(
+    public void searchPost(
             @Context UriInfo uriInfo,
             // --------------------------------------------------------
             // ----------------------- PATH -----------------------
@@ -278,7 +292,9 @@ public class SearchRESTService extends ExploreRESTServices {
             // -----------------------  EXTRA   -----------------------
             // --------------------------------------------------------
             @ApiParam(value = "max-age-cache", required = false)
-            @QueryParam(value = "max-age-cache") Integer maxagecache
+            @QueryParam(value = "max-age-cache") Integer maxagecache,
+
+            @Suspended final AsyncResponse asyncResponse
     ) throws InterruptedException, ExecutionException, IOException, NotFoundException, ArlasException {
         CollectionReference collectionReference = exploreServices.getDaoCollectionReference()
                 .getCollectionReference(collection);
@@ -291,32 +307,42 @@ public class SearchRESTService extends ExploreRESTServices {
         MixedRequest request = new MixedRequest();
         request.basicRequest = search;
         request.headerRequest = searchHeader;
-        Hits hits = getArlasHits(request, collectionReference, (search.form != null && BooleanUtils.isTrue(search.form.flat)),uriInfo,"POST");
-        return cache(Response.ok(hits), maxagecache);
+        // read on the request thread: the response is built once the search completes, out of the request scope
+        URI requestUri = uriInfo.getRequestUri();
+        resume(asyncResponse, exploreServices.searchAsync(request, collectionReference),
+                searchHits -> cache(Response.ok(getArlasHits(searchHits, request, collectionReference, (search.form != null && BooleanUtils.isTrue(search.form.flat)), requestUri, "POST")), maxagecache));
     }
 
 
-    protected Hits getArlasHits(MixedRequest request, CollectionReference collectionReference, Boolean flat,UriInfo uriInfo,String method) throws ArlasException, IOException {
-        SearchHits searchHits = this.getExploreServices().search(request, collectionReference);
+    /**
+     * @param requestUri the uri of the request, the links of the hits are built from it
+     */
+    protected Hits getArlasHits(SearchHits searchHits, MixedRequest request, CollectionReference collectionReference, Boolean flat, URI requestUri, String method) throws ArlasException, IOException {
         Hits hits = new Hits(collectionReference.collectionName);
         hits.totalnb = searchHits.getTotalHits();
         hits.nbhits = searchHits.getHits().length;
         HashMap<String,Link> links = new HashMap<>();
         hits.hits = new ArrayList<>((int) hits.nbhits);
         Link self = new Link();
-        self.href = uriInfo.getRequestUri().toURL().toString();
+        self.href = requestUri.toURL().toString();
         self.method = method;
         int lastIndex = (int) hits.nbhits -1;
+        String nextCursor = exploreServices.getNextCursor(request, collectionReference, searchHits);
         switch (method){
             case"GET":
                 links.put("self",self);
-                if(uriInfo.getQueryParameters().get("after")!=null){
-                    String searchAfterParam = uriInfo.getQueryParameters().get("sort").get(0);
+                if (nextCursor != null) {
+                    Link next = new Link();
+                    next.href = UriBuilder.fromUri(requestUri).replaceQueryParam("cursor", nextCursor).build().toURL().toString();
+                    next.method = method;
+                    links.put("next", next);
+                } else if(((Search) request.basicRequest).page.after!=null){
+                    String searchAfterParam = ((Search) request.basicRequest).page.sort;
                     String searchAfter =  Arrays.stream(searchAfterParam.split(","))
-                            .map(field-> MapExplorer.getObjectFromPath(field,searchHits.getHits()[lastIndex].getSourceAsMap()).toString())
+                            .map(field-> collectionReference.getFieldPath(field).resolve(searchHits.getHits()[lastIndex].getSourceAsMap()).toString())
                             .collect(Collectors.joining(","));
                     Link next = new Link();
-                    next.href = uriInfo.getRequestUriBuilder().replaceQueryParam("after",searchAfter).build().toURL().toString();
+                    next.href = UriBuilder.fromUri(requestUri).replaceQueryParam("after",searchAfter).build().toURL().toString();
                     next.method=method;
                     links.put("next",next);
                 }
@@ -324,16 +350,29 @@ public class SearchRESTService extends ExploreRESTServices {
             case"POST":
                 self.body = (Search)request.basicRequest;
                 links.put("self",self);
-                if(self.body.page!=null){
+                if (nextCursor != null) {
+                    Link next = new Link();
+                    next.body = new Search();
+                    next.body.filter = self.body.filter;
+                    next.body.form = self.body.form;
+                    next.body.projection = self.body.projection;
+                    next.body.page = new Page();
+                    next.body.page.size = self.body.page.size;
+                    next.body.page.sort = self.body.page.sort;
+                    next.body.page.cursor = nextCursor;
+                    next.href = requestUri.toURL().toString();
+                    next.method = method;
+                    links.put("next", next);
+                } else if(self.body.page!=null){
                     if(self.body.page.sort!=null&&self.body.page.after!=null){
                         String searchAfterParam = self.body.page.sort;
                         String searchAfter =  Arrays.stream(searchAfterParam.split(","))
-                                .map(field-> MapExplorer.getObjectFromPath(field,searchHits.getHits()[lastIndex].getSourceAsMap()).toString())
+                                .map(field-> collectionReference.getFieldPath(field).resolve(searchHits.getHits()[lastIndex].getSourceAsMap()).toString())
                                 .collect(Collectors.joining(","));
                         Link next = new Link();
                         next.body =self.body;
                         next.body.page.after = searchAfter;
-                        next.href = uriInfo.getRequestUri().toURL().toString();
+                        next.href = requestUri.toURL().toString();
                         next.method=method;
                         links.put("next",next);
                     }
@@ -0,0 +1,190 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.rest.plugins.eo;
+
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * ARGB image on which the raster tiles are stacked. Layers are composited (source over) directly on the pixel arrays and the
+ * coverage of the sampled pixels is maintained while drawing, so that each layer only counts the pixels it newly fills.
+ * The coverage is the one of {@link io.arlas.server.utils.ImageUtil#coverage(BufferedImage, int)}.
+ */
+public class RasterCanvas {
+    private final BufferedImage image;
+    private final int[] pixels;
+    private final int width;
+    private final int height;
+    private final int sampling;
+    private int sampled;
+    private boolean opaque;
+
+    public RasterCanvas(int width, int height, int sampling) {
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        this.width = width;
+        this.height = height;
+        this.sampling = sampling;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public boolean isOpaque() {
+        return opaque;
+    }
+
+    public int coverage() {
+        int samples = (height / sampling) * (width / sampling);
+        return samples == 0 ? 0 : (100 * sampled) / samples;
+    }
+
+    /**
+     * Draws <code>top</code> over the canvas, at its origin.
+     */
+    public void draw(BufferedImage top) {
+        int w = Math.min(width, top.getWidth());
+        int h = Math.min(height, top.getHeight());
+        if (top.getColorModel().getTransparency() == Transparency.OPAQUE) {
+            drawOpaque(top, w, h);
+        } else if (top.getType() == BufferedImage.TYPE_INT_ARGB && isPacked(top)) {
+            drawARGB(((DataBufferInt) top.getRaster().getDataBuffer()).getData(), ((SinglePixelPackedSampleModel) top.getSampleModel()).getScanlineStride(), w, h);
+        } else if (top.getType() == BufferedImage.TYPE_4BYTE_ABGR && isPacked(top)) {
+            drawABGR(((DataBufferByte) top.getRaster().getDataBuffer()).getData(), ((ComponentSampleModel) top.getSampleModel()).getScanlineStride(), w, h);
+        } else {
+            drawARGB(top.getRGB(0, 0, w, h, null, 0, w), w, w, h);
+        }
+    }
+
+    /**
+     * A fully opaque layer hides everything below: its rows are copied and, when it fills the canvas, nothing is blended.
+     */
+    private void drawOpaque(BufferedImage top, int w, int h) {
+        if (top.getType() == BufferedImage.TYPE_INT_RGB && isPacked(top)) {
+            int[] src = ((DataBufferInt) top.getRaster().getDataBuffer()).getData();
+            int scanline = ((SinglePixelPackedSampleModel) top.getSampleModel()).getScanlineStride();
+            for (int y = 0; y < h; y++) {
+                int srcRow = y * scanline;
+                int dstRow = y * width;
+                for (int x = 0; x < w; x++) {
+                    pixels[dstRow + x] = 0xFF000000 | src[srcRow + x];
+                }
+            }
+        } else if (top.getType() == BufferedImage.TYPE_3BYTE_BGR && isPacked(top)) {
+            byte[] src = ((DataBufferByte) top.getRaster().getDataBuffer()).getData();
+            int scanline = ((ComponentSampleModel) top.getSampleModel()).getScanlineStride();
+            for (int y = 0; y < h; y++) {
+                int dstRow = y * width;
+                for (int x = 0, i = y * scanline; x < w; x++, i += 3) {
+                    pixels[dstRow + x] = 0xFF000000 | (src[i + 2] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8 | (src[i] & 0xFF);
+                }
+            }
+        } else {
+            for (int y = 0; y < h; y++) {
+                top.getRGB(0, y, w, 1, pixels, y * width, w);
+            }
+        }
+        if (w == width && h == height) {
+            opaque = true;
+            sampled = countSamples(width, height);
+        } else {
+            sampled = 0;
+            for (int y = 0; y < height; y += sampling) {
+                for (int x = 0; x < width; x += sampling) {
+                    if ((pixels[y * width + x] >>> 24) != 0) {
+                        sampled++;
+                    }
+                }
+            }
+        }
+    }
+
+    private void drawARGB(int[] src, int scanline, int w, int h) {
+        for (int y = 0; y < h; y++) {
+            int srcRow = y * scanline;
+            int dstRow = y * width;
+            int nextSample = y % sampling == 0 ? 0 : w; // no sample on this row
+            for (int x = 0; x < w; x++) {
+                boolean sample = x == nextSample;
+                if (sample) {
+                    nextSample += sampling;
+                }
+                int argb = src[srcRow + x];
+                if (argb >>> 24 != 0) {
+                    blend(dstRow + x, argb, sample);
+                }
+            }
+        }
+    }
+
+    private void drawABGR(byte[] src, int scanline, int w, int h) {
+        for (int y = 0; y < h; y++) {
+            int srcRow = y * scanline;
+            int dstRow = y * width;
+            int nextSample = y % sampling == 0 ? 0 : w; // no sample on this row
+            for (int x = 0, i = srcRow; x < w; x++, i += 4) {
+                boolean sample = x == nextSample;
+                if (sample) {
+                    nextSample += sampling;
+                }
+                if (src[i] != 0) {
+                    blend(dstRow + x, (src[i] & 0xFF) << 24 | (src[i + 3] & 0xFF) << 16 | (src[i + 2] & 0xFF) << 8 | (src[i + 1] & 0xFF), sample);
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws the non transparent <code>src</code> pixel over the pixel <code>i</code> of the canvas.
+     */
+    private void blend(int i, int src, boolean sample) {
+        int dst = pixels[i];
+        int da = dst >>> 24;
+        int sa = src >>> 24;
+        if (sa == 0xFF || da == 0) {
+            pixels[i] = src;
+            if (da == 0 && sample) {
+                sampled++;
+            }
+        } else {
+            int fa = da * (0xFF - sa) / 0xFF; // part of the destination seen through the source
+            int oa = sa + fa;
+            int r = (((src >> 16) & 0xFF) * sa + ((dst >> 16) & 0xFF) * fa) / oa;
+            int g = (((src >> 8) & 0xFF) * sa + ((dst >> 8) & 0xFF) * fa) / oa;
+            int b = ((src & 0xFF) * sa + (dst & 0xFF) * fa) / oa;
+            pixels[i] = oa << 24 | r << 16 | g << 8 | b;
+        }
+    }
+
+    private int countSamples(int w, int h) {
+        return ((h + sampling - 1) / sampling) * ((w + sampling - 1) / sampling);
+    }
+
+    private static boolean isPacked(BufferedImage img) {
+        return img.getRaster().getParent() == null
+                && img.getRaster().getSampleModelTranslateX() == 0 && img.getRaster().getSampleModelTranslateY() == 0
+                && img.getRaster().getDataBuffer().getNumBanks() == 1 && img.getRaster().getDataBuffer().getOffset() == 0;
+    }
+}
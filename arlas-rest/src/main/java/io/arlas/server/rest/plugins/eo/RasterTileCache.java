@@ -0,0 +1,114 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.rest.plugins.eo;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the encoded bytes of the upstream raster tiles, keyed by their resolved URL (which carries the z/x/y of the tile).
+ * Bytes are kept rather than images since the stacker draws on the images it merges: each request decodes its own copy.
+ */
+public class RasterTileCache {
+    private final Cache<String, byte[]> tiles;
+    private final Meter hits;
+    private final Meter misses;
+    private final Counter bytesSaved;
+
+    public RasterTileCache(long maxBytes, int cacheTimeout, MetricRegistry metrics) {
+        tiles = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String url, byte[] bytes) -> bytes.length)
+                .expireAfterWrite(cacheTimeout, TimeUnit.SECONDS)
+                .build();
+        hits = metrics.meter(MetricRegistry.name(RasterTileCache.class, "hits"));
+        misses = metrics.meter(MetricRegistry.name(RasterTileCache.class, "misses"));
+        bytesSaved = metrics.counter(MetricRegistry.name(RasterTileCache.class, "bytes-saved"));
+        metrics.register(MetricRegistry.name(RasterTileCache.class, "hit-rate"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+            }
+        });
+    }
+
+    /**
+     * Returns the bytes of the tile found at <code>url</code>, calling <code>loader</code> only if they are not cached yet.
+     * The callers asking for a tile being loaded wait for the same load. If that load is interrupted, only its own caller
+     * fails: the others load the tile again.
+     */
+    public byte[] get(URL url, Callable<byte[]> loader) throws IOException {
+        boolean[] loaded = {false};
+        byte[] bytes;
+        try {
+            bytes = load(url, loader, loaded);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (loaded[0] || !isInterruption(e.getCause()) || Thread.currentThread().isInterrupted()) {
+                throw toIOException(url, e);
+            }
+            // the thread loading for this caller has been interrupted, not this one: failed loads are not cached
+            try {
+                bytes = load(url, loader, loaded);
+            } catch (ExecutionException | UncheckedExecutionException retry) {
+                throw toIOException(url, retry);
+            }
+        }
+        if (loaded[0]) {
+            misses.mark();
+        } else {
+            hits.mark();
+            bytesSaved.inc(bytes.length);
+        }
+        return bytes;
+    }
+
+    private byte[] load(URL url, Callable<byte[]> loader, boolean[] loaded) throws ExecutionException {
+        return tiles.get(url.toString(), () -> {
+            loaded[0] = true;
+            return loader.call();
+        });
+    }
+
+    private static boolean isInterruption(Throwable cause) {
+        return cause instanceof InterruptedException || cause instanceof ClosedByInterruptException
+                || (cause instanceof InterruptedIOException && !(cause instanceof SocketTimeoutException));
+    }
+
+    private static IOException toIOException(URL url, Exception e) {
+        if (e.getCause() instanceof IOException) {
+            return (IOException) e.getCause();
+        }
+        return new IOException("Can not fetch " + url, e.getCause());
+    }
+}
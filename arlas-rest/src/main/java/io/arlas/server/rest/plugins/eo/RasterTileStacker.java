@@ -21,18 +21,23 @@ package io.arlas.server.rest.plugins.eo;
 
 import cyclops.control.Try;
 import io.arlas.server.exceptions.ArlasException;
+import io.arlas.server.exceptions.InternalServerErrorException;
 import io.arlas.server.exceptions.InvalidParameterException;
-import io.arlas.server.utils.ImageUtil;
 import io.arlas.server.utils.Tile;
 
-import java.awt.*;
+import java.util.LinkedList;
 import java.util.Optional;
 import java.util.Queue;
+import java.util.concurrent.*;
 
 public class RasterTileStacker {
     private Percentage upTo=new Percentage(70);
     private Queue<TileProvider<RasterTile>> providers;
     private int sampling = 1;
+    private ExecutorService executor;
+    private int prefetch = 1;
+    private final Timings timings = new Timings();
+    private RasterCanvas canvas;
 
     public RasterTileStacker stack(Queue<TileProvider<RasterTile>> providers){
         this.providers = providers;
@@ -51,16 +56,100 @@ public class RasterTileStacker {
         return this;
     }
 
+    /**
+     * Fetches the tiles with the given executor, keeping up to <code>prefetch</code> providers in flight while the
+     * already fetched tiles are merged in the order of the providers. Fetches not started once the coverage is reached are
+     * cancelled; running ones are not interrupted, since other requests may be waiting for the same upstream tile.
+     */
+    public RasterTileStacker concurrently(ExecutorService executor, int prefetch) throws ArlasException {
+        if(prefetch<1)throw new InvalidParameterException("Prefetch must be at least 1 but is "+prefetch);
+        this.executor=executor;
+        this.prefetch=prefetch;
+        return this;
+    }
+
+    public Timings getTimings() {
+        return timings;
+    }
+
     public Try<Optional<RasterTile>,ArlasException> on(Tile where) throws ArlasException {
         if(this.providers.size()==0){return Try.success(Optional.empty());}
+        if(executor!=null){
+            return stackConcurrently(where);
+        }
         return stack(where, Optional.empty(), providers, upTo);
     }
 
+    private Try<Optional<RasterTile>,ArlasException> stackConcurrently(Tile where) {
+        Queue<Future<Try<Optional<RasterTile>,ArlasException>>> pending = new LinkedList<>();
+        Optional<RasterTile> done = Optional.empty();
+        try {
+            prefetch(where, pending);
+            while (!pending.isEmpty()) {
+                long waitStart = System.nanoTime();
+                Try<Optional<RasterTile>,ArlasException> fetched = await(where, pending.poll());
+                timings.waitNanos += System.nanoTime() - waitStart;
+                prefetch(where, pending); // keep the pool busy while merging
+                if (fetched.isFailure()) {
+                    return fetched;
+                }
+                long mergeStart = System.nanoTime();
+                done = merge(done, fetched.orElse(Optional.empty())).orElse(Optional.empty());
+                Percentage coverage = upTo.getValue() > 0 ? this.coverage(done, this.sampling) : new Percentage(0); // no need to compute the percentage if upTo is 0
+                timings.mergeNanos += System.nanoTime() - mergeStart;
+                timings.merged++;
+                if (coverage.getValue() >= upTo.getValue()) {
+                    break;
+                }
+            }
+            return Try.success(done);
+        } finally {
+            pending.forEach(future -> {
+                if (future.cancel(false)) {
+                    timings.cancelled++;
+                }
+            });
+        }
+    }
+
+    private void prefetch(Tile where, Queue<Future<Try<Optional<RasterTile>,ArlasException>>> pending) {
+        while (pending.size() < prefetch && providers.size() > 0) {
+            TileProvider<RasterTile> provider = providers.poll();
+            pending.add(executor.submit(() -> {
+                long fetchStart = System.nanoTime();
+                try {
+                    return provider.getTile(where);
+                } finally {
+                    timings.addFetch(System.nanoTime() - fetchStart);
+                }
+            }));
+        }
+    }
+
+    private Try<Optional<RasterTile>,ArlasException> await(Tile where, Future<Try<Optional<RasterTile>,ArlasException>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Try.failure(new InternalServerErrorException("Interrupted while fetching the tile "+where.getxTile()+"/"+where.getyTile()+"/"+where.getzTile(), e));
+        } catch (ExecutionException | CancellationException e) {
+            return Try.failure(new InternalServerErrorException("Can not fetch the tile "+where.getxTile()+"/"+where.getyTile()+"/"+where.getzTile(), e));
+        }
+    }
+
     private Try<Optional<RasterTile>,ArlasException> stack(Tile where, Optional<RasterTile> done, Queue<TileProvider<RasterTile>> providers, Percentage upTo)  {
-        return Try.flatten(providers.poll().getTile(where).map(otile ->
+        long fetchStart = System.nanoTime();
+        Try<Optional<RasterTile>,ArlasException> fetched = providers.poll().getTile(where);
+        long fetchNanos = System.nanoTime() - fetchStart;
+        timings.addFetch(fetchNanos);
+        timings.waitNanos += fetchNanos; // fetched in line: the merge waits for the whole fetch
+        return Try.flatten(fetched.map(otile ->
                 {
+                    long mergeStart = System.nanoTime();
                     Optional<RasterTile> merged = merge(done, otile).orElse(Optional.empty());
                     Percentage coverage = upTo.getValue() > 0 ? this.coverage(merged, this.sampling) : new Percentage(0); // no need to compute the percentage if upTo is 0
+                    timings.mergeNanos += System.nanoTime() - mergeStart;
+                    timings.merged++;
                     if (providers.size() == 0 || coverage.getValue() >= upTo.getValue()) {
                         return Try.success(merged);
                     } else {
@@ -71,20 +160,48 @@ public class RasterTileStacker {
     }
 
     private  Try<Optional<RasterTile>,ArlasException> merge(Optional<RasterTile> obottom, Optional<RasterTile>  otop)  {
-        return otop.map(top -> // if there's a top
-                obottom.map(bottom->{ // and a bottom then we merge
-                    Graphics g = bottom.getImg().getGraphics();
-                    g.drawImage(top.getImg(), 0, 0, null);
-                    g.dispose();
-                    return Try.withCatch(() -> Optional.of(new RasterTile(top.getxTile(), top.getyTile(), top.getzTile(), bottom.getImg())));
-                }).orElse(Try.success(otop)) //no bottom but there's a top
+        return otop.map(top -> { // if there's a top, we draw it over what has been stacked so far
+                    if (canvas == null) {
+                        canvas = new RasterCanvas(top.getImg().getWidth(), top.getImg().getHeight(), sampling);
+                    }
+                    canvas.draw(top.getImg());
+                    return Try.withCatch(() -> Optional.of(new RasterTile(top.getxTile(), top.getyTile(), top.getzTile(), canvas.getImage())));
+                }
         ).orElse(Try.success(obottom)); // no top but there's maybe a bottom
     }
 
     private Percentage coverage(Optional<RasterTile> tile, int sampling){
-        return tile.map(t-> {
-            return new Percentage(ImageUtil.coverage(t.getImg(),sampling));
-        }).orElse(new Percentage(0));
+        return tile.map(t -> new Percentage(canvas.coverage())).orElse(new Percentage(0)); // the canvas counts the covered pixels while drawing
+    }
+
+    /**
+     * Time spent for stacking one tile. Fetch time is summed over all the fetches, including the ones running concurrently,
+     * while wait time is the time the merge spent waiting for the next tile.
+     */
+    public static class Timings{
+        private long fetchNanos;
+        private int fetched;
+        private long waitNanos;
+        private long mergeNanos;
+        private int merged;
+        private int cancelled;
+
+        private synchronized void addFetch(long nanos){
+            fetchNanos+=nanos;
+            fetched++;
+        }
+
+        public synchronized long getFetchMillis(){return TimeUnit.NANOSECONDS.toMillis(fetchNanos);}
+        public synchronized int getFetched(){return fetched;}
+        public long getWaitMillis(){return TimeUnit.NANOSECONDS.toMillis(waitNanos);}
+        public long getMergeMillis(){return TimeUnit.NANOSECONDS.toMillis(mergeNanos);}
+        public int getMerged(){return merged;}
+        public int getCancelled(){return cancelled;}
+
+        @Override
+        public String toString() {
+            return "fetched="+getFetched()+" fetch="+getFetchMillis()+"ms wait="+getWaitMillis()+"ms merged="+getMerged()+" merge="+getMergeMillis()+"ms cancelled="+getCancelled();
+        }
     }
 
     public static class Percentage{
@@ -20,11 +20,7 @@
 package io.arlas.server.rest.plugins.eo;
 
 import com.codahale.metrics.annotation.Timed;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectWriter;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.io.ParseException;
-import com.vividsolutions.jts.io.geojson.GeoJsonReader;
 import cyclops.control.Try;
 import cyclops.data.tuple.Tuple2;
 import io.arlas.server.app.Documentation;
@@ -51,15 +47,32 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 
 public class TileRESTService extends ExploreRESTServices {
     public final static String PRODUCES_PNG =  "image/png";
 
+    private ExecutorService fetchExecutor;
+    private int prefetch;
+    private RasterTileCache tileCache;
+
     public TileRESTService(ExploreServices exploreServices) {
         super(exploreServices);
     }
 
+    /**
+     * @param fetchExecutor bounded pool used for fetching the candidate tiles concurrently
+     * @param prefetch      number of candidate tiles fetched ahead of the merge for a single tile
+     * @param tileCache     cache of the upstream tiles, null for fetching them on every request
+     */
+    public TileRESTService(ExploreServices exploreServices, ExecutorService fetchExecutor, int prefetch, RasterTileCache tileCache) {
+        super(exploreServices);
+        this.fetchExecutor = fetchExecutor;
+        this.prefetch = prefetch;
+        this.tileCache = tileCache;
+    }
+
 
     @Timed
     @Path("{collection}/_tile/{z}/{x}/{y}.png")
@@ -251,15 +264,21 @@ public class TileRESTService extends ExploreRESTServices {
                             collectionReference.params.rasterTileURL.maxZ,
                             collectionReference.params.rasterTileURL.checkGeometry),
                             collectionReference.params.rasterTileWidth,
-                            collectionReference.params.rasterTileHeight)).collect(Collectors.toList()));
+                            collectionReference.params.rasterTileHeight,
+                            tileCache)).collect(Collectors.toList()));
             if(providers.size()==0){
                 return Response.noContent().build();
             }
-            Try<Optional<RasterTile>,ArlasException> stacked = new RasterTileStacker()
+            RasterTileStacker stacker = new RasterTileStacker()
                     .stack(providers)
                     .sampling(Optional.ofNullable(sampling).orElse(10))
-                    .upTo(new RasterTileStacker.Percentage(Optional.ofNullable(coverage).orElse(10)))
-                    .on(new Tile(x, y, z));
+                    .upTo(new RasterTileStacker.Percentage(Optional.ofNullable(coverage).orElse(10)));
+            if (fetchExecutor != null && prefetch > 0) {
+                stacker.concurrently(fetchExecutor, prefetch);
+            }
+            Try<Optional<RasterTile>,ArlasException> stacked = stacker.on(new Tile(x, y, z));
+            RasterTileStacker.Timings timings = stacker.getTimings();
+            LOGGER.debug("Tile " + z + "/" + x + "/" + y + " of " + collection + " stacked: " + timings);
 
             stacked.onFail(failure->{
                 LOGGER.error("Failed to fetch a tile",failure);
@@ -270,7 +289,10 @@ public class TileRESTService extends ExploreRESTServices {
                             Try.withCatch(()->{ // lets write the image to the response's output
                                 final ByteArrayOutputStream out = new ByteArrayOutputStream();
                                 ImageIO.write(tile.getImg(), "png", out);
-                                return cache(Response.ok(out.toByteArray()), maxagecache);
+                                return cache(Response.ok(out.toByteArray())
+                                        .header("Server-Timing", "fetch;dur=" + timings.getFetchMillis()
+                                                + ", wait;dur=" + timings.getWaitMillis()
+                                                + ", merge;dur=" + timings.getMergeMillis()), maxagecache);
                             },IOException.class)
                                     .onFail(e -> Response.serverError().entity(e.getMessage()).build())
                                     .orElse(Response.noContent().build())) // Can't write the tile => No content
@@ -282,13 +304,11 @@ public class TileRESTService extends ExploreRESTServices {
     }
 
     protected List<Tuple2<String,Optional<Geometry>>> findCandidateTiles(CollectionReference collectionReference, MixedRequest request) throws ArlasException, IOException {
-        GeoJsonReader reader = new GeoJsonReader();
-        ObjectWriter writer = new ObjectMapper().writer();
         return Arrays.stream(this.getExploreServices().search(request, collectionReference).getHits())
                 .map(hit->Tuple2.of(
                         "" + MapExplorer.getObjectFromPath(collectionReference.params.rasterTileURL.idPath, hit.getSourceAsMap()), // Let's get the ID of the match
-                        Try.withCatch(() ->reader.read(writer.writeValueAsString(MapExplorer.getObjectFromPath(collectionReference.params.geometryPath, hit.getSourceAsMap()))), // and its geometry: must be a polygon
-                                ParseException.class,ClassCastException.class) // there might be some troubles when parsing the geometry
+                        Try.withCatch(() -> GeoTypeMapper.getJtsGeometry(MapExplorer.getObjectFromPath(collectionReference.params.geometryPath, hit.getSourceAsMap())), // and its geometry: must be a polygon
+                                ArlasException.class) // there might be some troubles when parsing the geometry
                                 .onFail(e ->LOGGER.error("Failed to fetch geometry for "+MapExplorer.getObjectFromPath(collectionReference.params.idPath, hit.getSourceAsMap())))
                                 .toOptional()// in case there's a problem, we don't need the geometry: the optimisation won't be applied on the hit => an empty Optional is good enough
                 )).collect(Collectors.toList());
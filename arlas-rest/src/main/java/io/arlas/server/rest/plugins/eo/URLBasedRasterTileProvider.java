@@ -19,6 +19,7 @@
 
 package io.arlas.server.rest.plugins.eo;
 
+import com.google.common.io.Resources;
 import cyclops.control.Try;
 import io.arlas.server.exceptions.ArlasException;
 import io.arlas.server.exceptions.InternalServerErrorException;
@@ -27,6 +28,7 @@ import io.arlas.server.utils.Tile;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URL;
 import java.util.Optional;
@@ -38,6 +40,7 @@ public class URLBasedRasterTileProvider implements TileProvider <RasterTile>{
     private RasterTileURL template;
     private int width =-1;
     private int height =-1;
+    private RasterTileCache cache;
 
     public static final String PATTERN_X="{x}";
     public static final String PATTERN_Y="{y}";
@@ -57,6 +60,11 @@ public class URLBasedRasterTileProvider implements TileProvider <RasterTile>{
         this.width=width;
     }
 
+    public URLBasedRasterTileProvider(RasterTileURL template, int width, int height, RasterTileCache cache){
+        this(template, width, height);
+        this.cache=cache;
+    }
+
     @Override
     public Try<Optional<RasterTile>,ArlasException> getTile(Tile request) {
         return Try.withCatch(()->{
@@ -67,7 +75,7 @@ public class URLBasedRasterTileProvider implements TileProvider <RasterTile>{
     }
 
     protected BufferedImage getImage(URL url) throws IOException {
-        BufferedImage img = ImageIO.read(url);
+        BufferedImage img = cache == null ? ImageIO.read(url) : ImageIO.read(new ByteArrayInputStream(cache.get(url, () -> Resources.toByteArray(url))));
         if(width>-1 && height>-1 && (img.getWidth()>width || img.getHeight()>height)){
             return img.getSubimage(0,0,width, height);
         }else{
@@ -20,13 +20,20 @@
 package io.arlas.server.app;
 
 import brave.http.HttpTracing;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import com.codahale.metrics.servlets.HealthCheckServlet;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.smoketurner.dropwizard.zipkin.ZipkinBundle;
 import com.smoketurner.dropwizard.zipkin.ZipkinFactory;
+import io.arlas.server.core.FluidSearch;
+import io.arlas.server.core.SearchCoalescer;
+import io.arlas.server.dao.ElasticCollectionReferenceDaoImpl;
 import io.arlas.server.exceptions.*;
+import io.arlas.server.health.CollectionsReadinessCheck;
 import io.arlas.server.health.ElasticsearchHealthCheck;
+import io.arlas.server.model.CollectionReference;
 import io.arlas.server.ogc.csw.CSWHandler;
 import io.arlas.server.ogc.csw.CSWService;
 import io.arlas.server.ogc.csw.writer.getrecords.AtomGetRecordsMessageBodyWriter;
@@ -39,10 +46,12 @@ import io.arlas.server.ogc.wfs.WFSHandler;
 import io.arlas.server.rest.collections.ElasticCollectionService;
 import io.arlas.server.rest.explore.aggregate.AggregateRESTService;
 import io.arlas.server.rest.explore.aggregate.GeoAggregateRESTService;
+import io.arlas.server.rest.explore.batch.BatchRESTService;
 import io.arlas.server.rest.explore.count.CountRESTService;
 import io.arlas.server.rest.explore.countDistinct.CountDistinctRESTService;
 import io.arlas.server.rest.explore.describe.DescribeCollectionRESTService;
 import io.arlas.server.rest.explore.describe.DescribeRESTService;
+import io.arlas.server.rest.explore.export.ExportRESTService;
 import io.arlas.server.rest.explore.opensearch.AtomHitsMessageBodyWriter;
 import io.arlas.server.rest.explore.opensearch.OpenSearchDescriptorService;
 import io.arlas.server.rest.explore.range.RangeRESTService;
@@ -50,12 +59,17 @@ import io.arlas.server.rest.explore.raw.RawRESTService;
 import io.arlas.server.rest.explore.search.GeoSearchRESTService;
 import io.arlas.server.rest.explore.search.SearchRESTService;
 import io.arlas.server.rest.explore.suggest.SuggestRESTService;
+import io.arlas.server.rest.plugins.eo.RasterTileCache;
 import io.arlas.server.rest.plugins.eo.TileRESTService;
 import io.arlas.server.rest.tag.TagRESTService;
 import io.arlas.server.services.ExploreServices;
 import io.arlas.server.services.UpdateServices;
 import io.arlas.server.task.CollectionAutoDiscover;
+import io.arlas.server.utils.ExploreResponseCache;
+import io.arlas.server.utils.GeometryReducer;
 import io.arlas.server.utils.PrettyPrintFilter;
+import io.arlas.server.utils.RangeExtentsCache;
+import io.arlas.server.utils.SearchPrefetchCache;
 import io.arlas.server.wfs.requestfilter.InsensitiveCaseFilter;
 import io.dropwizard.Application;
 import io.dropwizard.assets.AssetsBundle;
@@ -85,13 +99,19 @@ import javax.servlet.DispatcherType;
 import javax.servlet.FilterRegistration;
 import java.net.InetAddress;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 public class ArlasServer extends Application<ArlasServerConfiguration> {
     Logger LOGGER = LoggerFactory.getLogger(ArlasServer.class);
 
+    private static final int WARM_UP_RETRY_DELAY = 10;
+
     public static void main(String... args) throws Exception {
         new ArlasServer().run(args);
     }
@@ -142,8 +162,38 @@ public class ArlasServer extends Application<ArlasServerConfiguration> {
             Optional<HttpTracing> tracing = configuration.zipkinConfiguration.build(environment);
         }
 
+        FluidSearch.setMetricRegistry(environment.metrics());
+        GeometryReducer.setMetricRegistry(environment.metrics());
+        ExecutorService responseExecutor = environment.lifecycle().executorService("explore-response-%d")
+                .minThreads(configuration.arlasExploreResponseThreads)
+                .maxThreads(configuration.arlasExploreResponseThreads)
+                .build();
+        if (configuration.arlasSearchCoalescingWindow > 0) {
+            FluidSearch.setSearchCoalescer(new SearchCoalescer(configuration.arlasSearchCoalescingWindow, environment.metrics(), responseExecutor));
+            environment.jersey().register(new SearchCoalescer.EndpointListener());
+        }
         ExploreServices exploration = new ExploreServices(client, configuration);
-        UpdateServices updateServices = new UpdateServices(client, configuration);
+        exploration.setResponseExecutor(responseExecutor);
+        if (configuration.arlasExploreCacheSize > 0 && configuration.arlasExploreCacheTimeout > 0) {
+            exploration.setExploreResponseCache(new ExploreResponseCache(exploration.getIndexGenerations(), environment.getObjectMapper(),
+                    configuration.arlasExploreCacheSize * 1024L * 1024L, configuration.arlasExploreCacheTimeout, environment.metrics()));
+        }
+        if (configuration.arlasRangeExtentsCacheSize > 0) {
+            exploration.setRangeExtentsCache(new RangeExtentsCache(exploration.getIndexGenerations(), configuration.arlasRangeExtentsCacheSize));
+        }
+        if (configuration.arlasSearchPrefetchSize > 0) {
+            // a prefetch is only worth it if it is quick: they are dropped rather than queued without bounds
+            ExecutorService prefetchExecutor = environment.lifecycle().executorService("search-prefetch-%d")
+                    .minThreads(configuration.arlasSearchPrefetchThreads)
+                    .maxThreads(configuration.arlasSearchPrefetchThreads)
+                    .workQueue(new ArrayBlockingQueue<>(configuration.arlasSearchPrefetchSize))
+                    .rejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy())
+                    .build();
+            exploration.setSearchPrefetchCache(new SearchPrefetchCache(exploration.getIndexGenerations(), configuration.arlasSearchPrefetchSize, environment.metrics()),
+                    prefetchExecutor);
+        }
+        // built once the caches are set: the tag and tile services share them, as well as the collection DAO
+        UpdateServices updateServices = new UpdateServices(exploration);
         environment.getObjectMapper().setSerializationInclusion(Include.NON_NULL);
         environment.getObjectMapper().configure(SerializationFeature.WRITE_EMPTY_JSON_ARRAYS, false);
         environment.jersey().register(MultiPartFeature.class);
@@ -171,6 +221,8 @@ public class ArlasServer extends Application<ArlasServerConfiguration> {
             environment.jersey().register(new RawRESTService(exploration));
             environment.jersey().register(new DescribeCollectionRESTService(exploration));
             environment.jersey().register(new RangeRESTService(exploration));
+            environment.jersey().register(new BatchRESTService(exploration, configuration.arlasBatchMaxRequests));
+            environment.jersey().register(new ExportRESTService(exploration));
             LOGGER.info("Explore API enabled");
         } else {
             LOGGER.info("Explore API disabled");
@@ -178,7 +230,7 @@ public class ArlasServer extends Application<ArlasServerConfiguration> {
 
         if(configuration.arlasServiceCollectionsEnabled) {
             LOGGER.info("Collection API enabled");
-            environment.jersey().register(new ElasticCollectionService(client, configuration));
+            environment.jersey().register(new ElasticCollectionService(exploration, configuration));
         } else {
             LOGGER.info("Collection API disabled");
         }
@@ -202,7 +254,7 @@ public class ArlasServer extends Application<ArlasServerConfiguration> {
         if (configuration.arlasServiceCSWEnabled) {
             LOGGER.info("CSW Service enabled");
             CSWHandler cswHandler = new CSWHandler(configuration.ogcConfiguration,configuration.cswConfiguration, configuration.inspireConfiguration);
-            environment.jersey().register(new CSWService(client, cswHandler,configuration));
+            environment.jersey().register(new CSWService(exploration, cswHandler,configuration));
         } else {
             LOGGER.info("CSW Service disabled");
         }
@@ -216,7 +268,14 @@ public class ArlasServer extends Application<ArlasServerConfiguration> {
 
         if(configuration.arlasServiceRasterTileEnabled){
             LOGGER.info("Raster Tile Service enabled");
-            environment.jersey().register(new TileRESTService(updateServices));
+            ExecutorService fetchExecutor = environment.lifecycle().executorService("raster-tile-fetch-%d")
+                    .minThreads(configuration.arlasRasterTilesFetchThreads)
+                    .maxThreads(configuration.arlasRasterTilesFetchThreads)
+                    .build();
+            RasterTileCache tileCache = configuration.arlasRasterTilesCacheSize > 0 ?
+                    new RasterTileCache(configuration.arlasRasterTilesCacheSize * 1024L * 1024L, configuration.arlasRasterTilesCacheTimeout, environment.metrics())
+                    : null;
+            environment.jersey().register(new TileRESTService(updateServices, fetchExecutor, configuration.arlasRasterTilesPrefetch, tileCache));
         }else{
             LOGGER.info("Raster Tile Service disabled");
         }
@@ -226,18 +285,32 @@ public class ArlasServer extends Application<ArlasServerConfiguration> {
         environment.jersey().register(InsensitiveCaseFilter.class);
 
         //tasks
-        environment.admin().addTask(new CollectionAutoDiscover(client, configuration));
+        environment.admin().addTask(new CollectionAutoDiscover(exploration, configuration));
         int scheduleAutoDiscover = configuration.collectionAutoDiscoverConfiguration.schedule;
         if (scheduleAutoDiscover > 0) {
             String nameFormat = "collection-auto-discover-%d";
             ScheduledExecutorServiceBuilder sesBuilder = environment.lifecycle().scheduledExecutorService(nameFormat);
             ScheduledExecutorService ses = sesBuilder.build();
-            Runnable autoDiscoverTask = new CollectionAutoDiscover(client, configuration);
+            Runnable autoDiscoverTask = new CollectionAutoDiscover(exploration, configuration);
             ses.scheduleWithFixedDelay(autoDiscoverTask, 10, scheduleAutoDiscover, TimeUnit.SECONDS);
         }
 
+        ElasticCollectionReferenceDaoImpl collectionDao = (ElasticCollectionReferenceDaoImpl) exploration.getDaoCollectionReference();
+        environment.lifecycle().manage(collectionDao);
+        if (configuration.arlasCollectionsWatchInterval > 0) {
+            ScheduledExecutorService watcher = environment.lifecycle().scheduledExecutorService("collection-watcher-%d").build();
+            watcher.scheduleWithFixedDelay(collectionDao::synchronize, 0, configuration.arlasCollectionsWatchInterval, TimeUnit.SECONDS);
+        }
+        CollectionsReadinessCheck readinessCheck = new CollectionsReadinessCheck();
+        ScheduledExecutorService warmUpExecutor = environment.lifecycle().scheduledExecutorService("collection-warm-up-%d").build();
+        warmUpExecutor.execute(() -> warmUpCollections(exploration, collectionDao, readinessCheck, warmUpExecutor));
+
         //healthchecks
         environment.healthChecks().register("elasticsearch", new ElasticsearchHealthCheck(client));
+        // readiness is served apart from the liveness checks above: a server loading its collections is not sick
+        HealthCheckRegistry readinessChecks = new HealthCheckRegistry();
+        readinessChecks.register("collections", readinessCheck);
+        environment.admin().addServlet("ready", new HealthCheckServlet(readinessChecks)).addMapping("/ready");
 
         //cors
         if (configuration.arlascorsenabled) {
@@ -269,6 +342,25 @@ public class ArlasServer extends Application<ArlasServerConfiguration> {
         });
     }
 
+    private void warmUpCollections(ExploreServices exploration, ElasticCollectionReferenceDaoImpl collectionDao, CollectionsReadinessCheck readinessCheck, ScheduledExecutorService executor) {
+        try {
+            List<CollectionReference> collections = collectionDao.warmUp();
+            for (CollectionReference collection : collections) {
+                try {
+                    exploration.getCompiledCollection(collection);
+                } catch (Exception e) {
+                    LOGGER.warn("Unable to compile collection " + collection.collectionName + ": " + e.getMessage());
+                }
+            }
+            readinessCheck.ready(collections.size());
+            LOGGER.info(collections.size() + " collections loaded");
+        } catch (Exception e) {
+            LOGGER.warn("Unable to load the collections, retrying in " + WARM_UP_RETRY_DELAY + " seconds: " + e.getMessage());
+            readinessCheck.failed(e.getMessage());
+            executor.schedule(() -> warmUpCollections(exploration, collectionDao, readinessCheck, executor), WARM_UP_RETRY_DELAY, TimeUnit.SECONDS);
+        }
+    }
+
     private void configureCors(Environment environment) {
         CrossOriginFilter filter = new CrossOriginFilter();
         final FilterRegistration.Dynamic cors = environment.servlets().addFilter("CrossOriginFilter", filter);
@@ -40,6 +40,7 @@ public class Data {
     public class GeometryParams {
         public Polygon geometry;
         public String centroid;
+        public String other_geopoint;
     }
 }
 
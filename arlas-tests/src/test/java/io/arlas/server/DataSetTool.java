@@ -54,10 +54,12 @@ public class DataSetTool {
     public final static String DATASET_GEO_PARAMS="geo_params";
     public final static String DATASET_GEOMETRY_PATH="geo_params.geometry";
     public final static String DATASET_CENTROID_PATH="geo_params.centroid";
+    // a geo point that is not the centroid of the collection, 5 degrees north-east of it
+    public final static String DATASET_OTHER_GEOPOINT_PATH="geo_params.other_geopoint";
     public final static String DATASET_TIMESTAMP_PATH="params.startdate";
     public final static String DATASET_EXCLUDE_FIELDS = "params.ci*";
     public final static String DATASET_TAGGABLE_FIELDS="params.tags,params.job";
-    public final static String DATASET_EXCLUDE_WFS_FIELDS="params.country";
+    public final static String DATASET_EXCLUDE_WFS_FIELDS="params.country,geo_params.other_geopoint";
     public final static String DATASET_TIMESTAMP_FORMAT = "epoch_millis";
     public static final String DATASET_INSPIRE_LINEAGE = "Dataset loaded for testing";
     public static final String DATASET_INSPIRE_TOPIC_CATEGORY = "biota";
@@ -151,6 +153,7 @@ public class DataSetTool {
                 }
                 data.params.stopdate = 1l * (i + 1000) * (j + 1000) + 100;
                 data.geo_params.centroid = j + "," + i;
+                data.geo_params.other_geopoint = (j + 5) + "," + (i + 5);
                 data.params.job = jobs[((Math.abs(i) + Math.abs(j)) / 10) % (jobs.length - 1)];
                 data.params.country = countries[((Math.abs(i) + Math.abs(j)) / 10) % (countries.length - 1)];
                 data.params.city = cities[((Math.abs(i) + Math.abs(j)) / 10) % (cities.length - 1)];
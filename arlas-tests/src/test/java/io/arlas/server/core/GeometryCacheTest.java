@@ -0,0 +1,68 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.core;
+
+import io.arlas.server.exceptions.ArlasException;
+import io.arlas.server.exceptions.InvalidParameterException;
+import org.elasticsearch.common.geo.builders.MultiPolygonBuilder;
+import org.elasticsearch.common.geo.builders.PolygonBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GeometryCacheTest {
+
+    private static final String POLYGON = "POLYGON((10 10, 20 10, 20 20, 10 20, 10 10))";
+
+    @Test
+    public void testGeometriesAreParsedOnce() throws ArlasException {
+        Assert.assertTrue(GeometryCache.getShapeBuilder(POLYGON) instanceof PolygonBuilder);
+        Assert.assertSame(GeometryCache.getShapeBuilder(POLYGON), GeometryCache.getShapeBuilder(POLYGON));
+        Assert.assertSame(GeometryCache.getGeometry(POLYGON), GeometryCache.getGeometry(POLYGON));
+        Assert.assertEquals("Polygon", GeometryCache.getGeometry(POLYGON).getGeometryType());
+        Assert.assertTrue(GeometryCache.getShapeBuilder("MULTIPOLYGON(((10 10, 20 10, 20 20, 10 10)),((30 30, 40 30, 40 40, 30 30)))") instanceof MultiPolygonBuilder);
+    }
+
+    @Test
+    public void testBbox() throws ArlasException {
+        Assert.assertArrayEquals(new double[]{-10, -5.5, 10, 5.5}, GeometryCache.getBbox("-10,-5.5,10,5.5"), 0);
+        Assert.assertTrue(GeometryCache.getShapeBuilder("-10,-5.5,10,5.5") instanceof PolygonBuilder);
+        Assert.assertNull(GeometryCache.getGeometry("-10,-5.5,10,5.5"));
+    }
+
+    @Test
+    public void testInvalidGeometriesAreRejectedEveryTime() {
+        // self-intersecting polygon
+        String bowtie = "POLYGON((0 0, 10 10, 10 0, 0 10, 0 0))";
+        for (int i = 0; i < 2; i++) {
+            try {
+                GeometryCache.getShapeBuilder(bowtie);
+                Assert.fail("Invalid geometry accepted");
+            } catch (ArlasException e) {
+                Assert.assertTrue(e instanceof InvalidParameterException);
+                Assert.assertEquals(FluidSearch.INVALID_WKT, e.getMessage());
+            }
+        }
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testOutOfRangeGeometry() throws ArlasException {
+        GeometryCache.getShapeBuilder("POINT(400 10)");
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.core;
+
+import com.codahale.metrics.MetricRegistry;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+public class SearchCoalescerTest {
+
+    private MetricRegistry metrics;
+    private List<ActionListener<SearchResponse>> sent;
+    private Consumer<ActionListener<SearchResponse>> send;
+
+    @Before
+    public void setUp() {
+        metrics = new MetricRegistry();
+        sent = new ArrayList<>();
+        send = sent::add;
+    }
+
+    @Test
+    public void testIdenticalSearchesJoinTheCall() throws Exception {
+        SearchCoalescer coalescer = new SearchCoalescer(60000, metrics, Runnable::run);
+        CompletableFuture<SearchResponse> first = coalescer.execute(search("Architect"), send).toCompletableFuture();
+        CompletableFuture<SearchResponse> second = coalescer.execute(search("Architect"), send).toCompletableFuture();
+        Assert.assertEquals(1, sent.size());
+        Assert.assertFalse(second.isDone());
+        SearchResponse response = response(42);
+        sent.get(0).onResponse(response);
+        Assert.assertSame(response, first.get());
+        // the joining search gets its own copy of the response
+        Assert.assertNotSame(response, second.get());
+        Assert.assertEquals(response.getTook(), second.get().getTook());
+        Assert.assertEquals(response.getTotalShards(), second.get().getTotalShards());
+        Assert.assertEquals(1, metrics.meter(MetricRegistry.name(SearchCoalescer.class, "other", "executed")).getCount());
+        Assert.assertEquals(1, metrics.meter(MetricRegistry.name(SearchCoalescer.class, "other", "collapsed")).getCount());
+    }
+
+    @Test
+    public void testDifferentSearchesAreSentApart() {
+        SearchCoalescer coalescer = new SearchCoalescer(60000, metrics, Runnable::run);
+        coalescer.execute(search("Architect"), send);
+        coalescer.execute(search("Actor"), send);
+        coalescer.execute(search("Architect").preference("_local"), send);
+        Assert.assertEquals(3, sent.size());
+    }
+
+    @Test
+    public void testCompletedCallIsNotJoined() throws Exception {
+        SearchCoalescer coalescer = new SearchCoalescer(60000, metrics, Runnable::run);
+        coalescer.execute(search("Architect"), send);
+        sent.get(0).onResponse(response(1));
+        CompletableFuture<SearchResponse> next = coalescer.execute(search("Architect"), send).toCompletableFuture();
+        Assert.assertEquals(2, sent.size());
+        Assert.assertFalse(next.isDone());
+    }
+
+    @Test
+    public void testCallOlderThanTheWindowIsNotJoined() throws Exception {
+        SearchCoalescer coalescer = new SearchCoalescer(1, metrics, Runnable::run);
+        CompletableFuture<SearchResponse> first = coalescer.execute(search("Architect"), send).toCompletableFuture();
+        Thread.sleep(20);
+        CompletableFuture<SearchResponse> second = coalescer.execute(search("Architect"), send).toCompletableFuture();
+        Assert.assertEquals(2, sent.size());
+        sent.get(1).onResponse(response(2));
+        Assert.assertFalse(first.isDone());
+        Assert.assertEquals(2, second.get().getTook().millis());
+        // the first call is still answered to its search
+        sent.get(0).onResponse(response(1));
+        Assert.assertEquals(1, first.get().getTook().millis());
+    }
+
+    @Test
+    public void testFailureIsPropagatedToTheJoiningSearches() throws Exception {
+        SearchCoalescer coalescer = new SearchCoalescer(60000, metrics, Runnable::run);
+        CompletableFuture<SearchResponse> first = coalescer.execute(search("Architect"), send).toCompletableFuture();
+        CompletableFuture<SearchResponse> second = coalescer.execute(search("Architect"), send).toCompletableFuture();
+        IllegalStateException failure = new IllegalStateException("cluster unavailable");
+        sent.get(0).onFailure(failure);
+        assertFailedWith(failure, first);
+        assertFailedWith(failure, second);
+        // a failed call is forgotten
+        coalescer.execute(search("Architect"), send);
+        Assert.assertEquals(2, sent.size());
+    }
+
+    private static void assertFailedWith(Exception failure, CompletableFuture<SearchResponse> result) throws InterruptedException {
+        try {
+            result.get();
+            Assert.fail("the search must fail");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            while (cause != failure && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            Assert.assertSame(failure, cause);
+        }
+    }
+
+    private static SearchRequest search(String job) {
+        return new SearchRequest("geodata").source(new SearchSourceBuilder().size(0).query(QueryBuilders.termQuery("params.job", job)));
+    }
+
+    private static SearchResponse response(long tookInMillis) {
+        return new SearchResponse(InternalSearchResponse.empty(), null, 5, 5, 0, tookInMillis, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+    }
+}
@@ -33,8 +33,13 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.Matchers.*;
@@ -72,6 +77,47 @@ public class WFSServiceIT extends AbstractTestWithCollection {
         );
     }
 
+    @Test
+    public void testConcurrentHeaderFilters() throws Exception {
+        Filter headerFilter = new Filter();
+        headerFilter.f = Arrays.asList(new MultiValueFilter<>(new Expression("params.job", OperatorEnum.like, "Architect")),
+                new MultiValueFilter<>(new Expression("params.startdate", OperatorEnum.range, "[1009799<1009801]")));
+        List<Pair<String, String>> getFeature = Arrays.asList(
+                new ImmutablePair<>("SERVICE", "WFS"),
+                new ImmutablePair<>("VERSION", "2.0.0"),
+                new ImmutablePair<>("COUNT", "1000"),
+                new ImmutablePair<>("REQUEST", "GetFeature"));
+        List<Pair<String, String>> getPropertyValue = Arrays.asList(
+                new ImmutablePair<>("SERVICE", "WFS"),
+                new ImmutablePair<>("VERSION", "2.0.0"),
+                new ImmutablePair<>("COUNT", "1000"),
+                new ImmutablePair<>("REQUEST", "GetPropertyValue"),
+                new ImmutablePair<>("VALUEREFERENCE", "@gml:id"));
+        // ID_0_0DI is not an Architect: only reachable without the partition filter
+        List<Pair<String, String>> getFeatureByFilteredId = getFeatureById("ID_20__10DI");
+        List<Pair<String, String>> getFeatureByUnfilteredId = getFeatureById("ID_0_0DI");
+        List<Callable<Void>> checks = Arrays.asList(
+                () -> { handleHeaderFilter(get(getFeature, headerFilter)); return null; },
+                () -> { handleNoHeaderFilter(get(getFeature, new Filter())); return null; },
+                () -> { handleHeaderFilterPropertyValue(get(getPropertyValue, headerFilter)); return null; },
+                () -> { handleNoHeaderFilterPropertyValue(get(getPropertyValue, new Filter())); return null; },
+                () -> { handleFeatureById(get(getFeatureByFilteredId, headerFilter), "ID_20__10DI"); return null; },
+                () -> { handleFeatureNotFound(get(getFeatureByUnfilteredId, headerFilter)); return null; },
+                () -> { handleFeatureById(get(getFeatureByUnfilteredId, new Filter()), "ID_0_0DI"); return null; });
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 16 * checks.size(); i++) {
+                futures.add(executor.submit(checks.get(i % checks.size())));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     public void testInspireGetCapabilities() throws Exception {
         handleInspireGetCapabilities(get(Arrays.asList(
@@ -116,6 +162,28 @@ public class WFSServiceIT extends AbstractTestWithCollection {
                 .body("wfs:FeatureCollection.member[1].geodata.params" + FLATTEN_CHAR + "city.size()", equalTo(0));
     }
 
+    public void handleHeaderFilterPropertyValue(ValidatableResponse then) throws Exception {
+        then.statusCode(200)
+                .body(containsString("ID_20__10DI"))
+                .body(containsString("ID__10_20DI"))
+                .body(not(containsString("ID_0_0DI")));
+    }
+
+    public void handleNoHeaderFilterPropertyValue(ValidatableResponse then) throws Exception {
+        then.statusCode(200)
+                .body(containsString("ID_20__10DI"))
+                .body(containsString("ID_0_0DI"));
+    }
+
+    public void handleFeatureById(ValidatableResponse then, String id) throws Exception {
+        then.statusCode(200)
+                .body(containsString(id));
+    }
+
+    public void handleFeatureNotFound(ValidatableResponse then) throws Exception {
+        then.statusCode(404);
+    }
+
     public void handleInspireGetCapabilities(ValidatableResponse then) throws Exception {
         then.statusCode(200)
                 .body("ns5:WFS_Capabilities.ns1:OperationsMetadata.ns1:ExtendedCapabilities.ns4:ExtendedCapabilities", notNullValue());
@@ -139,6 +207,15 @@ public class WFSServiceIT extends AbstractTestWithCollection {
         return given().contentType("application/xml");
     }
 
+    private List<Pair<String, String>> getFeatureById(String id) {
+        return Arrays.asList(
+                new ImmutablePair<>("SERVICE", "WFS"),
+                new ImmutablePair<>("VERSION", "2.0.0"),
+                new ImmutablePair<>("REQUEST", "GetFeature"),
+                new ImmutablePair<>("STOREDQUERY_ID", "urn:ogc:def:query:OGC-WFS::GetFeatureById"),
+                new ImmutablePair<>("ID", id));
+    }
+
     private ValidatableResponse get(List<Pair<String, String>> params, Filter headerFilter) throws JsonProcessingException {
         RequestSpecification req = givenFilterableRequestParams().header("Partition-Filter", objectMapper.writeValueAsString(headerFilter));
         for (Pair<String, String> param : params) {
@@ -23,9 +23,13 @@ import io.arlas.server.AbstractTestWithCollection;
 import io.arlas.server.DataSetTool;
 import io.arlas.server.model.CollectionReference;
 import io.restassured.response.ValidatableResponse;
+import org.apache.logging.log4j.core.util.IOUtils;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.hamcrest.Matcher;
 import org.junit.Test;
 
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -70,6 +74,82 @@ public class CollectionServiceIT extends AbstractTestWithCollection {
                 .then().statusCode(404);
     }
 
+    @Test
+    public void testDeletedCollectionIsNotTaggedNorTiled() throws Exception {
+        given().contentType("application/json").body(getJsonAsMap())
+                .when().put(arlasPath + "collections/foo")
+                .then().statusCode(200);
+        // the tag and tile services read the collection: not taggable, no tile URL
+        given().contentType("application/json").body(getTagRequestAsMap())
+                .when().post(arlasPath + "write/foo/_tag")
+                .then().statusCode(400)
+                .body("error", equalTo("io.arlas.server.exceptions.NotAllowedException"));
+        when().get(arlasPath + "explore/foo/_tile/10/511/484.png")
+                .then().statusCode(404)
+                .body("message", containsString("no URL defined"));
+
+        when().delete(arlasPath + "collections/foo")
+                .then().statusCode(200);
+
+        // the deleted collection is no longer served by them
+        given().contentType("application/json").body(getTagRequestAsMap())
+                .when().post(arlasPath + "write/foo/_tag")
+                .then().statusCode(404);
+        when().get(arlasPath + "explore/foo/_tile/10/511/484.png")
+                .then().statusCode(404)
+                .body("message", not(containsString("no URL defined")));
+    }
+
+    @Test
+    public void testDescriptionFollowsTheMapping() throws Exception {
+        String index = "describe_mapping_test";
+        String mapping = IOUtils.toString(new InputStreamReader(getClass().getClassLoader().getResourceAsStream("dataset.mapping.json")));
+        DataSetTool.client.admin().indices().prepareCreate(index).addMapping(DataSetTool.DATASET_TYPE_NAME, mapping, XContentType.JSON).get();
+        try {
+            Map<String, Object> jsonAsMap = getJsonAsMap();
+            jsonAsMap.put(CollectionReference.INDEX_NAME, index);
+            given().contentType("application/json").body(jsonAsMap)
+                    .when().put(arlasPath + "collections/baz")
+                    .then().statusCode(200);
+            when().get(arlasPath + "explore/baz/_describe")
+                    .then().statusCode(200)
+                    .body("properties.params.properties.new_field", nullValue());
+
+            // a field added to the mapping is described without waiting for the cache timeout
+            DataSetTool.client.admin().indices().preparePutMapping(index).setType(DataSetTool.DATASET_TYPE_NAME)
+                    .setSource("{\"properties\":{\"params\":{\"properties\":{\"new_field\":{\"type\":\"keyword\"}}}}}", XContentType.JSON).get();
+            for (int i = 0; i < 10 && get(arlasPath + "explore/baz/_describe").path("properties.params.properties.new_field") == null; i++) {
+                Thread.sleep(500);
+            }
+            when().get(arlasPath + "explore/baz/_describe")
+                    .then().statusCode(200)
+                    .body("properties.params.properties.new_field", notNullValue());
+
+            when().delete(arlasPath + "collections/baz")
+                    .then().statusCode(200);
+        } finally {
+            DataSetTool.client.admin().indices().prepareDelete(index).get();
+        }
+    }
+
+    @Test
+    public void testExternalChangesArePickedUp() throws Exception {
+        // Another node writes the collection straight into the arlas index
+        DataSetTool.client.prepareIndex(".arlas", "collection", "bar")
+                .setSource(getJsonAsMap())
+                .setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE).get();
+        awaitStatus("collections/bar", 200);
+        when().get(arlasPath + "collections/bar")
+                .then().statusCode(200)
+                .body("collection_name", equalTo("bar"))
+                .body("params.index_name", equalTo(DataSetTool.DATASET_INDEX_NAME));
+
+        // ... then removes it
+        DataSetTool.client.prepareDelete(".arlas", "collection", "bar")
+                .setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE).get();
+        awaitStatus("collections/bar", 404);
+    }
+
     @Test
     public void testGetAllCollections() throws Exception {
         Map<String, Object> jsonAsMap = getJsonAsMap();
@@ -267,6 +347,13 @@ public class CollectionServiceIT extends AbstractTestWithCollection {
                 .then();
     }
 
+    private void awaitStatus(String path, int status) throws InterruptedException {
+        for (int i = 0; i < 30 && when().get(arlasPath + path).statusCode() != status; i++) {
+            Thread.sleep(500);
+        }
+        when().get(arlasPath + path).then().statusCode(status);
+    }
+
     private Map<String, Object> getJsonAsMap() {
         Map<String, Object> jsonAsMap = new HashMap<>();
         jsonAsMap.put(CollectionReference.INDEX_NAME, DataSetTool.DATASET_INDEX_NAME);
@@ -280,6 +367,15 @@ public class CollectionServiceIT extends AbstractTestWithCollection {
         return jsonAsMap;
     }
 
+    private Map<String, Object> getTagRequestAsMap() {
+        Map<String, Object> tag = new HashMap<>();
+        tag.put("path", "params.tags");
+        tag.put("value", "v1");
+        Map<String, Object> tagRequest = new HashMap<>();
+        tagRequest.put("tag", tag);
+        return tagRequest;
+    }
+
     private Map<String, Object> getDublinJsonAsMap() {
         Map<String, Object> dublinSubJsonAsMap = new HashMap<>();
         dublinSubJsonAsMap.put(CollectionReference.DUBLIN_CORE_TITLE, DataSetTool.DATASET_DUBLIN_CORE_TITLE);
@@ -0,0 +1,103 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.rest.explore;
+
+import io.arlas.server.AbstractTestWithCollection;
+import io.arlas.server.DataSetTool;
+import io.restassured.specification.RequestSpecification;
+import org.elasticsearch.index.cache.request.RequestCacheStats;
+import org.junit.Before;
+import org.junit.Test;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class AnalyticsServiceIT extends AbstractTestWithCollection {
+
+    @Override
+    protected String getUrlPath(String collection) {
+        return arlasPath + "explore/" + collection;
+    }
+
+    @Before
+    public void clearRequestCache() {
+        DataSetTool.adminClient.indices().prepareClearCache(DataSetTool.DATASET_INDEX_NAME).setRequestCache(true).get();
+    }
+
+    @Test
+    public void testCountFetchesNoHit() throws Exception {
+        given().when().get(getUrlPath(COLLECTION_NAME) + "/_count")
+                .then().statusCode(200)
+                .body("totalnb", equalTo(595))
+                .body("nbhits", equalTo(0));
+    }
+
+    @Test
+    public void testCountIsAnsweredFromTheRequestCache() throws Exception {
+        // the pretty flag is part of the key of the explore response cache, not of the elasticsearch request
+        RequestCacheStats before = requestCacheStats();
+        givenSession("dashboard").param("pretty", false).when().get(getUrlPath(COLLECTION_NAME) + "/_count")
+                .then().statusCode(200).body("totalnb", equalTo(595));
+        RequestCacheStats filled = requestCacheStats();
+        assertThat(filled.getMissCount(), greaterThan(before.getMissCount()));
+        givenSession("dashboard").param("pretty", true).when().get(getUrlPath(COLLECTION_NAME) + "/_count")
+                .then().statusCode(200).body("totalnb", equalTo(595));
+        assertThat(requestCacheStats().getHitCount(), greaterThan(filled.getHitCount()));
+    }
+
+    @Test
+    public void testAggregateIsAnsweredFromTheRequestCache() throws Exception {
+        RequestCacheStats before = requestCacheStats();
+        givenSession("dashboard").param("agg", "term:params.job").param("pretty", false)
+                .when().get(getUrlPath(COLLECTION_NAME) + "/_aggregate")
+                .then().statusCode(200)
+                .body("totalnb", equalTo(595))
+                .body("elements", hasSize(DataSetTool.jobs.length - 1));
+        RequestCacheStats filled = requestCacheStats();
+        assertThat(filled.getMissCount(), greaterThan(before.getMissCount()));
+        givenSession("dashboard").param("agg", "term:params.job").param("pretty", true)
+                .when().get(getUrlPath(COLLECTION_NAME) + "/_aggregate")
+                .then().statusCode(200)
+                .body("totalnb", equalTo(595))
+                .body("elements", hasSize(DataSetTool.jobs.length - 1));
+        assertThat(requestCacheStats().getHitCount(), greaterThan(filled.getHitCount()));
+    }
+
+    @Test
+    public void testSessionIsNotAnElasticsearchPreference() throws Exception {
+        // as a raw preference, "_shards:0" would only search the first shard
+        givenSession("_shards:0").when().get(getUrlPath(COLLECTION_NAME) + "/_count")
+                .then().statusCode(200)
+                .body("totalnb", equalTo(595));
+        givenSession("_shards:0").param("agg", "term:params.job")
+                .when().get(getUrlPath(COLLECTION_NAME) + "/_aggregate")
+                .then().statusCode(200)
+                .body("totalnb", equalTo(595));
+    }
+
+    private RequestSpecification givenSession(String sessionId) {
+        return given().header("Session-Id", sessionId);
+    }
+
+    private RequestCacheStats requestCacheStats() {
+        return DataSetTool.adminClient.indices().prepareStats(DataSetTool.DATASET_INDEX_NAME).setRequestCache(true).get()
+                .getTotal().getRequestCache();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.rest.explore;
+
+import io.arlas.server.AbstractTestWithCollection;
+import io.arlas.server.DataSetTool;
+import io.arlas.server.model.enumerations.AggregationTypeEnum;
+import io.arlas.server.model.enumerations.OperatorEnum;
+import io.arlas.server.model.request.*;
+import io.restassured.response.ValidatableResponse;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.*;
+
+public class BatchServiceIT extends AbstractTestWithCollection {
+
+    @Override
+    protected String getUrlPath(String collection) {
+        return arlasPath + "explore/_batch";
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        BatchRequest batchRequest = new BatchRequest();
+        batchRequest.requests = Arrays.asList(count(null), termAggregate(), range("params.startdate"),
+                count(new Expression("params.startdate", OperatorEnum.range, "[0<775000]")));
+        post(batchRequest)
+                .statusCode(200)
+                .body("responses", hasSize(4))
+                .body("responses[0].count.totalnb", equalTo(595))
+                .body("responses[0].count.collection", equalTo(COLLECTION_NAME))
+                .body("responses[1].aggregate.totalnb", equalTo(595))
+                .body("responses[1].aggregate.elements", hasSize(DataSetTool.jobs.length - 1))
+                .body("responses[2].range.totalnb", equalTo(595))
+                .body("responses[2].range.min", equalTo(763600f))
+                .body("responses[2].range.max", equalTo(1263600f))
+                .body("responses[3].count.totalnb", equalTo(3))
+                .body("responses.error", everyItem(nullValue()));
+    }
+
+    @Test
+    public void testBatchErrors() throws Exception {
+        BatchRequestItem unknownCollection = count(null);
+        unknownCollection.collection = "foo";
+        BatchRequestItem twoTypes = count(null);
+        twoTypes.range = range("params.startdate").range;
+        BatchRequest batchRequest = new BatchRequest();
+        batchRequest.requests = Arrays.asList(unknownCollection, range("params.job"), twoTypes, count(null));
+        post(batchRequest)
+                .statusCode(200)
+                .body("responses", hasSize(4))
+                .body("responses[0].error.status", equalTo(404))
+                .body("responses[1].error.status", equalTo(400))
+                .body("responses[2].error.status", equalTo(400))
+                .body("responses[3].count.totalnb", equalTo(595));
+    }
+
+    @Test
+    public void testEmptyBatch() throws Exception {
+        BatchRequest batchRequest = new BatchRequest();
+        batchRequest.requests = new ArrayList<>();
+        post(batchRequest).statusCode(400);
+    }
+
+    @Test
+    public void testTooLargeBatch() throws Exception {
+        BatchRequest batchRequest = new BatchRequest();
+        batchRequest.requests = Collections.nCopies(101, count(null));
+        post(batchRequest).statusCode(400);
+    }
+
+    @Test
+    public void testBatchWithFlatAggregate() throws Exception {
+        BatchRequestItem flatAggregate = termAggregate();
+        flatAggregate.aggregate.form = new Form();
+        flatAggregate.aggregate.form.flat = true;
+        BatchRequest batchRequest = new BatchRequest();
+        batchRequest.requests = Collections.singletonList(flatAggregate);
+        post(batchRequest)
+                .statusCode(200)
+                .body("responses[0].aggregate.elements", hasSize(DataSetTool.jobs.length - 1))
+                .body("responses[0].aggregate.elements[0].flattened_elements", notNullValue())
+                .body("responses[0].aggregate.elements[0].elements", nullValue());
+    }
+
+    @Test
+    public void testBatchWithPartitionFilter() throws Exception {
+        BatchRequest batchRequest = new BatchRequest();
+        batchRequest.requests = Arrays.asList(count(null), range("params.startdate"));
+        given().contentType("application/json;charset=utf-8")
+                .header("Partition-Filter", "{\"f\":[[{\"field\":\"params.startdate\",\"op\":\"range\",\"value\":\"[0<775000]\"}]]}")
+                .body(batchRequest)
+                .when().post(getUrlPath(COLLECTION_NAME))
+                .then()
+                .statusCode(200)
+                .body("responses[0].count.totalnb", equalTo(3))
+                .body("responses[1].range.totalnb", equalTo(3))
+                .body("responses[1].range.max", equalTo(772800f));
+    }
+
+    private BatchRequestItem count(Expression expression) {
+        BatchRequestItem item = new BatchRequestItem();
+        item.collection = COLLECTION_NAME;
+        item.count = new Count();
+        item.count.filter = new Filter();
+        if (expression != null) {
+            item.count.filter.f = Collections.singletonList(new MultiValueFilter<>(expression));
+        }
+        return item;
+    }
+
+    private BatchRequestItem termAggregate() {
+        BatchRequestItem item = new BatchRequestItem();
+        item.collection = COLLECTION_NAME;
+        item.aggregate = new AggregationsRequest();
+        Aggregation aggregation = new Aggregation();
+        aggregation.type = AggregationTypeEnum.term;
+        aggregation.field = "params.job";
+        item.aggregate.aggregations = Collections.singletonList(aggregation);
+        return item;
+    }
+
+    private BatchRequestItem range(String field) {
+        BatchRequestItem item = new BatchRequestItem();
+        item.collection = COLLECTION_NAME;
+        item.range = new RangeRequest();
+        item.range.field = field;
+        return item;
+    }
+
+    private ValidatableResponse post(BatchRequest batchRequest) {
+        return given().contentType("application/json;charset=utf-8").body(batchRequest)
+                .when().post(getUrlPath(COLLECTION_NAME))
+                .then();
+    }
+}
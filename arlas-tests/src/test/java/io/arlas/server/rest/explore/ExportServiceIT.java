@@ -0,0 +1,91 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.rest.explore;
+
+import io.arlas.server.AbstractTestWithCollection;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ExportServiceIT extends AbstractTestWithCollection {
+
+    @Override
+    protected String getUrlPath(String collection) {
+        return arlasPath + "explore/" + collection + "/_export";
+    }
+
+    @Test
+    public void testNdjsonExport() throws Exception {
+        List<String> lines = export("ndjson", null);
+        assertThat(lines, hasSize(595));
+        assertThat(lines, everyItem(startsWith("{")));
+        assertThat(lines.get(0), containsString("\"params\""));
+    }
+
+    @Test
+    public void testFilteredExport() throws Exception {
+        assertThat(export("ndjson", "params.startdate:range:[0<775000]"), hasSize(3));
+    }
+
+    @Test
+    public void testGeoJsonSeqExport() throws Exception {
+        List<String> lines = export("geojsonseq", "params.startdate:range:[0<775000]");
+        assertThat(lines, hasSize(3));
+        assertThat(lines, everyItem(startsWith("\u001e{\"type\":\"Feature\"")));
+        assertThat(lines, everyItem(containsString("\"geometry\"")));
+    }
+
+    @Test
+    public void testCsvExport() throws Exception {
+        String body = given().param("format", "csv")
+                .param("exclude", "geo_params")
+                .when().get(getUrlPath(COLLECTION_NAME))
+                .then().statusCode(200)
+                .contentType(startsWith("text/csv"))
+                .extract().asString();
+        List<String> lines = Arrays.asList(body.split("\r\n"));
+        // the header and a line per hit
+        assertThat(lines, hasSize(596));
+        assertThat(Arrays.asList(lines.get(0).split(",")), hasItems("id", "fullname", "params.job", "params.startdate"));
+        assertThat(lines.get(0), not(containsString("geo_params")));
+        // the fields excluded by the collection are not columns
+        assertThat(lines.get(0), not(containsString("params.city")));
+    }
+
+    @Test
+    public void testInvalidFormat() throws Exception {
+        given().param("format", "xml")
+                .when().get(getUrlPath(COLLECTION_NAME))
+                .then().statusCode(400);
+    }
+
+    private List<String> export(String format, String f) {
+        String body = (f == null ? given() : given().param("f", f))
+                .param("format", format)
+                .when().get(getUrlPath(COLLECTION_NAME))
+                .then().statusCode(200)
+                .extract().asString();
+        return Arrays.asList(body.split("\n"));
+    }
+}
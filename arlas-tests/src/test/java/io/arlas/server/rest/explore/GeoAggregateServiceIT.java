@@ -19,16 +19,25 @@
 
 package io.arlas.server.rest.explore;
 
+import io.arlas.server.DataSetTool;
 import io.arlas.server.model.enumerations.AggregationTypeEnum;
 import io.arlas.server.model.enumerations.CollectionFunction;
 import io.arlas.server.model.request.*;
 import io.restassured.response.ValidatableResponse;
 import io.restassured.specification.RequestSpecification;
+import io.restassured.path.json.JsonPath;
 import org.hamcrest.Matcher;
+import org.junit.Assert;
+import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.Matchers.*;
@@ -45,6 +54,65 @@ public class GeoAggregateServiceIT extends AbstractGeohashTiledTest {
         return getUrlPath(collection) + "/" + geohash;
     }
 
+    @Test
+    public void testGeohashTilesMatchTheWholeAggregation() throws Exception {
+        String agg = "geohash:geo_params.centroid:interval-3";
+        Map<String, Integer> all = getGeohashCounts(given().param("agg", agg).when().get(getUrlPath("geodata")).then().statusCode(200));
+        Assert.assertFalse(all.isEmpty());
+        List<String> geohashes = new ArrayList<>(all.keySet());
+        String base32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+        Random random = new Random(42);
+        for (int i = 0; i < 20; i++) {
+            // cells containing buckets, or any cell
+            String tile = i % 2 == 0 ? geohashes.get(random.nextInt(geohashes.size())).substring(0, 1 + random.nextInt(3))
+                    : "" + base32.charAt(random.nextInt(32)) + base32.charAt(random.nextInt(32));
+            Map<String, Integer> expected = new HashMap<>();
+            all.forEach((geohash, count) -> {
+                if (geohash.startsWith(tile)) {
+                    expected.put(geohash, count);
+                }
+            });
+            Map<String, Integer> inTile = getGeohashCounts(given().param("agg", agg).when().get(getGeohashUrlPath("geodata", tile)).then().statusCode(200));
+            Assert.assertEquals("Buckets of tile " + tile, expected, inTile);
+        }
+    }
+
+    @Test
+    public void testGeohashTilesOfANonCentroidFieldOnlyHoldTheirCell() throws Exception {
+        String agg = "geohash:" + DataSetTool.DATASET_OTHER_GEOPOINT_PATH + ":interval-3";
+        Map<String, Integer> all = getGeohashCounts(given().param("agg", agg).when().get(getUrlPath("geodata")).then().statusCode(200));
+        Assert.assertFalse(all.isEmpty());
+        boolean someDocumentsFilteredOut = false;
+        Set<String> tiles = all.keySet().stream().map(geohash -> geohash.substring(0, 2)).collect(Collectors.toSet());
+        for (String tile : tiles) {
+            Map<String, Integer> inTile = getGeohashCounts(given().param("agg", agg).when().get(getGeohashUrlPath("geodata", tile)).then().statusCode(200));
+            // the tile holds the documents whose centroid is in the cell: only the buckets of the cell are kept among them
+            for (Map.Entry<String, Integer> bucket : inTile.entrySet()) {
+                Assert.assertTrue("Bucket " + bucket.getKey() + " of tile " + tile, bucket.getKey().startsWith(tile));
+                Assert.assertTrue("Count of bucket " + bucket.getKey() + " of tile " + tile, bucket.getValue() <= all.get(bucket.getKey()));
+            }
+            int expectedMax = all.entrySet().stream().filter(e -> e.getKey().startsWith(tile)).mapToInt(Map.Entry::getValue).sum();
+            int total = inTile.values().stream().mapToInt(Integer::intValue).sum();
+            Assert.assertTrue("Total of tile " + tile, total <= expectedMax);
+            someDocumentsFilteredOut |= total < expectedMax;
+        }
+        // the other geo point is 5 degrees away from the centroid: some documents have it out of the cell of their centroid
+        Assert.assertTrue(someDocumentsFilteredOut);
+    }
+
+    private Map<String, Integer> getGeohashCounts(ValidatableResponse then) {
+        JsonPath json = then.extract().jsonPath();
+        Map<String, Integer> counts = new HashMap<>();
+        List<String> geohashes = json.getList("features.properties.geohash", String.class);
+        List<Integer> featureCounts = json.getList("features.properties.count", Integer.class);
+        if (geohashes != null) {
+            for (int i = 0; i < geohashes.size(); i++) {
+                counts.put(geohashes.get(i), featureCounts.get(i));
+            }
+        }
+        return counts;
+    }
+
     @Override
     protected void handleNotMatchingRequest(ValidatableResponse then) {
         then.statusCode(200)
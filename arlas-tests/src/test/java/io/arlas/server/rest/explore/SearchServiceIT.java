@@ -26,9 +26,12 @@ import io.restassured.response.ExtractableResponse;
 import io.restassured.response.ValidatableResponse;
 import io.restassured.specification.RequestSpecification;
 import org.hamcrest.Matcher;
+import org.junit.Assert;
+import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 
 import static io.restassured.RestAssured.given;
@@ -274,5 +277,63 @@ public class SearchServiceIT extends AbstractProjectedTest {
                 .body("hits[1].data.id", equalTo(id2));
     }
 
+    //----------------------------------------------------------------
+    //----------------------- CURSOR PART ----------------------------
+    //----------------------------------------------------------------
+
+    @Test
+    public void testCursorPagination() throws Exception {
+        List<String> ids = new ArrayList<>();
+        ExtractableResponse response = given().param("sort", "-params.startdate").param("size", 100).param("cursor", "")
+                .when().get(getUrlPath("geodata"))
+                .then().statusCode(200).extract();
+        int pages = 1;
+        ids.addAll(response.path("hits.data.id"));
+        while (response.path("links.next") != null) {
+            String next = response.path("links.next.href");
+            response = given().urlEncodingEnabled(false).when().get(next).then().statusCode(200).extract();
+            ids.addAll(response.path("hits.data.id"));
+            pages++;
+        }
+        // each hit once, whatever its page
+        Assert.assertEquals(595, ids.size());
+        Assert.assertEquals(595, new HashSet<>(ids).size());
+        Assert.assertEquals(6, pages);
+    }
+
+    @Test
+    public void testPOSTCursorPagination() throws Exception {
+        search.page.sort = "params.startdate";
+        search.page.size = 3;
+        search.page.cursor = "";
+        ExtractableResponse first = givenFilterableRequestBody().body(handlePostRequest(search))
+                .when().post(getUrlPath("geodata"))
+                .then().statusCode(200)
+                .body("links.next.body.page.cursor", notNullValue())
+                .extract();
+        search.page.cursor = first.path("links.next.body.page.cursor");
+        givenFilterableRequestBody().body(handlePostRequest(search))
+                .when().post(getUrlPath("geodata"))
+                .then().statusCode(200)
+                .body("hits", hasSize(3))
+                .body("hits.data.id", not(hasItems(((List<String>) first.path("hits.data.id")).toArray(new String[0]))));
+    }
 
+    @Test
+    public void testInvalidCursor() throws Exception {
+        given().param("sort", "params.startdate").param("cursor", "foo")
+                .when().get(getUrlPath("geodata"))
+                .then().statusCode(400);
+        given().param("from", 10).param("cursor", "")
+                .when().get(getUrlPath("geodata"))
+                .then().statusCode(400);
+        // a cursor of another sort
+        String cursor = given().param("sort", "params.startdate").param("cursor", "")
+                .when().get(getUrlPath("geodata"))
+                .then().statusCode(200).extract().path("links.next.href");
+        cursor = cursor.substring(cursor.indexOf("cursor=") + "cursor=".length()).split("&")[0];
+        given().param("sort", "-params.startdate").param("cursor", cursor)
+                .when().get(getUrlPath("geodata"))
+                .then().statusCode(400);
+    }
 }
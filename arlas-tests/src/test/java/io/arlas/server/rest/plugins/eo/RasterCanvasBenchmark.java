@@ -0,0 +1,94 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.rest.plugins.eo;
+
+import io.arlas.server.utils.BenchmarkTimer;
+import io.arlas.server.utils.ImageUtil;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Compares the time for stacking scenes and computing the coverage after each of them, with the canvas and with
+ * Graphics/ImageUtil, once warmed up. Not a test: run it with <code>main</code>, optionally giving the number of iterations.
+ * The figures are indicative only, see {@link BenchmarkTimer}.
+ */
+public class RasterCanvasBenchmark {
+    private static final int SAMPLING = 10;
+    private static final int LAYERS = 8;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        for (int sampling : new int[]{1, SAMPLING}) {
+            for (int size : new int[]{256, 512}) {
+                BufferedImage[] layers = new BufferedImage[LAYERS];
+                Random random = new Random(42);
+                for (int i = 0; i < LAYERS; i++) {
+                    layers[i] = scene(size, random);
+                }
+                BenchmarkTimer.Iteration withGraphics = i -> stackWithGraphics(layers, sampling);
+                BenchmarkTimer.Iteration withCanvas = i -> stackWithCanvas(layers, sampling);
+                // warm-up of the JIT for both paths
+                BenchmarkTimer.warmUp(iterations, withGraphics);
+                BenchmarkTimer.warmUp(iterations, withCanvas);
+                long graphics = BenchmarkTimer.time(iterations, withGraphics);
+                long canvas = BenchmarkTimer.time(iterations, withCanvas);
+                BenchmarkTimer.report("%dpx, %d layers, sampling %d: ImageUtil/Graphics %.3f ms/tile, RasterCanvas %.3f ms/tile",
+                        size, LAYERS, sampling, graphics / 1e6 / iterations, canvas / 1e6 / iterations);
+            }
+        }
+    }
+
+    static int stackWithGraphics(BufferedImage[] layers, int sampling) {
+        BufferedImage bottom = new BufferedImage(layers[0].getWidth(), layers[0].getHeight(), BufferedImage.TYPE_4BYTE_ABGR);
+        int coverage = 0;
+        for (BufferedImage layer : layers) {
+            Graphics g = bottom.getGraphics();
+            g.drawImage(layer, 0, 0, null);
+            g.dispose();
+            coverage = ImageUtil.coverage(bottom, sampling);
+        }
+        return coverage;
+    }
+
+    static int stackWithCanvas(BufferedImage[] layers, int sampling) {
+        RasterCanvas canvas = new RasterCanvas(layers[0].getWidth(), layers[0].getHeight(), sampling);
+        int coverage = 0;
+        for (BufferedImage layer : layers) {
+            canvas.draw(layer);
+            coverage = canvas.coverage();
+        }
+        return coverage;
+    }
+
+    /**
+     * Opaque footprint of a scene, transparent elsewhere, as decoded from a png tile.
+     */
+    static BufferedImage scene(int size, Random random) {
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+        g.fillPolygon(new int[]{random.nextInt(size), random.nextInt(size), random.nextInt(size), random.nextInt(size)},
+                new int[]{random.nextInt(size), random.nextInt(size), random.nextInt(size), random.nextInt(size)}, 4);
+        g.dispose();
+        return img;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.rest.plugins.eo;
+
+import io.arlas.server.utils.ImageUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+public class RasterCanvasTest {
+    private static final int SAMPLING = 10;
+    private static final int LAYERS = 8;
+    private static final int[] TYPES = {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_ARGB_PRE, BufferedImage.TYPE_INT_RGB};
+
+    @Test
+    public void testCompositeMatchesGraphics() {
+        Random random = new Random(42);
+        for (int size : new int[]{256, 512}) {
+            for (int stack = 0; stack < 10; stack++) {
+                RasterCanvas canvas = new RasterCanvas(size, size, SAMPLING);
+                BufferedImage reference = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+                for (int l = 0; l < LAYERS / 2; l++) {
+                    BufferedImage layer = layer(TYPES[random.nextInt(TYPES.length)], random.nextBoolean() ? size : size * 3 / 4, size, random);
+                    canvas.draw(layer);
+                    Graphics g = reference.getGraphics();
+                    g.drawImage(layer, 0, 0, null);
+                    g.dispose();
+                    Assert.assertEquals(ImageUtil.coverage(reference, SAMPLING), canvas.coverage());
+                    assertSameImage(reference, canvas.getImage());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOpaqueLayerCoversTheCanvas() {
+        Random random = new Random(42);
+        RasterCanvas canvas = new RasterCanvas(256, 256, SAMPLING);
+        canvas.draw(layer(BufferedImage.TYPE_INT_ARGB, 256, 256, random));
+        Assert.assertFalse(canvas.isOpaque());
+        canvas.draw(layer(BufferedImage.TYPE_INT_RGB, 256, 256, random));
+        Assert.assertTrue(canvas.isOpaque());
+        Assert.assertEquals(ImageUtil.coverage(canvas.getImage(), SAMPLING), canvas.coverage());
+    }
+
+    @Test
+    public void testStackingScenesMatchesGraphics() {
+        for (int sampling : new int[]{1, SAMPLING}) {
+            for (int size : new int[]{256, 512}) {
+                Random random = new Random(42);
+                for (int stack = 0; stack < 10; stack++) {
+                    BufferedImage[] layers = new BufferedImage[LAYERS];
+                    for (int i = 0; i < LAYERS; i++) {
+                        layers[i] = RasterCanvasBenchmark.scene(size, random);
+                    }
+                    Assert.assertEquals(RasterCanvasBenchmark.stackWithGraphics(layers, sampling), RasterCanvasBenchmark.stackWithCanvas(layers, sampling));
+                }
+            }
+        }
+    }
+
+    private static BufferedImage layer(int type, int width, int height, Random random) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        Graphics2D g = img.createGraphics();
+        for (int i = 0; i < 5; i++) {
+            int alpha = type == BufferedImage.TYPE_INT_RGB ? 255 : random.nextInt(256);
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256), alpha));
+            g.fillRect(random.nextInt(width), random.nextInt(height), random.nextInt(width / 2) + 1, random.nextInt(height / 2) + 1);
+        }
+        g.dispose();
+        return img;
+    }
+
+    private static void assertSameImage(BufferedImage expected, BufferedImage actual) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int e = expected.getRGB(x, y);
+                int a = actual.getRGB(x, y);
+                Assert.assertEquals("alpha at " + x + "," + y, (e >>> 24) == 0, (a >>> 24) == 0);
+                if ((e >>> 24) != 0) {
+                    // java2d blends premultiplied colors: the more transparent the pixel, the less precise its colors
+                    int tolerance = 3 + 0xFF / (e >>> 24);
+                    for (int shift = 0; shift < 32; shift += 8) {
+                        Assert.assertTrue("channel at " + x + "," + y, Math.abs(((e >>> shift) & 0xFF) - ((a >>> shift) & 0xFF)) <= (shift == 24 ? 3 : tolerance));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.rest.plugins.eo;
+
+import com.codahale.metrics.MetricRegistry;
+import io.arlas.server.model.RasterTileURL;
+import io.arlas.server.utils.Tile;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+public class RasterTileCacheTest {
+    private static final String LAYER_A = "layer_a";
+    private static final String LAYER_B = "layer_b";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MetricRegistry metrics;
+
+    @Before
+    public void setUp() {
+        metrics = new MetricRegistry();
+    }
+
+    @Test
+    public void testSecondGetIsAHit() throws Exception {
+        RasterTileCache cache = new RasterTileCache(1024, 60, metrics);
+        URL url = new URL("http://tiles/layer/2/1/1.png");
+        AtomicInteger loads = new AtomicInteger();
+        byte[] first = cache.get(url, () -> bytes(loads, 10));
+        byte[] second = cache.get(url, () -> bytes(loads, 10));
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, metrics.meter(MetricRegistry.name(RasterTileCache.class, "misses")).getCount());
+        Assert.assertEquals(1, metrics.meter(MetricRegistry.name(RasterTileCache.class, "hits")).getCount());
+        Assert.assertEquals(10, metrics.counter(MetricRegistry.name(RasterTileCache.class, "bytes-saved")).getCount());
+    }
+
+    @Test
+    public void testTilesAreEvictedBeyondTheMaximumSize() throws Exception {
+        int maxBytes = 1000;
+        int tiles = 200;
+        RasterTileCache cache = new RasterTileCache(maxBytes, 60, metrics);
+        AtomicInteger loads = new AtomicInteger();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < tiles; i++) {
+                cache.get(new URL("http://tiles/layer/8/" + i + "/0.png"), () -> bytes(loads, 10));
+            }
+        }
+        // at most maxBytes / 10 tiles are kept: the others are loaded again
+        Assert.assertTrue(loads.get() >= 2 * tiles - maxBytes / 10);
+        // a tile heavier than the whole cache is never kept
+        URL huge = new URL("http://tiles/layer/8/0/1.png");
+        cache.get(huge, () -> bytes(loads, maxBytes + 1));
+        int before = loads.get();
+        cache.get(huge, () -> bytes(loads, maxBytes + 1));
+        Assert.assertEquals(before + 1, loads.get());
+    }
+
+    @Test
+    public void testFailedLoadsAreNotCached() throws Exception {
+        RasterTileCache cache = new RasterTileCache(1024, 60, metrics);
+        URL url = new URL("http://tiles/layer/2/1/1.png");
+        try {
+            cache.get(url, () -> {
+                throw new IOException("unreachable");
+            });
+            Assert.fail("the failure of the loader must be thrown");
+        } catch (IOException e) {
+            Assert.assertEquals("unreachable", e.getMessage());
+        }
+        AtomicInteger loads = new AtomicInteger();
+        cache.get(url, () -> bytes(loads, 10));
+        Assert.assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testCancelledLoadDoesNotFailTheConcurrentCallers() throws Exception {
+        RasterTileCache cache = new RasterTileCache(1024, 60, metrics);
+        URL url = new URL("http://tiles/layer/2/1/1.png");
+        AtomicInteger loads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch loading = new CountDownLatch(1);
+            Future<byte[]> cancelled = executor.submit(() -> cache.get(url, () -> {
+                loading.countDown();
+                new CountDownLatch(1).await(); // until interrupted
+                return new byte[1];
+            }));
+            loading.await();
+            Future<byte[]> concurrent = executor.submit(() -> cache.get(url, () -> bytes(loads, 10)));
+            Thread.sleep(200); // the concurrent caller waits for the load in progress
+            // as done by the stacker once the coverage is reached
+            cancelled.cancel(true);
+            Assert.assertEquals(10, concurrent.get(5, TimeUnit.SECONDS).length);
+            Assert.assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTilesAreKeyedByLayerAndTile() throws Exception {
+        RasterTileCache cache = new RasterTileCache(1024 * 1024, 60, metrics);
+        Tile[] tiles = {new Tile(0, 0, 1), new Tile(1, 0, 1), new Tile(0, 1, 1)};
+        Color[][] colors = {{Color.RED, Color.GREEN, Color.BLUE}, {Color.YELLOW, Color.CYAN, Color.MAGENTA}};
+        String[] layers = {LAYER_A, LAYER_B};
+        for (int l = 0; l < layers.length; l++) {
+            for (int t = 0; t < tiles.length; t++) {
+                writeTile(layers[l], tiles[t], colors[l][t]);
+            }
+        }
+        for (int round = 0; round < 2; round++) {
+            for (int l = 0; l < layers.length; l++) {
+                URLBasedRasterTileProvider provider = provider(layers[l], cache);
+                for (int t = 0; t < tiles.length; t++) {
+                    Optional<RasterTile> tile = provider.getTile(tiles[t]).orElse(Optional.empty());
+                    Assert.assertTrue(tile.isPresent());
+                    Assert.assertEquals(colors[l][t].getRGB(), tile.get().getImg().getRGB(0, 0));
+                }
+            }
+            // the second round is served from the cache
+            deleteTiles();
+        }
+        Assert.assertEquals(layers.length * tiles.length, metrics.meter(MetricRegistry.name(RasterTileCache.class, "misses")).getCount());
+        Assert.assertEquals(layers.length * tiles.length, metrics.meter(MetricRegistry.name(RasterTileCache.class, "hits")).getCount());
+    }
+
+    private URLBasedRasterTileProvider provider(String layer, RasterTileCache cache) throws IOException {
+        String url = folder.getRoot().toURI().toURL() + layer + "/{z}/{x}/{y}.png";
+        return new URLBasedRasterTileProvider(new RasterTileURL(url, 0, 18, false), -1, -1, cache);
+    }
+
+    private void writeTile(String layer, Tile tile, Color color) throws IOException {
+        File file = new File(folder.getRoot(), layer + "/" + tile.getzTile() + "/" + tile.getxTile() + "/" + tile.getyTile() + ".png");
+        Assert.assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        BufferedImage img = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, 16, 16);
+        g.dispose();
+        ImageIO.write(img, "png", file);
+    }
+
+    private void deleteTiles() throws IOException {
+        for (String layer : new String[]{LAYER_A, LAYER_B}) {
+            Path root = new File(folder.getRoot(), layer).toPath();
+            if (Files.exists(root)) {
+                try (Stream<Path> paths = Files.walk(root)) {
+                    paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+                }
+            }
+        }
+    }
+
+    private static byte[] bytes(AtomicInteger loads, int size) {
+        loads.incrementAndGet();
+        return new byte[size];
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.rest.plugins.eo;
+
+import cyclops.control.Try;
+import io.arlas.server.exceptions.ArlasException;
+import io.arlas.server.utils.Tile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.LinkedList;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class RasterTileStackerTest {
+    private static final int SIZE = 256;
+    private static final Color[] COLORS = {Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW};
+
+    private ExecutorService executor;
+    private Tile where;
+
+    @Before
+    public void setUp() throws ArlasException {
+        executor = Executors.newFixedThreadPool(COLORS.length);
+        where = new Tile(1, 1, 2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSequentialStackingIsTimed() throws ArlasException {
+        Queue<TileProvider<RasterTile>> providers = new LinkedList<>();
+        for (Color color : COLORS) {
+            providers.add(tile -> quarter(color));
+        }
+        RasterTileStacker stacker = new RasterTileStacker().stack(providers);
+        Optional<RasterTile> stacked = stacker.on(where).orElse(Optional.empty());
+        Assert.assertTrue(stacked.isPresent());
+        Assert.assertEquals(COLORS[COLORS.length - 1].getRGB(), stacked.get().getImg().getRGB(0, 0));
+        Assert.assertEquals(COLORS.length, stacker.getTimings().getFetched());
+        Assert.assertEquals(COLORS.length, stacker.getTimings().getMerged());
+    }
+
+    @Test
+    public void testPrefetchKeepsTheOrderOfTheProviders() throws ArlasException {
+        Queue<TileProvider<RasterTile>> providers = new LinkedList<>();
+        for (int i = 0; i < COLORS.length; i++) {
+            Color color = COLORS[i];
+            long delay = (COLORS.length - i) * 50L; // the first providers answer last
+            providers.add(tile -> {
+                sleep(delay);
+                return quarter(color);
+            });
+        }
+        RasterTileStacker stacker = new RasterTileStacker().stack(providers).concurrently(executor, COLORS.length);
+        Optional<RasterTile> stacked = stacker.on(where).orElse(Optional.empty());
+        Assert.assertTrue(stacked.isPresent());
+        // a quarter of the tile is covered, below the default 70%: every layer is merged, the last provider on top
+        Assert.assertEquals(COLORS[COLORS.length - 1].getRGB(), stacked.get().getImg().getRGB(0, 0));
+        Assert.assertEquals(0, stacked.get().getImg().getRGB(SIZE - 1, SIZE - 1) >>> 24);
+        Assert.assertEquals(COLORS.length, stacker.getTimings().getMerged());
+        Assert.assertEquals(0, stacker.getTimings().getCancelled());
+    }
+
+    @Test
+    public void testPendingFetchesAreCancelledOnceCovered() throws Exception {
+        int blocked = COLORS.length - 1;
+        CountDownLatch interrupted = new CountDownLatch(blocked);
+        Queue<TileProvider<RasterTile>> providers = new LinkedList<>();
+        providers.add(tile -> full(COLORS[0]));
+        for (int i = 0; i < blocked; i++) {
+            providers.add(tile -> {
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return Try.success(Optional.empty());
+            });
+        }
+        RasterTileStacker stacker = new RasterTileStacker().stack(providers).concurrently(executor, COLORS.length);
+        Optional<RasterTile> stacked = stacker.on(where).orElse(Optional.empty());
+        Assert.assertTrue(stacked.isPresent());
+        Assert.assertEquals(COLORS[0].getRGB(), stacked.get().getImg().getRGB(0, 0));
+        Assert.assertEquals(1, stacker.getTimings().getMerged());
+        Assert.assertEquals(blocked, stacker.getTimings().getCancelled());
+        Assert.assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = ArlasException.class)
+    public void testPrefetchIsAtLeastOne() throws ArlasException {
+        new RasterTileStacker().concurrently(executor, 0);
+    }
+
+    private static Try<Optional<RasterTile>, ArlasException> quarter(Color color) {
+        return image(color, SIZE / 2);
+    }
+
+    private static Try<Optional<RasterTile>, ArlasException> full(Color color) {
+        return image(color, SIZE);
+    }
+
+    private static Try<Optional<RasterTile>, ArlasException> image(Color color, int size) {
+        BufferedImage img = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, size, size);
+        g.dispose();
+        return Try.withCatch(() -> Optional.of(new RasterTile(1, 1, 2, img)), ArlasException.class);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.utils;
+
+/**
+ * Times the iterations of the benchmarks run with <code>main</code>. The value returned by each iteration is summed and
+ * published to a volatile field, so that the JIT cannot drop the work as dead code.
+ * This is no substitute for JMH (no fork, no control of inlining nor of on-stack replacement): the figures are
+ * indicative only, to compare two implementations run in the same conditions.
+ */
+public final class BenchmarkTimer {
+
+    private static volatile long sink;
+
+    private BenchmarkTimer() {
+    }
+
+    @FunctionalInterface
+    public interface Iteration {
+        /**
+         * @return a value depending on the whole work of the iteration
+         */
+        long run(int i) throws Exception;
+    }
+
+    /**
+     * Runs the iterations without timing them, for the JIT to compile the measured path.
+     */
+    public static void warmUp(int iterations, Iteration iteration) throws Exception {
+        time(iterations, iteration);
+    }
+
+    /**
+     * @return the elapsed nanoseconds for running the iterations
+     */
+    public static long time(int iterations, Iteration iteration) throws Exception {
+        long consumed = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            consumed += iteration.run(i);
+        }
+        long elapsed = System.nanoTime() - start;
+        sink += consumed;
+        return elapsed;
+    }
+
+    public static void report(String format, Object... args) {
+        System.out.println(String.format(format, args));
+    }
+}
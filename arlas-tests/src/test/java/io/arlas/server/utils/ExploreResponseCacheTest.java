@@ -0,0 +1,157 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.utils;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.arlas.server.model.CollectionReference;
+import io.arlas.server.model.CollectionReferenceParameters;
+import io.arlas.server.model.enumerations.OperatorEnum;
+import io.arlas.server.model.request.*;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public class ExploreResponseCacheTest {
+
+    private FixedGenerations generations;
+    private CollectionReference collectionReference;
+
+    @Before
+    public void setUp() {
+        generations = new FixedGenerations();
+        CollectionReferenceParameters params = new CollectionReferenceParameters();
+        params.indexName = "geodata";
+        params.typeName = "geodata";
+        collectionReference = new CollectionReference("geodata", params);
+    }
+
+    @Test
+    public void testEquivalentRequestsShareTheirKey() throws Exception {
+        ExploreResponseCache cache = cache(1024 * 1024);
+        byte[] cached = cache.put(key(cache, count("Architect"), customParams("a", "b")), Collections.singletonMap("totalnb", 2));
+        // same filter, same collection parameters with custom params inserted in another order
+        Assert.assertArrayEquals(cached, cache.get(key(cache, count("Architect"), customParams("b", "a"))));
+        Assert.assertNull(cache.get(key(cache, count("Actor"), customParams("a", "b"))));
+        Assert.assertNull(cache.get(cache.key("_aggregate", collectionReference, count("Architect"), false).toCompletableFuture().get()));
+        Assert.assertNull(cache.get(cache.key("_count", collectionReference, count("Architect"), true).toCompletableFuture().get()));
+        Assert.assertNull(cache.get(cache.key("_count", collectionReference, count("Architect"), false, Boolean.TRUE).toCompletableFuture().get()));
+    }
+
+    @Test
+    public void testResponsesAreNotServedOnceTheIndexMoved() throws Exception {
+        ExploreResponseCache cache = cache(1024 * 1024);
+        cache.put(key(cache, count("Architect"), null), Collections.singletonMap("totalnb", 2));
+        Assert.assertNotNull(cache.get(key(cache, count("Architect"), null)));
+        generations.generation = "2:10";
+        Assert.assertNull(cache.get(key(cache, count("Architect"), null)));
+    }
+
+    @Test
+    public void testUnknownGenerationIsNotCached() throws Exception {
+        ExploreResponseCache cache = cache(1024 * 1024);
+        generations.generation = null;
+        Assert.assertNull(key(cache, count("Architect"), null));
+    }
+
+    @Test
+    public void testCollectionCanDisableTheCache() throws Exception {
+        ExploreResponseCache cache = cache(1024 * 1024);
+        Assert.assertNull(key(cache, count("Architect"), Collections.singletonMap(ExploreResponseCache.COLLECTION_TIMEOUT_PARAM, "0")));
+    }
+
+    @Test
+    public void testResponsesAreEvictedBeyondTheMaximumSize() throws Exception {
+        int maxBytes = 64 * 1024;
+        ExploreResponseCache cache = cache(maxBytes);
+        char[] value = new char[1000];
+        Arrays.fill(value, 'a');
+        int responses = 200;
+        for (int i = 0; i < responses; i++) {
+            cache.put(key(cache, count("job" + i), null), Collections.singletonMap("value", new String(value)));
+        }
+        int kept = 0;
+        for (int i = 0; i < responses; i++) {
+            if (cache.get(key(cache, count("job" + i), null)) != null) {
+                kept++;
+            }
+        }
+        // a response weighs its bytes and the overhead of its entry
+        Assert.assertTrue(kept > 0);
+        Assert.assertTrue(kept <= maxBytes / value.length);
+        // a response heavier than the whole cache is never kept
+        char[] huge = new char[maxBytes];
+        Arrays.fill(huge, 'a');
+        cache.put(key(cache, count("huge"), null), Collections.singletonMap("value", new String(huge)));
+        Assert.assertNull(cache.get(key(cache, count("huge"), null)));
+    }
+
+    private ExploreResponseCache cache(long maxBytes) {
+        return new ExploreResponseCache(generations, new ObjectMapper(), maxBytes, 60, new MetricRegistry());
+    }
+
+    private ExploreResponseCache.Key key(ExploreResponseCache cache, MixedRequest request, Map<String, String> customParams) throws Exception {
+        collectionReference.params.customParams = customParams;
+        return cache.key("_count", collectionReference, request, false).toCompletableFuture().get();
+    }
+
+    private static MixedRequest count(String job) {
+        Count count = new Count();
+        count.filter = new Filter();
+        count.filter.f = Collections.singletonList(new MultiValueFilter<>(new Expression("params.job", OperatorEnum.eq, job)));
+        MixedRequest request = new MixedRequest();
+        request.basicRequest = count;
+        request.headerRequest = new Count();
+        return request;
+    }
+
+    private static Map<String, String> customParams(String... keys) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (String key : keys) {
+            params.put(key, "value_" + key);
+        }
+        return params;
+    }
+
+    private static class FixedGenerations extends IndexGenerations {
+        private String generation = "1:10";
+
+        private FixedGenerations() {
+            super(null);
+        }
+
+        @Override
+        public CompletableFuture<String> getAsync(String index) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            if (generation == null) {
+                future.completeExceptionally(new IllegalStateException("no stats for " + index));
+            } else {
+                future.complete(generation);
+            }
+            return future;
+        }
+    }
+}
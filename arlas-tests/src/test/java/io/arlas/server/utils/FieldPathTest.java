@@ -0,0 +1,121 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.utils;
+
+import io.arlas.server.model.CollectionReference;
+import io.arlas.server.model.response.CollectionReferenceDescriptionProperty;
+import io.arlas.server.model.response.ElasticType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class FieldPathTest {
+
+    private static final String[] PATHS = {"id", "params", "params.job", "params.geo.centroid", "params.geo.centroid.lat",
+            "params.missing", "params.missing.level", "missing", "params.nulled", "params.nulled.level", "params.job.level",
+            "params.tags", "params.tags.0", "a..b"};
+
+    @Test
+    public void testResolvesLikeMapExplorerOnNestedMaps() {
+        Map<String, Object> source = source();
+        for (String path : PATHS) {
+            Assert.assertEquals(path, MapExplorer.getObjectFromPath(path, source), FieldPath.compile(path).resolve(source));
+        }
+        Assert.assertEquals("Architect", FieldPath.compile("params.job").resolve(source));
+        Assert.assertEquals(Arrays.asList("a", "b"), FieldPath.compile("params.tags").resolve(source));
+    }
+
+    @Test
+    public void testMissingLevelsResolveToNull() {
+        Map<String, Object> source = source();
+        Assert.assertNull(FieldPath.compile("params.missing.level").resolve(source));
+        Assert.assertNull(FieldPath.compile("params.nulled.level").resolve(source));
+        // a scalar has no level under it
+        Assert.assertNull(FieldPath.compile("params.job.level").resolve(source));
+        Assert.assertNull(FieldPath.compile("params.job").resolve(null));
+    }
+
+    @Test
+    public void testResolvesLikeMapExplorerOnDescriptionProperties() {
+        CollectionReferenceDescriptionProperty root = property(ElasticType.OBJECT, Collections.singletonMap("params",
+                property(ElasticType.OBJECT, Collections.singletonMap("job", property(ElasticType.KEYWORD, null)))));
+        for (String path : new String[]{"params", "params.job", "params.job.level", "params.missing"}) {
+            Assert.assertEquals(path, MapExplorer.getObjectFromPath(path, root), FieldPath.compile(path).resolve(root));
+        }
+        Assert.assertEquals(ElasticType.KEYWORD, ((CollectionReferenceDescriptionProperty) FieldPath.compile("params.job").resolve(root)).type);
+    }
+
+    @Test
+    public void testEmptyPathIsTheRoot() {
+        Map<String, Object> source = source();
+        Assert.assertSame(FieldPath.ROOT, FieldPath.compile(""));
+        Assert.assertSame(FieldPath.ROOT, FieldPath.compile(null));
+        Assert.assertSame(source, FieldPath.ROOT.resolve(source));
+        Assert.assertSame(MapExplorer.getObjectFromPath("", source), FieldPath.ROOT.resolve(source));
+        Assert.assertSame(FieldPath.ROOT, new CollectionReference("geodata").getFieldPath(null));
+    }
+
+    @Test
+    public void testCollectionPathsAreCompiledOnceUpToTheCap() {
+        CollectionReference collectionReference = new CollectionReference("geodata");
+        FieldPath job = collectionReference.getFieldPath("params.job");
+        Assert.assertSame(job, collectionReference.getFieldPath("params.job"));
+        for (int i = 0; i < 2000; i++) {
+            collectionReference.getFieldPath("params.field" + i);
+        }
+        // the paths compiled before the cap are still shared
+        Assert.assertSame(job, collectionReference.getFieldPath("params.job"));
+        // past the cap, the paths are compiled on each call but still resolve
+        FieldPath late = collectionReference.getFieldPath("params.field1999");
+        Assert.assertNotSame(late, collectionReference.getFieldPath("params.field1999"));
+        Map<String, Object> source = new HashMap<>();
+        source.put("params", Collections.singletonMap("field1999", 42));
+        Assert.assertEquals(42, late.resolve(source));
+        Assert.assertEquals("params.field1999", late.getPath());
+    }
+
+    private static Map<String, Object> source() {
+        Map<String, Object> centroid = new HashMap<>();
+        centroid.put("lat", 43.6);
+        centroid.put("lon", 1.44);
+        Map<String, Object> geo = new HashMap<>();
+        geo.put("centroid", centroid);
+        Map<String, Object> params = new HashMap<>();
+        params.put("job", "Architect");
+        params.put("geo", geo);
+        params.put("nulled", null);
+        params.put("tags", Arrays.asList("a", "b"));
+        Map<String, Object> source = new HashMap<>();
+        source.put("id", "ID_1");
+        source.put("params", params);
+        return source;
+    }
+
+    private static CollectionReferenceDescriptionProperty property(ElasticType type, Map<String, CollectionReferenceDescriptionProperty> properties) {
+        CollectionReferenceDescriptionProperty property = new CollectionReferenceDescriptionProperty();
+        property.type = type;
+        property.properties = properties;
+        return property;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.utils;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.geojson.GeoJsonObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compares the time for decoding polygons from the source with a JSON round trip (as done previously), with the direct
+ * converter and with the JTS fast path. Not a test: run it with <code>main</code>, optionally giving the number of polygons.
+ * The figures are indicative only, see {@link BenchmarkTimer}.
+ */
+public class GeoTypeMapperBenchmark {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final ObjectReader reader = mapper.readerFor(GeoJsonObject.class);
+
+    public static void main(String[] args) throws Exception {
+        List<HashMap<String, Object>> sources = polygons(args.length > 0 ? Integer.parseInt(args[0]) : 1000);
+        BenchmarkTimer.Iteration roundTrip = i -> reader.readValue(mapper.writer().writeValueAsString(sources.get(i))).hashCode();
+        BenchmarkTimer.Iteration direct = i -> GeoTypeMapper.getGeoJsonObject(sources.get(i)).hashCode();
+        BenchmarkTimer.Iteration jts = i -> GeoTypeMapper.getJtsGeometry(sources.get(i)).getNumPoints();
+        // warm-up of the JIT for all the paths
+        for (int run = 0; run < 2; run++) {
+            BenchmarkTimer.warmUp(sources.size(), roundTrip);
+            BenchmarkTimer.warmUp(sources.size(), direct);
+            BenchmarkTimer.warmUp(sources.size(), jts);
+        }
+        BenchmarkTimer.report("Polygons of 101 points: JSON round trip %.2f us/hit, direct %.2f us/hit, JTS %.2f us/hit",
+                BenchmarkTimer.time(sources.size(), roundTrip) / 1e3 / sources.size(),
+                BenchmarkTimer.time(sources.size(), direct) / 1e3 / sources.size(),
+                BenchmarkTimer.time(sources.size(), jts) / 1e3 / sources.size());
+    }
+
+    /**
+     * Sources of <code>count</code> polygons of 101 points, spread over the world.
+     */
+    static List<HashMap<String, Object>> polygons(int count) throws IOException {
+        List<HashMap<String, Object>> sources = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder ring = new StringBuilder();
+            for (int p = 0; p < 100; p++) {
+                double angle = 2 * Math.PI * p / 100;
+                ring.append("[").append(i % 170 + Math.cos(angle)).append(",").append(i % 80 + Math.sin(angle)).append("],");
+            }
+            ring.append("[").append(i % 170 + 1.0).append(",").append(i % 80 + 0.0).append("]");
+            sources.add(mapper.readValue("{\"type\":\"Polygon\",\"coordinates\":[[" + ring + "]]}", new TypeReference<HashMap<String, Object>>() {}));
+        }
+        return sources;
+    }
+}
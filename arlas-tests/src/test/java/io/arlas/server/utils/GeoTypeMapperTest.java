@@ -20,17 +20,38 @@
 package io.arlas.server.utils;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.geojson.GeoJsonReader;
 import io.arlas.server.exceptions.ArlasException;
+import org.geojson.GeoJsonObject;
 import org.geojson.Point;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class GeoTypeMapperTest {
 
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final ObjectReader reader = mapper.readerFor(GeoJsonObject.class);
+
+    private static final String[] SHAPES = {
+            "{\"type\":\"Point\",\"coordinates\":[-71.34,41.12]}",
+            "{\"type\":\"MultiPoint\",\"coordinates\":[[-71.34,41.12],[-71.3,41.1,12.5]]}",
+            "{\"type\":\"LineString\",\"coordinates\":[[-71.34,41.12],[-71.3,41.1]]}",
+            "{\"type\":\"MultiLineString\",\"coordinates\":[[[-71.34,41.12],[-71.3,41.1]],[[10,20],[11,21]]]}",
+            "{\"type\":\"Polygon\",\"coordinates\":[[[0,0],[10,0],[10,10],[0,10],[0,0]],[[2,2],[2,4],[4,4],[4,2],[2,2]]]}",
+            "{\"type\":\"MultiPolygon\",\"coordinates\":[[[[0,0],[10,0],[10,10],[0,10],[0,0]]],[[[20,20],[30,20],[30,30],[20,20]]]]}",
+            "{\"type\":\"GeometryCollection\",\"geometries\":[{\"type\":\"Point\",\"coordinates\":[1,2]},{\"type\":\"LineString\",\"coordinates\":[[1,2],[3,4]]}]}"
+    };
+
     @SuppressWarnings({"rawtypes", "unchecked"})
     @Test
     public void testGetGeoJsonObject() throws ArlasException, JsonProcessingException {
@@ -50,4 +71,37 @@ public class GeoTypeMapperTest {
         assertTrue(GeoTypeMapper.getGeoJsonObject(pointMap).equals(refPoint));
     }
 
+    @Test
+    public void testGetGeoJsonShape() throws ArlasException, IOException {
+        for (String shape : SHAPES) {
+            HashMap<String, Object> source = toSource(shape);
+            assertEquals(shape, roundTrip(source), GeoTypeMapper.getGeoJsonObject(source));
+        }
+        HashMap<String, Object> lowerCase = toSource("{\"type\":\"polygon\",\"coordinates\":[[[0,0],[10,0],[10,10],[0,10],[0,0]]]}");
+        assertEquals(roundTrip(toSource(SHAPES[4].replace(",[[2,2],[2,4],[4,4],[4,2],[2,2]]", ""))), GeoTypeMapper.getGeoJsonObject(lowerCase));
+    }
+
+    @Test
+    public void testGetJtsGeometry() throws Exception {
+        GeoJsonReader jtsReader = new GeoJsonReader();
+        for (String shape : SHAPES) {
+            assertTrue(shape, jtsReader.read(shape).equalsExact(GeoTypeMapper.getJtsGeometry(toSource(shape))));
+        }
+        assertTrue(GeoTypeMapper.getJtsGeometry("41.12,-71.34").equalsExact(jtsReader.read(SHAPES[0])));
+    }
+
+    @Test
+    public void testGetGeoJsonPolygons() throws IOException {
+        for (HashMap<String, Object> source : GeoTypeMapperBenchmark.polygons(100)) {
+            assertEquals(roundTrip(source), GeoTypeMapper.getGeoJsonObject(source));
+        }
+    }
+
+    private static HashMap<String, Object> toSource(String json) throws IOException {
+        return mapper.readValue(json, new TypeReference<HashMap<String, Object>>() {});
+    }
+
+    private static GeoJsonObject roundTrip(HashMap<String, Object> source) throws IOException {
+        return reader.readValue(mapper.writer().writeValueAsString(source));
+    }
 }
@@ -0,0 +1,74 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.utils;
+
+import org.geojson.GeoJsonObject;
+import org.geojson.LineString;
+import org.geojson.LngLatAlt;
+import org.geojson.Point;
+import org.geojson.Polygon;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class GeometryReducerTest {
+
+    @Test
+    public void testCoordinatesAreRounded() {
+        GeometryReducer reducer = new GeometryReducer(0, 3);
+        Point point = (Point) reducer.reduce(new Point(1.23456, -2.34567));
+        Assert.assertEquals(1.235, point.getCoordinates().getLongitude(), 0);
+        Assert.assertEquals(-2.346, point.getCoordinates().getLatitude(), 0);
+
+        LineString line = (LineString) reducer.reduce(new LineString(new LngLatAlt(1.23456, 2.34567), new LngLatAlt(1.23461, 2.34571), new LngLatAlt(3, 4)));
+        // the first two positions are merged by the rounding
+        Assert.assertEquals(2, line.getCoordinates().size());
+        Assert.assertEquals(4, reducer.getInputVertices());
+        Assert.assertEquals(3, reducer.getOutputVertices());
+    }
+
+    @Test
+    public void testPolygonIsSimplified() {
+        List<LngLatAlt> ring = new ArrayList<>();
+        for (int i = 0; i <= 100; i++) {
+            // almost straight southern edge
+            ring.add(new LngLatAlt(i / 10.0, (i % 2) * 0.001));
+        }
+        ring.add(new LngLatAlt(10, 10));
+        ring.add(new LngLatAlt(0, 10));
+        ring.add(new LngLatAlt(0, 0));
+        GeometryReducer reducer = new GeometryReducer(GeoTileUtil.getResolution(3), null);
+        GeoJsonObject simplified = reducer.reduce(new Polygon(ring));
+        Assert.assertTrue(simplified instanceof Polygon);
+        Assert.assertEquals(5, ((Polygon) simplified).getExteriorRing().size());
+        Assert.assertEquals(104, reducer.getInputVertices());
+        Assert.assertEquals(5, reducer.getOutputVertices());
+    }
+
+    @Test
+    public void testNothingIsChangedByDefault() {
+        GeometryReducer reducer = new GeometryReducer(0, null);
+        Assert.assertFalse(reducer.isEnabled());
+        Point point = new Point(1.23456, -2.34567);
+        Assert.assertSame(point, reducer.reduce(point));
+        Assert.assertEquals(1.23456, point.getCoordinates().getLongitude(), 0);
+    }
+}
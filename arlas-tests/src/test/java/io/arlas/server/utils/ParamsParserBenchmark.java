@@ -0,0 +1,83 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.utils;
+
+import io.arlas.server.model.request.Aggregation;
+import io.arlas.server.model.request.Filter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures the parsing and checking of the parameters of the requests a dashboard typically sends, with and without
+ * the parsed parameters cache. Not a test: run it with <code>main</code>, optionally giving the number of iterations.
+ * The figures are indicative only, see {@link BenchmarkTimer}.
+ */
+public class ParamsParserBenchmark {
+
+    private static final List<String> F = Arrays.asList(
+            "params.job:eq:Architect;Brewer;Chemist;Coach;Cook",
+            "params.startdate:range:[1009799<1509799];[1609799<2009799]",
+            "params.city:like:Toulouse");
+    private static final List<String> Q = Collections.singletonList("fullname:Alan");
+    private static final List<String> PWITHIN = Collections.singletonList("-10.5,-20.25,30.75,40.125");
+    private static final List<String> GINTERSECT = Collections.singletonList(
+            "POLYGON((-10 -10, 10 -10, 10 10, 0 15, -10 10, -12 0, -10 -10))");
+    private static final String PARTITION_FILTER = "{\"f\":[[{\"field\":\"params.country\",\"op\":\"eq\",\"value\":\"France\"}]]}";
+    private static final List<List<String>> AGGS = Arrays.asList(
+            Collections.singletonList("datehistogram:params.startdate:interval-1day:format-yyyy-MM-dd:collect_field-params.age:collect_fct-avg"),
+            Collections.singletonList("term:params.job:size-20:order-desc:on-count"),
+            Collections.singletonList("geohash:geo_params.centroid:interval-5:fetch_geometry-centroid"),
+            Collections.singletonList("histogram:params.age:interval-10:fetch_hits-3(-params.age,params.job)"));
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        BenchmarkTimer.Iteration parsed = i -> parseAndCheck(false);
+        BenchmarkTimer.Iteration cached = i -> parseAndCheck(true);
+        // warm-up of the JIT for both paths
+        BenchmarkTimer.warmUp(iterations / 10, parsed);
+        BenchmarkTimer.warmUp(iterations / 10, cached);
+        report("parse + check", BenchmarkTimer.time(iterations, parsed), iterations);
+        report("cached parse + check", BenchmarkTimer.time(iterations, cached), iterations);
+    }
+
+    private static long parseAndCheck(boolean cached) throws Exception {
+        if (!cached) {
+            ParamsParser.clearParsedParams();
+        }
+        long consumed = 0;
+        Filter filter = ParamsParser.getFilter(F, Q, PWITHIN, null, GINTERSECT, null, null, null, null);
+        CheckParams.checkFilter(filter);
+        Filter partitionFilter = ParamsParser.getFilter(PARTITION_FILTER);
+        CheckParams.checkFilter(partitionFilter);
+        for (List<String> agg : AGGS) {
+            for (Aggregation aggregation : ParamsParser.getAggregations(agg)) {
+                CheckParams.checkAggregationModel(aggregation);
+                consumed += aggregation.type.ordinal();
+            }
+        }
+        return consumed + filter.f.size() + partitionFilter.f.size();
+    }
+
+    private static void report(String name, long elapsedNanos, int iterations) {
+        BenchmarkTimer.report("%-22s %8.2f µs per dashboard request set", name, elapsedNanos / 1000.0 / iterations);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.arlas.server.utils;
+
+import io.arlas.server.exceptions.ArlasException;
+import io.arlas.server.model.request.Aggregation;
+import io.arlas.server.model.request.Filter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ParamsParserTest {
+
+    private static final List<String> F = Arrays.asList("params.job:eq:Architect;Brewer", "params.startdate:range:[0<1009799]");
+    private static final List<String> PWITHIN = Collections.singletonList("-10,-10,10,10");
+    private static final List<String> AGG = Arrays.asList("datehistogram:params.startdate:interval-1day:format-yyyy-MM-dd", "term:params.job:size-10");
+
+    @Test
+    public void testParsedFiltersAreNotShared() throws ArlasException {
+        Filter first = ParamsParser.getFilter(F, null, PWITHIN, null, null, null, null, null, null);
+        first.f.clear();
+        first.pwithin = null;
+        Filter second = ParamsParser.getFilter(F, null, PWITHIN, null, null, null, null, null, null);
+        Assert.assertEquals(2, second.f.size());
+        Assert.assertEquals(2, second.f.get(0).size());
+        Assert.assertEquals("params.job", second.f.get(0).get(0).field);
+        Assert.assertEquals("-10,-10,10,10", second.pwithin.get(0).get(0));
+        Assert.assertNull(second.q);
+    }
+
+    @Test
+    public void testDeserializedFiltersAreNotShared() throws ArlasException {
+        String partitionFilter = "{\"f\":[[{\"field\":\"params.job\",\"op\":\"eq\",\"value\":\"Architect\"}]]}";
+        Filter first = ParamsParser.getFilter(partitionFilter);
+        first.f.clear();
+        Filter second = ParamsParser.getFilter(partitionFilter);
+        Assert.assertEquals(1, second.f.size());
+        Assert.assertEquals("Architect", second.f.get(0).get(0).value);
+    }
+
+    @Test
+    public void testParsedAggregationsAreNotShared() throws ArlasException {
+        List<Aggregation> first = ParamsParser.getAggregations(AGG);
+        first.get(0).field = null;
+        first.get(0).interval.value = 2;
+        List<Aggregation> second = ParamsParser.getAggregations(AGG);
+        Assert.assertEquals(2, second.size());
+        Assert.assertEquals("params.startdate", second.get(0).field);
+        Assert.assertEquals(1, second.get(0).interval.value.intValue());
+        Assert.assertEquals("yyyy-MM-dd", second.get(0).format);
+        Assert.assertEquals("10", second.get(1).size);
+    }
+
+    @Test(expected = ArlasException.class)
+    public void testInvalidParametersAreNotCached() throws ArlasException {
+        try {
+            ParamsParser.getAggregations(Collections.singletonList("unknown:params.job"));
+        } catch (ArlasException e) {
+            // still rejected the second time
+            ParamsParser.getAggregations(Collections.singletonList("unknown:params.job"));
+        }
+    }
+}
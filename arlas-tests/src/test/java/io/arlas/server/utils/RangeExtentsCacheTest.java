@@ -0,0 +1,154 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.utils;
+
+import io.arlas.server.model.CollectionReference;
+import io.arlas.server.model.CollectionReferenceParameters;
+import io.arlas.server.model.enumerations.OperatorEnum;
+import io.arlas.server.model.request.*;
+import io.arlas.server.model.response.RangeResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+public class RangeExtentsCacheTest {
+
+    private FixedGenerations generations;
+    private RangeExtentsCache cache;
+
+    @Before
+    public void setUp() {
+        generations = new FixedGenerations();
+        cache = new RangeExtentsCache(generations, 100);
+    }
+
+    @Test
+    public void testExtentIsServedAsLongAsTheIndexDoesNotMove() throws Exception {
+        cache.put(cache.key(collection("geodata"), "params.startdate", range(null)), extent(1, 10, 5));
+        RangeResponse cached = cache.get(cache.key(collection("geodata"), "params.startdate", range(null)));
+        Assert.assertNotNull(cached);
+        Assert.assertEquals(1d, cached.min);
+        Assert.assertEquals(10d, cached.max);
+        Assert.assertEquals(Long.valueOf(5), cached.totalnb);
+        Assert.assertNull(cache.get(cache.key(collection("geodata"), "params.age", range(null))));
+        generations.generation = "2:10";
+        Assert.assertNull(cache.get(cache.key(collection("geodata"), "params.startdate", range(null))));
+    }
+
+    @Test
+    public void testExtentIsKeyedOnTheCollectionNameAndParams() throws Exception {
+        cache.put(cache.key(collection("geodata"), "params.startdate", range(null)), extent(1, 10, 5));
+        // a collection read again from the arlas index is a new instance with the same parameters
+        Assert.assertNotNull(cache.get(cache.key(collection("geodata"), "params.startdate", range(null))));
+        Assert.assertNull(cache.get(cache.key(collection("other"), "params.startdate", range(null))));
+        CollectionReference filtered = collection("geodata");
+        filtered.params.filter = filter("Actor");
+        Assert.assertNull(cache.get(cache.key(filtered, "params.startdate", range(null))));
+    }
+
+    @Test
+    public void testFilteredRangesAreNotCached() throws Exception {
+        Assert.assertNull(cache.key(collection("geodata"), "params.startdate", range(filter("Actor"))));
+        MixedRequest partitioned = range(null);
+        partitioned.headerRequest.filter = filter("Actor");
+        Assert.assertNull(cache.key(collection("geodata"), "params.startdate", partitioned));
+        Assert.assertFalse(RangeExtentsCache.isExtent(partitioned));
+        Assert.assertTrue(RangeExtentsCache.isExtent(range(new Filter())));
+    }
+
+    @Test
+    public void testUnknownGenerationIsNotCached() throws Exception {
+        generations.generation = null;
+        Assert.assertNull(cache.key(collection("geodata"), "params.startdate", range(null)));
+    }
+
+    @Test
+    public void testAsyncKeyMatchesTheBlockingKey() throws Exception {
+        cache.put(cache.key(collection("geodata"), "params.startdate", range(null)), extent(1, 10, 5));
+        RangeExtentsCache.Key key = cache.keyAsync(collection("geodata"), "params.startdate", range(null)).toCompletableFuture().get();
+        Assert.assertNotNull(cache.get(key));
+        Assert.assertNull(cache.keyAsync(collection("geodata"), "params.startdate", range(filter("Actor"))).toCompletableFuture().get());
+        generations.generation = null;
+        Assert.assertNull(cache.keyAsync(collection("geodata"), "params.startdate", range(null)).toCompletableFuture().get());
+    }
+
+    @Test
+    public void testCachedExtentIsNotChangedByItsReaders() throws Exception {
+        RangeExtentsCache.Key key = cache.key(collection("geodata"), "params.startdate", range(null));
+        RangeResponse extent = extent(1, 10, 5);
+        cache.put(key, extent);
+        extent.max = 20d;
+        cache.get(key).min = 0d;
+        Assert.assertEquals(1d, cache.get(key).min);
+        Assert.assertEquals(10d, cache.get(key).max);
+    }
+
+    private static CollectionReference collection(String name) {
+        CollectionReferenceParameters params = new CollectionReferenceParameters();
+        params.indexName = "geodata";
+        params.typeName = "geodata";
+        return new CollectionReference(name, params);
+    }
+
+    private static MixedRequest range(Filter filter) {
+        RangeRequest rangeRequest = new RangeRequest();
+        rangeRequest.field = "params.startdate";
+        rangeRequest.filter = filter;
+        MixedRequest request = new MixedRequest();
+        request.basicRequest = rangeRequest;
+        request.headerRequest = new RangeRequest();
+        return request;
+    }
+
+    private static Filter filter(String job) {
+        Filter filter = new Filter();
+        filter.f = Collections.singletonList(new MultiValueFilter<>(new Expression("params.job", OperatorEnum.eq, job)));
+        return filter;
+    }
+
+    private static RangeResponse extent(double min, double max, long totalnb) {
+        RangeResponse extent = new RangeResponse();
+        extent.min = min;
+        extent.max = max;
+        extent.totalnb = totalnb;
+        return extent;
+    }
+
+    private static class FixedGenerations extends IndexGenerations {
+        private String generation = "1:10";
+
+        private FixedGenerations() {
+            super(null);
+        }
+
+        @Override
+        public CompletableFuture<String> getAsync(String index) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            if (generation == null) {
+                future.completeExceptionally(new IllegalStateException("no stats for " + index));
+            } else {
+                future.complete(generation);
+            }
+            return future;
+        }
+    }
+}
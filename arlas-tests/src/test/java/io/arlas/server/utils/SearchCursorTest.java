@@ -0,0 +1,55 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.utils;
+
+import io.arlas.server.exceptions.InvalidParameterException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SearchCursorTest {
+
+    @Test
+    public void testSortEndsWithId() {
+        Assert.assertEquals("id", SearchCursor.getSort(null, "id"));
+        Assert.assertEquals("-params.startdate,id", SearchCursor.getSort("-params.startdate", "id"));
+        Assert.assertEquals("params.startdate,-id", SearchCursor.getSort("params.startdate,-id", "id"));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        String cursor = SearchCursor.encode("-params.startdate,id", new Object[]{1263600L, "ID_0_0DI", 12.5});
+        // opaque and url safe
+        Assert.assertTrue(cursor.matches("[A-Za-z0-9_-]+"));
+        Object[] values = SearchCursor.decode(cursor, "-params.startdate,id");
+        Assert.assertEquals(3, values.length);
+        Assert.assertEquals(1263600L, ((Number) values[0]).longValue());
+        Assert.assertEquals("ID_0_0DI", values[1]);
+        Assert.assertEquals(12.5, ((Number) values[2]).doubleValue(), 0);
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testCursorOfAnotherSort() throws Exception {
+        SearchCursor.decode(SearchCursor.encode("params.startdate,id", new Object[]{1L, "a"}), "-params.startdate,id");
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testInvalidCursor() throws Exception {
+        SearchCursor.decode("not a cursor", "id");
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to Gisaïa under one or more contributor
+ * license agreements. See the NOTICE.txt file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Gisaïa licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package io.arlas.server.utils;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import org.geojson.LngLatAlt;
+import org.geojson.Point;
+import org.geojson.Polygon;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class VectorTileEncoderTest {
+
+    private static final BoundingBox WORLD = GeoTileUtil.getBoundingBox(0, 0, 0);
+
+    @Test
+    public void testPointIsQuantizedToTheExtent() throws IOException {
+        VectorTileEncoder encoder = new VectorTileEncoder(WORLD);
+        encoder.addFeature(new Point(0, 0), Collections.singletonMap("count", 3));
+        byte[] tile = encoder.encode("layer");
+        // MoveTo(1) then the zigzag encoded center of the tile
+        Assert.assertEquals(Collections.singletonList(Arrays.asList(9, 4096, 4096)), getGeometries(tile));
+        Assert.assertTrue(new String(tile, "UTF-8").contains("layer"));
+        Assert.assertTrue(new String(tile, "UTF-8").contains("count"));
+    }
+
+    @Test
+    public void testPropertiesAreWrittenAsGiven() throws IOException {
+        VectorTileEncoder encoder = new VectorTileEncoder(WORLD);
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("params.job", "Actor");
+        properties.put("params.tags", Arrays.asList("a", "b"));
+        properties.put("params.weight", null);
+        encoder.addFeature(new Point(0, 0), properties);
+        String tile = new String(encoder.encode("layer"), "UTF-8");
+        Assert.assertTrue(tile.contains("params.job"));
+        Assert.assertTrue(tile.contains("Actor"));
+        // not flattened again: a list is written as json
+        Assert.assertTrue(tile.contains("[\"a\",\"b\"]"));
+        Assert.assertFalse(tile.contains("params.tags_0"));
+        Assert.assertFalse(tile.contains("params.weight"));
+    }
+
+    @Test
+    public void testFeaturesOutOfTheTileAreLeftOut() throws IOException {
+        VectorTileEncoder encoder = new VectorTileEncoder(GeoTileUtil.getBoundingBox(1, 0, 1));
+        encoder.addFeature(new Point(-90, -45), Collections.emptyMap());
+        Assert.assertEquals(0, encoder.encode("layer").length);
+    }
+
+    @Test
+    public void testPolygonIsClippedToTheBufferedTile() throws IOException {
+        VectorTileEncoder encoder = new VectorTileEncoder(GeoTileUtil.getBoundingBox(0, 0, 1));
+        Polygon polygon = new Polygon(Arrays.asList(new LngLatAlt(-170, -80), new LngLatAlt(170, -80),
+                new LngLatAlt(170, 80), new LngLatAlt(-170, 80), new LngLatAlt(-170, -80)));
+        encoder.addFeature(polygon, Collections.emptyMap());
+        List<List<Integer>> geometries = getGeometries(encoder.encode("layer"));
+        Assert.assertEquals(1, geometries.size());
+        List<Integer> commands = geometries.get(0);
+        // MoveTo(1), LineTo(3), ClosePath(1): the clipped ring has 4 vertices
+        Assert.assertEquals(9, (int) commands.get(0));
+        Assert.assertEquals(2 | (3 << 3), (int) commands.get(3));
+        Assert.assertEquals(7 | (1 << 3), (int) commands.get(commands.size() - 1));
+        int x = 0;
+        int y = 0;
+        List<Integer> parameters = new ArrayList<>(commands.subList(1, 3));
+        parameters.addAll(commands.subList(4, 10));
+        for (int i = 0; i < parameters.size(); i += 2) {
+            x += unZigZag(parameters.get(i));
+            y += unZigZag(parameters.get(i + 1));
+            Assert.assertTrue(x >= -64 && x <= 4096 + 64);
+            Assert.assertTrue(y >= -64 && y <= 4096 + 64);
+        }
+    }
+
+    private static int unZigZag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * @return the geometry commands of the features of the first layer of the tile
+     */
+    private static List<List<Integer>> getGeometries(byte[] tile) throws IOException {
+        List<List<Integer>> geometries = new ArrayList<>();
+        CodedInputStream tileInput = CodedInputStream.newInstance(tile);
+        int tag;
+        while ((tag = tileInput.readTag()) != 0) {
+            if (WireFormat.getTagFieldNumber(tag) != 3) {
+                tileInput.skipField(tag);
+                continue;
+            }
+            CodedInputStream layerInput = CodedInputStream.newInstance(tileInput.readByteArray());
+            while ((tag = layerInput.readTag()) != 0) {
+                if (WireFormat.getTagFieldNumber(tag) != 2) {
+                    layerInput.skipField(tag);
+                    continue;
+                }
+                CodedInputStream featureInput = CodedInputStream.newInstance(layerInput.readByteArray());
+                while ((tag = featureInput.readTag()) != 0) {
+                    if (WireFormat.getTagFieldNumber(tag) != 4) {
+                        featureInput.skipField(tag);
+                        continue;
+                    }
+                    List<Integer> commands = new ArrayList<>();
+                    CodedInputStream geometryInput = CodedInputStream.newInstance(featureInput.readByteArray());
+                    while (!geometryInput.isAtEnd()) {
+                        commands.add(geometryInput.readUInt32());
+                    }
+                    geometries.add(commands);
+                }
+            }
+            return geometries;
+        }
+        return geometries;
+    }
+}
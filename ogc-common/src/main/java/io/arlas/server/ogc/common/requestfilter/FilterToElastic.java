@@ -46,6 +46,7 @@ import io.arlas.server.model.response.TimestampType;
 import io.arlas.server.ogc.common.model.Service;
 import io.arlas.server.ogc.common.utils.OGCCheckParam;
 import io.arlas.server.ogc.common.utils.XmlUtils;
+import io.arlas.server.utils.FieldTypeRegistry;
 import io.arlas.server.utils.TimestampTypeMapper;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.factory.Hints;
@@ -162,10 +163,13 @@ public class FilterToElastic implements FilterVisitor, ExpressionVisitor {
 
     public CollectionReferenceDescription collectionReference;
 
+    private Map<String, Set<ElasticType>> fieldTypes;
+
     public FilterToElastic(CollectionReferenceDescription collectionReference, Service service) {
         queryBuilder = FilterToElasticHelper.MATCH_ALL;
         nativeQueryBuilder = ImmutableMap.of("match_all", Collections.EMPTY_MAP);
         this.collectionReference = collectionReference;
+        fieldTypes = FieldTypeRegistry.getFieldTypes(collectionReference.properties);
         helper = new FilterToElasticHelper(this);
         String dateFormat = collectionReference.params.customParams.get(CollectionReference.TIMESTAMP_FORMAT);
         dateFormatter = getDateTimeFormatter(dateFormat);
@@ -339,7 +343,7 @@ public class FilterToElastic implements FilterVisitor, ExpressionVisitor {
         att.accept(this, extraData);
         key = (String) XmlUtils.retrievePointPath((String) field);
         String[] pathElements = getPathElements(key);
-        if(isPathDate(pathElements,collectionReference.properties)){updateDateFormatter(key);}
+        if(isPathDate(pathElements)){updateDateFormatter(key);}
         if (isFilterQueryableADate(literal)) {
             List<OGCExceptionMessage> ogcExceptionMessages = new ArrayList<>();
             ogcExceptionMessages.add(new OGCExceptionMessage(OGCExceptionCode.OPERATION_PROCESSING_FAILED, "Invalid Filter", "filter"));
@@ -587,7 +591,7 @@ public class FilterToElastic implements FilterVisitor, ExpressionVisitor {
             right.accept(this, null);
             key = (String) XmlUtils.retrievePointPath((String) field);
             String[] pathElements = getPathElements(key);
-            if(isPathDate(pathElements,collectionReference.properties)){updateDateFormatter(key);}
+            if(isPathDate(pathElements)){updateDateFormatter(key);}
             left.accept(this, leftContext);
             if (service == Service.CSW) {
                 checkInspireRequirements(key, field.toString());
@@ -1074,10 +1078,10 @@ public class FilterToElastic implements FilterVisitor, ExpressionVisitor {
         boolean isDate = false;
         if(((String) field).split(":").length>1){
             String[] pathElements = ((String) field).split(":")[1].split(ArlasServerConfiguration.FLATTEN_CHAR);
-            isDate = isPathDate(pathElements,collectionReference.properties);
+            isDate = isPathDate(pathElements);
         }else if(((String) field).split(":").length==1){
             String[] pathElements = ((String) field).split(ArlasServerConfiguration.FLATTEN_CHAR);
-            isDate = isPathDate(pathElements,collectionReference.properties);
+            isDate = isPathDate(pathElements);
         }
         field = literal;
         if(isDate && !Date.class.isAssignableFrom(literal.getClass())){
@@ -1351,6 +1355,14 @@ public class FilterToElastic implements FilterVisitor, ExpressionVisitor {
         return  "";
     }
 
+    private boolean isPathDate(String[] pathElements) {
+        Set<ElasticType> types = fieldTypes.get(String.join(".", pathElements));
+        if (types != null) {
+            return types.contains(ElasticType.DATE);
+        }
+        return isPathDate(pathElements, collectionReference.properties);
+    }
+
     public static boolean isPathDate(String[] pathElements ,Map<String, CollectionReferenceDescriptionProperty> properties){
         for (String key : pathElements) {
             CollectionReferenceDescriptionProperty property = properties.get(key);
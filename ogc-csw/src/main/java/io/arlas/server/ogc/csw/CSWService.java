@@ -22,11 +22,11 @@ package io.arlas.server.ogc.csw;
 import io.arlas.server.app.ArlasServerConfiguration;
 import io.arlas.server.app.InspireConfiguration;
 import io.arlas.server.app.OGCConfiguration;
-import io.arlas.server.dao.ElasticCollectionReferenceDaoImpl;
 import io.arlas.server.exceptions.ArlasException;
 import io.arlas.server.model.*;
 import io.arlas.server.ogc.common.dao.ElasticOGCCollectionReferenceDaoImp;
 import io.arlas.server.ogc.common.model.Service;
+import io.arlas.server.services.ExploreServices;
 import org.elasticsearch.client.Client;
 
 import java.util.List;
@@ -40,10 +40,10 @@ public class CSWService extends CSWRESTService {
     private static final String META_COLLECTION_CENTROID_PATH = "dublin_core_element_name.coverage_centroid";
     private static final String META_COLLECTION_TIMESTAMP_PATH = "dublin_core_element_name.date";
 
-    public CSWService(Client client, CSWHandler cswHandler, ArlasServerConfiguration configuration) throws ArlasException {
+    public CSWService(ExploreServices exploreServices, CSWHandler cswHandler, ArlasServerConfiguration configuration) throws ArlasException {
         super(cswHandler);
-        this.client = client;
-        this.dao = new ElasticCollectionReferenceDaoImpl(client, configuration.arlasindex, configuration.arlascachesize, configuration.arlascachetimeout);
+        this.client = exploreServices.getClient();
+        this.dao = exploreServices.getDaoCollectionReference();
         initMetaCollection(configuration.arlasindex, configuration.ogcConfiguration, configuration.inspireConfiguration);
         this.ogcDao = new ElasticOGCCollectionReferenceDaoImp(client, configuration.arlasindex, Service.CSW);
     }
@@ -20,7 +20,6 @@
 package io.arlas.server.ogc.wfs;
 
 import io.arlas.server.app.ArlasServerConfiguration;
-import io.arlas.server.dao.ElasticCollectionReferenceDaoImpl;
 import io.arlas.server.exceptions.ArlasException;
 import io.arlas.server.ogc.wfs.services.ElasticWFSToolServiceImpl;
 import io.arlas.server.services.ExploreServices;
@@ -30,7 +29,7 @@ public class WFSService extends WFSRESTService {
 
     public WFSService(ExploreServices exploreServices, ArlasServerConfiguration configuration, WFSHandler wfsHandler) throws ArlasException {
         super(wfsHandler);
-        this.dao = new ElasticCollectionReferenceDaoImpl(exploreServices.getClient(), configuration.arlasindex, configuration.arlascachesize, configuration.arlascachetimeout);
+        this.dao = exploreServices.getDaoCollectionReference();
         this.wfsToolService = new ElasticWFSToolServiceImpl(exploreServices);
     }
 }
@@ -19,14 +19,12 @@
 package io.arlas.server.ogc.wfs.services;
 
 import io.arlas.server.ogc.common.requestfilter.ElasticFilter;
-import io.arlas.server.core.ElasticAdmin;
 import io.arlas.server.core.FluidSearch;
 import io.arlas.server.exceptions.ArlasException;
 import io.arlas.server.exceptions.InternalServerErrorException;
 import io.arlas.server.exceptions.OGC.OGCException;
 import io.arlas.server.exceptions.OGC.OGCExceptionCode;
 import io.arlas.server.model.CollectionReference;
-import io.arlas.server.model.request.Filter;
 import io.arlas.server.model.response.CollectionReferenceDescription;
 import io.arlas.server.ogc.common.model.Service;
 import io.arlas.server.ogc.common.utils.GeoFormat;
@@ -39,6 +37,7 @@ import net.opengis.wfs._2.MemberPropertyType;
 import net.opengis.wfs._2.ValueCollectionType;
 import org.elasticsearch.common.geo.GeoPoint;
 import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
@@ -53,8 +52,6 @@ import static io.arlas.server.utils.CheckParams.isBboxLatLonInCorrectRanges;
 
 public class ElasticWFSToolServiceImpl implements WFSToolService {
     ExploreServices exploreServices;
-    BoolQueryBuilder wfsQuery = QueryBuilders.boolQuery();
-
 
     public ElasticWFSToolServiceImpl(ExploreServices exploreServices) {
         this.exploreServices = exploreServices;
@@ -62,13 +59,12 @@ public class ElasticWFSToolServiceImpl implements WFSToolService {
 
     @Override
     public CollectionReferenceDescription getCollectionReferenceDescription(CollectionReference collectionReference) throws IOException {
-        ElasticAdmin elasticAdmin = new ElasticAdmin(exploreServices.getClient());
-        return elasticAdmin.describeCollection(collectionReference);
+        return exploreServices.getElasticAdmin().describeCollection(collectionReference);
     }
 
     @Override
     public Object getFeature(String id, String bbox, String constraint, String resourceid, String storedquery_id, String partitionFilter, CollectionReference collectionReference, String[] excludes) throws ArlasException, IOException {
-        buildWFSQuery(WFSRequestType.GetFeature, id, bbox, constraint, resourceid, storedquery_id, partitionFilter, collectionReference);
+        BoolQueryBuilder wfsQuery = buildWFSQuery(WFSRequestType.GetFeature, id, bbox, constraint, resourceid, storedquery_id, partitionFilter, collectionReference);
         SearchHit response;
         try {
             SearchHits hitsGetFeature = exploreServices.getClient()
@@ -93,7 +89,7 @@ public class ElasticWFSToolServiceImpl implements WFSToolService {
 
     @Override
     public List<Object> getFeatures(String id, String bbox, String constraint, String resourceid, String partitionFilter, CollectionReference collectionReference, String[] excludes, Integer startindex, Integer count) throws ArlasException, IOException {
-        buildWFSQuery(null, id, bbox, constraint, resourceid, null, partitionFilter, collectionReference);
+        BoolQueryBuilder wfsQuery = buildWFSQuery(null, id, bbox, constraint, resourceid, null, partitionFilter, collectionReference);
         List<Object> featureList = new ArrayList<>();
         try {
             SearchHits hitsGetFeature = exploreServices
@@ -120,7 +116,7 @@ public class ElasticWFSToolServiceImpl implements WFSToolService {
     @Override
     public ValueCollectionType getPropertyValue (String id, String bbox, String constraint, String resourceid, String storedquery_id,
                                                  String partitionFilter, CollectionReference collectionReference, String include, String[] excludes, Integer startindex, Integer count) throws ArlasException, IOException {
-        buildWFSQuery(WFSRequestType.GetPropertyValue, id, bbox, constraint, resourceid, storedquery_id, partitionFilter, collectionReference);
+        BoolQueryBuilder wfsQuery = buildWFSQuery(WFSRequestType.GetPropertyValue, id, bbox, constraint, resourceid, storedquery_id, partitionFilter, collectionReference);
         ValueCollectionType valueCollectionType = new ValueCollectionType();
         try {
             SearchHits hitsGetPropertyValue = exploreServices.getClient()
@@ -146,26 +142,36 @@ public class ElasticWFSToolServiceImpl implements WFSToolService {
     }
 
 
-    private void buildWFSQuery(WFSRequestType requestType, String id, String bbox, String constraint, String resourceid, String storedquery_id, String partitionFilter, CollectionReference collectionReference) throws ArlasException, IOException{
-        wfsQuery = QueryBuilders.boolQuery();
-        FluidSearch fluidSearch = new FluidSearch(exploreServices.getClient());
-        fluidSearch.setCollectionReference(getCollectionReferenceDescription(collectionReference));
-        addCollectionFilter(fluidSearch, collectionReference);
+    /**
+     * Builds the query of a single WFS request. The query is only reachable from the calling request, so that the service
+     * can be shared by concurrent requests.
+     */
+    private BoolQueryBuilder buildWFSQuery(WFSRequestType requestType, String id, String bbox, String constraint, String resourceid, String storedquery_id, String partitionFilter, CollectionReference collectionReference) throws ArlasException, IOException{
+        BoolQueryBuilder wfsQuery = QueryBuilders.boolQuery();
+        FluidSearch fluidSearch = new FluidSearch(exploreServices.getClient(), exploreServices.getFieldTypeRegistry());
+        CollectionReferenceDescription collectionReferenceDescription = getCollectionReferenceDescription(collectionReference);
+        fluidSearch.setCollectionReference(collectionReferenceDescription);
+        QueryBuilder collectionFilter = exploreServices.getCompiledCollection(collectionReference).getFilter();
+        if (collectionFilter != null) {
+            wfsQuery.filter(collectionFilter);
+        }
+        if (partitionFilter != null) {
+            exploreServices.applyFilter(ParamsParser.getFilter(partitionFilter), fluidSearch);
+        }
+        wfsQuery.filter(fluidSearch.getBoolQueryBuilder());
         if (constraint != null) {
-            wfsQuery.filter(ElasticFilter.filter(constraint, getCollectionReferenceDescription(collectionReference), Service.WFS));
+            wfsQuery.filter(ElasticFilter.filter(constraint, collectionReferenceDescription, Service.WFS));
         } else if (bbox != null) {
-            buildBboxQuery(bbox, collectionReference);
+            buildBboxQuery(wfsQuery, bbox, collectionReference);
         } else if (resourceid != null) {
-            buildRessourceIdQuery(resourceid, collectionReference);
+            buildRessourceIdQuery(wfsQuery, resourceid, collectionReference);
         } else if (storedquery_id != null) {
-            buildStoredQueryIdQuery(id, storedquery_id, requestType, collectionReference);
-        }
-        if (partitionFilter != null) {
-            addPartitionFilter(fluidSearch, partitionFilter);
+            buildStoredQueryIdQuery(wfsQuery, id, storedquery_id, requestType, collectionReference);
         }
+        return wfsQuery;
     }
 
-    private void buildBboxQuery(String bbox, CollectionReference collectionReference) throws OGCException {
+    private void buildBboxQuery(BoolQueryBuilder wfsQuery, String bbox, CollectionReference collectionReference) throws OGCException {
         double[] tlbr = GeoFormat.toDoubles(bbox,Service.WFS);
         if (!(isBboxLatLonInCorrectRanges(tlbr) && tlbr[3] > tlbr[1]) && tlbr[0] != tlbr[2]) {
             throw new OGCException(OGCExceptionCode.INVALID_PARAMETER_VALUE, FluidSearch.INVALID_BBOX, "bbox", Service.WFS);
@@ -173,19 +179,19 @@ public class ElasticWFSToolServiceImpl implements WFSToolService {
         wfsQuery.filter(getBBoxBoolQueryBuilder(bbox, collectionReference.params.centroidPath));
     }
 
-    private void buildRessourceIdQuery(String resourceid,  CollectionReference collectionReference) {
+    private void buildRessourceIdQuery(BoolQueryBuilder wfsQuery, String resourceid,  CollectionReference collectionReference) {
         if (resourceid.contains(",")) {
             BoolQueryBuilder orBoolQueryBuilder = QueryBuilders.boolQuery();
             for (String resourceIdValue : Arrays.asList(resourceid.split(","))) {
                 orBoolQueryBuilder = orBoolQueryBuilder.should(QueryBuilders.matchQuery(collectionReference.params.idPath, resourceIdValue));
             }
-            wfsQuery = wfsQuery.filter(orBoolQueryBuilder);
+            wfsQuery.filter(orBoolQueryBuilder);
         } else {
             wfsQuery.filter(QueryBuilders.matchQuery(collectionReference.params.idPath, resourceid));
         }
     }
 
-    private void buildStoredQueryIdQuery(String id, String storedquery_id, WFSRequestType requestType, CollectionReference collectionReference) throws OGCException {
+    private void buildStoredQueryIdQuery(BoolQueryBuilder wfsQuery, String id, String storedquery_id, WFSRequestType requestType, CollectionReference collectionReference) throws OGCException {
         if (!storedquery_id.equals(WFSConstant.GET_FEATURE_BY_ID_NAME)) {
             throw new OGCException(OGCExceptionCode.INVALID_PARAMETER_VALUE, "StoredQuery " + storedquery_id + " not found", "storedquery_id", Service.WFS);
         }
@@ -198,18 +204,6 @@ public class ElasticWFSToolServiceImpl implements WFSToolService {
         }
     }
 
-    private void addPartitionFilter(FluidSearch fluidSearch, String partitionFilter) throws ArlasException, IOException {
-        Filter headerFilter = ParamsParser.getFilter(partitionFilter);
-        exploreServices.applyFilter(headerFilter, fluidSearch);
-        wfsQuery.filter(fluidSearch.getBoolQueryBuilder());
-    }
-
-    private void addCollectionFilter(FluidSearch fluidSearch, CollectionReference collectionReference) throws ArlasException, IOException {
-        Filter collectionFilter = collectionReference.params.filter;
-        exploreServices.applyFilter(collectionFilter, fluidSearch);
-        wfsQuery.filter(fluidSearch.getBoolQueryBuilder());
-    }
-
     private BoolQueryBuilder getBBoxBoolQueryBuilder(String bbox, String centroidPath) throws OGCException {
         double[] tlbr = GeoFormat.toDoubles(bbox, Service.WFS);
         BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery();